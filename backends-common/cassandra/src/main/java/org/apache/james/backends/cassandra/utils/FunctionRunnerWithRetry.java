@@ -22,7 +22,9 @@ package org.apache.james.backends.cassandra.utils;
 import com.google.common.base.Preconditions;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 public class FunctionRunnerWithRetry {
@@ -54,4 +56,28 @@ public class FunctionRunnerWithRetry {
             .orElseThrow(() -> new LightweightTransactionException(maxRetry))
             .get();
     }
+
+    /**
+     * Non blocking counterpart of {@link #executeAndRetrieveObject(OptionalSupplier)}: the next try is only
+     * issued once the previous one completed. The returned future fails with a {@link LightweightTransactionException}
+     * when no try succeeded.
+     *
+     * Retries are issued from the default executor rather than from the thread completing the previous try, which
+     * might be a driver I/O thread.
+     */
+    public <T> CompletableFuture<T> executeAsyncAndRetrieveObject(Supplier<CompletableFuture<Optional<T>>> functionNotifyingSuccess) {
+        return executeAsyncAndRetrieveObject(functionNotifyingSuccess, 0);
+    }
+
+    private <T> CompletableFuture<T> executeAsyncAndRetrieveObject(Supplier<CompletableFuture<Optional<T>>> functionNotifyingSuccess, int tries) {
+        if (tries >= maxRetry) {
+            CompletableFuture<T> failure = new CompletableFuture<>();
+            failure.completeExceptionally(new LightweightTransactionException(maxRetry));
+            return failure;
+        }
+        return functionNotifyingSuccess.get()
+            .thenComposeAsync(result -> result
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> executeAsyncAndRetrieveObject(functionNotifyingSuccess, tries + 1)));
+    }
 }
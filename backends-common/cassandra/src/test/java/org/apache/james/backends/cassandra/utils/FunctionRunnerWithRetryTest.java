@@ -21,6 +21,10 @@ package org.apache.james.backends.cassandra.utils;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.apache.commons.lang.mutable.MutableInt;
 import org.junit.Test;
 
@@ -80,5 +84,39 @@ public class FunctionRunnerWithRetryTest {
         );
         assertThat(value.getValue()).isEqualTo(MAX_RETRY);
     }
-    
+
+    @Test
+    public void asyncFunctionRunnerShouldWorkIfNotSucceededOnFirstTry() throws Exception {
+        final MutableInt value = new MutableInt(0);
+        int result = new FunctionRunnerWithRetry(MAX_RETRY).executeAsyncAndRetrieveObject(
+            () -> {
+                value.increment();
+                if ((Integer) value.getValue() == MAX_RETRY / 2) {
+                    return CompletableFuture.completedFuture(Optional.of(value.intValue()));
+                }
+                return CompletableFuture.completedFuture(Optional.<Integer>empty());
+            }
+        ).join();
+        assertThat(result).isEqualTo(MAX_RETRY / 2);
+        assertThat(value.getValue()).isEqualTo(MAX_RETRY / 2);
+    }
+
+    @Test
+    public void asyncFunctionRunnerShouldFailIfTransactionCanNotBePerformed() throws Exception {
+        final MutableInt value = new MutableInt(0);
+        CompletableFuture<Integer> result = new FunctionRunnerWithRetry(MAX_RETRY).executeAsyncAndRetrieveObject(
+            () -> {
+                value.increment();
+                return CompletableFuture.completedFuture(Optional.<Integer>empty());
+            }
+        );
+        try {
+            result.join();
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(LightweightTransactionException.class);
+        }
+        assertThat(result.isCompletedExceptionally()).isTrue();
+        assertThat(value.getValue()).isEqualTo(MAX_RETRY);
+    }
+
 }
@@ -39,6 +39,7 @@ import org.apache.james.mailbox.model.MailboxMetaData;
 import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.model.MailboxQuery;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SimpleMailboxACL;
 import org.slf4j.Logger;
@@ -80,6 +81,10 @@ public interface MailboxManager extends RequestAware, MailboxListenerSupport {
 
     enum MailboxCapabilities {
         Annotation,
+        /**
+         * The messages of a {@link MailboxSession} can be read while other operations of this session are running
+         */
+        ConcurrentFetch,
         Move,
         Namespace,
         UserFlag
@@ -241,6 +246,18 @@ public interface MailboxManager extends RequestAware, MailboxListenerSupport {
      */
     Map<MailboxId, Collection<MessageUid>> search(MultimailboxesSearchQuery expression, MailboxSession session) throws MailboxException;
 
+    /**
+     * Searches for messages matching the given query, ordered by the sorts of the query across all mailboxes.
+     * The offset and limit of the query are applied to this global ordering.
+     * 
+     * @param expression
+     *            not null
+     * @param session
+     *            the context for this call, not null
+     * @throws MailboxException
+     */
+    List<MessageUidWithMailboxId> sortedSearch(MultimailboxesSearchQuery expression, MailboxSession session) throws MailboxException;
+
     /**
      * Does the given mailbox exist?
      * 
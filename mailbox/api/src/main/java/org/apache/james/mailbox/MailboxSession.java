@@ -153,6 +153,9 @@ public interface MailboxSession {
     /**
      * Return the stored attributes for this {@link MailboxSession}.
      * 
+     * The map may be accessed by several threads of the session. Compound operations
+     * must synchronize on it.
+     * 
      * @return attributes
      */
     Map<Object, Object> getAttributes();
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 
@@ -37,12 +38,16 @@ public class MultimailboxesSearchQuery {
         private final SearchQuery searchQuery;
         private ImmutableSet.Builder<MailboxId> mailboxIds;
         private ImmutableSet.Builder<MailboxId> notInMailboxIds;
+        private long offset;
+        private Optional<Long> limit;
 
         private Builder(SearchQuery searchQuery) {
             Preconditions.checkNotNull(searchQuery);
             this.searchQuery = searchQuery;
             this.mailboxIds = ImmutableSet.builder();
             this.notInMailboxIds = ImmutableSet.builder();
+            this.offset = 0;
+            this.limit = Optional.absent();
         }
 
         public Builder inMailboxes(Collection<MailboxId> mailboxIds) {
@@ -63,8 +68,26 @@ public class MultimailboxesSearchQuery {
             return notInMailboxes(Arrays.asList(mailboxIds));
         }
 
+        /**
+         * Number of sorted results to skip. Only honored by sorted searches.
+         */
+        public Builder offset(long offset) {
+            Preconditions.checkArgument(offset >= 0, "offset should not be negative");
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * Maximum number of sorted results to return. Only honored by sorted searches.
+         */
+        public Builder limit(long limit) {
+            Preconditions.checkArgument(limit >= 0, "limit should not be negative");
+            this.limit = Optional.of(limit);
+            return this;
+        }
+
         public MultimailboxesSearchQuery build() {
-            return new MultimailboxesSearchQuery(searchQuery, mailboxIds.build(), notInMailboxIds.build());
+            return new MultimailboxesSearchQuery(searchQuery, mailboxIds.build(), notInMailboxIds.build(), offset, limit);
         }
 
     }
@@ -72,12 +95,21 @@ public class MultimailboxesSearchQuery {
     private final SearchQuery searchQuery;
     private final ImmutableSet<MailboxId> inMailboxes;
     private final ImmutableSet<MailboxId> notInMailboxes;
+    private final long offset;
+    private final Optional<Long> limit;
 
     @VisibleForTesting
     MultimailboxesSearchQuery(SearchQuery searchQuery, ImmutableSet<MailboxId> inMailboxes, ImmutableSet<MailboxId> notInMailboxes) {
+        this(searchQuery, inMailboxes, notInMailboxes, 0, Optional.<Long>absent());
+    }
+
+    @VisibleForTesting
+    MultimailboxesSearchQuery(SearchQuery searchQuery, ImmutableSet<MailboxId> inMailboxes, ImmutableSet<MailboxId> notInMailboxes, long offset, Optional<Long> limit) {
         this.searchQuery = searchQuery;
         this.inMailboxes = inMailboxes;
         this.notInMailboxes = notInMailboxes;
+        this.offset = offset;
+        this.limit = limit;
     }
 
     public ImmutableSet<MailboxId> getInMailboxes() {
@@ -91,4 +123,12 @@ public class MultimailboxesSearchQuery {
     public SearchQuery getSearchQuery() {
         return searchQuery;
     }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public Optional<Long> getLimit() {
+        return limit;
+    }
 }
@@ -22,6 +22,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 
 public class MultimailboxesSearchQueryTest {
@@ -92,4 +93,30 @@ public class MultimailboxesSearchQueryTest {
         assertThat(actual).isEqualToComparingFieldByField(expected);
     }
 
+    @Test
+    public void buildShouldBuildWhenOffsetAndLimitDefined() {
+        ImmutableSet<MailboxId> inMailboxes = ImmutableSet.of();
+        ImmutableSet<MailboxId> notInMailboxes = ImmutableSet.of();
+        MultimailboxesSearchQuery expected = new MultimailboxesSearchQuery(EMPTY_QUERY, inMailboxes, notInMailboxes, 10, Optional.of(20L));
+        MultimailboxesSearchQuery actual = MultimailboxesSearchQuery.from(EMPTY_QUERY).offset(10).limit(20).build();
+        assertThat(actual).isEqualToComparingFieldByField(expected);
+    }
+
+    @Test
+    public void buildShouldNotLimitByDefault() {
+        MultimailboxesSearchQuery actual = MultimailboxesSearchQuery.from(EMPTY_QUERY).build();
+        assertThat(actual.getOffset()).isEqualTo(0);
+        assertThat(actual.getLimit()).isEqualTo(Optional.absent());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void offsetShouldThrowWhenNegative() {
+        MultimailboxesSearchQuery.from(EMPTY_QUERY).offset(-1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void limitShouldThrowWhenNegative() {
+        MultimailboxesSearchQuery.from(EMPTY_QUERY).limit(-1);
+    }
+
 }
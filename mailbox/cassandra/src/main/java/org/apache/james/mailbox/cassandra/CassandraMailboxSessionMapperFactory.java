@@ -19,19 +19,27 @@
 
 package org.apache.james.mailbox.cassandra;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 import org.apache.james.backends.cassandra.init.CassandraTypesProvider;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.mail.CassandraAnnotationMapper;
 import org.apache.james.mailbox.cassandra.mail.CassandraAttachmentMapper;
+import org.apache.james.mailbox.cassandra.mail.CassandraFirstUnseenDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMailboxCounterDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMailboxMapper;
+import org.apache.james.mailbox.cassandra.mail.CassandraMailboxRecentsDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageIdDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageIdMapper;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageIdToImapUidDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageMapper;
+import org.apache.james.mailbox.cassandra.mail.CassandraMessageMapperConfiguration;
+import org.apache.james.mailbox.cassandra.mail.CassandraModSeqProvider;
 import org.apache.james.mailbox.cassandra.user.CassandraSubscriptionMapper;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.store.MailboxSessionMapperFactory;
@@ -44,6 +52,7 @@ import org.apache.james.mailbox.store.mail.UidProvider;
 import org.apache.james.mailbox.store.user.SubscriptionMapper;
 
 import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Cassandra implementation of {@link MailboxSessionMapperFactory}
@@ -51,19 +60,24 @@ import com.datastax.driver.core.Session;
  */
 public class CassandraMailboxSessionMapperFactory extends MailboxSessionMapperFactory {
     private static final int DEFAULT_MAX_RETRY = 1000;
+    private static final int BLOCKING_THREADS = 8;
 
     private final Session session;
     private final UidProvider uidProvider;
-    private final ModSeqProvider modSeqProvider;
+    private final CassandraModSeqProvider modSeqProvider;
     private final CassandraTypesProvider typesProvider;
     private final CassandraMessageDAO messageDAO;
     private final CassandraMessageIdDAO messageIdDAO;
     private final CassandraMessageIdToImapUidDAO imapUidDAO;
     private CassandraMailboxCounterDAO mailboxCounterDAO;
+    private final CassandraMailboxRecentsDAO mailboxRecentsDAO;
+    private final CassandraFirstUnseenDAO firstUnseenDAO;
     private int maxRetry;
+    private CassandraMessageMapperConfiguration messageMapperConfiguration;
+    private final ExecutorService blockingExecutor;
 
     @Inject
-    public CassandraMailboxSessionMapperFactory(UidProvider uidProvider, ModSeqProvider modSeqProvider, 
+    public CassandraMailboxSessionMapperFactory(UidProvider uidProvider, CassandraModSeqProvider modSeqProvider, 
             Session session, CassandraTypesProvider typesProvider,
             CassandraMessageDAO messageDAO, CassandraMessageIdDAO messageIdDAO, CassandraMessageIdToImapUidDAO imapUidDAO) {
         this.uidProvider = uidProvider;
@@ -73,24 +87,39 @@ public class CassandraMailboxSessionMapperFactory extends MailboxSessionMapperFa
         this.messageIdDAO = messageIdDAO;
         this.imapUidDAO = imapUidDAO;
         this.mailboxCounterDAO = new CassandraMailboxCounterDAO(session);
+        this.mailboxRecentsDAO = new CassandraMailboxRecentsDAO(session);
+        this.firstUnseenDAO = new CassandraFirstUnseenDAO(session);
         this.maxRetry = DEFAULT_MAX_RETRY;
+        this.messageMapperConfiguration = CassandraMessageMapperConfiguration.DEFAULT;
         this.typesProvider = typesProvider;
+        this.blockingExecutor = Executors.newFixedThreadPool(BLOCKING_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("cassandra-mapper-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        blockingExecutor.shutdownNow();
     }
 
     public void setMaxRetry(int maxRetry) {
         this.maxRetry = maxRetry;
     }
 
+    public void setMessageMapperConfiguration(CassandraMessageMapperConfiguration messageMapperConfiguration) {
+        this.messageMapperConfiguration = messageMapperConfiguration;
+    }
+
     @Override
     public CassandraMessageMapper createMessageMapper(MailboxSession mailboxSession) {
         return new CassandraMessageMapper(uidProvider, modSeqProvider, null, maxRetry, createAttachmentMapper(mailboxSession),
-                messageDAO, messageIdDAO, imapUidDAO, mailboxCounterDAO);
+                messageDAO, messageIdDAO, imapUidDAO, mailboxCounterDAO, mailboxRecentsDAO, firstUnseenDAO, messageMapperConfiguration,
+                blockingExecutor);
     }
 
     @Override
     public MessageIdMapper createMessageIdMapper(MailboxSession mailboxSession) throws MailboxException {
         return new CassandraMessageIdMapper(getMailboxMapper(mailboxSession), getAttachmentMapper(mailboxSession),
-                imapUidDAO, messageIdDAO, messageDAO, mailboxCounterDAO, modSeqProvider, mailboxSession);
+                imapUidDAO, messageIdDAO, messageDAO, mailboxCounterDAO, mailboxRecentsDAO, firstUnseenDAO, modSeqProvider, mailboxSession);
     }
 
     @Override
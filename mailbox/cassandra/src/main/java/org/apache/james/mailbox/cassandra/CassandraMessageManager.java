@@ -19,19 +19,27 @@
 
 package org.apache.james.mailbox.cassandra;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 import javax.mail.Flags;
 
 import org.apache.james.mailbox.MailboxPathLocker;
 import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
 import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
+import org.apache.james.mailbox.cassandra.mail.AsyncMessageMapper;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MessageId;
 import org.apache.james.mailbox.quota.QuotaManager;
 import org.apache.james.mailbox.quota.QuotaRootResolver;
+import org.apache.james.mailbox.store.MailboxMetaData;
 import org.apache.james.mailbox.store.MailboxSessionMapperFactory;
 import org.apache.james.mailbox.store.StoreMessageManager;
 import org.apache.james.mailbox.store.event.MailboxEventDispatcher;
+import org.apache.james.mailbox.store.mail.MessageMapper;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.impl.MessageParser;
 import org.apache.james.mailbox.store.search.MessageSearchIndex;
@@ -42,12 +50,14 @@ import org.apache.james.mailbox.store.search.MessageSearchIndex;
  */
 public class CassandraMessageManager extends StoreMessageManager {
 
+    private final MailboxSessionMapperFactory mapperFactory;
+
     public CassandraMessageManager(MailboxSessionMapperFactory mapperFactory, MessageSearchIndex index, 
             MailboxEventDispatcher dispatcher, MailboxPathLocker locker, Mailbox mailbox, QuotaManager quotaManager, 
             QuotaRootResolver quotaRootResolver, MessageParser messageParser, MessageId.Factory messageIdFactory) throws MailboxException {
         super(mapperFactory, index, dispatcher, locker, mailbox, new UnionMailboxACLResolver(), 
                 new SimpleGroupMembershipResolver(), quotaManager, quotaRootResolver, messageParser, messageIdFactory);
-
+        this.mapperFactory = mapperFactory;
     }
 
     /**
@@ -59,4 +69,38 @@ public class CassandraMessageManager extends StoreMessageManager {
         flags.add(Flags.Flag.USER);
         return flags;
     }
+
+    /**
+     * Counters and first unseen lookups are issued concurrently through the {@link AsyncMessageMapper}, then
+     * awaited once, instead of one blocking request after the other.
+     */
+    @Override
+    public MetaData getMetaData(boolean resetRecent, MailboxSession mailboxSession, MetaData.FetchGroup fetchGroup) throws MailboxException {
+        MessageMapper messageMapper = mapperFactory.getMessageMapper(mailboxSession);
+        if (fetchGroup == MetaData.FetchGroup.NO_COUNT || !(messageMapper instanceof AsyncMessageMapper)) {
+            return super.getMetaData(resetRecent, mailboxSession, fetchGroup);
+        }
+        AsyncMessageMapper asyncMessageMapper = (AsyncMessageMapper) messageMapper;
+        Mailbox mailbox = getMailboxEntity();
+
+        CompletableFuture<Long> messageCount = asyncMessageMapper.countMessagesInMailboxAsync(mailbox);
+        CompletableFuture<Long> unseenCount = CompletableFuture.completedFuture(0L);
+        if (fetchGroup == MetaData.FetchGroup.UNSEEN_COUNT) {
+            unseenCount = asyncMessageMapper.countUnseenMessagesInMailboxAsync(mailbox);
+        }
+        CompletableFuture<Optional<MessageUid>> firstUnseen = CompletableFuture.completedFuture(Optional.empty());
+        if (fetchGroup == MetaData.FetchGroup.FIRST_UNSEEN) {
+            firstUnseen = asyncMessageMapper.findFirstUnseenMessageUidAsync(mailbox);
+        }
+
+        List<MessageUid> recent = recent(resetRecent, mailboxSession);
+        MessageUid uidNext = messageMapper.getLastUid(mailbox)
+            .transform(MessageUid::next)
+            .or(MessageUid.MIN_VALUE);
+        long highestModSeq = messageMapper.getHighestModSeq(mailbox);
+
+        return new MailboxMetaData(recent, getPermanentFlags(mailboxSession), mailbox.getUidValidity(), uidNext, highestModSeq,
+            messageCount.join(), unseenCount.join(), firstUnseen.join().orElse(null),
+            isWriteable(mailboxSession), isModSeqPermanent(mailboxSession), getResolvedMailboxACL(mailboxSession));
+    }
 }
@@ -0,0 +1,53 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MessageId;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.mail.MessageIdMapper;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+
+/**
+ * Non blocking counterpart of {@link MessageIdMapper}.
+ *
+ * Returned futures complete once the underlying Cassandra requests completed, so that callers can compose
+ * them without holding a thread per in-flight request.
+ */
+public interface AsyncMessageIdMapper {
+
+    CompletableFuture<List<MailboxId>> findMailboxesAsync(MessageId messageId);
+
+    CompletableFuture<Void> saveAsync(MailboxMessage mailboxMessage) throws MailboxException;
+
+    CompletableFuture<Void> deleteAsync(MessageId messageId);
+
+    CompletableFuture<Void> deleteAsync(MessageId messageId, List<MailboxId> mailboxIds);
+
+    CompletableFuture<Map<MailboxId, UpdatedFlags>> setFlagsAsync(MessageId messageId, List<MailboxId> mailboxIds, Flags newState, MessageManager.FlagsUpdateMode updateMode);
+}
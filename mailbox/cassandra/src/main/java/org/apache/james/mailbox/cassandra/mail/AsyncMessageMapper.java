@@ -0,0 +1,64 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.FlagsUpdateCalculator;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+
+/**
+ * Non blocking counterpart of {@link MessageMapper}.
+ *
+ * Returned futures complete once the underlying Cassandra requests completed, so that callers can compose
+ * them without holding a thread per in-flight request.
+ *
+ * Methods declaring a {@link MailboxException} may throw it before any request is issued, for instance
+ * when allocating a UID or a ModSeq fails.
+ */
+public interface AsyncMessageMapper {
+
+    CompletableFuture<Long> countMessagesInMailboxAsync(Mailbox mailbox) throws MailboxException;
+
+    CompletableFuture<Long> countUnseenMessagesInMailboxAsync(Mailbox mailbox) throws MailboxException;
+
+    CompletableFuture<List<MessageUid>> findRecentMessageUidsInMailboxAsync(Mailbox mailbox);
+
+    CompletableFuture<Optional<MessageUid>> findFirstUnseenMessageUidAsync(Mailbox mailbox);
+
+    CompletableFuture<MessageMetaData> addAsync(Mailbox mailbox, MailboxMessage message) throws MailboxException;
+
+    CompletableFuture<MessageMetaData> copyAsync(Mailbox mailbox, MailboxMessage original) throws MailboxException;
+
+    CompletableFuture<MessageMetaData> moveAsync(Mailbox mailbox, MailboxMessage original) throws MailboxException;
+
+    CompletableFuture<Void> deleteAsync(Mailbox mailbox, MailboxMessage message);
+
+    CompletableFuture<List<UpdatedFlags>> updateFlagsAsync(Mailbox mailbox, FlagsUpdateCalculator flagsUpdateCalculator, MessageRange set);
+}
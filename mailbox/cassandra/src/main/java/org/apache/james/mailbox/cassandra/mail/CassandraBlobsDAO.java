@@ -0,0 +1,462 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.batch;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
+import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
+import org.apache.james.mailbox.cassandra.mail.utils.ChunkedSharedInputStream;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable.BlobParts;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable.BlobReferences;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Stores content as fixed size chunks so that it never needs to be fully materialized in memory,
+ * neither on write nor on read.
+ */
+public class CassandraBlobsDAO {
+
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+    public static final int DEFAULT_MAX_PARALLEL_CHUNK_WRITES = 8;
+    public static final int MAX_REFERENCE_UPDATE_RETRIES = 10;
+    private static final int SAVE_THREADS = 8;
+
+    private final CassandraAsyncExecutor cassandraAsyncExecutor;
+    private final int chunkSize;
+    private final int maxParallelChunkWrites;
+    private final ExecutorService saveExecutor;
+    private final PreparedStatement insert;
+    private final PreparedStatement insertPart;
+    private final PreparedStatement select;
+    private final PreparedStatement selectPart;
+    private final PreparedStatement delete;
+    private final PreparedStatement deleteParts;
+    private final PreparedStatement selectReferences;
+    private final PreparedStatement insertReferences;
+    private final PreparedStatement addReference;
+    private final PreparedStatement removeReference;
+    private final PreparedStatement markDeleted;
+    private final PreparedStatement unmarkDeleted;
+    private final PreparedStatement deleteReferences;
+
+    @Inject
+    public CassandraBlobsDAO(Session session) {
+        this(session, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_PARALLEL_CHUNK_WRITES);
+    }
+
+    @VisibleForTesting
+    CassandraBlobsDAO(Session session, int chunkSize, int maxParallelChunkWrites) {
+        Preconditions.checkArgument(chunkSize > 0, "'chunkSize' should be strictly positive");
+        Preconditions.checkArgument(maxParallelChunkWrites > 0, "'maxParallelChunkWrites' should be strictly positive");
+        this.cassandraAsyncExecutor = new CassandraAsyncExecutor(session);
+        this.chunkSize = chunkSize;
+        this.maxParallelChunkWrites = maxParallelChunkWrites;
+        this.saveExecutor = Executors.newFixedThreadPool(SAVE_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("cassandra-blobs-%d").setDaemon(true).build());
+        this.insert = prepareInsert(session);
+        this.insertPart = prepareInsertPart(session);
+        this.select = prepareSelect(session);
+        this.selectPart = prepareSelectPart(session);
+        this.delete = prepareDelete(session);
+        this.deleteParts = prepareDeleteParts(session);
+        this.selectReferences = prepareSelectReferences(session);
+        this.insertReferences = prepareInsertReferences(session);
+        this.addReference = prepareAddReference(session);
+        this.removeReference = prepareRemoveReference(session);
+        this.markDeleted = prepareMarkDeleted(session);
+        this.unmarkDeleted = prepareUnmarkDeleted(session);
+        this.deleteReferences = prepareDeleteReferences(session);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        saveExecutor.shutdownNow();
+    }
+
+    private PreparedStatement prepareInsert(Session session) {
+        return session.prepare(insertInto(CassandraBlobTable.TABLE_NAME)
+            .value(CassandraBlobTable.ID, bindMarker(CassandraBlobTable.ID))
+            .value(CassandraBlobTable.SIZE, bindMarker(CassandraBlobTable.SIZE))
+            .value(CassandraBlobTable.CHUNK_SIZE, bindMarker(CassandraBlobTable.CHUNK_SIZE))
+            .value(CassandraBlobTable.CHUNK_COUNT, bindMarker(CassandraBlobTable.CHUNK_COUNT)));
+    }
+
+    private PreparedStatement prepareInsertPart(Session session) {
+        return session.prepare(insertInto(BlobParts.TABLE_NAME)
+            .value(BlobParts.ID, bindMarker(BlobParts.ID))
+            .value(BlobParts.CHUNK_NUMBER, bindMarker(BlobParts.CHUNK_NUMBER))
+            .value(BlobParts.DATA, bindMarker(BlobParts.DATA)));
+    }
+
+    private PreparedStatement prepareSelect(Session session) {
+        return session.prepare(select()
+            .from(CassandraBlobTable.TABLE_NAME)
+            .where(eq(CassandraBlobTable.ID, bindMarker(CassandraBlobTable.ID))));
+    }
+
+    private PreparedStatement prepareSelectPart(Session session) {
+        return session.prepare(select(BlobParts.DATA)
+            .from(BlobParts.TABLE_NAME)
+            .where(eq(BlobParts.ID, bindMarker(BlobParts.ID)))
+            .and(eq(BlobParts.CHUNK_NUMBER, bindMarker(BlobParts.CHUNK_NUMBER))));
+    }
+
+    private PreparedStatement prepareDelete(Session session) {
+        return session.prepare(QueryBuilder.delete()
+            .from(CassandraBlobTable.TABLE_NAME)
+            .where(eq(CassandraBlobTable.ID, bindMarker(CassandraBlobTable.ID))));
+    }
+
+    private PreparedStatement prepareDeleteParts(Session session) {
+        return session.prepare(QueryBuilder.delete()
+            .from(BlobParts.TABLE_NAME)
+            .where(eq(BlobParts.ID, bindMarker(BlobParts.ID))));
+    }
+
+    private PreparedStatement prepareSelectReferences(Session session) {
+        return session.prepare(select(BlobReferences.REFERENCE, BlobReferences.DELETED)
+            .from(BlobReferences.TABLE_NAME)
+            .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+            .limit(1));
+    }
+
+    private PreparedStatement prepareInsertReferences(Session session) {
+        return session.prepare(insertInto(BlobReferences.TABLE_NAME)
+            .value(BlobReferences.ID, bindMarker(BlobReferences.ID))
+            .value(BlobReferences.DELETED, false)
+            .ifNotExists());
+    }
+
+    private PreparedStatement prepareAddReference(Session session) {
+        return session.prepare(batch(
+                update(BlobReferences.TABLE_NAME)
+                    .with(set(BlobReferences.DELETED, false))
+                    .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+                    .onlyIf(eq(BlobReferences.DELETED, false)),
+                insertInto(BlobReferences.TABLE_NAME)
+                    .value(BlobReferences.ID, bindMarker(BlobReferences.ID))
+                    .value(BlobReferences.REFERENCE, bindMarker(BlobReferences.REFERENCE))));
+    }
+
+    private PreparedStatement prepareRemoveReference(Session session) {
+        return session.prepare(QueryBuilder.delete()
+            .from(BlobReferences.TABLE_NAME)
+            .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+            .and(eq(BlobReferences.REFERENCE, bindMarker(BlobReferences.REFERENCE)))
+            .ifExists());
+    }
+
+    private PreparedStatement prepareMarkDeleted(Session session) {
+        return session.prepare(update(BlobReferences.TABLE_NAME)
+            .with(set(BlobReferences.DELETED, true))
+            .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+            .onlyIf(eq(BlobReferences.DELETED, false)));
+    }
+
+    private PreparedStatement prepareUnmarkDeleted(Session session) {
+        return session.prepare(update(BlobReferences.TABLE_NAME)
+            .with(set(BlobReferences.DELETED, false))
+            .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+            .onlyIf(eq(BlobReferences.DELETED, true)));
+    }
+
+    private PreparedStatement prepareDeleteReferences(Session session) {
+        return session.prepare(QueryBuilder.delete()
+            .from(BlobReferences.TABLE_NAME)
+            .where(eq(BlobReferences.ID, bindMarker(BlobReferences.ID)))
+            .onlyIf(eq(BlobReferences.DELETED, true)));
+    }
+
+    /**
+     * Parts are written with at most maxParallelChunkWrites of them in flight, which bounds the memory used.
+     * The blob entry is written last: a blob is only visible once all of its parts are stored.
+     */
+    public CompletableFuture<BlobId> save(InputStream data) throws IOException {
+        return save(BlobId.random(), data);
+    }
+
+    /**
+     * Stores content shared by several owners under its content addressed id: the content is only written when no
+     * blob with that id exists yet.
+     *
+     * Each reference is a row of the blob references partition, which also holds a deleted flag. References are only
+     * added while the flag is not set, in the same lightweight transaction: a reference is thus never added to a blob
+     * being deleted. In that case, the content is stored under a new id, which is returned. The returned future fails
+     * with a {@link LightweightTransactionException} when the reference could not be added because of contention.
+     *
+     * Content is saved from a dedicated executor, as saving blocks until chunk writes complete.
+     */
+    public CompletableFuture<BlobId> saveReferenced(BlobId blobId, UUID reference, Supplier<InputStream> data) {
+        return new FunctionRunnerWithRetry(MAX_REFERENCE_UPDATE_RETRIES)
+            .executeAsyncAndRetrieveObject(() -> tryAddReference(blobId, reference))
+            .thenCompose(added -> {
+                if (added) {
+                    return saveIfMissing(blobId, data);
+                }
+                return saveReferenced(BlobId.random(), reference, data);
+            });
+    }
+
+    /**
+     * Completes with false when the blob is being deleted, and with nothing when the addition should be retried.
+     */
+    private CompletableFuture<Optional<Boolean>> tryAddReference(BlobId blobId, UUID reference) {
+        return cassandraAsyncExecutor.executeReturnApplied(addReference.bind()
+                .setString(BlobReferences.ID, blobId.getId())
+                .setUUID(BlobReferences.REFERENCE, reference))
+            .thenCompose(added -> {
+                if (added) {
+                    return CompletableFuture.completedFuture(Optional.of(true));
+                }
+                return cassandraAsyncExecutor.executeReturnApplied(insertReferences.bind()
+                        .setString(BlobReferences.ID, blobId.getId()))
+                    .thenCompose(inserted -> {
+                        if (inserted) {
+                            return CompletableFuture.completedFuture(Optional.<Boolean>empty());
+                        }
+                        return retrieveReferences(blobId)
+                            .thenApply(row -> row.filter(this::isDeleted).map(any -> false));
+                    });
+            });
+    }
+
+    private CompletableFuture<BlobId> saveIfMissing(BlobId blobId, Supplier<InputStream> data) {
+        return exists(blobId)
+            .thenComposeAsync(exists -> {
+                if (exists) {
+                    return CompletableFuture.completedFuture(blobId);
+                }
+                return saveUnchecked(blobId, data.get());
+            }, saveExecutor);
+    }
+
+    /**
+     * The blob itself is deleted once its last reference is removed. The deleted flag is set before, so that no
+     * reference can be added in the meantime, and is cleared again if a reference was added before it was set.
+     */
+    public CompletableFuture<Void> removeReference(BlobId blobId, UUID reference) {
+        return cassandraAsyncExecutor.executeVoid(removeReference.bind()
+                .setString(BlobReferences.ID, blobId.getId())
+                .setUUID(BlobReferences.REFERENCE, reference))
+            .thenCompose(any -> deleteIfUnreferenced(blobId));
+    }
+
+    private CompletableFuture<Void> deleteIfUnreferenced(BlobId blobId) {
+        return retrieveReferences(blobId)
+            .thenCompose(row -> {
+                if (!row.isPresent() || isReferenced(row.get()) || isDeleted(row.get())) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return cassandraAsyncExecutor.executeReturnApplied(markDeleted.bind()
+                        .setString(BlobReferences.ID, blobId.getId()))
+                    .thenCompose(marked -> {
+                        if (!marked) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return retrieveReferences(blobId)
+                            .thenCompose(markedRow -> {
+                                if (markedRow.map(this::isReferenced).orElse(false)) {
+                                    return cassandraAsyncExecutor.executeVoid(unmarkDeleted.bind()
+                                        .setString(BlobReferences.ID, blobId.getId()));
+                                }
+                                return deleteReferencedBlob(blobId);
+                            });
+                    });
+            });
+    }
+
+    private CompletableFuture<Void> deleteReferencedBlob(BlobId blobId) {
+        return delete(blobId)
+            .thenCompose(any -> cassandraAsyncExecutor.executeVoid(deleteReferences.bind()
+                .setString(BlobReferences.ID, blobId.getId())));
+    }
+
+    /**
+     * Only the first row is read: it holds a reference unless the blob has none left.
+     */
+    private CompletableFuture<Optional<Row>> retrieveReferences(BlobId blobId) {
+        return cassandraAsyncExecutor.executeSingleRow(selectReferences.bind()
+            .setString(BlobReferences.ID, blobId.getId())
+            .setConsistencyLevel(ConsistencyLevel.SERIAL));
+    }
+
+    private boolean isReferenced(Row row) {
+        return !row.isNull(BlobReferences.REFERENCE);
+    }
+
+    private boolean isDeleted(Row row) {
+        return !row.isNull(BlobReferences.DELETED) && row.getBool(BlobReferences.DELETED);
+    }
+
+    private CompletableFuture<Boolean> exists(BlobId blobId) {
+        return cassandraAsyncExecutor.executeSingleRow(select.bind()
+                .setString(CassandraBlobTable.ID, blobId.getId()))
+            .thenApply(Optional::isPresent);
+    }
+
+    private CompletableFuture<BlobId> saveUnchecked(BlobId blobId, InputStream data) {
+        try {
+            return save(blobId, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CompletableFuture<BlobId> save(BlobId blobId, InputStream data) throws IOException {
+        Deque<CompletableFuture<Void>> pendingWrites = new ArrayDeque<>();
+        long size = 0;
+        int chunkCount = 0;
+        byte[] chunk = readChunk(data);
+        while (chunk.length > 0) {
+            if (pendingWrites.size() >= maxParallelChunkWrites) {
+                pendingWrites.poll().join();
+            }
+            pendingWrites.add(savePart(blobId, chunkCount, chunk));
+            size += chunk.length;
+            chunkCount++;
+            chunk = readChunk(data);
+        }
+        long blobSize = size;
+        int blobChunkCount = chunkCount;
+        return CompletableFuture.allOf(pendingWrites.toArray(new CompletableFuture[pendingWrites.size()]))
+            .thenCompose(any -> cassandraAsyncExecutor.executeVoid(insert.bind()
+                .setString(CassandraBlobTable.ID, blobId.getId())
+                .setLong(CassandraBlobTable.SIZE, blobSize)
+                .setInt(CassandraBlobTable.CHUNK_SIZE, chunkSize)
+                .setInt(CassandraBlobTable.CHUNK_COUNT, blobChunkCount)))
+            .thenApply(any -> blobId);
+    }
+
+    private byte[] readChunk(InputStream data) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int read = ByteStreams.read(data, buffer, 0, chunkSize);
+        if (read == chunkSize) {
+            return buffer;
+        }
+        byte[] lastChunk = new byte[read];
+        System.arraycopy(buffer, 0, lastChunk, 0, read);
+        return lastChunk;
+    }
+
+    private CompletableFuture<Void> savePart(BlobId blobId, int chunkNumber, byte[] data) {
+        return cassandraAsyncExecutor.executeVoid(insertPart.bind()
+            .setString(BlobParts.ID, blobId.getId())
+            .setInt(BlobParts.CHUNK_NUMBER, chunkNumber)
+            .setBytes(BlobParts.DATA, ByteBuffer.wrap(data)));
+    }
+
+    /**
+     * Nothing is read until the returned stream is consumed.
+     */
+    public SharedInputStream read(BlobId blobId) {
+        return new ChunkedSharedInputStream(new BlobChunkSource(blobId));
+    }
+
+    public CompletableFuture<Void> delete(BlobId blobId) {
+        return cassandraAsyncExecutor.executeVoid(delete.bind()
+                .setString(CassandraBlobTable.ID, blobId.getId()))
+            .thenCompose(any -> cassandraAsyncExecutor.executeVoid(deleteParts.bind()
+                .setString(BlobParts.ID, blobId.getId())));
+    }
+
+    private class BlobChunkSource implements ChunkedSharedInputStream.ChunkSource {
+        private final BlobId blobId;
+        private final Supplier<Row> blob;
+
+        private BlobChunkSource(BlobId blobId) {
+            this.blobId = blobId;
+            this.blob = Suppliers.memoize(this::retrieveBlob);
+        }
+
+        private Row retrieveBlob() {
+            return cassandraAsyncExecutor.executeSingleRow(select.bind()
+                    .setString(CassandraBlobTable.ID, blobId.getId()))
+                .join()
+                .orElseThrow(() -> new IllegalStateException("Blob " + blobId.getId() + " does not exist"));
+        }
+
+        @Override
+        public long size() {
+            return blob.get().getLong(CassandraBlobTable.SIZE);
+        }
+
+        @Override
+        public int chunkSize() {
+            return blob.get().getInt(CassandraBlobTable.CHUNK_SIZE);
+        }
+
+        @Override
+        public int chunkCount() {
+            return blob.get().getInt(CassandraBlobTable.CHUNK_COUNT);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> fetch(int chunkNumber) {
+            return cassandraAsyncExecutor.executeSingleRow(selectPart.bind()
+                    .setString(BlobParts.ID, blobId.getId())
+                    .setInt(BlobParts.CHUNK_NUMBER, chunkNumber))
+                .thenApply(row -> row.orElseThrow(() -> new IllegalStateException("Missing chunk " + chunkNumber + " for blob " + blobId.getId())))
+                .thenApply(this::toByteArray);
+        }
+
+        private byte[] toByteArray(Row row) {
+            ByteBuffer byteBuffer = row.getBytes(BlobParts.DATA);
+            byte[] data = new byte[byteBuffer.remaining()];
+            byteBuffer.get(data);
+            return data;
+        }
+    }
+}
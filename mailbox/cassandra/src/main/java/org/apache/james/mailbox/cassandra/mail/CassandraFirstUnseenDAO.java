@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Inject;
+
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.table.CassandraFirstUnseenTable;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Projection of the uids of the messages not flagged as seen. Uids are clustered in ascending order,
+ * so that the first unseen message of a mailbox is the first row of its partition.
+ * 
+ * The messages stored before the projection existed are missing from it: a static column marks the mailboxes
+ * whose projection was populated with them.
+ */
+public class CassandraFirstUnseenDAO {
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final CassandraAsyncExecutor cassandraAsyncExecutor;
+    private final PreparedStatement addStatement;
+    private final PreparedStatement deleteStatement;
+    private final PreparedStatement readStatement;
+    private final PreparedStatement markPopulatedStatement;
+    private final PreparedStatement readPopulatedStatement;
+
+    @Inject
+    public CassandraFirstUnseenDAO(Session session) {
+        this.cassandraAsyncExecutor = new CassandraAsyncExecutor(session);
+        this.addStatement = prepareInsertStatement(session);
+        this.deleteStatement = prepareDeleteStatement(session);
+        this.readStatement = prepareReadStatement(session);
+        this.markPopulatedStatement = prepareMarkPopulatedStatement(session);
+        this.readPopulatedStatement = prepareReadPopulatedStatement(session);
+    }
+
+    private PreparedStatement prepareMarkPopulatedStatement(Session session) {
+        return session.prepare(insertInto(CassandraFirstUnseenTable.TABLE_NAME)
+            .value(CassandraFirstUnseenTable.MAILBOX_ID, bindMarker(CassandraFirstUnseenTable.MAILBOX_ID))
+            .value(CassandraFirstUnseenTable.POPULATED, true));
+    }
+
+    private PreparedStatement prepareReadPopulatedStatement(Session session) {
+        return session.prepare(select(CassandraFirstUnseenTable.POPULATED)
+            .from(CassandraFirstUnseenTable.TABLE_NAME)
+            .where(eq(CassandraFirstUnseenTable.MAILBOX_ID, bindMarker(CassandraFirstUnseenTable.MAILBOX_ID)))
+            .limit(1));
+    }
+
+    private PreparedStatement prepareReadStatement(Session session) {
+        return session.prepare(select(CassandraFirstUnseenTable.UID)
+            .from(CassandraFirstUnseenTable.TABLE_NAME)
+            .where(eq(CassandraFirstUnseenTable.MAILBOX_ID, bindMarker(CassandraFirstUnseenTable.MAILBOX_ID)))
+            .limit(1));
+    }
+
+    private PreparedStatement prepareDeleteStatement(Session session) {
+        return session.prepare(delete()
+            .from(CassandraFirstUnseenTable.TABLE_NAME)
+            .where(eq(CassandraFirstUnseenTable.MAILBOX_ID, bindMarker(CassandraFirstUnseenTable.MAILBOX_ID)))
+            .and(eq(CassandraFirstUnseenTable.UID, bindMarker(CassandraFirstUnseenTable.UID))));
+    }
+
+    private PreparedStatement prepareInsertStatement(Session session) {
+        return session.prepare(insertInto(CassandraFirstUnseenTable.TABLE_NAME)
+            .value(CassandraFirstUnseenTable.MAILBOX_ID, bindMarker(CassandraFirstUnseenTable.MAILBOX_ID))
+            .value(CassandraFirstUnseenTable.UID, bindMarker(CassandraFirstUnseenTable.UID)));
+    }
+
+    public CompletableFuture<Void> addUnread(CassandraId cassandraId, MessageUid uid) {
+        return cassandraAsyncExecutor.executeVoid(
+            addStatement.bind()
+                .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid())
+                .setLong(CassandraFirstUnseenTable.UID, uid.asLong()));
+    }
+
+    public CompletableFuture<Void> removeUnread(CassandraId cassandraId, MessageUid uid) {
+        return cassandraAsyncExecutor.executeVoid(deleteStatement.bind()
+            .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid())
+            .setLong(CassandraFirstUnseenTable.UID, uid.asLong()));
+    }
+
+    public CompletableFuture<Void> addUnread(CassandraId cassandraId, Collection<MessageUid> uids) {
+        return executeBatch(cassandraId, uids, addStatement);
+    }
+
+    public CompletableFuture<Void> removeUnread(CassandraId cassandraId, Collection<MessageUid> uids) {
+        return executeBatch(cassandraId, uids, deleteStatement);
+    }
+
+    public CompletableFuture<Void> markPopulated(CassandraId cassandraId) {
+        return cassandraAsyncExecutor.executeVoid(markPopulatedStatement.bind()
+            .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid()));
+    }
+
+    public CompletableFuture<Boolean> isPopulated(CassandraId cassandraId) {
+        return cassandraAsyncExecutor.executeSingleRow(
+            readPopulatedStatement.bind()
+                .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid()))
+            .thenApply(optional -> optional
+                .filter(row -> !row.isNull(CassandraFirstUnseenTable.POPULATED))
+                .map(row -> row.getBool(CassandraFirstUnseenTable.POPULATED))
+                .orElse(false));
+    }
+
+    /**
+     * Each batch targets a single partition: it costs one round-trip and is applied atomically. Batches are kept
+     * under MAX_BATCH_SIZE statements, so that populating a large mailbox does not exceed the batch size limits.
+     */
+    private CompletableFuture<Void> executeBatch(CassandraId cassandraId, Collection<MessageUid> uids, PreparedStatement statement) {
+        return CompletableFuture.allOf(Lists.partition(ImmutableList.copyOf(uids), MAX_BATCH_SIZE)
+            .stream()
+            .map(batchUids -> {
+                BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batchUids.forEach(uid -> batch.add(statement.bind()
+                    .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid())
+                    .setLong(CassandraFirstUnseenTable.UID, uid.asLong())));
+                return cassandraAsyncExecutor.executeVoid(batch);
+            })
+            .toArray(CompletableFuture[]::new));
+    }
+
+    public CompletableFuture<Optional<MessageUid>> retrieveFirstUnread(CassandraId cassandraId) {
+        return cassandraAsyncExecutor.executeSingleRow(
+            readStatement.bind()
+                .setUUID(CassandraFirstUnseenTable.MAILBOX_ID, cassandraId.asUuid()))
+            .thenApply(optional -> optional
+                // A populated mailbox without unseen message only holds the static column
+                .filter(row -> !row.isNull(CassandraFirstUnseenTable.UID))
+                .map(row -> MessageUid.of(row.getLong(CassandraFirstUnseenTable.UID))));
+    }
+}
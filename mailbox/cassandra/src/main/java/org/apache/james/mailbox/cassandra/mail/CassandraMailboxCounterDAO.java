@@ -42,12 +42,15 @@ import com.datastax.driver.core.querybuilder.Assignment;
 
 public class CassandraMailboxCounterDAO {
 
+    private static final String DELTA = "delta";
+
     private final CassandraAsyncExecutor cassandraAsyncExecutor;
     private final PreparedStatement readStatement;
     private final PreparedStatement incrementUnseenCountStatement;
     private final PreparedStatement incrementMessageCountStatement;
     private final PreparedStatement decrementUnseenCountStatement;
     private final PreparedStatement decrementMessageCountStatement;
+    private final PreparedStatement addToUnseenCountStatement;
 
     public CassandraMailboxCounterDAO(Session session) {
         cassandraAsyncExecutor = new CassandraAsyncExecutor(session);
@@ -56,6 +59,7 @@ public class CassandraMailboxCounterDAO {
         incrementUnseenCountStatement = updateMailboxStatement(session, incr(CassandraMailboxCountersTable.UNSEEN));
         decrementMessageCountStatement = updateMailboxStatement(session, decr(CassandraMailboxCountersTable.COUNT));
         decrementUnseenCountStatement = updateMailboxStatement(session, decr(CassandraMailboxCountersTable.UNSEEN));
+        addToUnseenCountStatement = updateMailboxStatement(session, incr(CassandraMailboxCountersTable.UNSEEN, bindMarker(DELTA)));
     }
 
     private PreparedStatement createReadStatement(Session session) {
@@ -102,6 +106,14 @@ public class CassandraMailboxCounterDAO {
         return cassandraAsyncExecutor.executeVoid(bindWithMailbox(mailboxId, incrementUnseenCountStatement));
     }
 
+    public CompletableFuture<Void> addToUnseen(CassandraId mailboxId, long delta) {
+        if (delta == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return cassandraAsyncExecutor.executeVoid(bindWithMailbox(mailboxId, addToUnseenCountStatement)
+            .setLong(DELTA, delta));
+    }
+
     private BoundStatement bindWithMailbox(CassandraId mailboxId, PreparedStatement statement) {
         return statement.bind()
             .setUUID(CassandraMailboxCountersTable.MAILBOX_ID, mailboxId.asUuid());
@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.delete;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.apache.james.backends.cassandra.utils.CassandraUtils;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.table.CassandraMailboxRecentsTable;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Projection of the uids of the messages flagged as recent, clustered by uid inside the mailbox partition.
+ * 
+ * The messages stored before the projection existed are missing from it: a static column marks the mailboxes
+ * whose projection was populated with them.
+ */
+public class CassandraMailboxRecentsDAO {
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final CassandraAsyncExecutor cassandraAsyncExecutor;
+    private final PreparedStatement readStatement;
+    private final PreparedStatement deleteStatement;
+    private final PreparedStatement addStatement;
+    private final PreparedStatement markPopulatedStatement;
+    private final PreparedStatement readPopulatedStatement;
+
+    @Inject
+    public CassandraMailboxRecentsDAO(Session session) {
+        cassandraAsyncExecutor = new CassandraAsyncExecutor(session);
+        readStatement = createReadStatement(session);
+        deleteStatement = createDeleteStatement(session);
+        addStatement = createAddStatement(session);
+        markPopulatedStatement = createMarkPopulatedStatement(session);
+        readPopulatedStatement = createReadPopulatedStatement(session);
+    }
+
+    private PreparedStatement createMarkPopulatedStatement(Session session) {
+        return session.prepare(
+            insertInto(CassandraMailboxRecentsTable.TABLE_NAME)
+                .value(CassandraMailboxRecentsTable.MAILBOX_ID, bindMarker(CassandraMailboxRecentsTable.MAILBOX_ID))
+                .value(CassandraMailboxRecentsTable.POPULATED, true));
+    }
+
+    private PreparedStatement createReadPopulatedStatement(Session session) {
+        return session.prepare(
+            select(CassandraMailboxRecentsTable.POPULATED)
+                .from(CassandraMailboxRecentsTable.TABLE_NAME)
+                .where(eq(CassandraMailboxRecentsTable.MAILBOX_ID, bindMarker(CassandraMailboxRecentsTable.MAILBOX_ID)))
+                .limit(1));
+    }
+
+    private PreparedStatement createReadStatement(Session session) {
+        return session.prepare(
+            select(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID)
+                .from(CassandraMailboxRecentsTable.TABLE_NAME)
+                .where(eq(CassandraMailboxRecentsTable.MAILBOX_ID, bindMarker(CassandraMailboxRecentsTable.MAILBOX_ID))));
+    }
+
+    private PreparedStatement createDeleteStatement(Session session) {
+        return session.prepare(
+            delete()
+                .from(CassandraMailboxRecentsTable.TABLE_NAME)
+                .where(eq(CassandraMailboxRecentsTable.MAILBOX_ID, bindMarker(CassandraMailboxRecentsTable.MAILBOX_ID)))
+                .and(eq(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID, bindMarker(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID))));
+    }
+
+    private PreparedStatement createAddStatement(Session session) {
+        return session.prepare(
+            insertInto(CassandraMailboxRecentsTable.TABLE_NAME)
+                .value(CassandraMailboxRecentsTable.MAILBOX_ID, bindMarker(CassandraMailboxRecentsTable.MAILBOX_ID))
+                .value(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID, bindMarker(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID)));
+    }
+
+    public CompletableFuture<Stream<MessageUid>> getRecentMessageUidsInMailbox(CassandraId mailboxId) {
+        return cassandraAsyncExecutor.execute(readStatement.bind()
+                .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid()))
+            .thenApply(resultSet -> CassandraUtils.convertToStream(resultSet)
+                // A populated mailbox without recent message only holds the static column
+                .filter(row -> !row.isNull(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID))
+                .map(row -> MessageUid.of(row.getLong(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID))));
+    }
+
+    public CompletableFuture<Void> markPopulated(CassandraId mailboxId) {
+        return cassandraAsyncExecutor.executeVoid(markPopulatedStatement.bind()
+            .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid()));
+    }
+
+    public CompletableFuture<Boolean> isPopulated(CassandraId mailboxId) {
+        return cassandraAsyncExecutor.executeSingleRow(readPopulatedStatement.bind()
+                .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid()))
+            .thenApply(optional -> optional
+                .filter(row -> !row.isNull(CassandraMailboxRecentsTable.POPULATED))
+                .map(row -> row.getBool(CassandraMailboxRecentsTable.POPULATED))
+                .orElse(false));
+    }
+
+    public CompletableFuture<Void> removeFromRecent(CassandraId mailboxId, MessageUid messageUid) {
+        return cassandraAsyncExecutor.executeVoid(deleteStatement.bind()
+            .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid())
+            .setLong(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID, messageUid.asLong()));
+    }
+
+    public CompletableFuture<Void> addToRecent(CassandraId mailboxId, MessageUid messageUid) {
+        return cassandraAsyncExecutor.executeVoid(addStatement.bind()
+            .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid())
+            .setLong(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID, messageUid.asLong()));
+    }
+
+    public CompletableFuture<Void> removeFromRecent(CassandraId mailboxId, Collection<MessageUid> messageUids) {
+        return executeBatch(mailboxId, messageUids, deleteStatement);
+    }
+
+    /**
+     * All uids live in the mailbox partition: they are written by unlogged batches of at most MAX_BATCH_SIZE uids.
+     */
+    public CompletableFuture<Void> addToRecent(CassandraId mailboxId, Collection<MessageUid> messageUids) {
+        return executeBatch(mailboxId, messageUids, addStatement);
+    }
+
+    private CompletableFuture<Void> executeBatch(CassandraId mailboxId, Collection<MessageUid> messageUids, PreparedStatement statement) {
+        return CompletableFuture.allOf(Lists.partition(ImmutableList.copyOf(messageUids), MAX_BATCH_SIZE)
+            .stream()
+            .map(batchUids -> {
+                BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batchUids.forEach(messageUid -> batch.add(statement.bind()
+                    .setUUID(CassandraMailboxRecentsTable.MAILBOX_ID, mailboxId.asUuid())
+                    .setLong(CassandraMailboxRecentsTable.RECENT_MESSAGE_UID, messageUid.asLong())));
+                return cassandraAsyncExecutor.executeVoid(batch);
+            })
+            .toArray(CompletableFuture[]::new));
+    }
+}
@@ -27,9 +27,11 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageIds.MESSAGE_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.ATTACHMENTS;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_BLOB_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_CONTENT;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_OCTECTS;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_START_OCTET;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.CONTENT_BLOB_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FIELDS;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FULL_CONTENT_OCTETS;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.HEADERS;
@@ -42,6 +44,7 @@ import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.TEX
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
@@ -52,6 +55,7 @@ import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.mail.Flags;
+import javax.mail.internet.SharedInputStream;
 import javax.mail.util.SharedByteArrayInputStream;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -61,6 +65,7 @@ import org.apache.james.backends.cassandra.utils.CassandraUtils;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.cassandra.CassandraMessageId;
 import org.apache.james.mailbox.cassandra.CassandraMessageId.Factory;
+import org.apache.james.mailbox.cassandra.mail.utils.PrefixedSharedInputStream;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Attachments;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Properties;
 import org.apache.james.mailbox.exception.MailboxException;
@@ -101,16 +106,24 @@ public class CassandraMessageDAO {
     private final CassandraAsyncExecutor cassandraAsyncExecutor;
     private final CassandraTypesProvider typesProvider;
     private final Factory messageIdFactory;
+    private final CassandraBlobsDAO blobsDAO;
     private final PreparedStatement insert;
     private final PreparedStatement delete;
+    private final PreparedStatement selectContentBlobId;
 
     @Inject
-    public CassandraMessageDAO(Session session, CassandraTypesProvider typesProvider, CassandraMessageId.Factory messageIdFactory) {
+    public CassandraMessageDAO(Session session, CassandraTypesProvider typesProvider, CassandraMessageId.Factory messageIdFactory, CassandraBlobsDAO blobsDAO) {
         this.cassandraAsyncExecutor = new CassandraAsyncExecutor(session);
         this.typesProvider = typesProvider;
         this.messageIdFactory = messageIdFactory;
+        this.blobsDAO = blobsDAO;
         this.insert = prepareInsert(session);
         this.delete = prepareDelete(session);
+        this.selectContentBlobId = prepareSelectContentBlobId(session);
+    }
+
+    public CassandraMessageDAO(Session session, CassandraTypesProvider typesProvider, CassandraMessageId.Factory messageIdFactory) {
+        this(session, typesProvider, messageIdFactory, new CassandraBlobsDAO(session));
     }
 
     private PreparedStatement prepareInsert(Session session) {
@@ -120,8 +133,8 @@ public class CassandraMessageDAO {
                 .value(BODY_START_OCTET, bindMarker(BODY_START_OCTET))
                 .value(FULL_CONTENT_OCTETS, bindMarker(FULL_CONTENT_OCTETS))
                 .value(BODY_OCTECTS, bindMarker(BODY_OCTECTS))
-                .value(BODY_CONTENT, bindMarker(BODY_CONTENT))
                 .value(HEADER_CONTENT, bindMarker(HEADER_CONTENT))
+                .value(BODY_BLOB_ID, bindMarker(BODY_BLOB_ID))
                 .value(PROPERTIES, bindMarker(PROPERTIES))
                 .value(TEXTUAL_LINE_COUNT, bindMarker(TEXTUAL_LINE_COUNT))
                 .value(ATTACHMENTS, bindMarker(ATTACHMENTS)));
@@ -133,35 +146,67 @@ public class CassandraMessageDAO {
                 .where(eq(MESSAGE_ID, bindMarker(MESSAGE_ID))));
     }
 
+    private PreparedStatement prepareSelectContentBlobId(Session session) {
+        return session.prepare(select(CONTENT_BLOB_ID, BODY_BLOB_ID)
+                .from(TABLE_NAME)
+                .where(eq(MESSAGE_ID, bindMarker(MESSAGE_ID))));
+    }
+
+    /**
+     * Headers are stored with the message, while the body is stored as a content addressed blob referenced by the
+     * message: messages sharing the same body, like copies of a mail delivered to several recipients, only store
+     * it once.
+     */
     public CompletableFuture<Void> save(MailboxMessage message) throws MailboxException {
         try {
             CassandraMessageId messageId = (CassandraMessageId) message.getMessageId();
-            BoundStatement boundStatement = insert.bind()
-                .setUUID(MESSAGE_ID, messageId.get())
-                .setDate(INTERNAL_DATE, message.getInternalDate())
-                .setInt(BODY_START_OCTET, (int) (message.getFullContentOctets() - message.getBodyOctets()))
-                .setLong(FULL_CONTENT_OCTETS, message.getFullContentOctets())
-                .setLong(BODY_OCTECTS, message.getBodyOctets())
-                .setBytes(BODY_CONTENT, toByteBuffer(message.getBodyContent()))
-                .setBytes(HEADER_CONTENT, toByteBuffer(message.getHeaderContent()))
-                .setList(PROPERTIES, message.getProperties().stream()
-                    .map(x -> typesProvider.getDefinedUserType(PROPERTIES)
-                        .newValue()
-                        .setString(Properties.NAMESPACE, x.getNamespace())
-                        .setString(Properties.NAME, x.getLocalName())
-                        .setString(Properties.VALUE, x.getValue()))
-                    .collect(Collectors.toList()))
-                .setList(ATTACHMENTS, message.getAttachments().stream()
-                    .map(this::toUDT)
-                    .collect(Collectors.toList()));
-
-            return cassandraAsyncExecutor.executeVoid(setTextualLineCount(boundStatement, message.getTextualLineCount()));
-
+            BlobId bodyBlobId = computeBodyBlobId(message);
+            byte[] headerContent = ByteStreams.toByteArray(message.getHeaderContent());
+            return blobsDAO.saveReferenced(bodyBlobId, messageId.get(), () -> getBodyContent(message))
+                .thenCompose(savedBodyBlobId -> saveMessage(message, headerContent, savedBodyBlobId));
         } catch (IOException e) {
             throw new MailboxException("Error saving mail", e);
         }
     }
 
+    private BlobId computeBodyBlobId(MailboxMessage message) throws IOException {
+        try (InputStream bodyContent = message.getBodyContent()) {
+            return BlobId.forContent(bodyContent);
+        }
+    }
+
+    private InputStream getBodyContent(MailboxMessage message) {
+        try {
+            return message.getBodyContent();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CompletableFuture<Void> saveMessage(MailboxMessage message, byte[] headerContent, BlobId bodyBlobId) {
+        CassandraMessageId messageId = (CassandraMessageId) message.getMessageId();
+        BoundStatement boundStatement = insert.bind()
+            .setUUID(MESSAGE_ID, messageId.get())
+            .setDate(INTERNAL_DATE, message.getInternalDate())
+            .setInt(BODY_START_OCTET, (int) (message.getFullContentOctets() - message.getBodyOctets()))
+            .setLong(FULL_CONTENT_OCTETS, message.getFullContentOctets())
+            .setLong(BODY_OCTECTS, message.getBodyOctets())
+            .setBytes(HEADER_CONTENT, ByteBuffer.wrap(headerContent))
+            .setString(BODY_BLOB_ID, bodyBlobId.getId())
+            .setList(PROPERTIES, message.getProperties().stream()
+                .map(x -> typesProvider.getDefinedUserType(PROPERTIES)
+                    .newValue()
+                    .setString(Properties.NAMESPACE, x.getNamespace())
+                    .setString(Properties.NAME, x.getLocalName())
+                    .setString(Properties.VALUE, x.getValue()))
+                .collect(Collectors.toList()))
+            .setList(ATTACHMENTS, message.getAttachments().stream()
+                .map(this::toUDT)
+                .collect(Collectors.toList()));
+
+        return cassandraAsyncExecutor.executeVoid(setTextualLineCount(boundStatement, message.getTextualLineCount()));
+    }
+
     private BoundStatement setTextualLineCount(BoundStatement boundStatement, Long textualLineCount) {
         return Optional.ofNullable(textualLineCount)
                .map(value -> boundStatement.setLong(TEXTUAL_LINE_COUNT, value))
@@ -177,10 +222,6 @@ public class CassandraMessageDAO {
             .setBool(Attachments.IS_INLINE, messageAttachment.isInline());
     }
 
-    private ByteBuffer toByteBuffer(InputStream stream) throws IOException {
-        return ByteBuffer.wrap(ByteStreams.toByteArray(stream));
-    }
-
     public CompletableFuture<Stream<Pair<MessageWithoutAttachment, Stream<MessageAttachmentRepresentation>>>> retrieveMessages(List<ComposedMessageIdWithMetaData> messageIds, FetchType fetchType, Optional<Integer> limit) {
         return retrieveRows(messageIds, fetchType, limit)
                 .thenApply(resultSet -> toMessagesWithAttachmentRepresentation(messageIds, fetchType, resultSet));
@@ -288,11 +329,47 @@ public class CassandraMessageDAO {
     }
 
     public CompletableFuture<Void> delete(CassandraMessageId messageId) {
-        return cassandraAsyncExecutor.executeVoid(delete.bind()
-            .setUUID(MESSAGE_ID, messageId.get()));
+        return cassandraAsyncExecutor.executeSingleRow(selectContentBlobId.bind()
+                .setUUID(MESSAGE_ID, messageId.get()))
+            .thenCompose(row -> cassandraAsyncExecutor.executeVoid(delete.bind()
+                    .setUUID(MESSAGE_ID, messageId.get()))
+                .thenCompose(any -> CompletableFuture.allOf(
+                    row.flatMap(value -> blobId(value, CONTENT_BLOB_ID))
+                        .map(blobsDAO::delete)
+                        .orElse(CompletableFuture.completedFuture(null)),
+                    row.flatMap(value -> blobId(value, BODY_BLOB_ID))
+                        .map(bodyBlobId -> blobsDAO.removeReference(bodyBlobId, messageId.get()))
+                        .orElse(CompletableFuture.completedFuture(null)))));
+    }
+
+    private Optional<BlobId> blobId(Row row, String column) {
+        return Optional.ofNullable(row.getString(column))
+            .map(BlobId::from);
+    }
+
+    private SharedInputStream buildContent(Row row, FetchType fetchType) {
+        if (fetchType == FetchType.Metadata) {
+            return new SharedByteArrayInputStream(new byte[]{});
+        }
+        Optional<BlobId> bodyBlobId = blobId(row, BODY_BLOB_ID);
+        if (bodyBlobId.isPresent()) {
+            return buildBlobContent(row, fetchType, blobsDAO.read(bodyBlobId.get()));
+        }
+        Optional<BlobId> contentBlobId = blobId(row, CONTENT_BLOB_ID);
+        if (contentBlobId.isPresent()) {
+            return blobsDAO.read(contentBlobId.get());
+        }
+        return buildInlinedContent(row, fetchType);
+    }
+
+    private SharedInputStream buildBlobContent(Row row, FetchType fetchType, SharedInputStream body) {
+        if (fetchType == FetchType.Body) {
+            return PrefixedSharedInputStream.skippingPrefix(row.getInt(BODY_START_OCTET), body);
+        }
+        return new PrefixedSharedInputStream(getFieldContent(HEADER_CONTENT, row), body);
     }
 
-    private SharedByteArrayInputStream buildContent(Row row, FetchType fetchType) {
+    private SharedByteArrayInputStream buildInlinedContent(Row row, FetchType fetchType) {
         switch (fetchType) {
             case Full:
                 return new SharedByteArrayInputStream(getFullContent(row));
@@ -442,14 +519,14 @@ public class CassandraMessageDAO {
         private final Date internalDate;
         private final Long size;
         private final Integer boduSize;
-        private final SharedByteArrayInputStream content;
+        private final SharedInputStream content;
         private final Flags flags;
         private final PropertyBuilder propertyBuilder;
         private final MailboxId mailboxId;
         private final MessageUid messageUid;
         private final long modSeq;
 
-        public MessageWithoutAttachment(MessageId messageId, Date internalDate, Long size, Integer boduSize, SharedByteArrayInputStream content,
+        public MessageWithoutAttachment(MessageId messageId, Date internalDate, Long size, Integer boduSize, SharedInputStream content,
                                         Flags flags, PropertyBuilder propertyBuilder, MailboxId mailboxId, MessageUid messageUid, long modSeq) {
             this.messageId = messageId;
             this.internalDate = internalDate;
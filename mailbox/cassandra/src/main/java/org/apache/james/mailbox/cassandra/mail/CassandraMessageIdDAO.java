@@ -42,6 +42,7 @@ import static org.apache.james.mailbox.cassandra.table.Flag.USER;
 import static org.apache.james.mailbox.cassandra.table.Flag.USER_FLAGS;
 import static org.apache.james.mailbox.cassandra.table.MessageIdToImapUid.MOD_SEQ;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
@@ -50,6 +51,7 @@ import javax.inject.Inject;
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
 import org.apache.james.backends.cassandra.utils.CassandraUtils;
 import org.apache.james.mailbox.MessageUid;
@@ -60,11 +62,14 @@ import org.apache.james.mailbox.model.ComposedMessageId;
 import org.apache.james.mailbox.model.ComposedMessageIdWithMetaData;
 import org.apache.james.mailbox.model.MessageRange;
 
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 
 public class CassandraMessageIdDAO {
@@ -188,9 +193,30 @@ public class CassandraMessageIdDAO {
     }
 
     public CompletableFuture<Boolean> updateMetadata(ComposedMessageIdWithMetaData composedMessageIdWithMetaData, long oldModSeq) {
+        return cassandraAsyncExecutor.executeReturnApplied(bindUpdate(composedMessageIdWithMetaData, oldModSeq));
+    }
+
+    /**
+     * Updates are paired with the ModSeq they expect, and must all belong to the same mailbox: they are then applied
+     * by a single conditional batch on the mailbox partition. Nothing is applied if one of the conditions fails.
+     */
+    public CompletableFuture<Boolean> updateMetadata(List<Pair<ComposedMessageIdWithMetaData, Long>> updates) {
+        Preconditions.checkArgument(updates.stream()
+                .map(pair -> pair.getLeft().getComposedMessageId().getMailboxId())
+                .distinct()
+                .count() <= 1, "Batched updates should belong to a single mailbox");
+        if (updates.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        updates.forEach(pair -> batch.add(bindUpdate(pair.getLeft(), pair.getRight())));
+        return cassandraAsyncExecutor.executeReturnApplied(batch);
+    }
+
+    private BoundStatement bindUpdate(ComposedMessageIdWithMetaData composedMessageIdWithMetaData, long oldModSeq) {
         ComposedMessageId composedMessageId = composedMessageIdWithMetaData.getComposedMessageId();
         Flags flags = composedMessageIdWithMetaData.getFlags();
-        return cassandraAsyncExecutor.executeReturnApplied(update.bind()
+        return update.bind()
                 .setLong(MOD_SEQ, composedMessageIdWithMetaData.getModSeq())
                 .setBool(ANSWERED, flags.contains(Flag.ANSWERED))
                 .setBool(DELETED, flags.contains(Flag.DELETED))
@@ -202,7 +228,7 @@ public class CassandraMessageIdDAO {
                 .setSet(USER_FLAGS, ImmutableSet.copyOf(flags.getUserFlags()))
                 .setUUID(MAILBOX_ID, ((CassandraId) composedMessageId.getMailboxId()).asUuid())
                 .setLong(IMAP_UID, composedMessageId.getUid().asLong())
-                .setLong(MOD_SEQ_CONDITION, oldModSeq));
+                .setLong(MOD_SEQ_CONDITION, oldModSeq);
     }
 
     public CompletableFuture<Optional<ComposedMessageIdWithMetaData>> retrieve(CassandraId mailboxId, MessageUid uid) {
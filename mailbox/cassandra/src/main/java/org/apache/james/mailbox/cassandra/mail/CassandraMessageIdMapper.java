@@ -30,11 +30,11 @@ import javax.mail.Flags;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
-import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageManager;
 import org.apache.james.mailbox.cassandra.CassandraId;
 import org.apache.james.mailbox.cassandra.CassandraMessageId;
+import org.apache.james.mailbox.cassandra.mail.utils.CompletableFutureUtil;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.ComposedMessageId;
 import org.apache.james.mailbox.model.ComposedMessageIdWithMetaData;
@@ -58,7 +58,7 @@ import com.github.fge.lambdas.functions.FunctionChainer;
 import com.github.steveash.guavate.Guavate;
 import com.google.common.base.Throwables;
 
-public class CassandraMessageIdMapper implements MessageIdMapper {
+public class CassandraMessageIdMapper implements MessageIdMapper, AsyncMessageIdMapper {
 
     private static final int MAX_RETRY = 1000;
     private static final Logger LOGGER = LoggerFactory.getLogger(CassandraMessageIdMapper.class);
@@ -69,18 +69,23 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
     private final CassandraMessageIdDAO messageIdDAO;
     private final CassandraMessageDAO messageDAO;
     private final CassandraMailboxCounterDAO mailboxCounterDAO;
+    private final CassandraMailboxRecentsDAO mailboxRecentDAO;
+    private final CassandraFirstUnseenDAO firstUnseenDAO;
     private final ModSeqProvider modSeqProvider;
     private final MailboxSession mailboxSession;
 
     public CassandraMessageIdMapper(MailboxMapper mailboxMapper, AttachmentMapper attachmentMapper,
                                     CassandraMessageIdToImapUidDAO imapUidDAO, CassandraMessageIdDAO messageIdDAO, CassandraMessageDAO messageDAO,
-                                    CassandraMailboxCounterDAO cassandraMailboxCounterDAO, ModSeqProvider modSeqProvider, MailboxSession mailboxSession) {
+                                    CassandraMailboxCounterDAO cassandraMailboxCounterDAO, CassandraMailboxRecentsDAO mailboxRecentDAO, CassandraFirstUnseenDAO firstUnseenDAO,
+                                    ModSeqProvider modSeqProvider, MailboxSession mailboxSession) {
         this.mailboxMapper = mailboxMapper;
         this.attachmentMapper = attachmentMapper;
         this.imapUidDAO = imapUidDAO;
         this.messageIdDAO = messageIdDAO;
         this.messageDAO = messageDAO;
         this.mailboxCounterDAO = cassandraMailboxCounterDAO;
+        this.mailboxRecentDAO = mailboxRecentDAO;
+        this.firstUnseenDAO = firstUnseenDAO;
         this.modSeqProvider = modSeqProvider;
         this.mailboxSession = mailboxSession;
     }
@@ -124,14 +129,25 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
 
     @Override
     public List<MailboxId> findMailboxes(MessageId messageId) {
-        return imapUidDAO.retrieve((CassandraMessageId) messageId, Optional.empty()).join()
-            .map(ComposedMessageIdWithMetaData::getComposedMessageId)
-            .map(ComposedMessageId::getMailboxId)
-            .collect(Guavate.toImmutableList());
+        return findMailboxesAsync(messageId).join();
+    }
+
+    @Override
+    public CompletableFuture<List<MailboxId>> findMailboxesAsync(MessageId messageId) {
+        return imapUidDAO.retrieve((CassandraMessageId) messageId, Optional.empty())
+            .thenApply(composedMessageIds -> composedMessageIds
+                .map(ComposedMessageIdWithMetaData::getComposedMessageId)
+                .map(ComposedMessageId::getMailboxId)
+                .collect(Guavate.toImmutableList()));
     }
 
     @Override
     public void save(MailboxMessage mailboxMessage) throws MailboxException {
+        saveAsync(mailboxMessage).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync(MailboxMessage mailboxMessage) throws MailboxException {
         CassandraId mailboxId = (CassandraId) mailboxMessage.getMailboxId();
         mailboxMapper.findMailboxById(mailboxId);
         CassandraMessageId messageId = (CassandraMessageId) mailboxMessage.getMessageId();
@@ -140,14 +156,29 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
             .flags(mailboxMessage.createFlags())
             .modSeq(mailboxMessage.getModSeq())
             .build();
-        messageDAO.save(mailboxMessage)
+        return messageDAO.save(mailboxMessage)
             .thenCompose(voidValue -> CompletableFuture.allOf(
                 imapUidDAO.insert(composedMessageIdWithMetaData),
                 messageIdDAO.insert(composedMessageIdWithMetaData)))
             .thenCompose(voidValue -> CompletableFuture.allOf(
                 mailboxCounterDAO.incrementCount(mailboxId),
-                incrementUnseenOnSave(mailboxId, mailboxMessage.createFlags())))
-            .join();
+                incrementUnseenOnSave(mailboxId, mailboxMessage.createFlags()),
+                addRecentOnSave(mailboxId, mailboxMessage),
+                addUnreadOnSave(mailboxId, mailboxMessage)));
+    }
+
+    private CompletableFuture<Void> addRecentOnSave(CassandraId mailboxId, MailboxMessage message) {
+        if (message.createFlags().contains(Flags.Flag.RECENT)) {
+            return mailboxRecentDAO.addToRecent(mailboxId, message.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> addUnreadOnSave(CassandraId mailboxId, MailboxMessage message) {
+        if (!message.createFlags().contains(Flags.Flag.SEEN)) {
+            return firstUnseenDAO.addUnread(mailboxId, message.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     private CompletableFuture<Void> incrementUnseenOnSave(CassandraId mailboxId, Flags flags) {
@@ -159,12 +190,16 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
 
     @Override
     public void delete(MessageId messageId, List<MailboxId> mailboxIds) {
+        deleteAsync(messageId, mailboxIds).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(MessageId messageId, List<MailboxId> mailboxIds) {
         CassandraMessageId cassandraMessageId = (CassandraMessageId) messageId;
-        mailboxIds.stream()
+        return mailboxIds.stream()
             .map(mailboxId -> retrieveAndDeleteIndices(cassandraMessageId, Optional.of((CassandraId) mailboxId)))
             .reduce((f1, f2) -> CompletableFuture.allOf(f1, f2))
-            .orElse(CompletableFuture.completedFuture(null))
-            .join();
+            .orElse(CompletableFuture.completedFuture(null));
     }
 
 
@@ -178,10 +213,14 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
 
     @Override
     public void delete(MessageId messageId) {
+        deleteAsync(messageId).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(MessageId messageId) {
         CassandraMessageId cassandraMessageId = (CassandraMessageId) messageId;
-        retrieveAndDeleteIndices(cassandraMessageId, Optional.empty())
-            .thenCompose(voidValue -> messageDAO.delete(cassandraMessageId))
-            .join();
+        return retrieveAndDeleteIndices(cassandraMessageId, Optional.empty())
+            .thenCompose(voidValue -> messageDAO.delete(cassandraMessageId));
     }
 
     private CompletableFuture<Void> deleteIds(ComposedMessageIdWithMetaData metaData) {
@@ -192,7 +231,9 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
             messageIdDAO.delete(mailboxId, metaData.getComposedMessageId().getUid()))
             .thenCompose(voidValue -> CompletableFuture.allOf(
                 mailboxCounterDAO.decrementCount(mailboxId),
-                decrementUnseenOnDelete(mailboxId, metaData.getFlags())));
+                decrementUnseenOnDelete(mailboxId, metaData.getFlags()),
+                mailboxRecentDAO.removeFromRecent(mailboxId, metaData.getComposedMessageId().getUid()),
+                firstUnseenDAO.removeUnread(mailboxId, metaData.getComposedMessageId().getUid())));
     }
 
     private CompletableFuture<Void> decrementUnseenOnDelete(CassandraId mailboxId, Flags flags) {
@@ -204,39 +245,73 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
 
     @Override
     public Map<MailboxId, UpdatedFlags> setFlags(MessageId messageId, List<MailboxId> mailboxIds, Flags newState, MessageManager.FlagsUpdateMode updateMode) throws MailboxException {
+        return setFlagsAsync(messageId, mailboxIds, newState, updateMode).join();
+    }
+
+    /**
+     * Flags updates allocate ModSeqs, which may block: they are issued from the default executor rather than from
+     * a driver I/O thread.
+     */
+    @Override
+    public CompletableFuture<Map<MailboxId, UpdatedFlags>> setFlagsAsync(MessageId messageId, List<MailboxId> mailboxIds, Flags newState, MessageManager.FlagsUpdateMode updateMode) {
         CassandraMessageId cassandraMessageId = (CassandraMessageId) messageId;
 
-        return mailboxIds.stream()
-            .map(mailboxId -> (CassandraId) mailboxId)
-            .flatMap(mailboxId -> imapUidDAO.retrieve(cassandraMessageId, Optional.of(mailboxId)).join())
-            .map(composedMessageId -> flagsUpdateWithRetry(newState, updateMode, composedMessageId))
-            .map(this::updateCounts)
-            .map(CompletableFuture::join)
-            .collect(Guavate.toImmutableMap(Pair::getLeft, Pair::getRight));
+        return CompletableFutureUtil.allOf(
+                mailboxIds.stream()
+                    .map(mailboxId -> (CassandraId) mailboxId)
+                    .map(mailboxId -> imapUidDAO.retrieve(cassandraMessageId, Optional.of(mailboxId))
+                        .thenComposeAsync(composedMessageIds -> CompletableFutureUtil.allOf(composedMessageIds
+                            .map(composedMessageId -> flagsUpdateWithRetry(newState, updateMode, composedMessageId)
+                                .thenCompose(this::updateCounts))))))
+            .thenApply(updatedFlags -> updatedFlags
+                .flatMap(Function.identity())
+                .collect(Guavate.toImmutableMap(Pair::getLeft, Pair::getRight)));
     }
 
-    private Pair<MailboxId, UpdatedFlags> flagsUpdateWithRetry(Flags newState, MessageManager.FlagsUpdateMode updateMode, ComposedMessageIdWithMetaData composedMessageId) {
-        try {
-            Pair<Flags, Long> newFlagsWithModSeq = new FunctionRunnerWithRetry(MAX_RETRY)
-                .executeAndRetrieveObject(() -> tryFlagsUpdate(newState, updateMode, composedMessageId, oldModSeq(composedMessageId.getComposedMessageId())));
-            return Pair.of(composedMessageId.getComposedMessageId().getMailboxId(),
+    private CompletableFuture<Pair<MailboxId, UpdatedFlags>> flagsUpdateWithRetry(Flags newState, MessageManager.FlagsUpdateMode updateMode, ComposedMessageIdWithMetaData composedMessageId) {
+        return new FunctionRunnerWithRetry(MAX_RETRY)
+            .executeAsyncAndRetrieveObject(() -> tryFlagsUpdate(newState, updateMode, composedMessageId, oldModSeq(composedMessageId.getComposedMessageId())))
+            .thenApply(newFlagsWithModSeq -> Pair.of(composedMessageId.getComposedMessageId().getMailboxId(),
                     new UpdatedFlags(composedMessageId.getComposedMessageId().getUid(),
                         newFlagsWithModSeq.getRight(),
                         composedMessageId.getFlags(),
-                        newFlagsWithModSeq.getLeft()));
-        } catch (LightweightTransactionException e) {
-            throw Throwables.propagate(e);
-        }
+                        newFlagsWithModSeq.getLeft())));
     }
 
     private CompletableFuture<Pair<MailboxId, UpdatedFlags>> updateCounts(Pair<MailboxId, UpdatedFlags> pair) {
         CassandraId cassandraId = (CassandraId) pair.getLeft();
         return CompletableFuture.allOf(
             incrementCountIfNeeded(pair.getRight().getOldFlags(), pair.getRight().getNewFlags(), cassandraId),
-            decrementCountIfNeeded(pair.getRight().getOldFlags(), pair.getRight().getNewFlags(), cassandraId))
+            decrementCountIfNeeded(pair.getRight().getOldFlags(), pair.getRight().getNewFlags(), cassandraId),
+            updateRecentIfNeeded(pair.getRight(), cassandraId),
+            updateFirstUnseenIfNeeded(pair.getRight(), cassandraId))
             .thenApply(voidValue -> pair);
     }
 
+    private CompletableFuture<Void> updateRecentIfNeeded(UpdatedFlags updatedFlags, CassandraId cassandraId) {
+        boolean wasRecent = updatedFlags.getOldFlags().contains(Flags.Flag.RECENT);
+        boolean isRecent = updatedFlags.getNewFlags().contains(Flags.Flag.RECENT);
+        if (!wasRecent && isRecent) {
+            return mailboxRecentDAO.addToRecent(cassandraId, updatedFlags.getUid());
+        }
+        if (wasRecent && !isRecent) {
+            return mailboxRecentDAO.removeFromRecent(cassandraId, updatedFlags.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> updateFirstUnseenIfNeeded(UpdatedFlags updatedFlags, CassandraId cassandraId) {
+        boolean wasSeen = updatedFlags.getOldFlags().contains(Flags.Flag.SEEN);
+        boolean isSeen = updatedFlags.getNewFlags().contains(Flags.Flag.SEEN);
+        if (wasSeen && !isSeen) {
+            return firstUnseenDAO.addUnread(cassandraId, updatedFlags.getUid());
+        }
+        if (!wasSeen && isSeen) {
+            return firstUnseenDAO.removeUnread(cassandraId, updatedFlags.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
     private CompletableFuture<Void> incrementCountIfNeeded(Flags oldFlags, Flags newFlags, CassandraId cassandraId) {
         if (oldFlags.contains(Flags.Flag.SEEN) && !newFlags.contains(Flags.Flag.SEEN)) {
             return mailboxCounterDAO.incrementUnseen(cassandraId);
@@ -259,7 +334,7 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
         }
     }
 
-    private Optional<Pair<Flags, Long>> tryFlagsUpdate(Flags newState, MessageManager.FlagsUpdateMode updateMode, ComposedMessageIdWithMetaData composedMessageId, long oldModSeq) {
+    private CompletableFuture<Optional<Pair<Flags, Long>>> tryFlagsUpdate(Flags newState, MessageManager.FlagsUpdateMode updateMode, ComposedMessageIdWithMetaData composedMessageId, long oldModSeq) {
         MailboxId mailboxId = composedMessageId.getComposedMessageId().getMailboxId();
         try {
             long newModSeq = modSeqProvider.nextModSeq(mailboxSession, mailboxId);
@@ -268,19 +343,22 @@ public class CassandraMessageIdMapper implements MessageIdMapper {
                         composedMessageId.getComposedMessageId(),
                         newFlags,
                         newModSeq);
-            if (updateFlags(composedMessageIdWithMetaData, oldModSeq)) {
-                return Optional.of(Pair.of(newFlags, newModSeq));
-            }
-            return Optional.empty();
+            return updateFlags(composedMessageIdWithMetaData, oldModSeq)
+                .thenApply(success -> {
+                    if (success) {
+                        return Optional.of(Pair.of(newFlags, newModSeq));
+                    }
+                    return Optional.empty();
+                });
         } catch (MailboxException e) {
             LOGGER.error("Error while getting next ModSeq on mailbox: ", mailboxId);
-            return Optional.empty();
+            return CompletableFuture.completedFuture(Optional.empty());
         }
     }
 
-    private boolean updateFlags(ComposedMessageIdWithMetaData composedMessageIdWithMetaData, long oldModSeq) {
+    private CompletableFuture<Boolean> updateFlags(ComposedMessageIdWithMetaData composedMessageIdWithMetaData, long oldModSeq) {
         CompletableFuture<Boolean> imapUidFuture = imapUidDAO.updateMetadata(composedMessageIdWithMetaData, oldModSeq);
         CompletableFuture<Boolean> messageIdFuture = messageIdDAO.updateMetadata(composedMessageIdWithMetaData, oldModSeq);
-        return imapUidFuture.join() && messageIdFuture.join();
+        return imapUidFuture.thenCombine(messageIdFuture, (imapUidApplied, messageIdApplied) -> imapUidApplied && messageIdApplied);
     }
 }
@@ -19,13 +19,16 @@
 
 package org.apache.james.mailbox.cassandra.mail;
 
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import javax.mail.Flags;
@@ -33,12 +36,15 @@ import javax.mail.Flags.Flag;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
+import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
 import org.apache.james.mailbox.FlagsBuilder;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.cassandra.CassandraId;
 import org.apache.james.mailbox.cassandra.CassandraMessageId;
+import org.apache.james.mailbox.cassandra.mail.utils.CompletableFutureUtil;
 import org.apache.james.mailbox.cassandra.mail.utils.MessageDeletedDuringFlagsUpdateException;
+import org.apache.james.mailbox.cassandra.mail.utils.PrefetchingIterator;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.ComposedMessageId;
 import org.apache.james.mailbox.model.ComposedMessageIdWithMetaData;
@@ -49,7 +55,6 @@ import org.apache.james.mailbox.store.FlagsUpdateCalculator;
 import org.apache.james.mailbox.store.SimpleMessageMetaData;
 import org.apache.james.mailbox.store.mail.AttachmentMapper;
 import org.apache.james.mailbox.store.mail.MessageMapper;
-import org.apache.james.mailbox.store.mail.ModSeqProvider;
 import org.apache.james.mailbox.store.mail.UidProvider;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
@@ -59,10 +64,11 @@ import com.github.fge.lambdas.Throwing;
 import com.github.steveash.guavate.Guavate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 
-public class CassandraMessageMapper implements MessageMapper {
+public class CassandraMessageMapper implements MessageMapper, AsyncMessageMapper {
 
-    private final ModSeqProvider modSeqProvider;
+    private final CassandraModSeqProvider modSeqProvider;
     private final MailboxSession mailboxSession;
     private final UidProvider uidProvider;
     private final int maxRetries;
@@ -71,10 +77,16 @@ public class CassandraMessageMapper implements MessageMapper {
     private final CassandraMessageIdDAO messageIdDAO;
     private final CassandraMessageIdToImapUidDAO imapUidDAO;
     private final CassandraMailboxCounterDAO mailboxCounterDAO;
+    private final CassandraMailboxRecentsDAO mailboxRecentDAO;
+    private final CassandraFirstUnseenDAO firstUnseenDAO;
+    private final CassandraMessageMapperConfiguration configuration;
+    private final Executor blockingExecutor;
 
-    public CassandraMessageMapper(UidProvider uidProvider, ModSeqProvider modSeqProvider,
+    public CassandraMessageMapper(UidProvider uidProvider, CassandraModSeqProvider modSeqProvider,
                                   MailboxSession mailboxSession, int maxRetries, AttachmentMapper attachmentMapper,
-                                  CassandraMessageDAO messageDAO, CassandraMessageIdDAO messageIdDAO, CassandraMessageIdToImapUidDAO imapUidDAO, CassandraMailboxCounterDAO mailboxCounterDAO) {
+                                  CassandraMessageDAO messageDAO, CassandraMessageIdDAO messageIdDAO, CassandraMessageIdToImapUidDAO imapUidDAO, CassandraMailboxCounterDAO mailboxCounterDAO,
+                                  CassandraMailboxRecentsDAO mailboxRecentDAO, CassandraFirstUnseenDAO firstUnseenDAO, CassandraMessageMapperConfiguration configuration,
+                                  Executor blockingExecutor) {
         this.uidProvider = uidProvider;
         this.modSeqProvider = modSeqProvider;
         this.mailboxSession = mailboxSession;
@@ -84,30 +96,46 @@ public class CassandraMessageMapper implements MessageMapper {
         this.messageIdDAO = messageIdDAO;
         this.imapUidDAO = imapUidDAO;
         this.mailboxCounterDAO = mailboxCounterDAO;
+        this.mailboxRecentDAO = mailboxRecentDAO;
+        this.firstUnseenDAO = firstUnseenDAO;
+        this.configuration = configuration;
+        this.blockingExecutor = blockingExecutor;
     }
 
     @Override
     public long countMessagesInMailbox(Mailbox mailbox) throws MailboxException {
+        return countMessagesInMailboxAsync(mailbox).join();
+    }
+
+    @Override
+    public CompletableFuture<Long> countMessagesInMailboxAsync(Mailbox mailbox) throws MailboxException {
         return mailboxCounterDAO.countMessagesInMailbox(mailbox)
-            .join()
-            .orElse(0L);
+            .thenApply(count -> count.orElse(0L));
     }
 
     @Override
     public long countUnseenMessagesInMailbox(Mailbox mailbox) throws MailboxException {
+        return countUnseenMessagesInMailboxAsync(mailbox).join();
+    }
+
+    @Override
+    public CompletableFuture<Long> countUnseenMessagesInMailboxAsync(Mailbox mailbox) throws MailboxException {
         return mailboxCounterDAO.countUnseenMessagesInMailbox(mailbox)
-            .join()
-            .orElse(0L);
+            .thenApply(count -> count.orElse(0L));
     }
 
     @Override
     public void delete(Mailbox mailbox, MailboxMessage message) {
+        deleteAsync(mailbox, message).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(Mailbox mailbox, MailboxMessage message) {
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
 
-        messageIdDAO.retrieve(mailboxId, message.getUid())
+        return messageIdDAO.retrieve(mailboxId, message.getUid())
             .thenCompose(optional -> optional.map(this::deleteUsingMailboxId)
-                .orElse(CompletableFuture.completedFuture(null)))
-            .join();
+                .orElse(CompletableFuture.completedFuture(null)));
     }
 
     private CompletableFuture<Void> deleteUsingMailboxId(ComposedMessageIdWithMetaData composedMessageIdWithMetaData) {
@@ -120,7 +148,9 @@ public class CassandraMessageMapper implements MessageMapper {
             messageIdDAO.delete(mailboxId, uid)
         ).thenCompose(voidValue -> CompletableFuture.allOf(
             mailboxCounterDAO.decrementCount(mailboxId),
-            decrementUnseenOnDelete(mailboxId, composedMessageIdWithMetaData.getFlags())));
+            decrementUnseenOnDelete(mailboxId, composedMessageIdWithMetaData.getFlags()),
+            mailboxRecentDAO.removeFromRecent(mailboxId, uid),
+            firstUnseenDAO.removeUnread(mailboxId, uid)));
     }
 
     private CompletableFuture<Void> decrementUnseenOnDelete(CassandraId mailboxId, Flags flags) {
@@ -130,73 +160,140 @@ public class CassandraMessageMapper implements MessageMapper {
         return mailboxCounterDAO.decrementUnseen(mailboxId);
     }
 
-    private CompletableFuture<Optional<ComposedMessageIdWithMetaData>> retrieveMessageId(CassandraId mailboxId, MailboxMessage message) {
-        return messageIdDAO.retrieve(mailboxId, message.getUid());
-    }
-
     @Override
     public Iterator<MailboxMessage> findInMailbox(Mailbox mailbox, MessageRange messageRange, FetchType ftype, int max) throws MailboxException {
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return retrieveMessages(retrieveMessageIds(mailboxId, messageRange), ftype, Optional.of(max))
-                .map(SimpleMailboxMessage -> (MailboxMessage) SimpleMailboxMessage)
-                .sorted(Comparator.comparing(MailboxMessage::getUid))
+        return retrieveMessages(limit(retrieveMessageIds(mailboxId, messageRange), max), ftype)
+                .map(simpleMailboxMessage -> (MailboxMessage) simpleMailboxMessage)
                 .iterator();
     }
 
-    private List<ComposedMessageIdWithMetaData> retrieveMessageIds(CassandraId mailboxId, MessageRange messageRange) {
+    private Stream<ComposedMessageIdWithMetaData> limit(Stream<ComposedMessageIdWithMetaData> messageIds, int max) {
+        if (max <= 0) {
+            return messageIds;
+        }
+        return messageIds.limit(max);
+    }
+
+    /**
+     * Ids are read lazily, page by page, in UID order.
+     */
+    private Stream<ComposedMessageIdWithMetaData> retrieveMessageIds(CassandraId mailboxId, MessageRange messageRange) {
         return messageIdDAO.retrieveMessages(mailboxId, messageRange)
                 .join()
-                .collect(Guavate.toImmutableList());
+                .sequential();
     }
 
-    private Stream<SimpleMailboxMessage> retrieveMessages(List<ComposedMessageIdWithMetaData> messageIds, FetchType fetchType, Optional<Integer> limit) {
-        return messageDAO.retrieveMessages(messageIds, fetchType, limit).join()
+    /**
+     * Messages are retrieved by batches of fetchBatchSize, with at most maxConcurrentFetches batches in flight,
+     * so that memory usage does not depend on the number of messages being read. UID order is preserved.
+     */
+    private Stream<SimpleMailboxMessage> retrieveMessages(Stream<ComposedMessageIdWithMetaData> messageIds, FetchType fetchType) {
+        Iterator<CompletableFuture<Stream<Pair<CassandraMessageDAO.MessageWithoutAttachment, Stream<CassandraMessageDAO.MessageAttachmentRepresentation>>>>> batches =
+            Iterators.transform(
+                Iterators.partition(messageIds.iterator(), configuration.getFetchBatchSize()),
+                batch -> messageDAO.retrieveMessages(batch, fetchType, Optional.empty()));
+        PrefetchingIterator<CompletableFuture<Stream<Pair<CassandraMessageDAO.MessageWithoutAttachment, Stream<CassandraMessageDAO.MessageAttachmentRepresentation>>>>> prefetchedBatches =
+            new PrefetchingIterator<>(batches, configuration.getMaxConcurrentFetches());
+        return Guavate.stream(() -> prefetchedBatches)
+                .flatMap(CompletableFuture::join)
                 .map(pair -> Pair.of(pair.getLeft(), new AttachmentLoader(attachmentMapper).getAttachments(pair.getRight().collect(Guavate.toImmutableSet()))))
                 .map(Throwing.function(pair -> pair.getLeft().toMailboxMessage(pair.getRight().stream().collect(Guavate.toImmutableList()))));
     }
 
     @Override
     public List<MessageUid> findRecentMessageUidsInMailbox(Mailbox mailbox) throws MailboxException {
+        return findRecentMessageUidsInMailboxAsync(mailbox).join();
+    }
+
+    @Override
+    public CompletableFuture<List<MessageUid>> findRecentMessageUidsInMailboxAsync(Mailbox mailbox) {
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return retrieveMessages(retrieveMessageIds(mailboxId, MessageRange.all()), FetchType.Metadata, Optional.empty())
-                .filter(MailboxMessage::isRecent)
-                .flatMap(message -> imapUidDAO.retrieve((CassandraMessageId) message.getMessageId(), Optional.ofNullable(mailboxId)).join())
-                .map(ComposedMessageIdWithMetaData::getComposedMessageId)
-                .map(ComposedMessageId::getUid)
-                .sorted()
-                .collect(Collectors.toList());
+        return mailboxRecentDAO.isPopulated(mailboxId)
+                .thenCompose(populated -> {
+                    if (populated) {
+                        return mailboxRecentDAO.getRecentMessageUidsInMailbox(mailboxId)
+                            .thenApply(uids -> uids.collect(Collectors.toList()));
+                    }
+                    return populateRecentProjection(mailboxId);
+                });
+    }
+
+    /**
+     * The messages stored before the projection existed are missing from it: its first read computes the recent
+     * uids from the message id table, stores them in the projection, then marks it populated.
+     */
+    private CompletableFuture<List<MessageUid>> populateRecentProjection(CassandraId mailboxId) {
+        return uidsWithFlags(mailboxId, flags -> flags.contains(Flag.RECENT))
+                .thenCompose(recentUids -> mailboxRecentDAO.addToRecent(mailboxId, recentUids)
+                    .thenCompose(voidValue -> mailboxRecentDAO.markPopulated(mailboxId))
+                    .thenApply(voidValue -> recentUids));
     }
 
     @Override
     public MessageUid findFirstUnseenMessageUid(Mailbox mailbox) throws MailboxException {
-        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return retrieveMessages(retrieveMessageIds(mailboxId, MessageRange.all()), FetchType.Metadata, Optional.empty())
-                .filter(message -> !message.isSeen())
-                .flatMap(message -> imapUidDAO.retrieve((CassandraMessageId) message.getMessageId(), Optional.ofNullable(mailboxId)).join())
-                .map(ComposedMessageIdWithMetaData::getComposedMessageId)
-                .map(ComposedMessageId::getUid)
-                .sorted()
-                .findFirst()
+        return findFirstUnseenMessageUidAsync(mailbox)
+                .join()
                 .orElse(null);
     }
 
+    @Override
+    public CompletableFuture<Optional<MessageUid>> findFirstUnseenMessageUidAsync(Mailbox mailbox) {
+        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
+        return firstUnseenDAO.isPopulated(mailboxId)
+                .thenCompose(populated -> {
+                    if (populated) {
+                        return firstUnseenDAO.retrieveFirstUnread(mailboxId);
+                    }
+                    return populateUnseenProjection(mailboxId);
+                });
+    }
+
+    /**
+     * Same as {@link #populateRecentProjection(CassandraId)} for the unseen uids.
+     */
+    private CompletableFuture<Optional<MessageUid>> populateUnseenProjection(CassandraId mailboxId) {
+        return uidsWithFlags(mailboxId, flags -> !flags.contains(Flag.SEEN))
+                .thenCompose(unseenUids -> firstUnseenDAO.addUnread(mailboxId, unseenUids)
+                    .thenCompose(voidValue -> firstUnseenDAO.markPopulated(mailboxId))
+                    .thenApply(voidValue -> unseenUids.stream().findFirst()));
+    }
+
+    private CompletableFuture<List<MessageUid>> uidsWithFlags(CassandraId mailboxId, Predicate<Flags> predicate) {
+        return messageIdDAO.retrieveMessages(mailboxId, MessageRange.all())
+                .thenApply(metaDataStream -> metaDataStream
+                    .filter(metaData -> predicate.test(metaData.getFlags()))
+                    .map(metaData -> metaData.getComposedMessageId().getUid())
+                    .sorted()
+                    .collect(Collectors.toList()));
+    }
+
+    /**
+     * The deleted flag is read from the message id table, so that only the messages being expunged are read.
+     */
     @Override
     public Map<MessageUid, MessageMetaData> expungeMarkedForDeletionInMailbox(Mailbox mailbox, MessageRange set) throws MailboxException {
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return retrieveMessages(retrieveMessageIds(mailboxId, set), FetchType.Metadata, Optional.empty())
-                .filter(MailboxMessage::isDeleted)
+        return retrieveMessages(retrieveMessageIds(mailboxId, set)
+                    .filter(metaData -> metaData.getFlags().contains(Flag.DELETED)),
+                FetchType.Metadata)
                 .peek(message -> delete(mailbox, message))
                 .collect(Collectors.toMap(MailboxMessage::getUid, SimpleMessageMetaData::new));
     }
 
     @Override
     public MessageMetaData move(Mailbox destinationMailbox, MailboxMessage original) throws MailboxException {
+        return moveAsync(destinationMailbox, original).join();
+    }
+
+    @Override
+    public CompletableFuture<MessageMetaData> moveAsync(Mailbox destinationMailbox, MailboxMessage original) throws MailboxException {
         CassandraId originalMailboxId = (CassandraId) original.getMailboxId();
-        MessageMetaData messageMetaData = copy(destinationMailbox, original);
-        retrieveMessageId(originalMailboxId, original)
-            .thenCompose(optional -> optional.map(this::deleteUsingMailboxId).orElse(CompletableFuture.completedFuture(null)))
-            .join();
-        return messageMetaData;
+        MessageUid originalUid = original.getUid();
+        return copyAsync(destinationMailbox, original)
+            .thenCompose(messageMetaData -> messageIdDAO.retrieve(originalMailboxId, originalUid)
+                .thenCompose(optional -> optional.map(this::deleteUsingMailboxId).orElse(CompletableFuture.completedFuture(null)))
+                .thenApply(voidValue -> messageMetaData));
     }
 
     @Override
@@ -211,15 +308,39 @@ public class CassandraMessageMapper implements MessageMapper {
 
     @Override
     public MessageMetaData add(Mailbox mailbox, MailboxMessage message) throws MailboxException {
+        return addAsync(mailbox, message).join();
+    }
+
+    /**
+     * UID and ModSeq are allocated before returning, as the providers are blocking. With block allocation enabled
+     * they are most of the time served from memory.
+     */
+    @Override
+    public CompletableFuture<MessageMetaData> addAsync(Mailbox mailbox, MailboxMessage message) throws MailboxException {
         message.setUid(uidProvider.nextUid(mailboxSession, mailbox));
         message.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        save(mailbox, message)
+        return save(mailbox, message)
             .thenCompose(voidValue -> CompletableFuture.allOf(
                 incrementUnseenOnSave(mailboxId, message.createFlags()),
-                mailboxCounterDAO.incrementCount(mailboxId)))
-            .join();
-        return new SimpleMessageMetaData(message);
+                mailboxCounterDAO.incrementCount(mailboxId),
+                addRecentOnSave(mailboxId, message),
+                addUnreadOnSave(mailboxId, message)))
+            .thenApply(voidValue -> new SimpleMessageMetaData(message));
+    }
+
+    private CompletableFuture<Void> addRecentOnSave(CassandraId mailboxId, MailboxMessage message) {
+        if (message.createFlags().contains(Flag.RECENT)) {
+            return mailboxRecentDAO.addToRecent(mailboxId, message.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> addUnreadOnSave(CassandraId mailboxId, MailboxMessage message) {
+        if (!message.createFlags().contains(Flag.SEEN)) {
+            return firstUnseenDAO.addUnread(mailboxId, message.getUid());
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     private CompletableFuture<Void> incrementUnseenOnSave(CassandraId mailboxId, Flags flags) {
@@ -229,20 +350,140 @@ public class CassandraMessageMapper implements MessageMapper {
         return mailboxCounterDAO.incrementUnseen(mailboxId);
     }
 
+    /**
+     * Uid, flags and modseq all live in the message id table: flags are updated without reading the message table.
+     */
     @Override
     public Iterator<UpdatedFlags> updateFlags(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, MessageRange set) throws MailboxException {
-        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return retrieveMessages(retrieveMessageIds(mailboxId, set), FetchType.Metadata, Optional.empty())
-                .map(message -> updateFlagsOnMessage(mailbox, flagUpdateCalculator, message))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .map((updatedFlags) -> manageUnseenMessageCounts(mailbox, updatedFlags.getOldFlags(), updatedFlags.getNewFlags())
-                    .thenApply(voidValue -> updatedFlags))
-                .map(CompletableFuture::join)
-                .collect(Collectors.toList()) // This collect is here as we need to consume all the stream before returning result
+        return updateFlagsAsync(mailbox, flagUpdateCalculator, set)
+                .join()
                 .iterator();
     }
 
+    /**
+     * Updates are issued by batches of flagsUpdateBatchSize messages: a batch is started once the previous one
+     * completed, as concurrent conditional updates of the mailbox partition would contend with each other.
+     *
+     * Continuations allocating ModSeqs run on the blocking executor, as the ModSeqProvider may block and must not
+     * do so on a driver I/O thread, nor on the common pool.
+     */
+    @Override
+    public CompletableFuture<List<UpdatedFlags>> updateFlagsAsync(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, MessageRange set) {
+        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
+        return messageIdDAO.retrieveMessages(mailboxId, set)
+                .thenComposeAsync(metaDatas -> updateFlagsByBatch(mailbox, flagUpdateCalculator,
+                    Iterators.partition(metaDatas.sequential().iterator(), configuration.getFlagsUpdateBatchSize()),
+                    ImmutableList.builder()), blockingExecutor);
+    }
+
+    private CompletableFuture<List<UpdatedFlags>> updateFlagsByBatch(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator,
+                                                                     Iterator<List<ComposedMessageIdWithMetaData>> batches, ImmutableList.Builder<UpdatedFlags> updatedFlags) {
+        if (!batches.hasNext()) {
+            return CompletableFuture.completedFuture(updatedFlags.build());
+        }
+        return updateFlagsOnBatch(mailbox, flagUpdateCalculator, batches.next())
+            .thenComposeAsync(batchResults -> {
+                updatedFlags.addAll(batchResults);
+                return updateFlagsByBatch(mailbox, flagUpdateCalculator, batches, updatedFlags);
+            }, blockingExecutor);
+    }
+
+    /**
+     * The ModSeqs of the batch are reserved at once, and the message id table, which holds all the batch in the
+     * mailbox partition, is updated by a single conditional batch. The message id to imap uid table is partitioned
+     * by message id: its rows are updated concurrently. Counters and projections are then updated once per batch.
+     *
+     * When another update won the race for any of the rows, the conditional batch is not applied: messages are then
+     * updated one by one, so that retries only concern the messages that were concurrently modified. Once the batch
+     * is applied, the message id to imap uid rows are only brought in line with it.
+     */
+    private CompletableFuture<List<UpdatedFlags>> updateFlagsOnBatch(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, List<ComposedMessageIdWithMetaData> metaDatas) {
+        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
+        List<Pair<ComposedMessageIdWithMetaData, Long>> updates = computeUpdates(mailboxId, flagUpdateCalculator, metaDatas);
+        return messageIdDAO.updateMetadata(updates)
+            .thenComposeAsync(applied -> {
+                if (applied) {
+                    return updateImapUidTable(metaDatas, updates);
+                }
+                return updateFlagsOneByOne(mailbox, flagUpdateCalculator, metaDatas.iterator(), ImmutableList.builder());
+            }, blockingExecutor)
+            .thenCompose(updatedFlags -> updateCountersAndProjections(mailboxId, updatedFlags)
+                .thenApply(voidValue -> updatedFlags));
+    }
+
+    private List<Pair<ComposedMessageIdWithMetaData, Long>> computeUpdates(CassandraId mailboxId, FlagsUpdateCalculator flagUpdateCalculator, List<ComposedMessageIdWithMetaData> metaDatas) {
+        try {
+            long firstModSeq = modSeqProvider.nextModSeqs(mailboxId, metaDatas.size()).getFirst();
+            return IntStream.range(0, metaDatas.size())
+                .mapToObj(index -> Pair.of(
+                    ComposedMessageIdWithMetaData.builder()
+                        .composedMessageId(metaDatas.get(index).getComposedMessageId())
+                        .flags(flagUpdateCalculator.buildNewFlags(metaDatas.get(index).getFlags()))
+                        .modSeq(firstModSeq + index)
+                        .build(),
+                    metaDatas.get(index).getModSeq()))
+                .collect(Guavate.toImmutableList());
+        } catch (MailboxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private CompletableFuture<List<UpdatedFlags>> updateImapUidTable(List<ComposedMessageIdWithMetaData> metaDatas, List<Pair<ComposedMessageIdWithMetaData, Long>> updates) {
+        return CompletableFutureUtil.allOf(IntStream.range(0, updates.size())
+                .mapToObj(index -> updateImapUidTable(metaDatas.get(index), updates.get(index))))
+            .thenApply(results -> results.collect(Guavate.toImmutableList()));
+    }
+
+    private CompletableFuture<UpdatedFlags> updateImapUidTable(ComposedMessageIdWithMetaData oldMetaData, Pair<ComposedMessageIdWithMetaData, Long> update) {
+        ComposedMessageIdWithMetaData newMetaData = update.getLeft();
+        return synchronizeImapUidRow(newMetaData, update.getRight(), maxRetries)
+            .thenApply(any -> new UpdatedFlags(newMetaData.getComposedMessageId().getUid(), newMetaData.getModSeq(), oldMetaData.getFlags(), newMetaData.getFlags()));
+    }
+
+    /**
+     * Concurrent flag updates are arbitrated by the message id table. Once it is updated, the message id to imap uid
+     * row is given the same flags and ModSeq, whatever it holds, unless a later update already reached it. The update
+     * is never computed again: this would allocate another ModSeq and leave both tables diverging.
+     */
+    private CompletableFuture<Void> synchronizeImapUidRow(ComposedMessageIdWithMetaData newMetaData, long expectedModSeq, int remainingRetries) {
+        return imapUidDAO.updateMetadata(newMetaData, expectedModSeq)
+            .thenCompose(applied -> {
+                if (applied) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (remainingRetries <= 0) {
+                    CompletableFuture<Void> failure = new CompletableFuture<>();
+                    failure.completeExceptionally(new LightweightTransactionException(maxRetries));
+                    return failure;
+                }
+                return retrieveImapUidModSeq(newMetaData.getComposedMessageId())
+                    .thenCompose(currentModSeq -> {
+                        if (!currentModSeq.isPresent() || currentModSeq.get() >= newMetaData.getModSeq()) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return synchronizeImapUidRow(newMetaData, currentModSeq.get(), remainingRetries - 1);
+                    });
+            });
+    }
+
+    private CompletableFuture<Optional<Long>> retrieveImapUidModSeq(ComposedMessageId composedMessageId) {
+        return imapUidDAO.retrieve((CassandraMessageId) composedMessageId.getMessageId(), Optional.of((CassandraId) composedMessageId.getMailboxId()))
+            .thenApply(metaDatas -> metaDatas.findFirst()
+                .map(ComposedMessageIdWithMetaData::getModSeq));
+    }
+
+    private CompletableFuture<List<UpdatedFlags>> updateFlagsOneByOne(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator,
+                                                                      Iterator<ComposedMessageIdWithMetaData> metaDatas, ImmutableList.Builder<UpdatedFlags> updatedFlags) {
+        if (!metaDatas.hasNext()) {
+            return CompletableFuture.completedFuture(updatedFlags.build());
+        }
+        return updateFlagsOnMessage(mailbox, flagUpdateCalculator, metaDatas.next())
+            .thenComposeAsync(result -> {
+                result.ifPresent(updatedFlags::add);
+                return updateFlagsOneByOne(mailbox, flagUpdateCalculator, metaDatas, updatedFlags);
+            }, blockingExecutor);
+    }
+
     @Override
     public <T> T execute(Transaction<T> transaction) throws MailboxException {
         return transaction.run();
@@ -250,8 +491,13 @@ public class CassandraMessageMapper implements MessageMapper {
 
     @Override
     public MessageMetaData copy(Mailbox mailbox, MailboxMessage original) throws MailboxException {
+        return copyAsync(mailbox, original).join();
+    }
+
+    @Override
+    public CompletableFuture<MessageMetaData> copyAsync(Mailbox mailbox, MailboxMessage original) throws MailboxException {
         original.setFlags(new FlagsBuilder().add(original.createFlags()).add(Flag.RECENT).build());
-        return add(mailbox, original);
+        return addAsync(mailbox, original);
     }
 
     @Override
@@ -275,77 +521,103 @@ public class CassandraMessageMapper implements MessageMapper {
                 imapUidDAO.insert(composedMessageIdWithMetaData));
     }
 
-    private CompletableFuture<Void> manageUnseenMessageCounts(Mailbox mailbox, Flags oldFlags, Flags newFlags) {
-        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        if (oldFlags.contains(Flag.SEEN) && !newFlags.contains(Flag.SEEN)) {
-            return mailboxCounterDAO.incrementUnseen(mailboxId);
+    private CompletableFuture<Void> updateCountersAndProjections(CassandraId mailboxId, List<UpdatedFlags> updatedFlags) {
+        return CompletableFuture.allOf(
+            mailboxCounterDAO.addToUnseen(mailboxId, updatedFlags.stream().mapToLong(this::unseenDelta).sum()),
+            mailboxRecentDAO.addToRecent(mailboxId, uids(updatedFlags, flags -> !flags.getOldFlags().contains(Flag.RECENT) && flags.getNewFlags().contains(Flag.RECENT))),
+            mailboxRecentDAO.removeFromRecent(mailboxId, uids(updatedFlags, flags -> flags.getOldFlags().contains(Flag.RECENT) && !flags.getNewFlags().contains(Flag.RECENT))),
+            firstUnseenDAO.addUnread(mailboxId, uids(updatedFlags, flags -> flags.getOldFlags().contains(Flag.SEEN) && !flags.getNewFlags().contains(Flag.SEEN))),
+            firstUnseenDAO.removeUnread(mailboxId, uids(updatedFlags, flags -> !flags.getOldFlags().contains(Flag.SEEN) && flags.getNewFlags().contains(Flag.SEEN))));
+    }
+
+    private long unseenDelta(UpdatedFlags updatedFlags) {
+        boolean wasSeen = updatedFlags.getOldFlags().contains(Flag.SEEN);
+        boolean isSeen = updatedFlags.getNewFlags().contains(Flag.SEEN);
+        if (wasSeen && !isSeen) {
+            return 1;
         }
-        if (!oldFlags.contains(Flag.SEEN) && newFlags.contains(Flag.SEEN)) {
-            return mailboxCounterDAO.decrementUnseen(mailboxId);
+        if (!wasSeen && isSeen) {
+            return -1;
         }
-        return CompletableFuture.completedFuture(null);
+        return 0;
     }
 
-    private Optional<UpdatedFlags> updateFlagsOnMessage(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, MailboxMessage message) {
-        return tryMessageFlagsUpdate(flagUpdateCalculator, mailbox, message)
-            .map(Optional::of)
-            .orElse(handleRetries(mailbox, flagUpdateCalculator, message));
+    private List<MessageUid> uids(List<UpdatedFlags> updatedFlags, Predicate<UpdatedFlags> predicate) {
+        return updatedFlags.stream()
+            .filter(predicate)
+            .map(UpdatedFlags::getUid)
+            .collect(Guavate.toImmutableList());
     }
 
-    private Optional<UpdatedFlags> tryMessageFlagsUpdate(FlagsUpdateCalculator flagUpdateCalculator, Mailbox mailbox, MailboxMessage message) {
+    private CompletableFuture<Optional<UpdatedFlags>> updateFlagsOnMessage(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, ComposedMessageIdWithMetaData metaData) {
+        return tryMessageFlagsUpdate(flagUpdateCalculator, mailbox, metaData)
+            .thenCompose(updatedFlags -> updatedFlags
+                .map(value -> CompletableFuture.completedFuture(Optional.of(value)))
+                .orElseGet(() -> handleRetries(mailbox, flagUpdateCalculator, metaData)));
+    }
+
+    private CompletableFuture<Optional<UpdatedFlags>> tryMessageFlagsUpdate(FlagsUpdateCalculator flagUpdateCalculator, Mailbox mailbox, ComposedMessageIdWithMetaData metaData) {
         try {
-            long oldModSeq = message.getModSeq();
-            Flags oldFlags = message.createFlags();
+            long oldModSeq = metaData.getModSeq();
+            Flags oldFlags = metaData.getFlags();
             Flags newFlags = flagUpdateCalculator.buildNewFlags(oldFlags);
-            message.setFlags(newFlags);
-            message.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
-            if (updateFlags(message, oldModSeq)) {
-                return Optional.of(new UpdatedFlags(message.getUid(), message.getModSeq(), oldFlags, newFlags));
-            } else {
-                return Optional.empty();
-            }
+            ComposedMessageIdWithMetaData updatedMetaData = ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(metaData.getComposedMessageId())
+                .flags(newFlags)
+                .modSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox))
+                .build();
+            return updateFlags(updatedMetaData, oldModSeq)
+                .thenApply(success -> {
+                    if (success) {
+                        return Optional.of(new UpdatedFlags(updatedMetaData.getComposedMessageId().getUid(), updatedMetaData.getModSeq(), oldFlags, newFlags));
+                    }
+                    return Optional.empty();
+                });
         } catch (MailboxException e) {
             throw Throwables.propagate(e);
         }
     }
 
-    private boolean updateFlags(MailboxMessage message, long oldModSeq) {
-        ComposedMessageIdWithMetaData composedMessageIdWithMetaData = ComposedMessageIdWithMetaData.builder()
-                .composedMessageId(new ComposedMessageId(message.getMailboxId(), message.getMessageId(), message.getUid()))
-                .modSeq(message.getModSeq())
-                .flags(message.createFlags())
-                .build();
-        CompletableFuture<Boolean> messageIdFuture = messageIdDAO.updateMetadata(composedMessageIdWithMetaData, oldModSeq);
-        CompletableFuture<Boolean> imapUidFuture = imapUidDAO.updateMetadata(composedMessageIdWithMetaData, oldModSeq);
-        return messageIdFuture.join() && imapUidFuture.join();
+    /**
+     * Nothing is written when the message id table update is not applied: the whole update can then be retried.
+     */
+    private CompletableFuture<Boolean> updateFlags(ComposedMessageIdWithMetaData composedMessageIdWithMetaData, long oldModSeq) {
+        return messageIdDAO.updateMetadata(composedMessageIdWithMetaData, oldModSeq)
+            .thenCompose(applied -> {
+                if (!applied) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                return synchronizeImapUidRow(composedMessageIdWithMetaData, oldModSeq, maxRetries)
+                    .thenApply(any -> true);
+            });
     }
 
-    private Optional<UpdatedFlags> handleRetries(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, MailboxMessage message) {
-        try {
-            return Optional.of(
-                new FunctionRunnerWithRetry(maxRetries)
-                    .executeAndRetrieveObject(() -> retryMessageFlagsUpdate(mailbox,
-                            ComposedMessageIdWithMetaData.builder()
-                                .composedMessageId(new ComposedMessageId(mailbox.getMailboxId(), message.getMessageId(), message.getUid()))
-                                .modSeq(message.getModSeq())
-                                .flags(message.createFlags())
-                            .build(),
-                            flagUpdateCalculator)));
-        } catch (MessageDeletedDuringFlagsUpdateException e) {
-            mailboxSession.getLog().warn(e.getMessage());
-            return Optional.empty();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+    private CompletableFuture<Optional<UpdatedFlags>> handleRetries(Mailbox mailbox, FlagsUpdateCalculator flagUpdateCalculator, ComposedMessageIdWithMetaData metaData) {
+        return new FunctionRunnerWithRetry(maxRetries)
+            .executeAsyncAndRetrieveObject(() -> retryMessageFlagsUpdate(mailbox, metaData.getComposedMessageId(), flagUpdateCalculator))
+            .thenApply(Optional::of)
+            .exceptionally(throwable -> {
+                Throwable cause = unwrap(throwable);
+                if (cause instanceof MessageDeletedDuringFlagsUpdateException) {
+                    mailboxSession.getLog().warn(cause.getMessage());
+                    return Optional.empty();
+                }
+                throw Throwables.propagate(cause);
+            });
+    }
+
+    private Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
         }
+        return throwable;
     }
 
-    private Optional<UpdatedFlags> retryMessageFlagsUpdate(Mailbox mailbox, ComposedMessageIdWithMetaData composedMessageIdWithMetaData, FlagsUpdateCalculator flagUpdateCalculator) {
+    private CompletableFuture<Optional<UpdatedFlags>> retryMessageFlagsUpdate(Mailbox mailbox, ComposedMessageId composedMessageId, FlagsUpdateCalculator flagUpdateCalculator) {
         CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
-        return tryMessageFlagsUpdate(flagUpdateCalculator,
-                mailbox,
-                messageDAO.retrieveMessages(ImmutableList.of(composedMessageIdWithMetaData), FetchType.Metadata, Optional.empty()).join()
-                    .findFirst()
-                    .map(pair -> pair.getLeft().toMailboxMessage(ImmutableList.of()))
-                    .orElseThrow(() -> new MessageDeletedDuringFlagsUpdateException(mailboxId, (CassandraMessageId) composedMessageIdWithMetaData.getComposedMessageId().getMessageId())));
+        return messageIdDAO.retrieve(mailboxId, composedMessageId.getUid())
+            .thenApply(optional -> optional
+                .orElseThrow(() -> new MessageDeletedDuringFlagsUpdateException(mailboxId, (CassandraMessageId) composedMessageId.getMessageId())))
+            .thenComposeAsync(metaData -> tryMessageFlagsUpdate(flagUpdateCalculator, mailbox, metaData), blockingExecutor);
     }
 }
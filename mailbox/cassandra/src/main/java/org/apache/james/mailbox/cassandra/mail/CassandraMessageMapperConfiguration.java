@@ -0,0 +1,118 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+public class CassandraMessageMapperConfiguration {
+
+    public static final int DEFAULT_FETCH_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+    public static final int DEFAULT_FLAGS_UPDATE_BATCH_SIZE = 50;
+
+    public static final CassandraMessageMapperConfiguration DEFAULT = builder().build();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int fetchBatchSize;
+        private int maxConcurrentFetches;
+        private int flagsUpdateBatchSize;
+
+        private Builder() {
+            fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
+            maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+            flagsUpdateBatchSize = DEFAULT_FLAGS_UPDATE_BATCH_SIZE;
+        }
+
+        public Builder fetchBatchSize(int fetchBatchSize) {
+            Preconditions.checkArgument(fetchBatchSize > 0, "'fetchBatchSize' should be strictly positive");
+            this.fetchBatchSize = fetchBatchSize;
+            return this;
+        }
+
+        public Builder maxConcurrentFetches(int maxConcurrentFetches) {
+            Preconditions.checkArgument(maxConcurrentFetches > 0, "'maxConcurrentFetches' should be strictly positive");
+            this.maxConcurrentFetches = maxConcurrentFetches;
+            return this;
+        }
+
+        public Builder flagsUpdateBatchSize(int flagsUpdateBatchSize) {
+            Preconditions.checkArgument(flagsUpdateBatchSize > 0, "'flagsUpdateBatchSize' should be strictly positive");
+            this.flagsUpdateBatchSize = flagsUpdateBatchSize;
+            return this;
+        }
+
+        public CassandraMessageMapperConfiguration build() {
+            return new CassandraMessageMapperConfiguration(fetchBatchSize, maxConcurrentFetches, flagsUpdateBatchSize);
+        }
+    }
+
+    private final int fetchBatchSize;
+    private final int maxConcurrentFetches;
+    private final int flagsUpdateBatchSize;
+
+    private CassandraMessageMapperConfiguration(int fetchBatchSize, int maxConcurrentFetches, int flagsUpdateBatchSize) {
+        this.fetchBatchSize = fetchBatchSize;
+        this.maxConcurrentFetches = maxConcurrentFetches;
+        this.flagsUpdateBatchSize = flagsUpdateBatchSize;
+    }
+
+    /**
+     * Number of messages retrieved by a single query when reading message content.
+     */
+    public int getFetchBatchSize() {
+        return fetchBatchSize;
+    }
+
+    /**
+     * Number of batch queries allowed in flight while a message listing is being consumed.
+     */
+    public int getMaxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    /**
+     * Number of messages whose flags are updated by a single conditional batch. Cassandra warns about batches
+     * larger than a few kilobytes: each message accounts for roughly a hundred bytes.
+     */
+    public int getFlagsUpdateBatchSize() {
+        return flagsUpdateBatchSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof CassandraMessageMapperConfiguration) {
+            CassandraMessageMapperConfiguration other = (CassandraMessageMapperConfiguration) o;
+            return Objects.equal(fetchBatchSize, other.fetchBatchSize)
+                && Objects.equal(maxConcurrentFetches, other.maxConcurrentFetches)
+                && Objects.equal(flagsUpdateBatchSize, other.flagsUpdateBatchSize);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(fetchBatchSize, maxConcurrentFetches, flagsUpdateBatchSize);
+    }
+}
@@ -21,9 +21,11 @@ package org.apache.james.mailbox.cassandra.mail;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lt;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageModseqTable.LAST_MODSEQ;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageModseqTable.MAILBOX_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageModseqTable.NEXT_MODSEQ;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageModseqTable.TABLE_NAME;
@@ -37,6 +39,9 @@ import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
 import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocationConfiguration;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator.Block;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.store.mail.ModSeqProvider;
@@ -45,6 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.BuiltStatement;
 import com.google.common.base.Throwables;
@@ -57,13 +63,25 @@ public class CassandraModSeqProvider implements ModSeqProvider {
     
     private final Session session;
     private final FunctionRunnerWithRetry runner;
+    private final BlockAllocationConfiguration blockAllocationConfiguration;
+    private final BlockAllocator blockAllocator;
 
-    public CassandraModSeqProvider(Session session, int maxRetry) {
+    public CassandraModSeqProvider(Session session, int maxRetry, BlockAllocationConfiguration blockAllocationConfiguration) {
         this.session = session;
         this.runner = new FunctionRunnerWithRetry(maxRetry);
+        this.blockAllocationConfiguration = blockAllocationConfiguration;
+        this.blockAllocator = new BlockAllocator(blockAllocationConfiguration);
+    }
+
+    public CassandraModSeqProvider(Session session, int maxRetry) {
+        this(session, maxRetry, BlockAllocationConfiguration.disabled());
     }
 
     @Inject
+    public CassandraModSeqProvider(Session session, BlockAllocationConfiguration blockAllocationConfiguration) {
+        this(session, DEFAULT_MAX_RETRY, blockAllocationConfiguration);
+    }
+
     public CassandraModSeqProvider(Session session) {
         this(session, DEFAULT_MAX_RETRY);
     }
@@ -81,12 +99,31 @@ public class CassandraModSeqProvider implements ModSeqProvider {
 
     @Override
     public long highestModSeq(MailboxSession mailboxSession, Mailbox mailbox) throws MailboxException {
-        return findHighestModSeq((CassandraId) mailbox.getMailboxId()).getValue();
+        return highestModSeq((CassandraId) mailbox.getMailboxId());
     }
 
     @Override
     public long highestModSeq(MailboxSession mailboxSession, MailboxId mailboxId) throws MailboxException {
-        return findHighestModSeq((CassandraId) mailboxId).getValue();
+        return highestModSeq((CassandraId) mailboxId);
+    }
+
+    /**
+     * The persisted high-water mark is read, as the ceiling of the reserved blocks can be above the ModSeqs handed
+     * out so far. Rows written before it existed only have the ceiling, which then is the last handed out ModSeq.
+     */
+    private long highestModSeq(CassandraId mailboxId) throws MailboxException {
+        ResultSet result = session.execute(
+            select(NEXT_MODSEQ, LAST_MODSEQ)
+                .from(TABLE_NAME)
+                .where(eq(MAILBOX_ID, mailboxId.asUuid())));
+        if (result.isExhausted()) {
+            return FIRST_MODSEQ.getValue();
+        }
+        Row row = result.one();
+        if (row.isNull(LAST_MODSEQ)) {
+            return row.getLong(NEXT_MODSEQ);
+        }
+        return row.getLong(LAST_MODSEQ);
     }
 
     private ModSeq findHighestModSeq(CassandraId mailboxId) throws MailboxException {
@@ -101,36 +138,83 @@ public class CassandraModSeqProvider implements ModSeqProvider {
         }
     }
 
-    private Optional<ModSeq> tryInsertModSeq(CassandraId mailboxId, ModSeq modSeq) {
-        ModSeq nextModSeq = modSeq.next();
-        return transactionalStatementToOptionalModSeq(nextModSeq,
+    private Optional<Block> tryInsertModSeq(CassandraId mailboxId, ModSeq modSeq, long blockSize) {
+        ModSeq nextModSeq = modSeq.add(blockSize);
+        return transactionalStatementToOptionalBlock(Block.of(modSeq.next().getValue(), blockSize),
             insertInto(TABLE_NAME)
                 .value(NEXT_MODSEQ, nextModSeq.getValue())
+                .value(LAST_MODSEQ, lastAllocatedOnReservation(modSeq, nextModSeq))
                 .value(MAILBOX_ID, mailboxId.asUuid())
                 .ifNotExists());
     }
 
-    private Optional<ModSeq> tryUpdateModSeq(CassandraId mailboxId, ModSeq modSeq) {
-        ModSeq nextModSeq = modSeq.next();
-        return transactionalStatementToOptionalModSeq(nextModSeq,
+    private Optional<Block> tryUpdateModSeq(CassandraId mailboxId, ModSeq modSeq, long blockSize) {
+        ModSeq nextModSeq = modSeq.add(blockSize);
+        return transactionalStatementToOptionalBlock(Block.of(modSeq.next().getValue(), blockSize),
             update(TABLE_NAME)
                 .onlyIf(eq(NEXT_MODSEQ, modSeq.getValue()))
                 .with(set(NEXT_MODSEQ, nextModSeq.getValue()))
+                .and(set(LAST_MODSEQ, lastAllocatedOnReservation(modSeq, nextModSeq)))
                 .where(eq(MAILBOX_ID, mailboxId.asUuid())));
     }
 
-    private Optional<ModSeq> transactionalStatementToOptionalModSeq(ModSeq modSeq, BuiltStatement statement) {
+    /**
+     * Without block allocation the whole reserved range is handed out at once. Otherwise values are recorded as they
+     * are handed out: until then the previous ceiling is above every handed out value and below every future one.
+     */
+    private long lastAllocatedOnReservation(ModSeq ceiling, ModSeq nextCeiling) {
+        if (blockAllocationConfiguration.isEnabled()) {
+            return ceiling.getValue();
+        }
+        return nextCeiling.getValue();
+    }
+
+    /**
+     * The high-water mark is only raised: another node can still hand out the modseqs of an older block. It is also
+     * written by the reservations, thus with lightweight transactions only.
+     */
+    private void recordLastModSeq(CassandraId mailboxId, long modSeq) {
+        session.execute(
+            update(TABLE_NAME)
+                .onlyIf(lt(LAST_MODSEQ, modSeq))
+                .with(set(LAST_MODSEQ, modSeq))
+                .where(eq(MAILBOX_ID, mailboxId.asUuid())));
+    }
+
+    private Optional<Block> transactionalStatementToOptionalBlock(Block block, BuiltStatement statement) {
         if(session.execute(statement).one().getBool(CassandraConstants.LIGHTWEIGHT_TRANSACTION_APPLIED)) {
-            return Optional.of(modSeq);
+            return Optional.of(block);
         }
         return Optional.empty();
     }
     
     private long nextModSeq(CassandraId mailboxId) throws MailboxException {
+        if (blockAllocationConfiguration.isEnabled()) {
+            return blockAllocator.next(mailboxId,
+                blockSize -> reserveModSeqs(mailboxId, blockSize),
+                modSeq -> recordLastModSeq(mailboxId, modSeq));
+        }
+        return reserveModSeqs(mailboxId, 1).getFirst();
+    }
+
+    /**
+     * Reserves count consecutive ModSeqs with a single lightweight transaction, or from the current block when block
+     * allocation is enabled.
+     */
+    public Block nextModSeqs(CassandraId mailboxId, int count) throws MailboxException {
+        if (blockAllocationConfiguration.isEnabled()) {
+            return blockAllocator.nextRange(mailboxId, count,
+                blockSize -> reserveModSeqs(mailboxId, blockSize),
+                modSeq -> recordLastModSeq(mailboxId, modSeq));
+        }
+        return reserveModSeqs(mailboxId, count);
+    }
+
+    private Block reserveModSeqs(CassandraId mailboxId, long blockSize) throws MailboxException {
         if (findHighestModSeq(mailboxId).isFirst()) {
-            Optional<ModSeq> optional = tryInsertModSeq(mailboxId, FIRST_MODSEQ);
+            Optional<Block> optional = tryInsertModSeq(mailboxId, FIRST_MODSEQ, blockSize);
             if (optional.isPresent()) {
-                return optional.get().getValue();
+                return optional.get();
             }
         }
 
@@ -138,8 +222,7 @@ public class CassandraModSeqProvider implements ModSeqProvider {
             return runner.executeAndRetrieveObject(
                 () -> {
                     try {
-                        return tryUpdateModSeq(mailboxId, findHighestModSeq(mailboxId))
-                            .map(ModSeq::getValue);
+                        return tryUpdateModSeq(mailboxId, findHighestModSeq(mailboxId), blockSize);
                     } catch (Exception exception) {
                         LOG.error("Can not retrieve next ModSeq", exception);
                         throw Throwables.propagate(exception);
@@ -159,7 +242,11 @@ public class CassandraModSeqProvider implements ModSeqProvider {
         }
         
         public ModSeq next() {
-            return new ModSeq(value + 1);
+            return add(1);
+        }
+
+        public ModSeq add(long increment) {
+            return new ModSeq(value + increment);
         }
         
         public long getValue() {
@@ -21,9 +21,11 @@ package org.apache.james.mailbox.cassandra.mail;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lt;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageUidTable.LAST_UID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageUidTable.NEXT_UID;
 
 import java.util.Optional;
@@ -36,6 +38,9 @@ import org.apache.james.backends.cassandra.utils.LightweightTransactionException
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocationConfiguration;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator.Block;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageUidTable;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
@@ -45,6 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.BuiltStatement;
 import com.google.common.base.Throwables;
@@ -55,13 +61,25 @@ public class CassandraUidProvider implements UidProvider {
 
     private final Session session;
     private final FunctionRunnerWithRetry runner;
+    private final BlockAllocationConfiguration blockAllocationConfiguration;
+    private final BlockAllocator blockAllocator;
 
-    public CassandraUidProvider(Session session, int maxRetry) {
+    public CassandraUidProvider(Session session, int maxRetry, BlockAllocationConfiguration blockAllocationConfiguration) {
         this.session = session;
         this.runner = new FunctionRunnerWithRetry(maxRetry);
+        this.blockAllocationConfiguration = blockAllocationConfiguration;
+        this.blockAllocator = new BlockAllocator(blockAllocationConfiguration);
+    }
+
+    public CassandraUidProvider(Session session, int maxRetry) {
+        this(session, maxRetry, BlockAllocationConfiguration.disabled());
     }
 
     @Inject
+    public CassandraUidProvider(Session session, BlockAllocationConfiguration blockAllocationConfiguration) {
+        this(session, DEFAULT_MAX_RETRY, blockAllocationConfiguration);
+    }
+
     public CassandraUidProvider(Session session) {
         this(session, DEFAULT_MAX_RETRY);
     }
@@ -74,8 +92,17 @@ public class CassandraUidProvider implements UidProvider {
     @Override
     public MessageUid nextUid(MailboxSession session, MailboxId mailboxId) throws MailboxException {
         CassandraId cassandraId = (CassandraId) mailboxId;
+        if (blockAllocationConfiguration.isEnabled()) {
+            return MessageUid.of(blockAllocator.next(cassandraId,
+                blockSize -> reserveUids(cassandraId, blockSize),
+                uid -> recordLastUid(cassandraId, uid)));
+        }
+        return MessageUid.of(reserveUids(cassandraId, 1).getFirst());
+    }
+
+    private Block reserveUids(CassandraId cassandraId, long blockSize) throws MailboxException {
         if (! findHighestUid(cassandraId).isPresent()) {
-            Optional<MessageUid> optional = tryInsertUid(cassandraId, Optional.empty());
+            Optional<Block> optional = tryInsertUid(cassandraId, Optional.empty(), blockSize);
             if (optional.isPresent()) {
                 return optional.get();
             }
@@ -85,7 +112,7 @@ public class CassandraUidProvider implements UidProvider {
             return runner.executeAndRetrieveObject(
                 () -> {
                     try {
-                        return tryUpdateUid(cassandraId, findHighestUid(cassandraId));
+                        return tryUpdateUid(cassandraId, findHighestUid(cassandraId), blockSize);
                     } catch (Exception exception) {
                         LOG.error("Can not retrieve next Uid", exception);
                         throw Throwables.propagate(exception);
@@ -96,9 +123,26 @@ public class CassandraUidProvider implements UidProvider {
         }
     }
 
+    /**
+     * The persisted high-water mark is read, as the ceiling of the reserved blocks can be above the UIDs handed out
+     * so far. Rows written before it existed only have the ceiling, which then is the last handed out UID.
+     */
     @Override
     public com.google.common.base.Optional<MessageUid> lastUid(MailboxSession mailboxSession, Mailbox mailbox) throws MailboxException {
-        return findHighestUid((CassandraId) mailbox.getMailboxId());
+        CassandraId mailboxId = (CassandraId) mailbox.getMailboxId();
+        ResultSet result = session.execute(
+            select(NEXT_UID, LAST_UID)
+                .from(CassandraMessageUidTable.TABLE_NAME)
+                .where(eq(CassandraMessageUidTable.MAILBOX_ID, mailboxId.asUuid())));
+        if (result.isExhausted()) {
+            return com.google.common.base.Optional.absent();
+        }
+        Row row = result.one();
+        long lastUid = row.isNull(LAST_UID) ? row.getLong(NEXT_UID) : row.getLong(LAST_UID);
+        if (lastUid < MessageUid.MIN_VALUE.asLong()) {
+            return com.google.common.base.Optional.absent();
+        }
+        return com.google.common.base.Optional.of(MessageUid.of(lastUid));
     }
 
     private com.google.common.base.Optional<MessageUid> findHighestUid(CassandraId mailboxId) throws MailboxException {
@@ -113,35 +157,62 @@ public class CassandraUidProvider implements UidProvider {
         }
     }
 
-    private Optional<MessageUid> tryInsertUid(CassandraId mailboxId, Optional<MessageUid> uid) {
-        MessageUid nextUid = uid.map(MessageUid::next).orElse(MessageUid.MIN_VALUE);
-        return transactionalStatementToOptionalUid(nextUid,
+    private Optional<Block> tryInsertUid(CassandraId mailboxId, Optional<MessageUid> uid, long blockSize) {
+        Block block = Block.of(uid.map(MessageUid::next).orElse(MessageUid.MIN_VALUE).asLong(), blockSize);
+        return transactionalStatementToOptionalBlock(block,
             insertInto(CassandraMessageUidTable.TABLE_NAME)
-                .value(NEXT_UID, nextUid.asLong())
+                .value(NEXT_UID, block.getLast())
+                .value(LAST_UID, lastAllocatedOnReservation(block))
                 .value(CassandraMessageUidTable.MAILBOX_ID, mailboxId.asUuid())
                 .ifNotExists());
     }
 
-    private Optional<MessageUid> tryUpdateUid(CassandraId mailboxId, com.google.common.base.Optional<MessageUid> uid) {
+    private Optional<Block> tryUpdateUid(CassandraId mailboxId, com.google.common.base.Optional<MessageUid> uid, long blockSize) {
         if (uid.isPresent()) {
-            MessageUid nextUid = uid.get().next();
-            return transactionalStatementToOptionalUid(nextUid,
+            Block block = Block.of(uid.get().next().asLong(), blockSize);
+            return transactionalStatementToOptionalBlock(block,
                     update(CassandraMessageUidTable.TABLE_NAME)
                         .onlyIf(eq(NEXT_UID, uid.get().asLong()))
-                        .with(set(NEXT_UID, nextUid.asLong()))
+                        .with(set(NEXT_UID, block.getLast()))
+                        .and(set(LAST_UID, lastAllocatedOnReservation(block)))
                         .where(eq(CassandraMessageUidTable.MAILBOX_ID, mailboxId.asUuid())));
         } else {
-            return transactionalStatementToOptionalUid(MessageUid.MIN_VALUE,
+            Block block = Block.of(MessageUid.MIN_VALUE.asLong(), blockSize);
+            return transactionalStatementToOptionalBlock(block,
                     update(CassandraMessageUidTable.TABLE_NAME)
                     .onlyIf(eq(NEXT_UID, null))
-                    .with(set(NEXT_UID, MessageUid.MIN_VALUE.asLong()))
+                    .with(set(NEXT_UID, block.getLast()))
+                    .and(set(LAST_UID, lastAllocatedOnReservation(block)))
                     .where(eq(CassandraMessageUidTable.MAILBOX_ID, mailboxId.asUuid())));
         }
     }
 
-    private Optional<MessageUid> transactionalStatementToOptionalUid(MessageUid uid, BuiltStatement statement) {
+    /**
+     * Without block allocation the reserved UID is handed out at once. Otherwise UIDs are recorded as they are handed
+     * out: until then the previous ceiling is above every handed out UID and below every future one.
+     */
+    private long lastAllocatedOnReservation(Block block) {
+        if (blockAllocationConfiguration.isEnabled()) {
+            return block.getFirst() - 1;
+        }
+        return block.getLast();
+    }
+
+    /**
+     * The high-water mark is only raised: another node can still hand out the UIDs of an older block. It is also
+     * written by the reservations, thus with lightweight transactions only.
+     */
+    private void recordLastUid(CassandraId mailboxId, long uid) {
+        session.execute(
+            update(CassandraMessageUidTable.TABLE_NAME)
+                .onlyIf(lt(LAST_UID, uid))
+                .with(set(LAST_UID, uid))
+                .where(eq(CassandraMessageUidTable.MAILBOX_ID, mailboxId.asUuid())));
+    }
+
+    private Optional<Block> transactionalStatementToOptionalBlock(Block block, BuiltStatement statement) {
         if(session.execute(statement).one().getBool(CassandraConstants.LIGHTWEIGHT_TRANSACTION_APPLIED)) {
-            return Optional.of(uid);
+            return Optional.of(block);
         }
         return Optional.empty();
     }
@@ -0,0 +1,148 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.time.Duration;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Controls how many UIDs / ModSeqs a node reserves at once for a given mailbox.
+ *
+ * A block size of one (the default) keeps the historical behaviour of one lightweight transaction per value.
+ * Larger blocks trade gaps in the sequence (values reserved but never handed out, eg on restart) for fewer
+ * lightweight transactions. The effective block size grows towards maxBlockSize when a block is consumed
+ * faster than refillInterval, and shrinks back towards minBlockSize when the mailbox gets quiet.
+ *
+ * Blocks are reserved per node: UIDs and ModSeqs are only strictly increasing across the cluster when each mailbox
+ * is written by a single node at a time, eg with mailbox affinity in front of the nodes. Keep the default block size
+ * of one when several nodes write to the same mailboxes.
+ */
+public class BlockAllocationConfiguration {
+
+    public static final long DEFAULT_BLOCK_SIZE = 1;
+    public static final Duration DEFAULT_REFILL_INTERVAL = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    public static BlockAllocationConfiguration disabled() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long minBlockSize;
+        private long maxBlockSize;
+        private Duration refillInterval;
+        private Duration idleTimeout;
+
+        private Builder() {
+            minBlockSize = DEFAULT_BLOCK_SIZE;
+            maxBlockSize = DEFAULT_BLOCK_SIZE;
+            refillInterval = DEFAULT_REFILL_INTERVAL;
+            idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        }
+
+        public Builder minBlockSize(long minBlockSize) {
+            Preconditions.checkArgument(minBlockSize > 0, "'minBlockSize' should be strictly positive");
+            this.minBlockSize = minBlockSize;
+            return this;
+        }
+
+        public Builder maxBlockSize(long maxBlockSize) {
+            Preconditions.checkArgument(maxBlockSize > 0, "'maxBlockSize' should be strictly positive");
+            this.maxBlockSize = maxBlockSize;
+            return this;
+        }
+
+        public Builder blockSize(long blockSize) {
+            return minBlockSize(blockSize).maxBlockSize(blockSize);
+        }
+
+        public Builder refillInterval(Duration refillInterval) {
+            Preconditions.checkNotNull(refillInterval);
+            this.refillInterval = refillInterval;
+            return this;
+        }
+
+        public Builder idleTimeout(Duration idleTimeout) {
+            Preconditions.checkNotNull(idleTimeout);
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public BlockAllocationConfiguration build() {
+            Preconditions.checkState(minBlockSize <= maxBlockSize, "'minBlockSize' should not be greater than 'maxBlockSize'");
+            return new BlockAllocationConfiguration(minBlockSize, maxBlockSize, refillInterval, idleTimeout);
+        }
+    }
+
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private final Duration refillInterval;
+    private final Duration idleTimeout;
+
+    private BlockAllocationConfiguration(long minBlockSize, long maxBlockSize, Duration refillInterval, Duration idleTimeout) {
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.refillInterval = refillInterval;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public boolean isEnabled() {
+        return maxBlockSize > 1;
+    }
+
+    public long getMinBlockSize() {
+        return minBlockSize;
+    }
+
+    public long getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    public Duration getRefillInterval() {
+        return refillInterval;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof BlockAllocationConfiguration) {
+            BlockAllocationConfiguration other = (BlockAllocationConfiguration) o;
+            return Objects.equal(minBlockSize, other.minBlockSize)
+                && Objects.equal(maxBlockSize, other.maxBlockSize)
+                && Objects.equal(refillInterval, other.refillInterval)
+                && Objects.equal(idleTimeout, other.idleTimeout);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(minBlockSize, maxBlockSize, refillInterval, idleTimeout);
+    }
+}
@@ -0,0 +1,173 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.exception.MailboxException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Hands out values from blocks reserved in Cassandra, one block per mailbox and per node.
+ *
+ * Values are unique across nodes, as each block is reserved with a lightweight transaction above the persisted
+ * ceiling, and strictly increasing on a given node. Two nodes writing to the same mailbox concurrently each
+ * consume their own block, thus values are only ordered across nodes at block granularity: block allocation is
+ * only meant for deployments where a given mailbox is written by a single node at a time.
+ *
+ * Each handed out value is recorded before being returned, so that the persisted high-water mark never goes
+ * below a handed out value. The mark is only raised by the recording: values of an older block handed out by
+ * another node do not make it go backwards.
+ */
+public class BlockAllocator {
+
+    private static final int SHRINK_FACTOR = 4;
+
+    @FunctionalInterface
+    public interface BlockReserver {
+        Block reserve(long size) throws MailboxException;
+    }
+
+    @FunctionalInterface
+    public interface AllocationRecorder {
+        void record(long lastAllocated) throws MailboxException;
+    }
+
+    public static class Block {
+
+        public static Block of(long first, long size) {
+            Preconditions.checkArgument(size > 0, "'size' should be strictly positive");
+            return new Block(first, first + size - 1);
+        }
+
+        private final long first;
+        private final long last;
+
+        private Block(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        public long getFirst() {
+            return first;
+        }
+
+        public long getLast() {
+            return last;
+        }
+    }
+
+    private class MailboxAllocation {
+        private long next;
+        private long last;
+        private long blockSize;
+        private Optional<Instant> lastRefill;
+
+        private MailboxAllocation() {
+            this.next = 1;
+            this.last = 0;
+            this.blockSize = configuration.getMinBlockSize();
+            this.lastRefill = Optional.empty();
+        }
+
+        private synchronized long next(BlockReserver reserver, AllocationRecorder recorder) throws MailboxException {
+            if (next > last) {
+                Block block = reserver.reserve(nextBlockSize());
+                next = block.getFirst();
+                last = block.getLast();
+            }
+            long value = next++;
+            recorder.record(value);
+            return value;
+        }
+
+        private synchronized Block nextRange(int count, BlockReserver reserver, AllocationRecorder recorder) throws MailboxException {
+            if (last - next + 1 < count) {
+                Block block = reserver.reserve(Math.max(count, nextBlockSize()));
+                next = block.getFirst();
+                last = block.getLast();
+            }
+            Block range = Block.of(next, count);
+            next = range.getLast() + 1;
+            recorder.record(range.getLast());
+            return range;
+        }
+
+        private long nextBlockSize() {
+            Instant now = clock.instant();
+            lastRefill.map(refill -> Duration.between(refill, now))
+                .ifPresent(this::adapt);
+            lastRefill = Optional.of(now);
+            return blockSize;
+        }
+
+        private void adapt(Duration timeToConsumeBlock) {
+            Duration refillInterval = configuration.getRefillInterval();
+            if (timeToConsumeBlock.compareTo(refillInterval) < 0) {
+                blockSize = Math.min(blockSize * 2, configuration.getMaxBlockSize());
+            } else if (timeToConsumeBlock.compareTo(refillInterval.multipliedBy(SHRINK_FACTOR)) > 0) {
+                blockSize = Math.max(blockSize / 2, configuration.getMinBlockSize());
+            }
+        }
+    }
+
+    private final BlockAllocationConfiguration configuration;
+    private final Clock clock;
+    private final Cache<CassandraId, MailboxAllocation> allocations;
+
+    public BlockAllocator(BlockAllocationConfiguration configuration) {
+        this(configuration, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    BlockAllocator(BlockAllocationConfiguration configuration, Clock clock) {
+        this.configuration = configuration;
+        this.clock = clock;
+        this.allocations = CacheBuilder.newBuilder()
+            .expireAfterAccess(configuration.getIdleTimeout().toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    public long next(CassandraId mailboxId, BlockReserver reserver, AllocationRecorder recorder) throws MailboxException {
+        return allocations.asMap()
+            .computeIfAbsent(mailboxId, any -> new MailboxAllocation())
+            .next(reserver, recorder);
+    }
+
+    /**
+     * Hands out count consecutive values. Values left in the current block are dropped when they can not hold the
+     * whole range.
+     */
+    public Block nextRange(CassandraId mailboxId, int count, BlockReserver reserver, AllocationRecorder recorder) throws MailboxException {
+        Preconditions.checkArgument(count > 0, "'count' should be strictly positive");
+        return allocations.asMap()
+            .computeIfAbsent(mailboxId, any -> new MailboxAllocation())
+            .nextRange(count, reserver, recorder);
+    }
+}
@@ -0,0 +1,207 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.mail.internet.SharedInputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lazy {@link SharedInputStream} over a blob stored as fixed size chunks.
+ *
+ * Only the chunks covering the bytes actually read are fetched, and the chunk following the one being read is
+ * fetched ahead of time. At most two chunks are held in memory per stream.
+ */
+public class ChunkedSharedInputStream extends InputStream implements SharedInputStream {
+
+    private static final long UNBOUNDED = -1;
+    private static final int NO_CHUNK = -1;
+
+    public interface ChunkSource {
+        long size();
+
+        int chunkSize();
+
+        int chunkCount();
+
+        CompletableFuture<byte[]> fetch(int chunkNumber);
+    }
+
+    private final ChunkSource source;
+    private final long start;
+    private final long end;
+    private long position;
+    private long mark;
+    private int loadedChunkNumber;
+    private byte[] loadedChunk;
+    private int prefetchedChunkNumber;
+    private CompletableFuture<byte[]> prefetchedChunk;
+
+    public ChunkedSharedInputStream(ChunkSource source) {
+        this(source, 0, UNBOUNDED);
+    }
+
+    private ChunkedSharedInputStream(ChunkSource source, long start, long end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+        this.mark = start;
+        this.loadedChunkNumber = NO_CHUNK;
+        this.prefetchedChunkNumber = NO_CHUNK;
+    }
+
+    @Override
+    public long getPosition() {
+        return position - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        Preconditions.checkArgument(start >= 0, "'start' should be positive");
+        long newEnd = end == UNBOUNDED ? this.end : this.start + end;
+        return new ChunkedSharedInputStream(source, this.start + start, newEnd);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= limit()) {
+            return -1;
+        }
+        byte[] chunk = chunkAt(position);
+        int value = chunk[offsetInChunk(position, chunk)] & 0xff;
+        position++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        Preconditions.checkPositionIndexes(offset, offset + length, buffer.length);
+        if (length == 0) {
+            return 0;
+        }
+        long remaining = limit() - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int toRead = (int) Math.min(length, remaining);
+        int read = 0;
+        while (read < toRead) {
+            byte[] chunk = chunkAt(position);
+            int offsetInChunk = offsetInChunk(position, chunk);
+            int count = Math.min(toRead - read, chunk.length - offsetInChunk);
+            System.arraycopy(chunk, offsetInChunk, buffer, offset + read, count);
+            read += count;
+            position += count;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, limit() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, limit() - position));
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = mark;
+    }
+
+    @Override
+    public void close() throws IOException {
+        loadedChunk = null;
+        loadedChunkNumber = NO_CHUNK;
+        prefetchedChunk = null;
+        prefetchedChunkNumber = NO_CHUNK;
+    }
+
+    private long limit() {
+        if (end == UNBOUNDED) {
+            return source.size();
+        }
+        return Math.min(end, source.size());
+    }
+
+    private int offsetInChunk(long position, byte[] chunk) throws IOException {
+        int offsetInChunk = (int) (position % source.chunkSize());
+        if (offsetInChunk >= chunk.length) {
+            throw new IOException("Chunk is shorter than expected at position " + position);
+        }
+        return offsetInChunk;
+    }
+
+    private byte[] chunkAt(long position) throws IOException {
+        int chunkNumber = (int) (position / source.chunkSize());
+        if (chunkNumber != loadedChunkNumber) {
+            load(chunkNumber);
+        }
+        return loadedChunk;
+    }
+
+    private void load(int chunkNumber) throws IOException {
+        CompletableFuture<byte[]> chunk = retrieve(chunkNumber);
+        prefetch(chunkNumber + 1);
+        try {
+            loadedChunk = chunk.join();
+            loadedChunkNumber = chunkNumber;
+        } catch (CompletionException e) {
+            throw new IOException("Can not read chunk " + chunkNumber, e.getCause());
+        }
+    }
+
+    private CompletableFuture<byte[]> retrieve(int chunkNumber) {
+        if (chunkNumber == prefetchedChunkNumber) {
+            return prefetchedChunk;
+        }
+        return source.fetch(chunkNumber);
+    }
+
+    private void prefetch(int chunkNumber) {
+        if (chunkNumber < source.chunkCount() && (long) chunkNumber * source.chunkSize() < limit()) {
+            prefetchedChunkNumber = chunkNumber;
+            prefetchedChunk = source.fetch(chunkNumber);
+        } else {
+            prefetchedChunkNumber = NO_CHUNK;
+            prefetchedChunk = null;
+        }
+    }
+}
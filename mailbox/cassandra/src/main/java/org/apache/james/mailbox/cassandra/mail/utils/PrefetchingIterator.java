@@ -0,0 +1,70 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps up to prefetchSize elements of the underlying iterator pulled ahead of the consumer.
+ *
+ * Combined with a lazily transformed iterator of futures, this bounds the number of requests in flight
+ * while still overlapping them with the processing of the current element. Order is preserved.
+ */
+public class PrefetchingIterator<T> implements Iterator<T> {
+
+    private final Iterator<T> delegate;
+    private final int prefetchSize;
+    private final Deque<T> prefetched;
+
+    public PrefetchingIterator(Iterator<T> delegate, int prefetchSize) {
+        Preconditions.checkArgument(prefetchSize > 0, "'prefetchSize' should be strictly positive");
+        this.delegate = delegate;
+        this.prefetchSize = prefetchSize;
+        this.prefetched = new ArrayDeque<>(prefetchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !prefetched.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        fill();
+        if (prefetched.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        T next = prefetched.poll();
+        fill();
+        return next;
+    }
+
+    private void fill() {
+        while (prefetched.size() < prefetchSize && delegate.hasNext()) {
+            prefetched.add(delegate.next());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.mail.internet.SharedInputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link SharedInputStream} reading an in memory prefix followed by another {@link SharedInputStream}.
+ *
+ * The suffix stream is only opened once the read position goes past the prefix, so that reading the prefix alone
+ * never triggers a read of the suffix.
+ *
+ * A prefix can also be skipped: it then only shifts the positions of the suffix and reads as zeros, without being
+ * allocated.
+ */
+public class PrefixedSharedInputStream extends InputStream implements SharedInputStream {
+
+    private static final long UNBOUNDED = -1;
+
+    private final byte[] prefix;
+    private final int prefixLength;
+    private final SharedInputStream suffix;
+    private final long start;
+    private final long end;
+    private long position;
+    private long mark;
+    private InputStream openedSuffix;
+
+    public static PrefixedSharedInputStream skippingPrefix(int prefixLength, SharedInputStream suffix) {
+        Preconditions.checkArgument(prefixLength >= 0, "'prefixLength' should be positive");
+        return new PrefixedSharedInputStream(null, prefixLength, suffix, 0, UNBOUNDED);
+    }
+
+    public PrefixedSharedInputStream(byte[] prefix, SharedInputStream suffix) {
+        this(prefix, prefix.length, suffix, 0, UNBOUNDED);
+    }
+
+    private PrefixedSharedInputStream(byte[] prefix, int prefixLength, SharedInputStream suffix, long start, long end) {
+        this.prefix = prefix;
+        this.prefixLength = prefixLength;
+        this.suffix = suffix;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+        this.mark = start;
+    }
+
+    @Override
+    public long getPosition() {
+        return position - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        Preconditions.checkArgument(start >= 0, "'start' should be positive");
+        long newEnd = end == UNBOUNDED ? this.end : this.start + end;
+        return new PrefixedSharedInputStream(prefix, prefixLength, suffix, this.start + start, newEnd);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= limit()) {
+            return -1;
+        }
+        if (position < prefixLength) {
+            return prefixByte((int) position++);
+        }
+        int value = suffixStream().read();
+        if (value != -1) {
+            position++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        Preconditions.checkPositionIndexes(offset, offset + length, buffer.length);
+        if (length == 0) {
+            return 0;
+        }
+        long remaining = limit() - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int toRead = (int) Math.min(length, remaining);
+        if (position < prefixLength) {
+            int count = Math.min(toRead, prefixLength - (int) position);
+            copyPrefix((int) position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+        int read = suffixStream().read(buffer, offset, toRead);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long toSkip = Math.max(0, Math.min(n, limit() - position));
+        if (position < prefixLength) {
+            long skipped = Math.min(toSkip, prefixLength - position);
+            position += skipped;
+            return skipped;
+        }
+        long skipped = suffixStream().skip(toSkip);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (position >= limit()) {
+            return 0;
+        }
+        if (position < prefixLength) {
+            return (int) Math.min(prefixLength - position, limit() - position);
+        }
+        return suffixStream().available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = mark;
+        closeSuffix();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSuffix();
+    }
+
+    private int prefixByte(int index) {
+        if (prefix == null) {
+            return 0;
+        }
+        return prefix[index] & 0xff;
+    }
+
+    private void copyPrefix(int index, byte[] buffer, int offset, int count) {
+        if (prefix == null) {
+            Arrays.fill(buffer, offset, offset + count, (byte) 0);
+            return;
+        }
+        System.arraycopy(prefix, index, buffer, offset, count);
+    }
+
+    private long limit() {
+        if (end == UNBOUNDED) {
+            return Long.MAX_VALUE;
+        }
+        return end;
+    }
+
+    private InputStream suffixStream() {
+        if (openedSuffix == null) {
+            long suffixEnd = end == UNBOUNDED ? UNBOUNDED : end - prefixLength;
+            openedSuffix = suffix.newStream(position - prefixLength, suffixEnd);
+        }
+        return openedSuffix;
+    }
+
+    private void closeSuffix() throws IOException {
+        if (openedSuffix != null) {
+            openedSuffix.close();
+            openedSuffix = null;
+        }
+    }
+}
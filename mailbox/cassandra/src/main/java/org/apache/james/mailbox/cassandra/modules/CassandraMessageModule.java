@@ -36,6 +36,9 @@ import org.apache.james.backends.cassandra.components.CassandraIndex;
 import org.apache.james.backends.cassandra.components.CassandraModule;
 import org.apache.james.backends.cassandra.components.CassandraTable;
 import org.apache.james.backends.cassandra.components.CassandraType;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable.BlobParts;
+import org.apache.james.mailbox.cassandra.table.CassandraBlobTable.BlobReferences;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageIdTable;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageIds;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable;
@@ -95,8 +98,29 @@ public class CassandraMessageModule implements CassandraModule {
                     .addColumn(CassandraMessageTable.FULL_CONTENT_OCTETS, bigint())
                     .addColumn(CassandraMessageTable.BODY_CONTENT, blob())
                     .addColumn(CassandraMessageTable.HEADER_CONTENT, blob())
+                    .addColumn(CassandraMessageTable.CONTENT_BLOB_ID, text())
+                    .addColumn(CassandraMessageTable.BODY_BLOB_ID, text())
                     .addUDTListColumn(CassandraMessageTable.ATTACHMENTS, SchemaBuilder.frozen(CassandraMessageTable.ATTACHMENTS))
-                    .addUDTListColumn(CassandraMessageTable.PROPERTIES, SchemaBuilder.frozen(CassandraMessageTable.PROPERTIES))));
+                    .addUDTListColumn(CassandraMessageTable.PROPERTIES, SchemaBuilder.frozen(CassandraMessageTable.PROPERTIES))),
+            new CassandraTable(CassandraBlobTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraBlobTable.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(CassandraBlobTable.ID, text())
+                    .addColumn(CassandraBlobTable.SIZE, bigint())
+                    .addColumn(CassandraBlobTable.CHUNK_SIZE, cint())
+                    .addColumn(CassandraBlobTable.CHUNK_COUNT, cint())),
+            new CassandraTable(BlobParts.TABLE_NAME,
+                SchemaBuilder.createTable(BlobParts.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(BlobParts.ID, text())
+                    .addClusteringColumn(BlobParts.CHUNK_NUMBER, cint())
+                    .addColumn(BlobParts.DATA, blob())),
+            new CassandraTable(BlobReferences.TABLE_NAME,
+                SchemaBuilder.createTable(BlobReferences.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(BlobReferences.ID, text())
+                    .addClusteringColumn(BlobReferences.REFERENCE, timeuuid())
+                    .addStaticColumn(BlobReferences.DELETED, cboolean())));
         index = Collections.emptyList();
         types = Arrays.asList(
             new CassandraType(CassandraMessageTable.PROPERTIES,
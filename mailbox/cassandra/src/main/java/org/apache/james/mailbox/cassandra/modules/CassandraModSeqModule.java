@@ -46,7 +46,8 @@ public class CassandraModSeqModule implements CassandraModule {
                 SchemaBuilder.createTable(CassandraMessageModseqTable.TABLE_NAME)
                     .ifNotExists()
                     .addPartitionKey(CassandraMessageModseqTable.MAILBOX_ID, timeuuid())
-                    .addColumn(CassandraMessageModseqTable.NEXT_MODSEQ, bigint())));
+                    .addColumn(CassandraMessageModseqTable.NEXT_MODSEQ, bigint())
+                    .addColumn(CassandraMessageModseqTable.LAST_MODSEQ, bigint())));
         index = Collections.emptyList();
         types = Collections.emptyList();
     }
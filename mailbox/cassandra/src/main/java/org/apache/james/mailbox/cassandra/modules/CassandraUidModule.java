@@ -46,7 +46,8 @@ public class CassandraUidModule implements CassandraModule {
                 SchemaBuilder.createTable(CassandraMessageUidTable.TABLE_NAME)
                     .ifNotExists()
                     .addPartitionKey(CassandraMessageUidTable.MAILBOX_ID, timeuuid())
-                    .addColumn(CassandraMessageUidTable.NEXT_UID, bigint())));
+                    .addColumn(CassandraMessageUidTable.NEXT_UID, bigint())
+                    .addColumn(CassandraMessageUidTable.LAST_UID, bigint())));
         index = Collections.emptyList();
         types = Collections.emptyList();
     }
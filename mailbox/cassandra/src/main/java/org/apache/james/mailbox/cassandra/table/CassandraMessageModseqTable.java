@@ -23,4 +23,5 @@ public interface CassandraMessageModseqTable {
     String TABLE_NAME = "modseq";
     String MAILBOX_ID = "mailboxId";
     String NEXT_MODSEQ = "nextModseq";
+    String LAST_MODSEQ = "lastModseq";
 }
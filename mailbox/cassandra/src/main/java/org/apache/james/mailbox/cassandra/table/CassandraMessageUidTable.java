@@ -23,4 +23,5 @@ public interface CassandraMessageUidTable {
     String TABLE_NAME = "messageCounter";
     String MAILBOX_ID = "mailboxId";
     String NEXT_UID = "nextUid";
+    String LAST_UID = "lastUid";
 }
\ No newline at end of file
@@ -28,7 +28,9 @@ import org.apache.james.mailbox.cassandra.mail.CassandraMessageIdDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageIdToImapUidDAO;
 import org.apache.james.mailbox.cassandra.mail.CassandraModSeqProvider;
 import org.apache.james.mailbox.cassandra.mail.CassandraUidProvider;
+import org.apache.james.mailbox.cassandra.modules.CassandraFirstUnseenModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraMailboxCounterModule;
+import org.apache.james.mailbox.cassandra.modules.CassandraMailboxRecentsModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraSubscriptionModule;
 
 /**
@@ -38,7 +40,8 @@ public class CassandraSubscriptionManagerTest extends AbstractSubscriptionManage
 
     private static final CassandraCluster cassandra = CassandraCluster.create(
         new CassandraModuleComposite(
-            new CassandraSubscriptionModule(), new CassandraMailboxCounterModule()));
+            new CassandraSubscriptionModule(), new CassandraMailboxCounterModule(),
+            new CassandraMailboxRecentsModule(), new CassandraFirstUnseenModule()));
     
     @Override
     public SubscriptionManager createSubscriptionManager() {
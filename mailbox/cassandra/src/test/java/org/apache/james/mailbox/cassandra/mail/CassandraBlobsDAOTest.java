@@ -0,0 +1,270 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.mailbox.cassandra.modules.CassandraMessageModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class CassandraBlobsDAOTest {
+
+    private static final int CHUNK_SIZE = 10;
+    private static final int MAX_PARALLEL_CHUNK_WRITES = 2;
+
+    private CassandraCluster cassandra;
+    private CassandraBlobsDAO testee;
+
+    @Before
+    public void setUp() {
+        cassandra = CassandraCluster.create(new CassandraMessageModule());
+        cassandra.ensureAllTables();
+
+        testee = new CassandraBlobsDAO(cassandra.getConf(), CHUNK_SIZE, MAX_PARALLEL_CHUNK_WRITES);
+    }
+
+    @After
+    public void tearDown() {
+        testee.destroy();
+        cassandra.clearAllTables();
+    }
+
+    @Test
+    public void readShouldReturnEmptyContentWhenSavingEmptyContent() throws Exception {
+        BlobId blobId = testee.save(new ByteArrayInputStream(new byte[0])).join();
+
+        assertThat(IOUtils.toByteArray((InputStream) testee.read(blobId))).isEmpty();
+    }
+
+    @Test
+    public void readShouldReturnSavedContentWhenSmallerThanAChunk() throws Exception {
+        BlobId blobId = testee.save(toStream("short")).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo("short");
+    }
+
+    @Test
+    public void readShouldReturnSavedContentWhenSpanningSeveralChunks() throws Exception {
+        String content = Strings.repeat("0123456789", 7) + "end";
+        BlobId blobId = testee.save(toStream(content)).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void readShouldReturnSavedContentWhenExactMultipleOfChunkSize() throws Exception {
+        String content = Strings.repeat("0123456789", 3);
+        BlobId blobId = testee.save(toStream(content)).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void newStreamShouldReturnRequestedRangeAcrossChunks() throws Exception {
+        String content = Strings.repeat("0123456789", 5);
+        BlobId blobId = testee.save(toStream(content)).join();
+
+        SharedInputStream sharedInputStream = testee.read(blobId);
+
+        assertThat(IOUtils.toString(sharedInputStream.newStream(15, 32), StandardCharsets.UTF_8))
+            .isEqualTo(content.substring(15, 32));
+    }
+
+    @Test
+    public void newStreamShouldReadUpToTheEndWhenNoEndSpecified() throws Exception {
+        String content = Strings.repeat("0123456789", 5);
+        BlobId blobId = testee.save(toStream(content)).join();
+
+        SharedInputStream sharedInputStream = testee.read(blobId);
+
+        assertThat(IOUtils.toString(sharedInputStream.newStream(42, -1), StandardCharsets.UTF_8))
+            .isEqualTo(content.substring(42));
+    }
+
+    @Test
+    public void deleteShouldRemoveBlobParts() throws Exception {
+        BlobId blobId = testee.save(toStream(Strings.repeat("0123456789", 5))).join();
+
+        testee.delete(blobId).join();
+
+        assertThat(cassandra.getConf().execute("SELECT * FROM blobParts").all()).isEmpty();
+    }
+
+    @Test
+    public void forContentShouldReturnSameIdForSameContent() throws Exception {
+        assertThat(BlobId.forContent(toStream("content"))).isEqualTo(BlobId.forContent(toStream("content")));
+    }
+
+    @Test
+    public void forContentShouldReturnDistinctIdsForDistinctContents() throws Exception {
+        assertThat(BlobId.forContent(toStream("content"))).isNotEqualTo(BlobId.forContent(toStream("other")));
+    }
+
+    @Test
+    public void saveReferencedShouldStoreContent() throws Exception {
+        String content = Strings.repeat("0123456789", 5);
+        BlobId blobId = BlobId.forContent(toStream(content));
+
+        testee.saveReferenced(blobId, UUIDs.timeBased(), () -> toStream(content)).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void saveReferencedShouldNotRewriteExistingContent() throws Exception {
+        String content = Strings.repeat("0123456789", 5);
+        BlobId blobId = BlobId.forContent(toStream(content));
+        testee.saveReferenced(blobId, UUIDs.timeBased(), () -> toStream(content)).join();
+
+        testee.saveReferenced(blobId, UUIDs.timeBased(), () -> {
+            throw new IllegalStateException("Content should not be read again");
+        }).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void removeReferenceShouldKeepContentWhenOtherReferencesRemain() throws Exception {
+        String content = "content";
+        BlobId blobId = BlobId.forContent(toStream(content));
+        UUID reference1 = UUIDs.timeBased();
+        UUID reference2 = UUIDs.timeBased();
+        testee.saveReferenced(blobId, reference1, () -> toStream(content)).join();
+        testee.saveReferenced(blobId, reference2, () -> toStream(content)).join();
+
+        testee.removeReference(blobId, reference1).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void removeReferenceShouldDeleteContentWhenLastReferenceIsRemoved() throws Exception {
+        String content = "content";
+        BlobId blobId = BlobId.forContent(toStream(content));
+        UUID reference1 = UUIDs.timeBased();
+        UUID reference2 = UUIDs.timeBased();
+        testee.saveReferenced(blobId, reference1, () -> toStream(content)).join();
+        testee.saveReferenced(blobId, reference2, () -> toStream(content)).join();
+
+        testee.removeReference(blobId, reference1).join();
+        testee.removeReference(blobId, reference2).join();
+
+        assertThat(cassandra.getConf().execute("SELECT * FROM blobs").all()).isEmpty();
+        assertThat(cassandra.getConf().execute("SELECT * FROM blobParts").all()).isEmpty();
+        assertThat(cassandra.getConf().execute("SELECT * FROM blobReferences").all()).isEmpty();
+    }
+
+    @Test
+    public void removeReferenceShouldBeIdempotent() throws Exception {
+        String content = "content";
+        BlobId blobId = BlobId.forContent(toStream(content));
+        UUID reference1 = UUIDs.timeBased();
+        UUID reference2 = UUIDs.timeBased();
+        testee.saveReferenced(blobId, reference1, () -> toStream(content)).join();
+        testee.saveReferenced(blobId, reference2, () -> toStream(content)).join();
+
+        testee.removeReference(blobId, reference1).join();
+        testee.removeReference(blobId, reference1).join();
+
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void saveReferencedShouldUseAnotherBlobWhenBlobIsBeingDeleted() throws Exception {
+        String content = "content";
+        BlobId blobId = BlobId.forContent(toStream(content));
+        testee.saveReferenced(blobId, UUIDs.timeBased(), () -> toStream(content)).join();
+        cassandra.getConf().execute("UPDATE blobReferences SET deleted = true WHERE id = '" + blobId.getId() + "'");
+
+        BlobId savedBlobId = testee.saveReferenced(blobId, UUIDs.timeBased(), () -> toStream(content)).join();
+
+        assertThat(savedBlobId).isNotEqualTo(blobId);
+        assertThat(IOUtils.toString((InputStream) testee.read(savedBlobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void saveReferencedShouldStoreContentAgainOnceDeleted() throws Exception {
+        String content = "content";
+        BlobId blobId = BlobId.forContent(toStream(content));
+        UUID reference = UUIDs.timeBased();
+        testee.saveReferenced(blobId, reference, () -> toStream(content)).join();
+        testee.removeReference(blobId, reference).join();
+
+        BlobId savedBlobId = testee.saveReferenced(blobId, UUIDs.timeBased(), () -> toStream(content)).join();
+
+        assertThat(savedBlobId).isEqualTo(blobId);
+        assertThat(IOUtils.toString((InputStream) testee.read(blobId), StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+
+    @Test
+    public void concurrentSaveReferencedAndRemoveReferenceShouldNotLoseReferencedContent() throws Exception {
+        String content = Strings.repeat("0123456789", 5);
+        BlobId blobId = BlobId.forContent(toStream(content));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 20; i++) {
+                UUID removedReference = UUIDs.timeBased();
+                UUID addedReference = UUIDs.timeBased();
+                testee.saveReferenced(blobId, removedReference, () -> toStream(content)).join();
+                CountDownLatch start = new CountDownLatch(1);
+
+                Future<?> removal = executor.submit(() -> {
+                    Uninterruptibles.awaitUninterruptibly(start);
+                    testee.removeReference(blobId, removedReference).join();
+                });
+                Future<BlobId> addition = executor.submit(() -> {
+                    Uninterruptibles.awaitUninterruptibly(start);
+                    return testee.saveReferenced(blobId, addedReference, () -> toStream(content)).join();
+                });
+                start.countDown();
+                removal.get();
+                BlobId savedBlobId = addition.get();
+
+                assertThat(IOUtils.toString((InputStream) testee.read(savedBlobId), StandardCharsets.UTF_8)).isEqualTo(content);
+                testee.removeReference(savedBlobId, addedReference).join();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,177 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.cassandra.mail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.modules.CassandraMailboxRecentsModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class CassandraMailboxRecentsDAOTest {
+    private static final CassandraId MAILBOX_ID = CassandraId.timeBased();
+    private static final MessageUid UID_1 = MessageUid.of(1);
+    private static final MessageUid UID_2 = MessageUid.of(2);
+
+    private CassandraCluster cassandra;
+
+    private CassandraMailboxRecentsDAO testee;
+
+    @Before
+    public void setUp() {
+        cassandra = CassandraCluster.create(new CassandraMailboxRecentsModule());
+        cassandra.ensureAllTables();
+
+        testee = new CassandraMailboxRecentsDAO(cassandra.getConf());
+    }
+
+    @After
+    public void tearDown() {
+        cassandra.clearAllTables();
+    }
+
+    @Test
+    public void getRecentMessageUidsInMailboxShouldBeEmptyByDefault() {
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).isEmpty();
+    }
+
+    @Test
+    public void addToRecentShouldAddUidWhenEmpty() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsOnly(UID_1);
+    }
+
+    @Test
+    public void getRecentMessageUidsInMailboxShouldReturnUidsInAscendingOrder() {
+        testee.addToRecent(MAILBOX_ID, UID_2).join();
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsExactly(UID_1, UID_2);
+    }
+
+    @Test
+    public void addToRecentShouldBeIdempotent() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsExactly(UID_1);
+    }
+
+    @Test
+    public void removeFromRecentShouldRemoveOnlyConcernedUid() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+        testee.addToRecent(MAILBOX_ID, UID_2).join();
+
+        testee.removeFromRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsExactly(UID_2);
+    }
+
+    @Test
+    public void removeFromRecentShouldNotThrowWhenUidIsNotRecent() {
+        testee.removeFromRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).isEmpty();
+    }
+
+    @Test
+    public void addToRecentShouldAddAllUids() {
+        testee.addToRecent(MAILBOX_ID, ImmutableList.of(UID_1, UID_2)).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsExactly(UID_1, UID_2);
+    }
+
+    @Test
+    public void removeFromRecentShouldRemoveAllUids() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+        testee.addToRecent(MAILBOX_ID, UID_2).join();
+
+        testee.removeFromRecent(MAILBOX_ID, ImmutableList.of(UID_1, UID_2)).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).isEmpty();
+    }
+
+    @Test
+    public void isPopulatedShouldReturnFalseByDefault() {
+        assertThat(testee.isPopulated(MAILBOX_ID).join()).isFalse();
+    }
+
+    @Test
+    public void isPopulatedShouldReturnFalseWhenOnlyUidsWereAdded() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+
+        assertThat(testee.isPopulated(MAILBOX_ID).join()).isFalse();
+    }
+
+    @Test
+    public void isPopulatedShouldReturnTrueWhenMarked() {
+        testee.markPopulated(MAILBOX_ID).join();
+
+        assertThat(testee.isPopulated(MAILBOX_ID).join()).isTrue();
+    }
+
+    @Test
+    public void getRecentMessageUidsInMailboxShouldBeEmptyWhenOnlyMarked() {
+        testee.markPopulated(MAILBOX_ID).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).isEmpty();
+    }
+
+    @Test
+    public void markPopulatedShouldKeepTheUids() {
+        testee.addToRecent(MAILBOX_ID, UID_1).join();
+
+        testee.markPopulated(MAILBOX_ID).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsOnly(UID_1);
+    }
+
+    @Test
+    public void addToRecentShouldAddMoreUidsThanABatch() {
+        List<MessageUid> uids = LongStream.rangeClosed(1, 250)
+            .mapToObj(MessageUid::of)
+            .collect(Collectors.toList());
+
+        testee.addToRecent(MAILBOX_ID, uids).join();
+
+        assertThat(testee.getRecentMessageUidsInMailbox(MAILBOX_ID).join()
+            .collect(Collectors.toList())).containsExactlyElementsOf(uids);
+    }
+}
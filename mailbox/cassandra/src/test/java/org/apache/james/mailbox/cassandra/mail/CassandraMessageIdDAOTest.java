@@ -28,6 +28,7 @@ import java.util.stream.Collectors;
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.james.backends.cassandra.CassandraCluster;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.cassandra.CassandraId;
@@ -40,6 +41,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+
 public class CassandraMessageIdDAOTest {
 
     private CassandraCluster cassandra;
@@ -554,4 +557,75 @@ public class CassandraMessageIdDAOTest {
 
         assertThat(messages).containsOnly(composedMessageIdWithMetaData);
     }
+
+    @Test
+    public void batchedUpdateShouldUpdateAllMessagesWhenOldModSeqsMatch() {
+        CassandraId mailboxId = CassandraId.timeBased();
+        ComposedMessageId composedMessageId1 = new ComposedMessageId(mailboxId, messageIdFactory.generate(), MessageUid.of(1));
+        ComposedMessageId composedMessageId2 = new ComposedMessageId(mailboxId, messageIdFactory.generate(), MessageUid.of(2));
+        testee.insert(ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(composedMessageId1)
+                .flags(new Flags())
+                .modSeq(1)
+                .build())
+            .join();
+        testee.insert(ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(composedMessageId2)
+                .flags(new Flags())
+                .modSeq(2)
+                .build())
+            .join();
+
+        ComposedMessageIdWithMetaData expected1 = ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(composedMessageId1)
+                .flags(new Flags(Flag.SEEN))
+                .modSeq(3)
+                .build();
+        ComposedMessageIdWithMetaData expected2 = ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(composedMessageId2)
+                .flags(new Flags(Flag.SEEN))
+                .modSeq(4)
+                .build();
+        Boolean result = testee.updateMetadata(ImmutableList.of(Pair.of(expected1, 1L), Pair.of(expected2, 2L))).join();
+
+        assertThat(result).isTrue();
+        assertThat(testee.retrieveMessages(mailboxId, MessageRange.all()).join()
+                .collect(Collectors.toList()))
+            .containsExactly(expected1, expected2);
+    }
+
+    @Test
+    public void batchedUpdateShouldUpdateNoMessageWhenOneOldModSeqDoesntMatch() {
+        CassandraId mailboxId = CassandraId.timeBased();
+        ComposedMessageIdWithMetaData original1 = ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(new ComposedMessageId(mailboxId, messageIdFactory.generate(), MessageUid.of(1)))
+                .flags(new Flags())
+                .modSeq(1)
+                .build();
+        ComposedMessageIdWithMetaData original2 = ComposedMessageIdWithMetaData.builder()
+                .composedMessageId(new ComposedMessageId(mailboxId, messageIdFactory.generate(), MessageUid.of(2)))
+                .flags(new Flags())
+                .modSeq(2)
+                .build();
+        testee.insert(original1).join();
+        testee.insert(original2).join();
+
+        Boolean result = testee.updateMetadata(ImmutableList.of(
+                Pair.of(ComposedMessageIdWithMetaData.builder()
+                    .composedMessageId(original1.getComposedMessageId())
+                    .flags(new Flags(Flag.SEEN))
+                    .modSeq(3)
+                    .build(), 1L),
+                Pair.of(ComposedMessageIdWithMetaData.builder()
+                    .composedMessageId(original2.getComposedMessageId())
+                    .flags(new Flags(Flag.SEEN))
+                    .modSeq(4)
+                    .build(), 3L)))
+            .join();
+
+        assertThat(result).isFalse();
+        assertThat(testee.retrieveMessages(mailboxId, MessageRange.all()).join()
+                .collect(Collectors.toList()))
+            .containsExactly(original1, original2);
+    }
 }
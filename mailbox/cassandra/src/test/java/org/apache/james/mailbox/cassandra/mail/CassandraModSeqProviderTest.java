@@ -25,6 +25,9 @@ import java.util.stream.LongStream;
 
 import org.apache.james.backends.cassandra.CassandraCluster;
 import org.apache.james.backends.cassandra.init.CassandraModuleComposite;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocationConfiguration;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator.Block;
 import org.apache.james.mailbox.cassandra.modules.CassandraAclModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraMailboxModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraModSeqModule;
@@ -44,6 +47,7 @@ public class CassandraModSeqProviderTest {
         new CassandraModSeqModule()));
     
     private static final int MAX_RETRY = 100;
+    private static final int BLOCK_SIZE = 10;
     
     private CassandraModSeqProvider modSeqProvider;
     private CassandraMailboxMapper mapper;
@@ -99,4 +103,97 @@ public class CassandraModSeqProviderTest {
             .count();
         assertThat(nbValues).isEqualTo(nbEntries);
     }
+
+    @Test
+    public void nextModSeqShouldIncrementValueByOneWhenBlockAllocation() throws Exception {
+        CassandraModSeqProvider blockModSeqProvider = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        int nbEntries = 3 * BLOCK_SIZE;
+        LongStream.range(1, nbEntries)
+            .forEach(Throwing.longConsumer(value -> {
+                        long result = blockModSeqProvider.nextModSeq(null, mailbox);
+                        assertThat(value).isEqualTo(result);
+                })
+            );
+    }
+
+    @Test
+    public void highestModSeqShouldReturnLastAllocatedValueWhenBlockAllocation() throws Exception {
+        CassandraModSeqProvider blockModSeqProvider = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        long modSeq = blockModSeqProvider.nextModSeq(null, mailbox);
+        assertThat(blockModSeqProvider.highestModSeq(null, mailbox)).isEqualTo(modSeq);
+    }
+
+    @Test
+    public void highestModSeqShouldReturnLastAllocatedValueOnAnotherNodeWhenBlockAllocation() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraModSeqProvider writingNode = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraModSeqProvider readingNode = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+
+        long modSeq = writingNode.nextModSeq(null, mailbox);
+
+        assertThat(readingNode.highestModSeq(null, mailbox)).isEqualTo(modSeq);
+    }
+
+    @Test
+    public void highestModSeqShouldNotGoBackwardsWhenAnotherNodeHandsOutAnOlderBlock() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraModSeqProvider olderBlockNode = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraModSeqProvider newerBlockNode = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+
+        olderBlockNode.nextModSeq(null, mailbox);
+        long modSeq = newerBlockNode.nextModSeq(null, mailbox);
+        olderBlockNode.nextModSeq(null, mailbox);
+
+        assertThat(olderBlockNode.highestModSeq(null, mailbox)).isEqualTo(modSeq);
+    }
+
+    @Test
+    public void nextModSeqShouldNotReuseValuesReservedByAnotherProviderWhenBlockAllocation() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraModSeqProvider provider1 = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraModSeqProvider provider2 = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        int nbEntries = 100;
+        long nbValues = LongStream.range(0, nbEntries)
+            .parallel()
+            .map(Throwing.longUnaryOperator(x -> {
+                CassandraModSeqProvider provider = x % 2 == 0 ? provider1 : provider2;
+                return provider.nextModSeq(null, mailbox);
+            }))
+            .distinct()
+            .count();
+        assertThat(nbValues).isEqualTo(nbEntries);
+    }
+
+    @Test
+    public void nextModSeqShouldBeGreaterThanPreviousCeilingWhenSwitchingToBlockAllocation() throws Exception {
+        long previous = modSeqProvider.nextModSeq(null, mailbox);
+        CassandraModSeqProvider blockModSeqProvider = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        blockModSeqProvider.nextModSeq(null, mailbox);
+        assertThat(modSeqProvider.nextModSeq(null, mailbox)).isGreaterThan(previous + BLOCK_SIZE);
+    }
+
+    @Test
+    public void nextModSeqsShouldReserveConsecutiveValues() throws Exception {
+        long previous = modSeqProvider.nextModSeq(null, mailbox);
+
+        Block range = modSeqProvider.nextModSeqs((CassandraId) mailbox.getMailboxId(), 10);
+
+        assertThat(range.getFirst()).isEqualTo(previous + 1);
+        assertThat(range.getLast()).isEqualTo(previous + 10);
+        assertThat(modSeqProvider.highestModSeq(null, mailbox)).isEqualTo(previous + 10);
+    }
+
+    @Test
+    public void highestModSeqShouldReturnEndOfRangeWhenBlockAllocation() throws Exception {
+        CassandraModSeqProvider blockModSeqProvider = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+
+        Block range = blockModSeqProvider.nextModSeqs((CassandraId) mailbox.getMailboxId(), 3 * BLOCK_SIZE);
+
+        assertThat(blockModSeqProvider.highestModSeq(null, mailbox)).isEqualTo(range.getLast());
+        assertThat(blockModSeqProvider.nextModSeq(null, mailbox)).isEqualTo(range.getLast() + 1);
+    }
 }
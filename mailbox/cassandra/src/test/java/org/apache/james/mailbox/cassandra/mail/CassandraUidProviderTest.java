@@ -26,6 +26,8 @@ import java.util.stream.LongStream;
 import org.apache.james.backends.cassandra.CassandraCluster;
 import org.apache.james.backends.cassandra.init.CassandraModuleComposite;
 import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocationConfiguration;
 import org.apache.james.mailbox.cassandra.modules.CassandraAclModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraMailboxModule;
 import org.apache.james.mailbox.cassandra.modules.CassandraUidModule;
@@ -46,6 +48,7 @@ public class CassandraUidProviderTest {
         new CassandraUidModule()));
     
     private static final int MAX_RETRY = 100;
+    private static final int BLOCK_SIZE = 10;
     
     private CassandraUidProvider uidProvider;
     private CassandraMailboxMapper mapper;
@@ -101,4 +104,77 @@ public class CassandraUidProviderTest {
             .count();
         assertThat(nbValues).isEqualTo(nbEntries);
     }
+
+    @Test
+    public void nextUidShouldIncrementValueByOneWhenBlockAllocation() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        int nbEntries = 3 * BLOCK_SIZE;
+        LongStream.range(1, nbEntries)
+            .forEach(Throwing.longConsumer(value -> {
+                        MessageUid result = blockUidProvider.nextUid(null, mailbox);
+                        assertThat(value).isEqualTo(result.asLong());
+                })
+            );
+    }
+
+    @Test
+    public void lastUidShouldReturnLastAllocatedValueWhenBlockAllocation() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        MessageUid uid = blockUidProvider.nextUid(null, mailbox);
+        assertThat(blockUidProvider.lastUid(null, mailbox)).contains(uid);
+    }
+
+    @Test
+    public void lastUidShouldReturnLastAllocatedValueOnAnotherNodeWhenBlockAllocation() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraUidProvider writingNode = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraUidProvider readingNode = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+
+        MessageUid uid = writingNode.nextUid(null, mailbox);
+
+        assertThat(readingNode.lastUid(null, mailbox)).contains(uid);
+    }
+
+    @Test
+    public void lastUidShouldNotGoBackwardsWhenAnotherNodeHandsOutAnOlderBlock() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraUidProvider olderBlockNode = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraUidProvider newerBlockNode = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+
+        olderBlockNode.nextUid(null, mailbox);
+        MessageUid uid = newerBlockNode.nextUid(null, mailbox);
+        olderBlockNode.nextUid(null, mailbox);
+
+        assertThat(olderBlockNode.lastUid(null, mailbox)).contains(uid);
+    }
+
+    @Test
+    public void lastUidShouldBeAbsentWhenBlockReservedButNothingAllocated() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY,
+            BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build());
+        CASSANDRA.getConf().execute("INSERT INTO messageCounter (mailboxId, nextUid, lastUid) VALUES ("
+            + ((CassandraId) mailbox.getMailboxId()).asUuid() + ", " + BLOCK_SIZE + ", 0)");
+
+        assertThat(blockUidProvider.lastUid(null, mailbox)).isAbsent();
+    }
+
+    @Test
+    public void nextUidShouldNotReuseValuesReservedByAnotherProviderWhenBlockAllocation() throws Exception {
+        BlockAllocationConfiguration configuration = BlockAllocationConfiguration.builder().blockSize(BLOCK_SIZE).build();
+        CassandraUidProvider provider1 = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        CassandraUidProvider provider2 = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, configuration);
+        int nbEntries = 100;
+        long nbValues = LongStream.range(0, nbEntries)
+            .parallel()
+            .mapToObj(x -> x)
+            .map(Throwing.function(x -> {
+                CassandraUidProvider provider = x % 2 == 0 ? provider1 : provider2;
+                return provider.nextUid(null, mailbox);
+            }))
+            .distinct()
+            .count();
+        assertThat(nbValues).isEqualTo(nbEntries);
+    }
 }
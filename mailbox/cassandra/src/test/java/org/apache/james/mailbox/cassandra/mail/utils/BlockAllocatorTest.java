@@ -0,0 +1,186 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.BlockAllocator.Block;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.fge.lambdas.Throwing;
+import com.google.common.collect.ImmutableList;
+
+public class BlockAllocatorTest {
+
+    private static final CassandraId MAILBOX_ID = CassandraId.of(UUID.fromString("464765a0-e4e7-11e4-aba4-710c1de3782b"));
+    private static final CassandraId OTHER_MAILBOX_ID = CassandraId.of(UUID.fromString("464765a0-e4e7-11e4-aba4-710c1de3782c"));
+    private static final Instant NOW = Instant.parse("2016-11-28T10:00:00Z");
+
+    private Clock clock;
+    private List<Long> reservedSizes;
+    private long ceiling;
+    private List<Long> recordedValues;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        reservedSizes = new ArrayList<>();
+        ceiling = 0;
+        recordedValues = new ArrayList<>();
+    }
+
+    private Block reserve(long size) {
+        reservedSizes.add(size);
+        Block block = Block.of(ceiling + 1, size);
+        ceiling = block.getLast();
+        return block;
+    }
+
+    private void record(long lastAllocated) {
+        recordedValues.add(lastAllocated);
+    }
+
+    @Test
+    public void nextShouldReserveOnlyOneBlockForConsecutiveValues() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        LongStream.rangeClosed(1, 10)
+            .forEach(Throwing.longConsumer(value -> assertThat(allocator.next(MAILBOX_ID, this::reserve, this::record)).isEqualTo(value)));
+
+        assertThat(reservedSizes).containsExactly(10L);
+    }
+
+    @Test
+    public void nextShouldReserveANewBlockWhenExhausted() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        LongStream.rangeClosed(1, 11)
+            .forEach(Throwing.longConsumer(value -> allocator.next(MAILBOX_ID, this::reserve, this::record)));
+
+        assertThat(reservedSizes).containsExactly(10L, 10L);
+    }
+
+    @Test
+    public void nextRangeShouldServeValuesFromTheCurrentBlock() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        allocator.next(MAILBOX_ID, this::reserve, this::record);
+        Block range = allocator.nextRange(MAILBOX_ID, 5, this::reserve, this::record);
+
+        assertThat(range.getFirst()).isEqualTo(2);
+        assertThat(range.getLast()).isEqualTo(6);
+        assertThat(allocator.next(MAILBOX_ID, this::reserve, this::record)).isEqualTo(7);
+        assertThat(reservedSizes).containsExactly(10L);
+    }
+
+    @Test
+    public void nextRangeShouldReserveABlockHoldingTheWholeRange() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        allocator.next(MAILBOX_ID, this::reserve, this::record);
+        Block range = allocator.nextRange(MAILBOX_ID, 25, this::reserve, this::record);
+
+        assertThat(range.getFirst()).isEqualTo(11);
+        assertThat(range.getLast()).isEqualTo(35);
+        assertThat(recordedValues).containsExactly(1L, 35L);
+        assertThat(reservedSizes).containsExactly(10L, 25L);
+    }
+
+    @Test
+    public void nextShouldHandleMailboxesIndependently() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        allocator.next(MAILBOX_ID, this::reserve, this::record);
+        allocator.next(OTHER_MAILBOX_ID, this::reserve, this::record);
+
+        assertThat(reservedSizes).containsExactly(10L, 10L);
+    }
+
+    @Test
+    public void nextShouldRecordHandedOutValuesAndNotBlockCeiling() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        allocator.next(MAILBOX_ID, this::reserve, this::record);
+        allocator.next(MAILBOX_ID, this::reserve, this::record);
+
+        assertThat(recordedValues).containsExactly(1L, 2L);
+    }
+
+    @Test
+    public void nextShouldNotHandOutValueWhenRecordingFails() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder().blockSize(10).build(), clock);
+
+        try {
+            allocator.next(MAILBOX_ID, this::reserve, value -> {
+                throw new MailboxException("recording failed");
+            });
+            fail("Expecting a MailboxException");
+        } catch (MailboxException e) {
+            // expected
+        }
+        assertThat(allocator.next(MAILBOX_ID, this::reserve, this::record)).isEqualTo(2);
+    }
+
+    @Test
+    public void blockSizeShouldGrowWhenBlocksAreConsumedFasterThanRefillInterval() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder()
+            .minBlockSize(2)
+            .maxBlockSize(8)
+            .refillInterval(Duration.ofSeconds(1))
+            .build(), clock);
+
+        LongStream.rangeClosed(1, 2 + 4 + 8 + 8 + 1)
+            .forEach(Throwing.longConsumer(value -> allocator.next(MAILBOX_ID, this::reserve, this::record)));
+
+        assertThat(reservedSizes).isEqualTo(ImmutableList.of(2L, 4L, 8L, 8L, 8L));
+    }
+
+    @Test
+    public void blockSizeShouldShrinkWhenMailboxGetsQuiet() throws Exception {
+        BlockAllocator allocator = new BlockAllocator(BlockAllocationConfiguration.builder()
+            .minBlockSize(2)
+            .maxBlockSize(8)
+            .refillInterval(Duration.ofSeconds(1))
+            .build(), clock);
+        LongStream.rangeClosed(1, 2 + 4 + 1)
+            .forEach(Throwing.longConsumer(value -> allocator.next(MAILBOX_ID, this::reserve, this::record)));
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+        LongStream.rangeClosed(1, 8)
+            .forEach(Throwing.longConsumer(value -> allocator.next(MAILBOX_ID, this::reserve, this::record)));
+
+        assertThat(reservedSizes).isEqualTo(ImmutableList.of(2L, 4L, 8L, 4L));
+    }
+}
@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkedSharedInputStreamTest {
+
+    private static final String CONTENT = "0123456789abcdefghijABCDEFGHIJ!";
+    private static final int CHUNK_SIZE = 10;
+
+    private Set<Integer> fetchedChunks;
+    private ChunkedSharedInputStream testee;
+
+    @Before
+    public void setUp() {
+        fetchedChunks = new ConcurrentSkipListSet<>();
+        testee = new ChunkedSharedInputStream(new InMemoryChunkSource(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readShouldReturnWholeContent() throws Exception {
+        assertThat(IOUtils.toString(testee, StandardCharsets.UTF_8)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void readByteByByteShouldReturnWholeContent() throws Exception {
+        StringBuilder result = new StringBuilder();
+        int read = testee.read();
+        while (read != -1) {
+            result.append((char) read);
+            read = testee.read();
+        }
+        assertThat(result.toString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void creatingStreamShouldNotFetchAnything() {
+        testee.newStream(5, 15);
+
+        assertThat(fetchedChunks).isEmpty();
+    }
+
+    @Test
+    public void newStreamShouldOnlyFetchCoveringChunksAndTheNextOne() throws Exception {
+        InputStream inputStream = testee.newStream(12, 15);
+
+        assertThat(IOUtils.toString(inputStream, StandardCharsets.UTF_8)).isEqualTo("cde");
+        assertThat(fetchedChunks).containsOnly(1);
+    }
+
+    @Test
+    public void newStreamShouldBeRelativeToParentStream() throws Exception {
+        InputStream inputStream = ((ChunkedSharedInputStream) testee.newStream(10, -1)).newStream(5, 12);
+
+        assertThat(IOUtils.toString(inputStream, StandardCharsets.UTF_8)).isEqualTo("fghijAB");
+    }
+
+    @Test
+    public void getPositionShouldBeRelativeToStreamStart() throws Exception {
+        ChunkedSharedInputStream inputStream = (ChunkedSharedInputStream) testee.newStream(10, -1);
+        inputStream.read(new byte[4]);
+
+        assertThat(inputStream.getPosition()).isEqualTo(4);
+    }
+
+    @Test
+    public void skipShouldNotFetchSkippedChunks() throws Exception {
+        testee.skip(25);
+
+        assertThat(IOUtils.toString(testee, StandardCharsets.UTF_8)).isEqualTo("FGHIJ!");
+        assertThat(fetchedChunks).containsOnly(2, 3);
+    }
+
+    @Test
+    public void resetShouldGoBackToMark() throws Exception {
+        testee.skip(12);
+        testee.mark(0);
+        testee.read(new byte[10]);
+        testee.reset();
+
+        assertThat(testee.read()).isEqualTo('c');
+    }
+
+    private class InMemoryChunkSource implements ChunkedSharedInputStream.ChunkSource {
+        private final byte[] content;
+
+        private InMemoryChunkSource(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public long size() {
+            return content.length;
+        }
+
+        @Override
+        public int chunkSize() {
+            return CHUNK_SIZE;
+        }
+
+        @Override
+        public int chunkCount() {
+            return (content.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> fetch(int chunkNumber) {
+            fetchedChunks.add(chunkNumber);
+            int start = chunkNumber * CHUNK_SIZE;
+            return CompletableFuture.completedFuture(Arrays.copyOfRange(content, start, Math.min(start + CHUNK_SIZE, content.length)));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class CompletableFutureUtilTest {
+
+    @Test
+    public void allOfShouldReturnEmptyStreamWhenNoFutures() {
+        assertThat(CompletableFutureUtil.allOf(Stream.<CompletableFuture<Integer>>empty())
+                .join()
+                .collect(Collectors.toList()))
+            .isEmpty();
+    }
+
+    @Test
+    public void allOfShouldPreserveOrder() {
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        CompletableFuture<Integer> second = new CompletableFuture<>();
+
+        CompletableFuture<Stream<Integer>> result = CompletableFutureUtil.allOf(Stream.of(first, second));
+        second.complete(2);
+        first.complete(1);
+
+        assertThat(result.join().collect(Collectors.toList()))
+            .containsExactly(1, 2);
+    }
+
+    @Test
+    public void allOfShouldNotCompleteBeforeAllFutures() {
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+
+        CompletableFuture<Stream<Integer>> result = CompletableFutureUtil.allOf(Stream.of(CompletableFuture.completedFuture(1), pending));
+
+        assertThat(result.isDone()).isFalse();
+    }
+
+    @Test(expected = CompletionException.class)
+    public void allOfShouldFailWhenOneFutureFails() {
+        CompletableFuture<Integer> failing = new CompletableFuture<>();
+        failing.completeExceptionally(new RuntimeException());
+
+        CompletableFutureUtil.allOf(Stream.of(CompletableFuture.completedFuture(1), failing)).join();
+    }
+}
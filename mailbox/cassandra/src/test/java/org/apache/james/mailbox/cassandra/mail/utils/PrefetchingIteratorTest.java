@@ -0,0 +1,69 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+public class PrefetchingIteratorTest {
+
+    @Test
+    public void iteratorShouldPreserveOrder() {
+        PrefetchingIterator<Integer> testee = new PrefetchingIterator<>(ImmutableList.of(1, 2, 3, 4, 5).iterator(), 2);
+
+        assertThat(ImmutableList.copyOf(testee)).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    public void iteratorShouldBeEmptyWhenDelegateIsEmpty() {
+        PrefetchingIterator<Integer> testee = new PrefetchingIterator<>(ImmutableList.<Integer>of().iterator(), 2);
+
+        assertThat(testee.hasNext()).isFalse();
+    }
+
+    @Test
+    public void creatingIteratorShouldNotPullAnyElement() {
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<Integer> delegate = Iterators.transform(IntStream.range(0, 10).iterator(), i -> pulled.incrementAndGet());
+
+        new PrefetchingIterator<>(delegate, 3);
+
+        assertThat(pulled.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void nextShouldKeepPrefetchSizeElementsPulledAhead() {
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<Integer> delegate = Iterators.transform(IntStream.range(0, 10).iterator(), i -> pulled.incrementAndGet());
+        PrefetchingIterator<Integer> testee = new PrefetchingIterator<>(delegate, 3);
+
+        testee.next();
+
+        assertThat(pulled.get()).isEqualTo(4);
+    }
+}
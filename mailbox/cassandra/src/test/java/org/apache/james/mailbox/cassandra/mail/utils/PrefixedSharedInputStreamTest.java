@@ -0,0 +1,133 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefixedSharedInputStreamTest {
+
+    private static final String PREFIX = "Subject: test\r\n\r\n";
+    private static final String SUFFIX = "0123456789abcdefghij";
+
+    private PrefixedSharedInputStream testee;
+
+    @Before
+    public void setUp() {
+        testee = new PrefixedSharedInputStream(PREFIX.getBytes(StandardCharsets.UTF_8),
+            new SharedByteArrayInputStream(SUFFIX.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readShouldReturnPrefixThenSuffix() throws Exception {
+        assertThat(IOUtils.toString(testee, StandardCharsets.UTF_8)).isEqualTo(PREFIX + SUFFIX);
+    }
+
+    @Test
+    public void readByteByByteShouldReturnPrefixThenSuffix() throws Exception {
+        StringBuilder result = new StringBuilder();
+        int read = testee.read();
+        while (read != -1) {
+            result.append((char) read);
+            read = testee.read();
+        }
+        assertThat(result.toString()).isEqualTo(PREFIX + SUFFIX);
+    }
+
+    @Test
+    public void newStreamShouldReturnRangeSpanningPrefixAndSuffix() throws Exception {
+        String content = PREFIX + SUFFIX;
+
+        InputStream stream = testee.newStream(5, PREFIX.length() + 4);
+
+        assertThat(IOUtils.toString(stream, StandardCharsets.UTF_8)).isEqualTo(content.substring(5, PREFIX.length() + 4));
+    }
+
+    @Test
+    public void newStreamShouldReturnSuffixWhenStartingAtPrefixEnd() throws Exception {
+        InputStream stream = testee.newStream(PREFIX.length(), -1);
+
+        assertThat(IOUtils.toString(stream, StandardCharsets.UTF_8)).isEqualTo(SUFFIX);
+    }
+
+    @Test
+    public void newStreamOfNewStreamShouldBeRelativeToItsParent() throws Exception {
+        SharedInputStream stream = (SharedInputStream) testee.newStream(PREFIX.length(), -1);
+
+        assertThat(IOUtils.toString(stream.newStream(10, 15), StandardCharsets.UTF_8)).isEqualTo(SUFFIX.substring(10, 15));
+    }
+
+    @Test
+    public void skipShouldMoveAcrossPrefixAndSuffix() throws Exception {
+        long skipped = 0;
+        while (skipped < PREFIX.length() + 3) {
+            skipped += testee.skip(PREFIX.length() + 3 - skipped);
+        }
+
+        assertThat(IOUtils.toString(testee, StandardCharsets.UTF_8)).isEqualTo(SUFFIX.substring(3));
+    }
+
+    @Test
+    public void resetShouldRestartFromMark() throws Exception {
+        testee.mark(0);
+        IOUtils.toByteArray(testee);
+
+        testee.reset();
+
+        assertThat(IOUtils.toString(testee, StandardCharsets.UTF_8)).isEqualTo(PREFIX + SUFFIX);
+    }
+
+    @Test
+    public void readingPrefixShouldNotOpenSuffix() throws Exception {
+        SharedInputStream suffix = mock(SharedInputStream.class);
+        PrefixedSharedInputStream stream = new PrefixedSharedInputStream(PREFIX.getBytes(StandardCharsets.UTF_8), suffix);
+
+        IOUtils.toString(stream.newStream(0, PREFIX.length()), StandardCharsets.UTF_8);
+
+        verifyZeroInteractions(suffix);
+    }
+
+    @Test
+    public void skippedPrefixShouldOnlyShiftSuffixPositions() throws Exception {
+        PrefixedSharedInputStream stream = PrefixedSharedInputStream.skippingPrefix(PREFIX.length(),
+            new SharedByteArrayInputStream(SUFFIX.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(IOUtils.toString(stream.newStream(PREFIX.length() + 3, -1), StandardCharsets.UTF_8)).isEqualTo(SUFFIX.substring(3));
+    }
+
+    @Test
+    public void skippedPrefixShouldReadAsZeros() throws Exception {
+        PrefixedSharedInputStream stream = PrefixedSharedInputStream.skippingPrefix(4,
+            new SharedByteArrayInputStream(SUFFIX.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(IOUtils.toByteArray(stream.newStream(0, 6))).isEqualTo(new byte[] {0, 0, 0, 0, '0', '1'});
+    }
+}
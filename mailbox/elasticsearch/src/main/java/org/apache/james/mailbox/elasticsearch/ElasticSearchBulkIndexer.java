@@ -0,0 +1,352 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.elasticsearch;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Buffers index, update and delete operations and sends them to ElasticSearch as bulk requests.
+ *
+ * Buffered operations are flushed every flushDelay, or as soon as bulkSize documents are pending.
+ * Operations targeting the same document are coalesced while pending. Callers block once capacity
+ * documents are pending or being flushed.
+ *
+ * Documents whose operations failed are queued again, ahead of the operations received since, and retried
+ * by the next flushes. They are dropped and counted as failed after MAX_FLUSH_ATTEMPTS attempts.
+ *
+ * Once closed, operations are rejected with an IllegalStateException, including those of callers waiting for
+ * capacity. The operations accepted before are flushed by close().
+ */
+public class ElasticSearchBulkIndexer {
+
+    public static final int DEFAULT_BULK_SIZE = 100;
+    public static final long DEFAULT_FLUSH_DELAY_IN_MS = 200;
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int MAX_FLUSH_ATTEMPTS = 3;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ElasticSearchBulkIndexer.class);
+
+    private static class PendingDocument {
+        private boolean deleted = false;
+        private Optional<String> content = Optional.empty();
+        private Optional<String> updatedPart = Optional.empty();
+        private int failedAttempts = 0;
+
+        void index(String content) {
+            this.content = Optional.of(content);
+            this.updatedPart = Optional.empty();
+        }
+
+        void update(String updatedPart) {
+            if (deleted && !content.isPresent()) {
+                return;
+            }
+            // Flags updates carry the whole flags state: the last one supersedes previous ones
+            this.updatedPart = Optional.of(updatedPart);
+        }
+
+        void delete() {
+            this.deleted = true;
+            this.content = Optional.empty();
+            this.updatedPart = Optional.empty();
+        }
+
+        /**
+         * Apply the operations received since this document was taken for a flush which failed
+         *
+         * @return the document to queue again
+         */
+        PendingDocument followedBy(PendingDocument newer) {
+            if (newer.deleted || newer.content.isPresent()) {
+                return newer;
+            }
+            newer.updatedPart.ifPresent(this::update);
+            return this;
+        }
+
+        void addTo(Client client, BulkRequestBuilder bulkRequestBuilder, String id) {
+            if (deleted) {
+                bulkRequestBuilder.add(client.prepareDelete(ElasticSearchIndexer.MAILBOX_INDEX, ElasticSearchIndexer.MESSAGE_TYPE, id));
+            }
+            content.ifPresent(source -> bulkRequestBuilder.add(client.prepareIndex(ElasticSearchIndexer.MAILBOX_INDEX, ElasticSearchIndexer.MESSAGE_TYPE, id)
+                .setSource(source)));
+            updatedPart.ifPresent(doc -> bulkRequestBuilder.add(client.prepareUpdate(ElasticSearchIndexer.MAILBOX_INDEX, ElasticSearchIndexer.MESSAGE_TYPE, id)
+                .setDoc(doc)));
+        }
+    }
+
+    private final Client client;
+    private final int bulkSize;
+    private final int capacity;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    private final AtomicLong lastFlushLatencyInMs;
+    private final AtomicLong flushedDocumentCount;
+    private final AtomicLong failedDocumentCount;
+    private final ReentrantLock flushLock;
+    private LinkedHashMap<String, PendingDocument> pendingDocuments;
+    private int inFlightDocumentCount;
+    private boolean flushRequested;
+    private boolean closed;
+
+    public ElasticSearchBulkIndexer(Client client) {
+        this(client, DEFAULT_BULK_SIZE, DEFAULT_FLUSH_DELAY_IN_MS, DEFAULT_CAPACITY);
+    }
+
+    public ElasticSearchBulkIndexer(Client client, int bulkSize, long flushDelayInMs, int capacity) {
+        Preconditions.checkArgument(bulkSize > 0, "bulkSize should be strictly positive");
+        Preconditions.checkArgument(flushDelayInMs > 0, "flushDelayInMs should be strictly positive");
+        Preconditions.checkArgument(capacity >= bulkSize, "capacity should not be lower than bulkSize");
+        this.client = client;
+        this.bulkSize = bulkSize;
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.lastFlushLatencyInMs = new AtomicLong();
+        this.flushedDocumentCount = new AtomicLong();
+        this.failedDocumentCount = new AtomicLong();
+        this.flushLock = new ReentrantLock();
+        this.pendingDocuments = new LinkedHashMap<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("elasticsearch-bulk-indexer").setDaemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::flush, flushDelayInMs, flushDelayInMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void index(String id, String content) {
+        Preconditions.checkArgument(content != null, "content should be provided");
+        enqueue(id, document -> document.index(content));
+    }
+
+    public void update(ElasticSearchIndexer.UpdatedRepresentation updatedRepresentation) {
+        enqueue(updatedRepresentation.getId(), document -> document.update(updatedRepresentation.getUpdatedDocumentPart()));
+    }
+
+    public void delete(String id) {
+        enqueue(id, PendingDocument::delete);
+    }
+
+    /**
+     * @return the number of documents pending or being flushed
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pendingDocuments.size() + inFlightDocumentCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastFlushLatencyInMs() {
+        return lastFlushLatencyInMs.get();
+    }
+
+    public long getFlushedDocumentCount() {
+        return flushedDocumentCount.get();
+    }
+
+    /**
+     * @return the number of documents dropped after MAX_FLUSH_ATTEMPTS failed attempts
+     */
+    public long getFailedDocumentCount() {
+        return failedDocumentCount.get();
+    }
+
+    /**
+     * Send the pending operations. Flushes are serialized: when this returns, the operations enqueued before
+     * the call were sent, including those taken by a concurrent flush.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushPendingDocuments();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        // Documents which failed were queued again: give them their remaining attempts
+        while (getPendingDocumentCount() > 0) {
+            flush();
+        }
+    }
+
+    private void flushPendingDocuments() {
+        Map<String, PendingDocument> toFlush = takePendingDocuments();
+        if (toFlush.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, PendingDocument> failed = new LinkedHashMap<>();
+        try {
+            for (List<Map.Entry<String, PendingDocument>> batch : Iterables.partition(toFlush.entrySet(), bulkSize)) {
+                failed.putAll(sendBulk(batch));
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error while flushing {} documents to ElasticSearch", toFlush.size(), e);
+            toFlush.forEach(failed::putIfAbsent);
+        } finally {
+            lastFlushLatencyInMs.set(System.currentTimeMillis() - start);
+            flushedDocumentCount.addAndGet(toFlush.size() - failed.size());
+            releaseInFlightDocuments(toFlush.size(), failed);
+        }
+    }
+
+    private void enqueue(String id, Consumer<PendingDocument> operation) {
+        lock.lock();
+        try {
+            checkNotClosed();
+            while (pendingDocuments.size() + inFlightDocumentCount >= capacity && !pendingDocuments.containsKey(id)) {
+                requestFlush();
+                notFull.awaitUninterruptibly();
+                checkNotClosed();
+            }
+            operation.accept(pendingDocuments.computeIfAbsent(id, key -> new PendingDocument()));
+            if (pendingDocuments.size() >= bulkSize) {
+                requestFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("ElasticSearch bulk indexer is closed");
+        }
+    }
+
+    private void requestFlush() {
+        if (!flushRequested && !scheduler.isShutdown()) {
+            flushRequested = true;
+            scheduler.execute(this::flush);
+        }
+    }
+
+    private Map<String, PendingDocument> takePendingDocuments() {
+        lock.lock();
+        try {
+            LinkedHashMap<String, PendingDocument> toFlush = pendingDocuments;
+            pendingDocuments = new LinkedHashMap<>();
+            inFlightDocumentCount += toFlush.size();
+            flushRequested = false;
+            return toFlush;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getPendingDocumentCount() {
+        lock.lock();
+        try {
+            return pendingDocuments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseInFlightDocuments(int count, Map<String, PendingDocument> failed) {
+        lock.lock();
+        try {
+            inFlightDocumentCount -= count;
+            failed.forEach(this::requeue);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requeue(String id, PendingDocument document) {
+        document.failedAttempts++;
+        if (document.failedAttempts >= MAX_FLUSH_ATTEMPTS) {
+            LOGGER.error("Giving up indexing document {} after {} attempts", id, document.failedAttempts);
+            failedDocumentCount.incrementAndGet();
+            return;
+        }
+        PendingDocument newer = pendingDocuments.remove(id);
+        pendingDocuments.put(id, newer == null ? document : document.followedBy(newer));
+    }
+
+    /**
+     * @return the documents whose operations failed
+     */
+    private Map<String, PendingDocument> sendBulk(List<Map.Entry<String, PendingDocument>> batch) {
+        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        batch.forEach(entry -> entry.getValue().addTo(client, bulkRequestBuilder, entry.getKey()));
+        BulkResponse response = bulkRequestBuilder.get();
+        Map<String, PendingDocument> failed = new LinkedHashMap<>();
+        if (response.hasFailures()) {
+            LOGGER.warn("Bulk indexing failures: {}", response.buildFailureMessage());
+            Set<String> failedIds = new HashSet<>();
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    failedIds.add(item.getId());
+                }
+            }
+            batch.stream()
+                .filter(entry -> failedIds.contains(entry.getKey()))
+                .forEach(entry -> failed.put(entry.getKey(), entry.getValue()));
+        }
+        return failed;
+    }
+}
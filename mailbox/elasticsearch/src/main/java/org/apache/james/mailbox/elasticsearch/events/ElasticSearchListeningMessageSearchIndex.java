@@ -25,6 +25,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -32,12 +33,14 @@ import javax.inject.Inject;
 import org.apache.james.mailbox.MailboxManager.SearchCapabilities;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.elasticsearch.ElasticSearchBulkIndexer;
 import org.apache.james.mailbox.elasticsearch.ElasticSearchIndexer;
 import org.apache.james.mailbox.elasticsearch.json.JsonMessageConstants;
 import org.apache.james.mailbox.elasticsearch.json.MessageToElasticSearchJson;
 import org.apache.james.mailbox.elasticsearch.search.ElasticSearchSearcher;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.UpdatedFlags;
@@ -58,14 +61,26 @@ public class ElasticSearchListeningMessageSearchIndex extends ListeningMessageSe
     private final static String ID_SEPARATOR = ":";
 
     private final ElasticSearchIndexer indexer;
+    private final Optional<ElasticSearchBulkIndexer> bulkIndexer;
     private final ElasticSearchSearcher searcher;
     private final MessageToElasticSearchJson messageToElasticSearchJson;
 
-    @Inject
     public ElasticSearchListeningMessageSearchIndex(MessageMapperFactory factory, ElasticSearchIndexer indexer,
+        ElasticSearchSearcher searcher, MessageToElasticSearchJson messageToElasticSearchJson) {
+        this(factory, indexer, Optional.empty(), searcher, messageToElasticSearchJson);
+    }
+
+    @Inject
+    public ElasticSearchListeningMessageSearchIndex(MessageMapperFactory factory, ElasticSearchIndexer indexer, ElasticSearchBulkIndexer bulkIndexer,
+        ElasticSearchSearcher searcher, MessageToElasticSearchJson messageToElasticSearchJson) {
+        this(factory, indexer, Optional.of(bulkIndexer), searcher, messageToElasticSearchJson);
+    }
+
+    private ElasticSearchListeningMessageSearchIndex(MessageMapperFactory factory, ElasticSearchIndexer indexer, Optional<ElasticSearchBulkIndexer> bulkIndexer,
         ElasticSearchSearcher searcher, MessageToElasticSearchJson messageToElasticSearchJson) {
         super(factory);
         this.indexer = indexer;
+        this.bulkIndexer = bulkIndexer;
         this.messageToElasticSearchJson = messageToElasticSearchJson;
         this.searcher = searcher;
     }
@@ -98,10 +113,22 @@ public class ElasticSearchListeningMessageSearchIndex extends ListeningMessageSe
         return searcher.search(ImmutableList.of(session.getUser()), searchQuery).asMap();
     }
 
+    @Override
+    public List<MessageUidWithMailboxId> sortedSearch(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        Preconditions.checkArgument(session != null, "'session' is mandatory");
+        return searcher.sortedSearch(ImmutableList.of(session.getUser()), searchQuery);
+    }
+
     @Override
     public void add(MailboxSession session, Mailbox mailbox, MailboxMessage message) throws MailboxException {
         try {
-            indexer.indexMessage(indexIdFor(mailbox, message.getUid()), messageToElasticSearchJson.convertToJson(message, ImmutableList.of(session.getUser())));
+            String id = indexIdFor(mailbox, message.getUid());
+            String content = messageToElasticSearchJson.convertToJson(message, ImmutableList.of(session.getUser()));
+            if (bulkIndexer.isPresent()) {
+                bulkIndexer.get().index(id, content);
+            } else {
+                indexer.indexMessage(id, content);
+            }
         } catch (Exception e) {
             LOGGER.error("Error when indexing message " + message.getUid(), e);
         }
@@ -110,9 +137,14 @@ public class ElasticSearchListeningMessageSearchIndex extends ListeningMessageSe
     @Override
     public void delete(MailboxSession session, Mailbox mailbox, List<MessageUid> expungedUids) throws MailboxException {
         try {
-            indexer.deleteMessages(expungedUids.stream()
+            List<String> ids = expungedUids.stream()
                 .map(uid ->  indexIdFor(mailbox, uid))
-                .collect(Collectors.toList()));
+                .collect(Collectors.toList());
+            if (bulkIndexer.isPresent()) {
+                ids.forEach(bulkIndexer.get()::delete);
+            } else {
+                indexer.deleteMessages(ids);
+            }
         } catch (Exception e) {
             LOGGER.error("Error when deleting messages {} in mailbox {} from index", mailbox.getMailboxId().serialize(), expungedUids, e);
         }
@@ -121,6 +153,7 @@ public class ElasticSearchListeningMessageSearchIndex extends ListeningMessageSe
     @Override
     public void deleteAll(MailboxSession session, Mailbox mailbox) throws MailboxException {
         try {
+            bulkIndexer.ifPresent(ElasticSearchBulkIndexer::flush);
             indexer.deleteAllMatchingQuery(
                 termQuery(
                     JsonMessageConstants.MAILBOX_ID,
@@ -133,9 +166,14 @@ public class ElasticSearchListeningMessageSearchIndex extends ListeningMessageSe
     @Override
     public void update(MailboxSession session, Mailbox mailbox, List<UpdatedFlags> updatedFlagsList) throws MailboxException {
         try {
-            indexer.updateMessages(updatedFlagsList.stream()
+            List<ElasticSearchIndexer.UpdatedRepresentation> updates = updatedFlagsList.stream()
                 .map(updatedFlags -> createUpdatedDocumentPartFromUpdatedFlags(mailbox, updatedFlags))
-                .collect(Collectors.toList()));
+                .collect(Collectors.toList());
+            if (bulkIndexer.isPresent()) {
+                updates.forEach(bulkIndexer.get()::update);
+            } else {
+                indexer.updateMessages(updates);
+            }
         } catch (Exception e) {
             LOGGER.error("Error when updating index on mailbox {}", mailbox.getMailboxId().serialize(), e);
         }
@@ -36,6 +36,7 @@ import org.apache.james.mailbox.elasticsearch.query.SortConverter;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MailboxId.Factory;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -48,12 +49,15 @@ import org.slf4j.LoggerFactory;
 
 import com.github.steveash.guavate.Guavate;
 import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
 
 public class ElasticSearchSearcher {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticSearchSearcher.class);
     private static final TimeValue TIMEOUT = new TimeValue(60000);
     public static final int DEFAULT_SIZE = 100;
+    // Default index.max_result_window of ElasticSearch
+    public static final long MAX_RESULT_WINDOW = 10000;
 
     private final Client client;
     private final QueryConverter queryConverter;
@@ -73,21 +77,47 @@ public class ElasticSearchSearcher {
     }
     
     public Multimap<MailboxId, MessageUid> search(List<User> users, MultimailboxesSearchQuery query) throws MailboxException {
-        return new ScrollIterable(client, getSearchRequestBuilder(client, users, query)).stream()
+        return new ScrollIterable(client, getScrollRequestBuilder(client, users, query)).stream()
             .flatMap(this::transformResponseToUidStream)
             .collect(Guavate.toImmutableListMultimap(Pair::getLeft, Pair::getRight));
     }
     
+    /**
+     * When a limit is set, and offset + limit fits in the result window of the index, a single request retrieves the
+     * offset + limit best hits: ElasticSearch sorts and pages on the shards. Otherwise the hits following the offset
+     * are scrolled, as ElasticSearch rejects from + size beyond the result window.
+     */
+    public List<MessageUidWithMailboxId> sortedSearch(List<User> users, MultimailboxesSearchQuery query) throws MailboxException {
+        if (query.getLimit().isPresent() && query.getLimit().get() <= MAX_RESULT_WINDOW - query.getOffset()) {
+            return transformResponseToUidStream(getSearchRequestBuilder(client, users, query)
+                    .setFrom(Ints.saturatedCast(query.getOffset()))
+                    .setSize(Ints.saturatedCast(query.getLimit().get()))
+                    .get())
+                .map(pair -> new MessageUidWithMailboxId(pair.getLeft(), pair.getRight()))
+                .collect(Guavate.toImmutableList());
+        }
+        return new ScrollIterable(client, getScrollRequestBuilder(client, users, query)).stream()
+            .flatMap(this::transformResponseToUidStream)
+            .skip(query.getOffset())
+            .limit(query.getLimit().or(Long.MAX_VALUE))
+            .map(pair -> new MessageUidWithMailboxId(pair.getLeft(), pair.getRight()))
+            .collect(Guavate.toImmutableList());
+    }
+
+    private SearchRequestBuilder getScrollRequestBuilder(Client client, List<User> users, MultimailboxesSearchQuery query) {
+        return getSearchRequestBuilder(client, users, query)
+            .setScroll(TIMEOUT)
+            .setSize(size);
+    }
+
     private SearchRequestBuilder getSearchRequestBuilder(Client client, List<User> users, MultimailboxesSearchQuery query) {
         return query.getSearchQuery().getSorts()
             .stream()
             .reduce(
                 client.prepareSearch(ElasticSearchIndexer.MAILBOX_INDEX)
                     .setTypes(ElasticSearchIndexer.MESSAGE_TYPE)
-                    .setScroll(TIMEOUT)
                     .addFields(JsonMessageConstants.ID, JsonMessageConstants.MAILBOX_ID)
-                    .setQuery(queryConverter.from(users, query))
-                    .setSize(size),
+                    .setQuery(queryConverter.from(users, query)),
                 (searchBuilder, sort) -> searchBuilder.addSort(SortConverter.convertSort(sort)),
                 (partialResult1, partialResult2) -> partialResult1);
     }
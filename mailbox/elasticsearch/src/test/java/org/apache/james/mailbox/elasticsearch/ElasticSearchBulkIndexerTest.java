@@ -0,0 +1,242 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.elasticsearch;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.elasticsearch.utils.TestingClientProvider;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+public class ElasticSearchBulkIndexerTest {
+
+    private static final int BULK_SIZE = 3;
+    private static final long ONE_HOUR_IN_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int CAPACITY = 10;
+
+    private TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private EmbeddedElasticSearch embeddedElasticSearch= new EmbeddedElasticSearch(temporaryFolder);
+
+    @Rule
+    public RuleChain ruleChain = RuleChain.outerRule(temporaryFolder).around(embeddedElasticSearch);
+
+    private Node node;
+    private ElasticSearchBulkIndexer testee;
+
+    @Before
+    public void setup() {
+        node = embeddedElasticSearch.getNode();
+        testee = new ElasticSearchBulkIndexer(new TestingClientProvider(node).get(), BULK_SIZE, ONE_HOUR_IN_MS, CAPACITY);
+    }
+
+    @After
+    public void tearDown() {
+        testee.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowWhenCapacityIsLowerThanBulkSize() {
+        new ElasticSearchBulkIndexer(new TestingClientProvider(node).get(), BULK_SIZE, ONE_HOUR_IN_MS, BULK_SIZE - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void indexShouldThrowWhenJsonIsNull() {
+        testee.index("1", null);
+    }
+
+    @Test
+    public void indexShouldBeSearchableAfterFlush() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchQuery("message", "trying"))).isEqualTo(1);
+    }
+
+    @Test
+    public void operationsShouldBeBufferedUntilFlush() {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.index("2", "{\"message\": \"trying out Elasticsearch 2\"}");
+
+        assertThat(testee.getQueueDepth()).isEqualTo(2);
+        assertThat(testee.getFlushedDocumentCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void flushShouldEmptyTheQueue() {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.index("2", "{\"message\": \"trying out Elasticsearch 2\"}");
+
+        testee.flush();
+
+        assertThat(testee.getQueueDepth()).isEqualTo(0);
+        assertThat(testee.getFlushedDocumentCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void reachingBulkSizeShouldTriggerFlush() {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.index("2", "{\"message\": \"trying out Elasticsearch 2\"}");
+        testee.index("3", "{\"message\": \"trying out Elasticsearch 3\"}");
+
+        await().atMost(30, TimeUnit.SECONDS).until(() -> testee.getFlushedDocumentCount() == BULK_SIZE);
+        assertThat(testee.getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void updatesOfTheSameDocumentShouldBeCoalesced() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\",\"field\":\"Should be unchanged\"}");
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("1", "{\"message\": \"learning Elasticsearch\"}"));
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("1", "{\"message\": \"mastering Elasticsearch\"}"));
+
+        assertThat(testee.getQueueDepth()).isEqualTo(1);
+
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchQuery("message", "mastering"))).isEqualTo(1);
+        assertThat(count(QueryBuilders.matchQuery("message", "learning"))).isEqualTo(0);
+        assertThat(count(QueryBuilders.matchQuery("field", "unchanged"))).isEqualTo(1);
+    }
+
+    @Test
+    public void updateShouldApplyToAlreadyIndexedDocument() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("1", "{\"message\": \"mastering Elasticsearch\"}"));
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchQuery("message", "mastering"))).isEqualTo(1);
+    }
+
+    @Test
+    public void deleteShouldDiscardPendingIndexing() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.delete("1");
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchAllQuery())).isEqualTo(0);
+    }
+
+    @Test
+    public void deleteShouldRemoveIndexedDocument() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        testee.delete("1");
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("1", "{\"message\": \"mastering Elasticsearch\"}"));
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchAllQuery())).isEqualTo(0);
+    }
+
+    @Test
+    public void closeShouldFlushPendingOperations() throws Exception {
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.close();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(count(QueryBuilders.matchAllQuery())).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void indexShouldThrowAfterClose() {
+        testee.close();
+
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+    }
+
+    @Test
+    public void failedOperationsShouldBeQueuedAgain() {
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("missing", "{\"message\": \"mastering Elasticsearch\"}"));
+
+        testee.flush();
+
+        assertThat(testee.getQueueDepth()).isEqualTo(1);
+        assertThat(testee.getFlushedDocumentCount()).isEqualTo(0);
+        assertThat(testee.getFailedDocumentCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void failedOperationsShouldBeDroppedAfterMaxAttempts() {
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("missing", "{\"message\": \"mastering Elasticsearch\"}"));
+
+        for (int i = 0; i < ElasticSearchBulkIndexer.MAX_FLUSH_ATTEMPTS; i++) {
+            testee.flush();
+        }
+
+        assertThat(testee.getQueueDepth()).isEqualTo(0);
+        assertThat(testee.getFailedDocumentCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failedOperationsShouldNotPreventOthersFromBeingFlushed() throws Exception {
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("missing", "{\"message\": \"mastering Elasticsearch\"}"));
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(testee.getFlushedDocumentCount()).isEqualTo(1);
+        assertThat(count(QueryBuilders.matchQuery("message", "trying"))).isEqualTo(1);
+    }
+
+    @Test
+    public void operationsReceivedAfterAFailureShouldApplyOnTheRequeuedDocument() throws Exception {
+        testee.update(new ElasticSearchIndexer.UpdatedRepresentation("1", "{\"message\": \"mastering Elasticsearch\"}"));
+        testee.flush();
+
+        testee.index("1", "{\"message\": \"trying out Elasticsearch\"}");
+        testee.flush();
+        embeddedElasticSearch.awaitForElasticSearch();
+
+        assertThat(testee.getQueueDepth()).isEqualTo(0);
+        assertThat(count(QueryBuilders.matchQuery("message", "trying"))).isEqualTo(1);
+    }
+
+    private long count(QueryBuilder query) {
+        try (Client client = node.client()) {
+            SearchResponse searchResponse = client.prepareSearch(ElasticSearchIndexer.MAILBOX_INDEX)
+                .setTypes(ElasticSearchIndexer.MESSAGE_TYPE)
+                .setQuery(query)
+                .get();
+            return searchResponse.getHits().getTotalHits();
+        }
+    }
+}
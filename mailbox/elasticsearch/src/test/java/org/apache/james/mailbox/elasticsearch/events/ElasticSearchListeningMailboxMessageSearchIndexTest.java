@@ -34,6 +34,7 @@ import javax.mail.Flags;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.MailboxSession.User;
+import org.apache.james.mailbox.elasticsearch.ElasticSearchBulkIndexer;
 import org.apache.james.mailbox.elasticsearch.ElasticSearchIndexer;
 import org.apache.james.mailbox.elasticsearch.json.MessageToElasticSearchJson;
 import org.apache.james.mailbox.elasticsearch.search.ElasticSearchSearcher;
@@ -60,7 +61,9 @@ public class ElasticSearchListeningMailboxMessageSearchIndexTest {
     private IMocksControl control;
 
     private ElasticSearchIndexer indexer;
+    private ElasticSearchBulkIndexer bulkIndexer;
     private ElasticSearchListeningMessageSearchIndex testee;
+    private ElasticSearchListeningMessageSearchIndex bulkTestee;
     
     @Before
     public void setup() throws JsonProcessingException {
@@ -71,12 +74,14 @@ public class ElasticSearchListeningMailboxMessageSearchIndexTest {
         ElasticSearchSearcher elasticSearchSearcher = control.createMock(ElasticSearchSearcher.class);
 
         indexer = control.createMock(ElasticSearchIndexer.class);
+        bulkIndexer = control.createMock(ElasticSearchBulkIndexer.class);
 
         List<User> users = anyObject();
         expect(messageToElasticSearchJson.convertToJson(anyObject(MailboxMessage.class), users)).andReturn("json content").anyTimes();
         expect(messageToElasticSearchJson.getUpdatedJsonMessagePart(anyObject(Flags.class), anyLong())).andReturn("json updated content").anyTimes();
 
         testee = new ElasticSearchListeningMessageSearchIndex(mapperFactory, indexer, elasticSearchSearcher, messageToElasticSearchJson);
+        bulkTestee = new ElasticSearchListeningMessageSearchIndex(mapperFactory, indexer, bulkIndexer, elasticSearchSearcher, messageToElasticSearchJson);
     }
     
     @Test
@@ -268,4 +273,79 @@ public class ElasticSearchListeningMailboxMessageSearchIndexTest {
         testee.deleteAll(session, mailbox);
         control.verify();
     }
+
+    @Test
+    public void addShouldEnqueueWhenBulkIndexing() throws Exception {
+        MailboxSession.User user = control.createMock(MailboxSession.User.class);
+        MailboxSession session = control.createMock(MailboxSession.class);
+        expect(session.getUser())
+            .andReturn(user);
+
+        Mailbox mailbox = control.createMock(Mailbox.class);
+        MessageUid messageId = MessageUid.of(1);
+        TestId mailboxId = TestId.of(12);
+        expect(mailbox.getMailboxId()).andReturn(mailboxId);
+        MailboxMessage message = mockedMessage(messageId);
+
+        bulkIndexer.index(eq(mailboxId.serialize() + ":" + messageId), anyString());
+        expectLastCall();
+
+        control.replay();
+        bulkTestee.add(session, mailbox, message);
+        control.verify();
+    }
+
+    @Test
+    public void deleteShouldEnqueueEachMessageWhenBulkIndexing() throws Exception {
+        MailboxSession session = control.createMock(MailboxSession.class);
+        Mailbox mailbox = control.createMock(Mailbox.class);
+        MessageUid messageId1 = MessageUid.of(1);
+        MessageUid messageId2 = MessageUid.of(2);
+        TestId mailboxId = TestId.of(12);
+        expect(mailbox.getMailboxId()).andReturn(mailboxId).times(2);
+
+        bulkIndexer.delete(mailboxId.serialize() + ":" + messageId1);
+        expectLastCall();
+        bulkIndexer.delete(mailboxId.serialize() + ":" + messageId2);
+        expectLastCall();
+
+        control.replay();
+        bulkTestee.delete(session, mailbox, Lists.newArrayList(messageId1, messageId2));
+        control.verify();
+    }
+
+    @Test
+    public void updateShouldEnqueueWhenBulkIndexing() throws Exception {
+        MailboxSession session = control.createMock(MailboxSession.class);
+        Mailbox mailbox = control.createMock(Mailbox.class);
+        Flags flags = new Flags();
+        MessageUid messageId = MessageUid.of(1);
+        UpdatedFlags updatedFlags = new UpdatedFlags(messageId, MODSEQ, flags, flags);
+        TestId mailboxId = TestId.of(12);
+        expect(mailbox.getMailboxId()).andReturn(mailboxId);
+
+        bulkIndexer.update(anyObject(ElasticSearchIndexer.UpdatedRepresentation.class));
+        expectLastCall();
+
+        control.replay();
+        bulkTestee.update(session, mailbox, Lists.newArrayList(updatedFlags));
+        control.verify();
+    }
+
+    @Test
+    public void deleteAllShouldFlushPendingOperationsWhenBulkIndexing() throws Exception {
+        MailboxSession session = control.createMock(MailboxSession.class);
+        Mailbox mailbox = control.createMock(Mailbox.class);
+        TestId mailboxId = TestId.of(12);
+        expect(mailbox.getMailboxId()).andReturn(mailboxId);
+
+        bulkIndexer.flush();
+        expectLastCall();
+        indexer.deleteAllMatchingQuery(anyObject(QueryBuilder.class));
+        expectLastCall();
+
+        control.replay();
+        bulkTestee.deleteAll(session, mailbox);
+        control.verify();
+    }
 }
@@ -49,6 +49,7 @@ import org.apache.james.mailbox.exception.UnsupportedSearchException;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MailboxId.Factory;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.SearchQuery.AllCriterion;
@@ -447,8 +448,34 @@ public class LuceneMessageSearchIndex extends ListeningMessageSearchIndex {
         return searchMultimap(session, searchQuery).asMap();
     }
     
+    /**
+     * Only the offset + limit best documents are collected by Lucene, thanks to the {@link TopDocs} sorted collector.
+     */
+    @Override
+    public List<MessageUidWithMailboxId> sortedSearch(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        Preconditions.checkArgument(session != null, "'session' is mandatory");
+        int maxResults = maxQueryResults;
+        if (searchQuery.getLimit().isPresent()) {
+            maxResults = (int) Math.min(searchQuery.getOffset() + searchQuery.getLimit().get(), maxQueryResults);
+        }
+        List<MessageUidWithMailboxId> results = searchDocuments(searchQuery, maxResults);
+        int offset = (int) Math.min(searchQuery.getOffset(), results.size());
+        return results.subList(offset, results.size());
+    }
+
     private Multimap<MailboxId, MessageUid> searchMultimap(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
         Multimap<MailboxId, MessageUid> results = LinkedHashMultimap.create();
+        for (MessageUidWithMailboxId result : searchDocuments(searchQuery, maxQueryResults)) {
+            results.put(result.getMailboxId(), result.getUid());
+        }
+        return results;
+    }
+
+    private List<MessageUidWithMailboxId> searchDocuments(MultimailboxesSearchQuery searchQuery, int maxResults) throws MailboxException {
+        List<MessageUidWithMailboxId> results = new ArrayList<MessageUidWithMailboxId>();
+        if (maxResults == 0) {
+            return results;
+        }
         IndexSearcher searcher = null;
 
         Query inMailboxes = buildQueryFromMailboxes(searchQuery.getInMailboxes());
@@ -465,13 +492,13 @@ public class LuceneMessageSearchIndex extends ListeningMessageSearchIndex {
             }
 
             // query for all the documents sorted as specified in the SearchQuery
-            TopDocs docs = searcher.search(query, null, maxQueryResults, createSort(searchQuery.getSearchQuery().getSorts()));
+            TopDocs docs = searcher.search(query, null, maxResults, createSort(searchQuery.getSearchQuery().getSorts()));
             ScoreDoc[] sDocs = docs.scoreDocs;
             for (ScoreDoc sDoc : sDocs) {
                 Document doc = searcher.doc(sDoc.doc);
                 MessageUid uid = MessageUid.of(Long.valueOf(doc.get(UID_FIELD)));
                 MailboxId mailboxId = mailboxIdFactory.fromString(doc.get(MAILBOX_ID_FIELD));
-                results.put(mailboxId, uid);
+                results.add(new MessageUidWithMailboxId(mailboxId, uid));
             }
         } catch (IOException e) {
             throw new MailboxException("Unable to search the mailbox", e);
@@ -38,7 +38,7 @@ import org.apache.james.mailbox.store.user.SubscriptionMapperFactory;
 
 /**
  * Maintain mapper instances by {@link MailboxSession}. So only one mapper instance is used
- * in a {@link MailboxSession}
+ * in a {@link MailboxSession}, even when several threads of this session ask for it at the same time
  */
 public abstract class MailboxSessionMapperFactory implements RequestAware, MailboxMapperFactory, MessageMapperFactory, AttachmentMapperFactory, SubscriptionMapperFactory {
 
@@ -54,39 +54,47 @@ public abstract class MailboxSessionMapperFactory implements RequestAware, Mailb
      * @see org.apache.james.mailbox.store.mail.MessageMapperFactory#getMessageMapper(MailboxSession)
      */
     public MessageMapper getMessageMapper(MailboxSession session) throws MailboxException {
-        MessageMapper mapper = (MessageMapper) session.getAttributes().get(MESSAGEMAPPER);
-        if (mapper == null) {
-            mapper = createMessageMapper(session);
-            session.getAttributes().put(MESSAGEMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            MessageMapper mapper = (MessageMapper) session.getAttributes().get(MESSAGEMAPPER);
+            if (mapper == null) {
+                mapper = createMessageMapper(session);
+                session.getAttributes().put(MESSAGEMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
 
     public MessageIdMapper getMessageIdMapper(MailboxSession session) throws MailboxException {
-        MessageIdMapper mapper = (MessageIdMapper) session.getAttributes().get(MESSAGEIDMAPPER);
-        if (mapper == null) {
-            mapper = createMessageIdMapper(session);
-            session.getAttributes().put(MESSAGEIDMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            MessageIdMapper mapper = (MessageIdMapper) session.getAttributes().get(MESSAGEIDMAPPER);
+            if (mapper == null) {
+                mapper = createMessageIdMapper(session);
+                session.getAttributes().put(MESSAGEIDMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
 
     public AttachmentMapper getAttachmentMapper(MailboxSession session) throws MailboxException {
-        AttachmentMapper mapper = (AttachmentMapper) session.getAttributes().get(ATTACHMENTMAPPER);
-        if (mapper == null) {
-            mapper = createAttachmentMapper(session);
-            session.getAttributes().put(ATTACHMENTMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            AttachmentMapper mapper = (AttachmentMapper) session.getAttributes().get(ATTACHMENTMAPPER);
+            if (mapper == null) {
+                mapper = createAttachmentMapper(session);
+                session.getAttributes().put(ATTACHMENTMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
 
     public AnnotationMapper getAnnotationMapper(MailboxSession session) throws MailboxException {
-        AnnotationMapper mapper = (AnnotationMapper)session.getAttributes().get(ANNOTATIONMAPPER);
-        if (mapper == null) {
-            mapper = createAnnotationMapper(session);
-            session.getAttributes().put(ANNOTATIONMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            AnnotationMapper mapper = (AnnotationMapper) session.getAttributes().get(ANNOTATIONMAPPER);
+            if (mapper == null) {
+                mapper = createAnnotationMapper(session);
+                session.getAttributes().put(ANNOTATIONMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
 
     public abstract AnnotationMapper createAnnotationMapper(MailboxSession session) throws MailboxException;
@@ -110,12 +118,14 @@ public abstract class MailboxSessionMapperFactory implements RequestAware, Mailb
      * @see org.apache.james.mailbox.store.mail.MailboxMapperFactory#getMailboxMapper(MailboxSession)
      */
     public MailboxMapper getMailboxMapper(MailboxSession session) throws MailboxException {
-        MailboxMapper mapper = (MailboxMapper) session.getAttributes().get(MAILBOXMAPPER);
-        if (mapper == null) {
-            mapper = createMailboxMapper(session);
-            session.getAttributes().put(MAILBOXMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            MailboxMapper mapper = (MailboxMapper) session.getAttributes().get(MAILBOXMAPPER);
+            if (mapper == null) {
+                mapper = createMailboxMapper(session);
+                session.getAttributes().put(MAILBOXMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
 
     /**
@@ -134,12 +144,14 @@ public abstract class MailboxSessionMapperFactory implements RequestAware, Mailb
      * @return mapper
      */
     public SubscriptionMapper getSubscriptionMapper(MailboxSession session) throws SubscriptionException {
-        SubscriptionMapper mapper = (SubscriptionMapper) session.getAttributes().get(SUBSCRIPTIONMAPPER);
-        if (mapper == null) {
-            mapper = createSubscriptionMapper(session);
-            session.getAttributes().put(SUBSCRIPTIONMAPPER, mapper);
+        synchronized (session.getAttributes()) {
+            SubscriptionMapper mapper = (SubscriptionMapper) session.getAttributes().get(SUBSCRIPTIONMAPPER);
+            if (mapper == null) {
+                mapper = createSubscriptionMapper(session);
+                session.getAttributes().put(SUBSCRIPTIONMAPPER, mapper);
+            }
+            return mapper;
         }
-        return mapper;
     }
     
     /**
@@ -21,6 +21,7 @@ package org.apache.james.mailbox.store;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -81,7 +82,7 @@ public class SimpleMailboxSession implements MailboxSession, MailboxSession.User
         }
 
         this.localePreferences = localePreferences;
-        this.attributes = new HashMap<Object, Object>();
+        this.attributes = Collections.synchronizedMap(new HashMap<Object, Object>());
         this.pathSeparator = pathSeparator;
     }
     
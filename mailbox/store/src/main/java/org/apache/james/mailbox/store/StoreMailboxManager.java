@@ -62,6 +62,7 @@ import org.apache.james.mailbox.model.MailboxQuery;
 import org.apache.james.mailbox.model.MessageId;
 import org.apache.james.mailbox.model.MessageId.Factory;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SimpleMailboxACL;
 import org.apache.james.mailbox.quota.QuotaManager;
@@ -703,6 +704,11 @@ public class StoreMailboxManager implements MailboxManager {
         return index.search(session, expression);
     }
 
+    @Override
+    public List<MessageUidWithMailboxId> sortedSearch(MultimailboxesSearchQuery expression, MailboxSession session) throws MailboxException {
+        return index.sortedSearch(session, expression);
+    }
+
     public boolean belongsToNamespaceAndUser(MailboxPath base, Mailbox mailbox) {
         if (mailbox.getUser() == null) {
             return  base.getUser() == null
@@ -272,23 +272,33 @@ public class StoreMessageManager implements org.apache.james.mailbox.MessageMana
     public ComposedMessageId appendMessage(InputStream msgIn, Date internalDate, final MailboxSession mailboxSession, boolean isRecent, Flags flagsToBeSet) throws MailboxException {
 
         File file = null;
-        TeeInputStream tmpMsgIn = null;
+        InputStream tmpMsgIn = null;
         BodyOffsetInputStream bIn = null;
         FileOutputStream out = null;
-        SharedFileInputStream contentIn = null;
+        InputStream contentIn = null;
 
         if (!isWriteable(mailboxSession)) {
             throw new ReadOnlyException(getMailboxPath(), mailboxSession.getPathDelimiter());
         }
 
         try {
-            // Create a temporary file and copy the message to it. We will work
-            // with the file as
-            // source for the InputStream
-            file = File.createTempFile("imap", ".msg");
-            out = new FileOutputStream(file);
-
-            tmpMsgIn = new TeeInputStream(msgIn, out);
+            final long contentStart;
+            if (msgIn instanceof SharedInputStream) {
+                // The content can already be shared, for example because the protocol layer buffered it. There is
+                // no need for a temporary copy: the content is read once to be parsed, and handed over as is to
+                // the mapper
+                contentStart = ((SharedInputStream) msgIn).getPosition();
+                contentIn = ((SharedInputStream) msgIn).newStream(contentStart, -1);
+                tmpMsgIn = msgIn;
+            } else {
+                // Create a temporary file and copy the message to it while it
+                // is parsed. We will work with the file as source for the
+                // InputStream
+                contentStart = 0;
+                file = File.createTempFile("imap", ".msg");
+                out = new FileOutputStream(file);
+                tmpMsgIn = new TeeInputStream(msgIn, out);
+            }
 
             bIn = new BodyOffsetInputStream(tmpMsgIn);
             // Disable line length... This should be handled by the smtp server
@@ -346,6 +356,7 @@ public class StoreMessageManager implements org.apache.james.mailbox.MessageMana
             if (boundary != null) {
                 propertyBuilder.setBoundary(boundary);
             }
+            final List<MessageAttachment> attachments;
             if ("text".equalsIgnoreCase(mediaType)) {
                 final CountingInputStream bodyStream = new CountingInputStream(parser.getInputStream());
                 bodyStream.readAll();
@@ -360,6 +371,11 @@ public class StoreMessageManager implements org.apache.james.mailbox.MessageMana
 
                 }
                 propertyBuilder.setTextualLineCount(lines);
+                attachments = ImmutableList.of();
+            } else {
+                // The attachments are retrieved while the rest of the message is
+                // read, so that it does not need to be parsed a second time
+                attachments = extractAttachments(parser);
             }
 
             final Flags flags;
@@ -388,11 +404,15 @@ public class StoreMessageManager implements org.apache.james.mailbox.MessageMana
             if (bodyStartOctet == -1) {
                 bodyStartOctet = 0;
             }
-            contentIn = new SharedFileInputStream(file);
-            final int size = (int) file.length();
+            final int size;
+            if (file == null) {
+                size = (int) (((SharedInputStream) msgIn).getPosition() - contentStart);
+            } else {
+                contentIn = new SharedFileInputStream(file);
+                size = (int) file.length();
+            }
 
-            final List<MessageAttachment> attachments = extractAttachments(contentIn);
-            final MailboxMessage message = createMessage(internalDate, size, bodyStartOctet, contentIn, flags, propertyBuilder, attachments);
+            final MailboxMessage message = createMessage(internalDate, size, bodyStartOctet, (SharedInputStream) contentIn, flags, propertyBuilder, attachments);
 
             new QuotaChecker(quotaManager, quotaRootResolver, mailbox).tryAddition(1, size);
 
@@ -433,9 +453,9 @@ public class StoreMessageManager implements org.apache.james.mailbox.MessageMana
 
     }
 
-    private List<MessageAttachment> extractAttachments(SharedFileInputStream contentIn) {
+    private List<MessageAttachment> extractAttachments(MimeTokenStream parser) {
         try {
-            return messageParser.retrieveAttachments(contentIn);
+            return messageParser.retrieveAttachments(parser);
         } catch (Exception e) {
             LOG.warn("Error while parsing mail's attachments: " + e.getMessage(), e);
             return ImmutableList.of();
@@ -23,10 +23,10 @@ import org.apache.james.mailbox.MailboxListener;
 
 public class MixedEventDelivery implements EventDelivery {
 
-    private final AsynchronousEventDelivery asynchronousEventDelivery;
+    private final EventDelivery asynchronousEventDelivery;
     private final SynchronousEventDelivery synchronousEventDelivery;
 
-    public MixedEventDelivery(AsynchronousEventDelivery asynchronousEventDelivery,
+    public MixedEventDelivery(EventDelivery asynchronousEventDelivery,
                               SynchronousEventDelivery synchronousEventDelivery) {
         this.asynchronousEventDelivery = asynchronousEventDelivery;
         this.synchronousEventDelivery = synchronousEventDelivery;
@@ -41,8 +41,4 @@ public class MixedEventDelivery implements EventDelivery {
         }
     }
 
-    public void stop() {
-        asynchronousEventDelivery.stop();
-    }
-
 }
@@ -0,0 +1,254 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.event;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Asynchronous {@link EventDelivery} which keeps the order of the events of a mailbox.
+ *
+ * Events are dispatched by mailbox id on serial executors: the events of a mailbox are delivered one after the other,
+ * in the order they were emitted, while the events of different mailboxes are delivered in parallel. The queue of
+ * each executor is bounded, the {@link OverflowPolicy} tells what to do once it is full.
+ *
+ * The events emitted by a listener while it is delivered are queued beyond the capacity: waiting for room in a queue
+ * from a delivery thread could never end, and delivering them inline would overtake the events already queued.
+ */
+public class OrderedEventDelivery implements EventDelivery {
+
+    public enum OverflowPolicy {
+        /**
+         * Make the thread emitting the event wait till there is room in the queue
+         */
+        BLOCK,
+        /**
+         * Drop the event. It is accounted in the {@link ListenerMetrics} of the listener
+         */
+        DISCARD
+    }
+
+    public static class ListenerMetrics {
+        private final AtomicLong deliveredCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong discardedCount = new AtomicLong();
+        private final AtomicLong totalLatencyInNanos = new AtomicLong();
+
+        public long getDeliveredCount() {
+            return deliveredCount.get();
+        }
+
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+        public long getDiscardedCount() {
+            return discardedCount.get();
+        }
+
+        public long getAverageLatencyInMs() {
+            long delivered = deliveredCount.get();
+            if (delivered == 0) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(totalLatencyInNanos.get() / delivered);
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderedEventDelivery.class);
+
+    /**
+     * Set on the delivery threads. A listener emitting events while it is run must not wait for its own queue.
+     */
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+
+    private final ThreadPoolExecutor[] executors;
+    private final Semaphore[] permits;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentMap<String, ListenerMetrics> listenerMetrics;
+
+    public OrderedEventDelivery(int threadCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(threadCount > 0, "threadCount should be positive");
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity should be positive");
+        this.overflowPolicy = overflowPolicy;
+        this.listenerMetrics = new ConcurrentHashMap<String, ListenerMetrics>();
+        this.executors = new ThreadPoolExecutor[threadCount];
+        this.permits = new Semaphore[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            // The capacity is enforced by the permits, so that the delivery threads can go beyond it
+            executors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("event-delivery-" + i).setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+            executors[i].prestartAllCoreThreads();
+            permits[i] = new Semaphore(queueCapacity);
+        }
+    }
+
+    @Override
+    public void deliver(final MailboxListener mailboxListener, final MailboxListener.Event event) {
+        final ListenerMetrics metrics = metricsOf(mailboxListener);
+        final int shard = shardOf(event);
+        final boolean bounded = DELIVERING.get() == null;
+        if (bounded && !acquirePermit(shard, metrics)) {
+            return;
+        }
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (bounded) {
+                    permits[shard].release();
+                }
+                DELIVERING.set(Boolean.TRUE);
+                try {
+                    deliver(mailboxListener, event, metrics);
+                } finally {
+                    DELIVERING.remove();
+                }
+            }
+        };
+        try {
+            executors[shard].execute(delivery);
+        } catch (RejectedExecutionException e) {
+            // The delivery is stopped
+            if (bounded) {
+                permits[shard].release();
+            }
+            metrics.discardedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Take room in the queue of the given shard, according to the {@link OverflowPolicy} when it is full
+     *
+     * @return false if the event is discarded
+     */
+    private boolean acquirePermit(int shard, ListenerMetrics metrics) {
+        if (executors[shard].isShutdown()) {
+            metrics.discardedCount.incrementAndGet();
+            return false;
+        }
+        if (permits[shard].tryAcquire()) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.DISCARD) {
+            metrics.discardedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            permits[shard].acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.discardedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void deliver(MailboxListener mailboxListener, MailboxListener.Event event, ListenerMetrics metrics) {
+        long start = System.nanoTime();
+        try {
+            mailboxListener.event(event);
+        } catch (Throwable throwable) {
+            metrics.failureCount.incrementAndGet();
+            LOGGER.error("Error while processing listener "
+                    + mailboxListener.getClass().getCanonicalName()
+                    + " for "
+                    + event.getClass().getCanonicalName(),
+                throwable);
+        } finally {
+            metrics.totalLatencyInNanos.addAndGet(System.nanoTime() - start);
+            metrics.deliveredCount.incrementAndGet();
+        }
+    }
+
+    private int shardOf(MailboxListener.Event event) {
+        Object key = mailboxKey(event);
+        if (key == null) {
+            return 0;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % executors.length;
+    }
+
+    private Object mailboxKey(MailboxListener.Event event) {
+        if (event instanceof EventFactory.MailboxAware) {
+            return ((EventFactory.MailboxAware) event).getMailbox().getMailboxId();
+        }
+        return event.getMailboxPath();
+    }
+
+    private ListenerMetrics metricsOf(MailboxListener mailboxListener) {
+        String name = mailboxListener.getClass().getName();
+        ListenerMetrics metrics = listenerMetrics.get(name);
+        if (metrics == null) {
+            ListenerMetrics newMetrics = new ListenerMetrics();
+            metrics = listenerMetrics.putIfAbsent(name, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the listeners this delivery was given events for, by listener class name
+     */
+    public Map<String, ListenerMetrics> getListenerMetrics() {
+        return Collections.unmodifiableMap(listenerMetrics);
+    }
+
+    /**
+     * @return the count of events waiting to be delivered
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor executor : executors) {
+            depth += executor.getQueue().size();
+        }
+        return depth;
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (int i = 0; i < executors.length; i++) {
+            executors[i].shutdownNow();
+            // The dropped deliveries never give their permits back: wake up the emitters waiting for one, each of them
+            // gives it back once its delivery is rejected
+            permits[i].release();
+        }
+    }
+}
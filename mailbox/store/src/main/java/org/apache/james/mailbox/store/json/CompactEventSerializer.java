@@ -0,0 +1,480 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageId;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMailboxSession;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.event.EventSerializer;
+import org.apache.james.mailbox.store.json.event.MailboxConverter;
+import org.apache.james.mailbox.store.json.event.dto.MailboxDataTransferObject;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compact binary {@link EventSerializer}, written by hand so that no intermediate object tree is built.
+ *
+ * Numbers are written as variable length integers, the uids and modseqs of the messages as deltas from the previous
+ * ones. The distinct flag combinations of an event are written once, each message then refers to its combination by
+ * index.
+ */
+public class CompactEventSerializer implements EventSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactEventSerializer.class);
+
+    private static final byte VERSION = 1;
+
+    private static final byte ADDED = 0;
+    private static final byte EXPUNGED = 1;
+    private static final byte FLAGS_UPDATED = 2;
+    private static final byte MAILBOX_ADDED = 3;
+    private static final byte MAILBOX_DELETED = 4;
+    private static final byte MAILBOX_RENAMED = 5;
+
+    private static final Flags.Flag[] SYSTEM_FLAGS = {
+        Flags.Flag.ANSWERED,
+        Flags.Flag.DELETED,
+        Flags.Flag.DRAFT,
+        Flags.Flag.FLAGGED,
+        Flags.Flag.RECENT,
+        Flags.Flag.SEEN
+    };
+
+    private final EventFactory eventFactory;
+    private final MailboxConverter mailboxConverter;
+    private final MessageId.Factory messageIdFactory;
+
+    public CompactEventSerializer(MailboxConverter mailboxConverter, MessageId.Factory messageIdFactory) {
+        this.eventFactory = new EventFactory();
+        this.mailboxConverter = mailboxConverter;
+        this.messageIdFactory = messageIdFactory;
+    }
+
+    @Override
+    public byte[] serializeEvent(MailboxListener.Event event) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(VERSION);
+        output.writeByte(typeOf(event));
+        writeSession(output, event.getSession());
+        writeMailbox(output, mailboxConverter.extractMailboxDataTransferObject(event));
+        if (event instanceof MailboxListener.MetaDataHoldingEvent) {
+            writeMetaData(output, (MailboxListener.MetaDataHoldingEvent) event);
+        } else if (event instanceof MailboxListener.FlagsUpdated) {
+            writeUids(output, ((MailboxListener.FlagsUpdated) event).getUids());
+            writeUpdatedFlags(output, (MailboxListener.FlagsUpdated) event);
+        } else if (event instanceof MailboxListener.MailboxRenamed) {
+            writePath(output, event.getMailboxPath());
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public MailboxListener.Event deSerializeEvent(byte[] serializedEvent) throws Exception {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(serializedEvent));
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new Exception("Can not deserialize events of version " + version);
+        }
+        byte type = input.readByte();
+        MailboxSession session = readSession(input);
+        Mailbox mailbox = mailboxConverter.retrieveMailbox(readMailbox(input));
+        switch (type) {
+            case ADDED:
+                return eventFactory.added(session, readMetaData(input), mailbox);
+            case EXPUNGED:
+                return eventFactory.expunged(session, readMetaData(input), mailbox);
+            case FLAGS_UPDATED:
+                List<MessageUid> uids = readUids(input);
+                return eventFactory.flagsUpdated(session, uids, mailbox, readUpdatedFlags(input));
+            case MAILBOX_ADDED:
+                return eventFactory.mailboxAdded(session, mailbox);
+            case MAILBOX_DELETED:
+                return eventFactory.mailboxDeleted(session, mailbox);
+            case MAILBOX_RENAMED:
+                return eventFactory.mailboxRenamed(session, readPath(input), mailbox);
+            default:
+                throw new Exception("Can not deserialize unknown event");
+        }
+    }
+
+    private byte typeOf(MailboxListener.Event event) throws Exception {
+        if (event instanceof MailboxListener.Added) {
+            return ADDED;
+        } else if (event instanceof MailboxListener.Expunged) {
+            return EXPUNGED;
+        } else if (event instanceof MailboxListener.FlagsUpdated) {
+            return FLAGS_UPDATED;
+        } else if (event instanceof MailboxListener.MailboxRenamed) {
+            return MAILBOX_RENAMED;
+        } else if (event instanceof MailboxListener.MailboxDeletion) {
+            return MAILBOX_DELETED;
+        } else if (event instanceof MailboxListener.MailboxAdded) {
+            return MAILBOX_ADDED;
+        }
+        throw new Exception("You are trying to serialize an event that can't be serialized");
+    }
+
+    private void writeSession(DataOutput output, MailboxSession session) throws IOException {
+        writeLong(output, session.getSessionId());
+        writeString(output, session.getUser().getUserName());
+        writeInt(output, session.getSharedSpaces().size());
+        for (String sharedSpace : session.getSharedSpaces()) {
+            writeString(output, sharedSpace);
+        }
+        writeString(output, session.getOtherUsersSpace());
+        output.writeChar(session.getPathDelimiter());
+        List<Locale> locales = session.getUser().getLocalePreferences();
+        writeInt(output, locales.size());
+        for (Locale locale : locales) {
+            writeString(output, locale.getLanguage());
+            writeString(output, locale.getCountry());
+            writeString(output, locale.getVariant());
+        }
+        output.writeBoolean(session.getType() == MailboxSession.SessionType.System);
+    }
+
+    private MailboxSession readSession(DataInput input) throws IOException {
+        long sessionId = readLong(input);
+        String username = readString(input);
+        int sharedSpaceCount = readInt(input);
+        List<String> sharedSpaces = new ArrayList<String>(sharedSpaceCount);
+        for (int i = 0; i < sharedSpaceCount; i++) {
+            sharedSpaces.add(readString(input));
+        }
+        String otherUsersSpace = readString(input);
+        char separator = input.readChar();
+        int localeCount = readInt(input);
+        List<Locale> locales = new ArrayList<Locale>(localeCount);
+        for (int i = 0; i < localeCount; i++) {
+            locales.add(new Locale(readString(input), readString(input), readString(input)));
+        }
+        MailboxSession.SessionType sessionType = input.readBoolean() ? MailboxSession.SessionType.System : MailboxSession.SessionType.User;
+        return new SimpleMailboxSession(sessionId, username, "", LOG, locales, sharedSpaces, otherUsersSpace, separator, sessionType);
+    }
+
+    private void writeMailbox(DataOutput output, MailboxDataTransferObject mailbox) throws IOException {
+        writeString(output, mailbox.getSerializedMailboxId());
+        writeString(output, mailbox.getNamespace());
+        writeString(output, mailbox.getUser());
+        writeString(output, mailbox.getName());
+        writeLong(output, mailbox.getUidValidity());
+        writeString(output, mailbox.getSerializedACL());
+    }
+
+    private MailboxDataTransferObject readMailbox(DataInput input) throws IOException {
+        return MailboxDataTransferObject.builder()
+            .serializedMailboxId(readString(input))
+            .namespace(readString(input))
+            .user(readString(input))
+            .name(readString(input))
+            .uidValidity(readLong(input))
+            .serializedACL(readString(input))
+            .build();
+    }
+
+    private void writePath(DataOutput output, MailboxPath path) throws IOException {
+        writeString(output, path.getNamespace());
+        writeString(output, path.getUser());
+        writeString(output, path.getName());
+    }
+
+    private MailboxPath readPath(DataInput input) throws IOException {
+        return new MailboxPath(readString(input), readString(input), readString(input));
+    }
+
+    private void writeMetaData(DataOutput output, MailboxListener.MetaDataHoldingEvent event) throws IOException {
+        List<MessageUid> uids = event.getUids();
+        FlagsTable flagsTable = new FlagsTable();
+        for (MessageUid uid : uids) {
+            flagsTable.add(event.getMetaData(uid).getFlags());
+        }
+        flagsTable.write(output);
+        writeInt(output, uids.size());
+        long previousUid = 0;
+        long previousModSeq = 0;
+        for (MessageUid uid : uids) {
+            MessageMetaData metaData = event.getMetaData(uid);
+            writeLong(output, zigZag(uid.asLong() - previousUid));
+            writeLong(output, zigZag(metaData.getModSeq() - previousModSeq));
+            writeInt(output, flagsTable.indexOf(metaData.getFlags()));
+            writeLong(output, metaData.getSize());
+            writeDate(output, metaData.getInternalDate());
+            writeString(output, serialize(metaData.getMessageId()));
+            previousUid = uid.asLong();
+            previousModSeq = metaData.getModSeq();
+        }
+    }
+
+    private SortedMap<MessageUid, MessageMetaData> readMetaData(DataInput input) throws IOException {
+        List<Flags> flagsTable = FlagsTable.read(input);
+        int count = readInt(input);
+        SortedMap<MessageUid, MessageMetaData> metaData = new TreeMap<MessageUid, MessageMetaData>();
+        long uid = 0;
+        long modSeq = 0;
+        for (int i = 0; i < count; i++) {
+            uid += unZigZag(readLong(input));
+            modSeq += unZigZag(readLong(input));
+            Flags flags = new Flags(flagsTable.get(readInt(input)));
+            long size = readLong(input);
+            Date internalDate = readDate(input);
+            MessageId messageId = deserialize(readString(input));
+            metaData.put(MessageUid.of(uid), new SimpleMessageMetaData(MessageUid.of(uid), modSeq, flags, size, internalDate, messageId));
+        }
+        return metaData;
+    }
+
+    private void writeUpdatedFlags(DataOutput output, MailboxListener.FlagsUpdated event) throws IOException {
+        List<UpdatedFlags> updatedFlagsList = event.getUpdatedFlags();
+        FlagsTable flagsTable = new FlagsTable();
+        for (UpdatedFlags updatedFlags : updatedFlagsList) {
+            flagsTable.add(updatedFlags.getOldFlags());
+            flagsTable.add(updatedFlags.getNewFlags());
+        }
+        flagsTable.write(output);
+        writeInt(output, updatedFlagsList.size());
+        long previousUid = 0;
+        long previousModSeq = 0;
+        for (UpdatedFlags updatedFlags : updatedFlagsList) {
+            writeLong(output, zigZag(updatedFlags.getUid().asLong() - previousUid));
+            writeLong(output, zigZag(updatedFlags.getModSeq() - previousModSeq));
+            writeInt(output, flagsTable.indexOf(updatedFlags.getOldFlags()));
+            writeInt(output, flagsTable.indexOf(updatedFlags.getNewFlags()));
+            previousUid = updatedFlags.getUid().asLong();
+            previousModSeq = updatedFlags.getModSeq();
+        }
+    }
+
+    private List<UpdatedFlags> readUpdatedFlags(DataInput input) throws IOException {
+        List<Flags> flagsTable = FlagsTable.read(input);
+        int count = readInt(input);
+        List<UpdatedFlags> updatedFlagsList = new ArrayList<UpdatedFlags>(count);
+        long uid = 0;
+        long modSeq = 0;
+        for (int i = 0; i < count; i++) {
+            uid += unZigZag(readLong(input));
+            modSeq += unZigZag(readLong(input));
+            Flags oldFlags = new Flags(flagsTable.get(readInt(input)));
+            Flags newFlags = new Flags(flagsTable.get(readInt(input)));
+            updatedFlagsList.add(new UpdatedFlags(MessageUid.of(uid), modSeq, oldFlags, newFlags));
+        }
+        return updatedFlagsList;
+    }
+
+    private void writeUids(DataOutput output, List<MessageUid> uids) throws IOException {
+        writeInt(output, uids.size());
+        long previousUid = 0;
+        for (MessageUid uid : uids) {
+            writeLong(output, zigZag(uid.asLong() - previousUid));
+            previousUid = uid.asLong();
+        }
+    }
+
+    private List<MessageUid> readUids(DataInput input) throws IOException {
+        int count = readInt(input);
+        List<MessageUid> uids = new ArrayList<MessageUid>(count);
+        long uid = 0;
+        for (int i = 0; i < count; i++) {
+            uid += unZigZag(readLong(input));
+            uids.add(MessageUid.of(uid));
+        }
+        return uids;
+    }
+
+    private String serialize(MessageId messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        return messageId.serialize();
+    }
+
+    private MessageId deserialize(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        return messageIdFactory.fromString(messageId);
+    }
+
+    /**
+     * Distinct flag combinations of an event. Few of them are usually shared by all its messages.
+     */
+    private static class FlagsTable {
+        private final Map<Flags, Integer> indexes = new HashMap<Flags, Integer>();
+        private final List<Flags> flagsList = new ArrayList<Flags>();
+
+        void add(Flags flags) {
+            if (!indexes.containsKey(flags)) {
+                indexes.put(flags, flagsList.size());
+                flagsList.add(flags);
+            }
+        }
+
+        int indexOf(Flags flags) {
+            return indexes.get(flags);
+        }
+
+        void write(DataOutput output) throws IOException {
+            writeInt(output, flagsList.size());
+            for (Flags flags : flagsList) {
+                int systemFlags = 0;
+                for (int i = 0; i < SYSTEM_FLAGS.length; i++) {
+                    if (flags.contains(SYSTEM_FLAGS[i])) {
+                        systemFlags |= 1 << i;
+                    }
+                }
+                output.writeByte(systemFlags);
+                String[] userFlags = flags.getUserFlags();
+                writeInt(output, userFlags.length);
+                for (String userFlag : userFlags) {
+                    writeString(output, userFlag);
+                }
+            }
+        }
+
+        static List<Flags> read(DataInput input) throws IOException {
+            int count = readInt(input);
+            List<Flags> flagsList = new ArrayList<Flags>(count);
+            for (int i = 0; i < count; i++) {
+                Flags flags = new Flags();
+                int systemFlags = input.readByte();
+                for (int j = 0; j < SYSTEM_FLAGS.length; j++) {
+                    if ((systemFlags & (1 << j)) != 0) {
+                        flags.add(SYSTEM_FLAGS[j]);
+                    }
+                }
+                int userFlagCount = readInt(input);
+                for (int j = 0; j < userFlagCount; j++) {
+                    flags.add(readString(input));
+                }
+                flagsList.add(flags);
+            }
+            return flagsList;
+        }
+    }
+
+    private static void writeDate(DataOutput output, Date date) throws IOException {
+        output.writeBoolean(date != null);
+        if (date != null) {
+            output.writeLong(date.getTime());
+        }
+    }
+
+    private static Date readDate(DataInput input) throws IOException {
+        if (input.readBoolean()) {
+            return new Date(input.readLong());
+        }
+        return null;
+    }
+
+    /**
+     * Write a nullable String as its UTF-8 length plus one, followed by its UTF-8 bytes
+     */
+    private static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            writeInt(output, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        int length = readInt(input);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static void writeInt(DataOutput output, int value) throws IOException {
+        writeLong(output, value);
+    }
+
+    private static int readInt(DataInput input) throws IOException {
+        return (int) readLong(input);
+    }
+
+    /**
+     * Write an unsigned variable length integer, seven bits per byte, the high bit telling more bytes follow
+     */
+    private static void writeLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readLong(DataInput input) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IOException("Malformed variable length integer");
+            }
+            b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -19,9 +19,10 @@
 
 package org.apache.james.mailbox.store.mail.model.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 import org.apache.james.mailbox.model.Attachment;
@@ -30,21 +31,24 @@ import org.apache.james.mailbox.model.MessageAttachment;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.codec.DecodeMonitor;
 import org.apache.james.mime4j.codec.DecoderUtil;
-import org.apache.james.mime4j.dom.Body;
-import org.apache.james.mime4j.dom.Entity;
-import org.apache.james.mime4j.dom.MessageWriter;
-import org.apache.james.mime4j.dom.Multipart;
+import org.apache.james.mime4j.dom.Header;
 import org.apache.james.mime4j.dom.field.ContentDispositionField;
 import org.apache.james.mime4j.dom.field.ContentIdField;
 import org.apache.james.mime4j.dom.field.ContentTypeField;
 import org.apache.james.mime4j.dom.field.ParsedField;
-import org.apache.james.mime4j.message.DefaultMessageBuilder;
-import org.apache.james.mime4j.message.DefaultMessageWriter;
+import org.apache.james.mime4j.field.LenientFieldParser;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.message.HeaderImpl;
+import org.apache.james.mime4j.stream.EntityState;
 import org.apache.james.mime4j.stream.Field;
+import org.apache.james.mime4j.stream.MimeConfig;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+import org.apache.james.mime4j.stream.RecursionMode;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 
 public class MessageParser {
 
@@ -58,46 +62,76 @@ public class MessageParser {
             ContentDispositionField.DISPOSITION_TYPE_INLINE.toLowerCase());
 
     public List<MessageAttachment> retrieveAttachments(InputStream fullContent) throws MimeException, IOException {
-        Body body = new DefaultMessageBuilder()
-                .parseMessage(fullContent)
-                .getBody();
-        try {
-            if (body instanceof Multipart) {
-                Multipart multipartBody = (Multipart)body;
-                return listAttachments(multipartBody, Context.fromSubType(multipartBody.getSubType()));
-            } else {
-                return ImmutableList.of();
-            }
-        } finally {
-            body.dispose();
+        MimeTokenStream stream = new MimeTokenStream(MimeConfig.custom().setMaxLineLen(-1).setMaxHeaderLen(-1).build(),
+                new DefaultBodyDescriptorBuilder());
+        stream.setRecursionMode(RecursionMode.M_NO_RECURSE);
+        stream.parse(fullContent);
+        EntityState state = stream.next();
+        while (state != EntityState.T_BODY && state != EntityState.T_START_MULTIPART && state != EntityState.T_END_OF_STREAM) {
+            state = stream.next();
         }
+        return retrieveAttachments(stream);
     }
 
-    private List<MessageAttachment> listAttachments(Multipart multipart, Context context) throws IOException {
+    /**
+     * Retrieve the attachments while the remaining of the message is read from the given stream, so that the message
+     * does not need to be parsed a second time.
+     *
+     * The stream must not recurse into <code>message/rfc822</code> parts and must be positioned on the body of the
+     * message, after its header. When the message is a multipart one, the stream is read till its end.
+     */
+    public List<MessageAttachment> retrieveAttachments(MimeTokenStream stream) throws MimeException, IOException {
+        if (stream.getState() != EntityState.T_START_MULTIPART) {
+            return ImmutableList.of();
+        }
         ImmutableList.Builder<MessageAttachment> attachments = ImmutableList.builder();
-        MessageWriter messageWriter = new DefaultMessageWriter();
-        for (Entity entity : multipart.getBodyParts()) {
-            if (isMultipart(entity)) {
-                attachments.addAll(listAttachments((Multipart) entity.getBody(), Context.fromEntity(entity)));
-            } else {
-                if (isAttachment(entity, context)) {
-                    attachments.add(retrieveAttachment(messageWriter, entity));
+        Deque<Context> contexts = new ArrayDeque<Context>();
+        contexts.push(Context.fromSubType(stream.getBodyDescriptor().getSubType()));
+        Header partHeader = null;
+        for (EntityState state = stream.next(); state != EntityState.T_END_OF_STREAM; state = stream.next()) {
+            switch (state) {
+            case T_START_BODYPART:
+                partHeader = new HeaderImpl();
+                break;
+            case T_FIELD:
+                if (partHeader != null) {
+                    partHeader.addField(parseField(stream.getField()));
+                }
+                break;
+            case T_START_MULTIPART:
+                contexts.push(Context.fromSubType(stream.getBodyDescriptor().getSubType()));
+                partHeader = null;
+                break;
+            case T_END_MULTIPART:
+                contexts.pop();
+                break;
+            case T_BODY:
+                if (partHeader != null && isAttachment(partHeader, contexts.peek())) {
+                    attachments.add(retrieveAttachment(partHeader, stream.getDecodedInputStream()));
                 }
+                partHeader = null;
+                break;
+            default:
+                break;
             }
         }
         return attachments.build();
     }
 
-    private MessageAttachment retrieveAttachment(MessageWriter messageWriter, Entity entity) throws IOException {
-        Optional<ContentTypeField> contentTypeField = getContentTypeField(entity);
+    private ParsedField parseField(Field field) throws MimeException {
+        return LenientFieldParser.getParser().parse(field, DecodeMonitor.SILENT);
+    }
+
+    private MessageAttachment retrieveAttachment(Header header, InputStream content) throws IOException {
+        Optional<ContentTypeField> contentTypeField = getContentTypeField(header);
         Optional<String> contentType = contentType(contentTypeField);
         Optional<String> name = name(contentTypeField);
-        Optional<Cid> cid = cid(castField(entity.getHeader().getField(CONTENT_ID), ContentIdField.class));
-        boolean isInline = isInline(castField(entity.getHeader().getField(CONTENT_DISPOSITION), ContentDispositionField.class));
+        Optional<Cid> cid = cid(castField(header.getField(CONTENT_ID), ContentIdField.class));
+        boolean isInline = isInline(castField(header.getField(CONTENT_DISPOSITION), ContentDispositionField.class));
 
         return MessageAttachment.builder()
                 .attachment(Attachment.builder()
-                    .bytes(getBytes(messageWriter, entity.getBody()))
+                    .bytes(ByteStreams.toByteArray(content))
                     .type(contentType.or(DEFAULT_CONTENT_TYPE))
                     .build())
                 .name(name.orNull())
@@ -106,8 +140,8 @@ public class MessageParser {
                 .build();
     }
 
-    private Optional<ContentTypeField> getContentTypeField(Entity entity) {
-        return castField(entity.getHeader().getField(CONTENT_TYPE), ContentTypeField.class);
+    private Optional<ContentTypeField> getContentTypeField(Header header) {
+        return castField(header.getField(CONTENT_TYPE), ContentTypeField.class);
     }
 
     @SuppressWarnings("unchecked")
@@ -159,10 +193,6 @@ public class MessageParser {
         }).or(Optional.<Cid> absent());
     }
 
-    private boolean isMultipart(Entity entity) {
-        return entity.isMultipart() && entity.getBody() instanceof Multipart;
-    }
-
     private boolean isInline(Optional<ContentDispositionField> contentDispositionField) {
         return contentDispositionField.transform(new Function<ContentDispositionField, Boolean>() {
             @Override
@@ -172,11 +202,11 @@ public class MessageParser {
         }).or(false);
     }
 
-    private boolean isAttachment(Entity part, Context context) {
+    private boolean isAttachment(Header part, Context context) {
         if (context == Context.BODY && isTextPart(part)) {
             return false;
         }
-        return Optional.fromNullable(part.getDispositionType())
+        return dispositionType(part)
                 .transform(new Function<String, Boolean>() {
 
                     @Override
@@ -186,7 +216,17 @@ public class MessageParser {
                 }).or(false);
     }
 
-    private boolean isTextPart(Entity part) {
+    private Optional<String> dispositionType(Header part) {
+        return castField(part.getField(CONTENT_DISPOSITION), ContentDispositionField.class)
+                .transform(new Function<ContentDispositionField, Optional<String>>() {
+                    @Override
+                    public Optional<String> apply(ContentDispositionField field) {
+                        return Optional.fromNullable(field.getDispositionType());
+                    }
+                }).or(Optional.<String> absent());
+    }
+
+    private boolean isTextPart(Header part) {
         Optional<ContentTypeField> contentTypeField = getContentTypeField(part);
         if (contentTypeField.isPresent()) {
             String mediaType = contentTypeField.get().getMediaType();
@@ -197,25 +237,11 @@ public class MessageParser {
         return false;
     }
 
-    private byte[] getBytes(MessageWriter messageWriter, Body body) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        messageWriter.writeBody(body, out);
-        return out.toByteArray();
-    }
-
     private static enum Context {
         BODY,
         OTHER;
 
         private static final String ALTERNATIVE_SUB_TYPE = "alternative";
-        private static final String MULTIPART_ALTERNATIVE = "multipart/" + ALTERNATIVE_SUB_TYPE;
-
-        public static Context fromEntity(Entity entity) {
-            if (isMultipartAlternative(entity)) {
-                return BODY;
-            }
-            return OTHER;
-        }
 
         public static Context fromSubType(String subPart) {
             if (isAlternative(subPart)) {
@@ -224,10 +250,6 @@ public class MessageParser {
             return OTHER;
         }
 
-        private static boolean isMultipartAlternative(Entity entity) {
-            return entity.getMimeType().equalsIgnoreCase(MULTIPART_ALTERNATIVE);
-        }
-
         private static boolean isAlternative(String subPart) {
             return subPart.equalsIgnoreCase(ALTERNATIVE_SUB_TYPE);
         }
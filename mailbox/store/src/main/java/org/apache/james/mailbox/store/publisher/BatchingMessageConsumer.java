@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.publisher;
+
+/**
+ * {@link MessageConsumer} splitting the batches sent by a {@link BatchingPublisher}, so that the
+ * {@link MessageReceiver} is given the events one by one. Other messages are given as they are.
+ */
+public class BatchingMessageConsumer implements MessageConsumer {
+
+    private final MessageConsumer messageConsumer;
+
+    public BatchingMessageConsumer(MessageConsumer messageConsumer) {
+        this.messageConsumer = messageConsumer;
+    }
+
+    @Override
+    public void setMessageReceiver(final MessageReceiver messageReceiver) {
+        messageConsumer.setMessageReceiver(new MessageReceiver() {
+            @Override
+            public void receiveSerializedEvent(byte[] message) {
+                if (MessageBatch.isBatch(message)) {
+                    for (byte[] serializedEvent : MessageBatch.split(message)) {
+                        messageReceiver.receiveSerializedEvent(serializedEvent);
+                    }
+                } else {
+                    messageReceiver.receiveSerializedEvent(message);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void init(Topic topic) throws Exception {
+        messageConsumer.init(topic);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        messageConsumer.destroy();
+    }
+
+}
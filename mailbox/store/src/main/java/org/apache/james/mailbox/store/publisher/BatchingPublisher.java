@@ -0,0 +1,164 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.publisher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link Publisher} gathering the messages of a topic over a short window, so that they are sent as a single message.
+ *
+ * A batch is sent once the window is over, or as soon as it holds the maximum count of messages. The receiving
+ * side needs a {@link BatchingMessageConsumer} to split them again. Batches of a topic are sent one at a time, in
+ * order. The lifecycle of the wrapped {@link Publisher} is left to its owner.
+ */
+public class BatchingPublisher implements Publisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingPublisher.class);
+
+    private final Publisher publisher;
+    private final long windowInMs;
+    private final int maxBatchSize;
+    private final Map<Topic, MessageBatch> batches;
+    private final ConcurrentMap<Topic, Object> sendLocks;
+    private ScheduledExecutorService scheduler;
+
+    public BatchingPublisher(Publisher publisher, long windowInMs, int maxBatchSize) {
+        Preconditions.checkArgument(windowInMs > 0, "windowInMs should be positive");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize should be positive");
+        this.publisher = publisher;
+        this.windowInMs = windowInMs;
+        this.maxBatchSize = maxBatchSize;
+        this.batches = new HashMap<Topic, MessageBatch>();
+        this.sendLocks = new ConcurrentHashMap<Topic, Object>();
+    }
+
+    @PostConstruct
+    @Override
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("event-batching").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, windowInMs, windowInMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void publish(Topic topic, byte[] message) {
+        boolean full;
+        synchronized (batches) {
+            MessageBatch batch = batches.get(topic);
+            if (batch == null) {
+                batch = new MessageBatch();
+                batches.put(topic, batch);
+            }
+            batch.append(message);
+            full = batch.size() >= maxBatchSize;
+        }
+        if (full) {
+            sendPendingBatch(topic, maxBatchSize);
+        }
+    }
+
+    /**
+     * Send the pending batches without waiting for the end of the window
+     */
+    public void flush() {
+        List<Topic> topics;
+        synchronized (batches) {
+            if (batches.isEmpty()) {
+                return;
+            }
+            topics = new ArrayList<Topic>(batches.keySet());
+        }
+        for (Topic topic : topics) {
+            sendPendingBatch(topic, 1);
+        }
+    }
+
+    /**
+     * The batch of a topic is taken and sent under the send lock of that topic, so that batches of a topic are
+     * sent in the order they were filled, whichever of the publishing threads or the scheduler sends them.
+     */
+    private void sendPendingBatch(Topic topic, int minimumSize) {
+        synchronized (sendLockOf(topic)) {
+            MessageBatch batch;
+            synchronized (batches) {
+                batch = batches.get(topic);
+                if (batch == null || batch.size() < minimumSize) {
+                    return;
+                }
+                batches.remove(topic);
+            }
+            send(topic, batch);
+        }
+    }
+
+    private Object sendLockOf(Topic topic) {
+        Object sendLock = sendLocks.get(topic);
+        if (sendLock == null) {
+            Object newSendLock = new Object();
+            sendLock = sendLocks.putIfAbsent(topic, newSendLock);
+            if (sendLock == null) {
+                sendLock = newSendLock;
+            }
+        }
+        return sendLock;
+    }
+
+    private void send(Topic topic, MessageBatch batch) {
+        try {
+            publisher.publish(topic, batch.toByteArray());
+        } catch (Throwable t) {
+            LOG.error("Unable to send a batch of " + batch.size() + " events to topic " + topic.getValue(), t);
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+}
@@ -0,0 +1,86 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.publisher;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several serialized events sent as a single message.
+ *
+ * A batch starts with a marker byte no serialized event starts with, followed by the events, each one prefixed by its
+ * length written as a variable length integer.
+ */
+class MessageBatch {
+
+    private static final int MARKER = 0xBA;
+
+    static boolean isBatch(byte[] message) {
+        return message.length > 0 && (message[0] & 0xFF) == MARKER;
+    }
+
+    static List<byte[]> split(byte[] batch) {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        int position = 1;
+        while (position < batch.length) {
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = batch[position++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            messages.add(Arrays.copyOfRange(batch, position, position + length));
+            position += length;
+        }
+        return messages;
+    }
+
+    private final ByteArrayOutputStream content;
+    private int size;
+
+    MessageBatch() {
+        this.content = new ByteArrayOutputStream();
+        this.content.write(MARKER);
+    }
+
+    void append(byte[] message) {
+        int length = message.length;
+        while ((length & ~0x7F) != 0) {
+            content.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        content.write(length);
+        content.write(message, 0, message.length);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return content.toByteArray();
+    }
+}
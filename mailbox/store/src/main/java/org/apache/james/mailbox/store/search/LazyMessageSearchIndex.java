@@ -32,6 +32,7 @@ import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.exception.UnsupportedSearchException;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.UpdatedFlags;
@@ -131,4 +132,9 @@ public class LazyMessageSearchIndex extends ListeningMessageSearchIndex {
     public Map<MailboxId, Collection<MessageUid>> search(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
         throw new UnsupportedSearchException();
     }
+
+    @Override
+    public List<MessageUidWithMailboxId> sortedSearch(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        throw new UnsupportedSearchException();
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.james.mailbox.store.search;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.james.mailbox.MailboxManager;
@@ -29,6 +30,7 @@ import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
@@ -52,6 +54,14 @@ public interface MessageSearchIndex {
      */
     Map<MailboxId, Collection<MessageUid>> search(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException;
 
+    /**
+     * Return the uids of all {@link Mailbox}'s the current user has access to which match the {@link SearchQuery},
+     * globally ordered by the {@link SearchQuery} sorts, with the offset and limit of the query applied.
+     *
+     * Implementations should avoid loading more than offset + limit results.
+     */
+    List<MessageUidWithMailboxId> sortedSearch(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException;
+
     EnumSet<MailboxManager.SearchCapabilities> getSupportedCapabilities();
 
 }
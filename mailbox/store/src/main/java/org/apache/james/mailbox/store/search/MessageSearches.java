@@ -70,6 +70,8 @@ import org.apache.james.mime4j.message.DefaultMessageWriter;
 import org.apache.james.mime4j.message.HeaderImpl;
 import org.apache.james.mime4j.utils.search.MessageMatcher;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 /**
@@ -95,17 +97,9 @@ public class MessageSearches implements Iterable<MessageUid> {
 
     private Set<MessageUid> search() {
         TreeSet<MailboxMessage> matched = new TreeSet<MailboxMessage>(CombinedComparator.create(query.getSorts()));
-        while (messages.hasNext()) {
-            MailboxMessage m = messages.next();
-            try {
-                if (isMatch(query, m)) {
-                    matched.add(m);
-                }
-            } catch (MailboxException e) {
-                if (session != null && session.getLog() != null) {
-                    session.getLog().debug("Unable to search message " + m.getUid(), e);
-                }
-            }
+        Iterator<MailboxMessage> matchingMessages = matchingMessages();
+        while (matchingMessages.hasNext()) {
+            matched.add(matchingMessages.next());
         }
         Set<MessageUid> uids = new HashSet<MessageUid>();
         Iterator<MailboxMessage> matchedIt = matched.iterator();
@@ -115,6 +109,31 @@ public class MessageSearches implements Iterable<MessageUid> {
         return uids;
     }
 
+    /**
+     * Lazily filter the messages matching the query, keeping the order of the underlying messages.
+     * 
+     * @return matching messages
+     */
+    public Iterator<MailboxMessage> matchingMessages() {
+        return Iterators.filter(messages, new Predicate<MailboxMessage>() {
+            @Override
+            public boolean apply(MailboxMessage message) {
+                return isMatchIgnoringErrors(message);
+            }
+        });
+    }
+
+    private boolean isMatchIgnoringErrors(MailboxMessage message) {
+        try {
+            return isMatch(query, message);
+        } catch (MailboxException e) {
+            if (session != null && session.getLog() != null) {
+                session.getLog().debug("Unable to search message " + message.getUid(), e);
+            }
+            return false;
+        }
+    }
+
     /**
      * Does the row match the given criteria?
      * 
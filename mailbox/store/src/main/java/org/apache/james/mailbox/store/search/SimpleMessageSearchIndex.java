@@ -1,183 +1,288 @@
-/****************************************************************
- * Licensed to the Apache Software Foundation (ASF) under one   *
- * or more contributor license agreements.  See the NOTICE file *
- * distributed with this work for additional information        *
- * regarding copyright ownership.  The ASF licenses this file   *
- * to you under the Apache License, Version 2.0 (the            *
- * "License"); you may not use this file except in compliance   *
- * with the License.  You may obtain a copy of the License at   *
- *                                                              *
- *   http://www.apache.org/licenses/LICENSE-2.0                 *
- *                                                              *
- * Unless required by applicable law or agreed to in writing,   *
- * software distributed under the License is distributed on an  *
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
- * KIND, either express or implied.  See the License for the    *
- * specific language governing permissions and limitations      *
- * under the License.                                           *
- ****************************************************************/
-package org.apache.james.mailbox.store.search;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.EnumSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
-
-import javax.inject.Inject;
-
-import org.apache.james.mailbox.MailboxManager.SearchCapabilities;
-import org.apache.james.mailbox.MailboxSession;
-import org.apache.james.mailbox.MessageUid;
-import org.apache.james.mailbox.exception.MailboxException;
-import org.apache.james.mailbox.model.MailboxId;
-import org.apache.james.mailbox.model.MailboxPath;
-import org.apache.james.mailbox.model.MessageRange;
-import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
-import org.apache.james.mailbox.model.SearchQuery;
-import org.apache.james.mailbox.model.SearchQuery.ConjunctionCriterion;
-import org.apache.james.mailbox.model.SearchQuery.Criterion;
-import org.apache.james.mailbox.model.SearchQuery.UidCriterion;
-import org.apache.james.mailbox.model.SearchQuery.UidRange;
-import org.apache.james.mailbox.store.mail.MailboxMapperFactory;
-import org.apache.james.mailbox.store.mail.MessageMapper;
-import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
-import org.apache.james.mailbox.store.mail.MessageMapperFactory;
-import org.apache.james.mailbox.store.mail.model.Mailbox;
-import org.apache.james.mailbox.store.mail.model.MailboxMessage;
-
-import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.ImmutableMultimap.Builder;
-import com.google.common.collect.Multimap;
-
-/**
- * {@link MessageSearchIndex} which just fetch {@link MailboxMessage}'s from the {@link MessageMapper} and use {@link MessageSearcher}
- * to match them against the {@link SearchQuery}.
- * 
- * This works with every implementation but is SLOW.
- * 
- *
- */
-public class SimpleMessageSearchIndex implements MessageSearchIndex {
-    private static final String WILDCARD = "%";
-
-    private final MessageMapperFactory messageMapperFactory;
-    private final MailboxMapperFactory mailboxMapperFactory;
-    
-    @Inject
-    public SimpleMessageSearchIndex(MessageMapperFactory messageMapperFactory, MailboxMapperFactory mailboxMapperFactory) {
-        this.messageMapperFactory = messageMapperFactory;
-        this.mailboxMapperFactory = mailboxMapperFactory;
-    }
-    
-    @Override
-    public EnumSet<SearchCapabilities> getSupportedCapabilities() {
-        return EnumSet.of(SearchCapabilities.MultimailboxSearch, SearchCapabilities.Text);
-    }
-    
-    /**
-     * Walks down the query tree's conjunctions to find a UidCriterion
-     * @param crits - list of Criterion to search from
-     * @return
-     *      first UidCriterion found
-     *      null - if not found
-     */
-  	private static UidCriterion findConjugatedUidCriterion(List<Criterion> crits) {
-		for (Criterion crit : crits) {
-			if (crit instanceof UidCriterion) {
-				return (UidCriterion) crit;
-			} else if (crit instanceof ConjunctionCriterion) {
-				return findConjugatedUidCriterion(((ConjunctionCriterion) crit)
-						.getCriteria());
-			}
-		}
-		return null;
-	}
-    
-    @Override
-    public Iterator<MessageUid> search(MailboxSession session, Mailbox mailbox, SearchQuery query) throws MailboxException {
-        Preconditions.checkArgument(session != null, "'session' is mandatory");
-        return searchMultimap(session, ImmutableList.of(mailbox), query)
-                .get(mailbox.getMailboxId())
-                .iterator();
-    }
-    
-    private Multimap<MailboxId, MessageUid> searchMultimap(MailboxSession session, Iterable<Mailbox> mailboxes, SearchQuery query) throws MailboxException {
-        Builder<MailboxId, MessageUid> multimap = ImmutableMultimap.builder();
-        for (Mailbox mailbox: mailboxes) {
-            multimap.putAll(searchMultimap(session, mailbox, query));
-        }
-        return multimap.build();
-
-    }
-    
-    private Multimap<MailboxId, MessageUid> searchMultimap(MailboxSession session, Mailbox mailbox, SearchQuery query) throws MailboxException {
-        if (!isMatchingUser(session, mailbox)) {
-            return ImmutableMultimap.of();
-        }
-        MessageMapper mapper = messageMapperFactory.getMessageMapper(session);
-
-        final SortedSet<MailboxMessage> hitSet = new TreeSet<MailboxMessage>();
-
-        UidCriterion uidCrit = findConjugatedUidCriterion(query.getCriterias());
-        if (uidCrit != null) {
-            // if there is a conjugated uid range criterion in the query tree we can optimize by
-            // only fetching this uid range
-            UidRange[] ranges = uidCrit.getOperator().getRange();
-            for (UidRange r : ranges) {
-                Iterator<MailboxMessage> it = mapper.findInMailbox(mailbox, MessageRange.range(r.getLowValue(), r.getHighValue()), FetchType.Metadata, -1);
-                while (it.hasNext()) {
-                    hitSet.add(it.next());
-                }
-            }
-        } else {
-        	// we have to fetch all messages
-            Iterator<MailboxMessage> messages = mapper.findInMailbox(mailbox, MessageRange.all(), FetchType.Full, -1);
-            while(messages.hasNext()) {
-            	MailboxMessage m = messages.next();
-            	hitSet.add(m);
-            }
-        }
-        
-        // MessageSearches does the filtering for us
-        return ImmutableMultimap.<MailboxId, MessageUid>builder()
-                    .putAll(mailbox.getMailboxId(), ImmutableList.copyOf(new MessageSearches(hitSet.iterator(), query, session).iterator()))
-                    .build();
-    }
-
-    private boolean isMatchingUser(MailboxSession session, Mailbox mailbox) {
-        return mailbox.getUser().equals(session.getUser().getUserName());
-    }
-
-    @Override
-    public Map<MailboxId, Collection<MessageUid>> search(MailboxSession session, final MultimailboxesSearchQuery searchQuery) throws MailboxException {
-        List<Mailbox> allUserMailboxes = mailboxMapperFactory.getMailboxMapper(session)
-                .findMailboxWithPathLike(new MailboxPath(session.getPersonalSpace(), session.getUser().getUserName(), WILDCARD));
-        FluentIterable<Mailbox> filteredMailboxes = FluentIterable.from(allUserMailboxes).filter(new Predicate<Mailbox>() {
-            @Override
-            public boolean apply(Mailbox input) {
-                return !searchQuery.getNotInMailboxes().contains(input.getMailboxId());
-            }
-        });
-        if (searchQuery.getInMailboxes().isEmpty()) {
-            return searchMultimap(session, filteredMailboxes, searchQuery.getSearchQuery())
-                    .asMap();
-        }
-        List<Mailbox> queriedMailboxes = new ArrayList<Mailbox>();
-        for (Mailbox mailbox: filteredMailboxes) {
-            if (searchQuery.getInMailboxes().contains(mailbox.getMailboxId())) {
-                queriedMailboxes.add(mailbox);
-            }
-        }
-        return searchMultimap(session, queriedMailboxes, searchQuery.getSearchQuery())
-                .asMap();
-    }
-
-}
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.apache.james.mailbox.MailboxManager.SearchCapabilities;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxId;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
+import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.model.SearchQuery.ConjunctionCriterion;
+import org.apache.james.mailbox.model.SearchQuery.Criterion;
+import org.apache.james.mailbox.model.SearchQuery.HeaderCriterion;
+import org.apache.james.mailbox.model.SearchQuery.Sort;
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.apache.james.mailbox.model.SearchQuery.TextCriterion;
+import org.apache.james.mailbox.model.SearchQuery.UidCriterion;
+import org.apache.james.mailbox.model.SearchQuery.UidRange;
+import org.apache.james.mailbox.store.mail.MailboxMapperFactory;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.MessageMapperFactory;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.search.comparator.CombinedComparator;
+import org.apache.james.mailbox.store.search.comparator.ReverseComparator;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMultimap.Builder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Multimap;
+
+/**
+ * {@link MessageSearchIndex} which just fetch {@link MailboxMessage}'s from the {@link MessageMapper} and use {@link MessageSearcher}
+ * to match them against the {@link SearchQuery}.
+ * 
+ * This works with every implementation but is SLOW.
+ * 
+ *
+ */
+public class SimpleMessageSearchIndex implements MessageSearchIndex {
+    private static final String WILDCARD = "%";
+    private static final int INITIAL_HEAP_CAPACITY = 16;
+
+    private final MessageMapperFactory messageMapperFactory;
+    private final MailboxMapperFactory mailboxMapperFactory;
+    
+    @Inject
+    public SimpleMessageSearchIndex(MessageMapperFactory messageMapperFactory, MailboxMapperFactory mailboxMapperFactory) {
+        this.messageMapperFactory = messageMapperFactory;
+        this.mailboxMapperFactory = mailboxMapperFactory;
+    }
+    
+    @Override
+    public EnumSet<SearchCapabilities> getSupportedCapabilities() {
+        return EnumSet.of(SearchCapabilities.MultimailboxSearch, SearchCapabilities.Text);
+    }
+    
+    /**
+     * Walks down the query tree's conjunctions to find a UidCriterion
+     * @param crits - list of Criterion to search from
+     * @return
+     *      first UidCriterion found
+     *      null - if not found
+     */
+  	private static UidCriterion findConjugatedUidCriterion(List<Criterion> crits) {
+		for (Criterion crit : crits) {
+			if (crit instanceof UidCriterion) {
+				return (UidCriterion) crit;
+			} else if (crit instanceof ConjunctionCriterion) {
+				return findConjugatedUidCriterion(((ConjunctionCriterion) crit)
+						.getCriteria());
+			}
+		}
+		return null;
+	}
+    
+    @Override
+    public Iterator<MessageUid> search(MailboxSession session, Mailbox mailbox, SearchQuery query) throws MailboxException {
+        Preconditions.checkArgument(session != null, "'session' is mandatory");
+        return searchMultimap(session, ImmutableList.of(mailbox), query)
+                .get(mailbox.getMailboxId())
+                .iterator();
+    }
+    
+    private Multimap<MailboxId, MessageUid> searchMultimap(MailboxSession session, Iterable<Mailbox> mailboxes, SearchQuery query) throws MailboxException {
+        Builder<MailboxId, MessageUid> multimap = ImmutableMultimap.builder();
+        for (Mailbox mailbox: mailboxes) {
+            multimap.putAll(searchMultimap(session, mailbox, query));
+        }
+        return multimap.build();
+
+    }
+    
+    private Multimap<MailboxId, MessageUid> searchMultimap(MailboxSession session, Mailbox mailbox, SearchQuery query) throws MailboxException {
+        if (!isMatchingUser(session, mailbox)) {
+            return ImmutableMultimap.of();
+        }
+        // MessageSearches does the filtering for us
+        return ImmutableMultimap.<MailboxId, MessageUid>builder()
+                    .putAll(mailbox.getMailboxId(), ImmutableList.copyOf(new MessageSearches(candidateMessages(session, mailbox, query), query, session).iterator()))
+                    .build();
+    }
+
+    /**
+     * Stream the messages of the mailbox from the {@link MessageMapper}, restricted to the uid ranges of the query
+     * when it has some
+     */
+    private Iterator<MailboxMessage> candidateMessages(MailboxSession session, Mailbox mailbox, SearchQuery query) throws MailboxException {
+        MessageMapper mapper = messageMapperFactory.getMessageMapper(session);
+        FetchType fetchType = fetchType(query);
+
+        UidCriterion uidCrit = findConjugatedUidCriterion(query.getCriterias());
+        if (uidCrit == null) {
+            // we have to go through all messages
+            return mapper.findInMailbox(mailbox, MessageRange.all(), fetchType, -1);
+        }
+        // if there is a conjugated uid range criterion in the query tree we can optimize by
+        // only fetching this uid range
+        List<Iterator<MailboxMessage>> rangeMessages = new ArrayList<Iterator<MailboxMessage>>();
+        for (UidRange r : uidCrit.getOperator().getRange()) {
+            rangeMessages.add(mapper.findInMailbox(mailbox, MessageRange.range(r.getLowValue(), r.getHighValue()), fetchType, -1));
+        }
+        final Set<MessageUid> seenUids = new HashSet<MessageUid>();
+        return Iterators.filter(Iterators.concat(rangeMessages.iterator()), new Predicate<MailboxMessage>() {
+            @Override
+            public boolean apply(MailboxMessage message) {
+                // the ranges may overlap
+                return seenUids.add(message.getUid());
+            }
+        });
+    }
+
+    /**
+     * Only read the parts of the messages needed to match and sort them: the bodies for text criteria, the headers
+     * for header criteria and sorts
+     */
+    private static FetchType fetchType(SearchQuery query) {
+        FetchType fetchType = fetchType(query.getCriterias());
+        if (fetchType == FetchType.Metadata && isSortedOnHeaders(query.getSorts())) {
+            return FetchType.Headers;
+        }
+        return fetchType;
+    }
+
+    private static FetchType fetchType(List<Criterion> criteria) {
+        FetchType fetchType = FetchType.Metadata;
+        for (Criterion criterion : criteria) {
+            FetchType needed = FetchType.Metadata;
+            if (criterion instanceof TextCriterion) {
+                needed = FetchType.Full;
+            } else if (criterion instanceof HeaderCriterion) {
+                needed = FetchType.Headers;
+            } else if (criterion instanceof ConjunctionCriterion) {
+                needed = fetchType(((ConjunctionCriterion) criterion).getCriteria());
+            }
+            if (needed == FetchType.Full) {
+                return FetchType.Full;
+            }
+            if (needed == FetchType.Headers) {
+                fetchType = FetchType.Headers;
+            }
+        }
+        return fetchType;
+    }
+
+    private static boolean isSortedOnHeaders(List<Sort> sorts) {
+        for (Sort sort : sorts) {
+            SortClause clause = sort.getSortClause();
+            if (clause != SortClause.Arrival && clause != SortClause.Size && clause != SortClause.Uid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isMatchingUser(MailboxSession session, Mailbox mailbox) {
+        return mailbox.getUser().equals(session.getUser().getUserName());
+    }
+
+    @Override
+    public Map<MailboxId, Collection<MessageUid>> search(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        return searchMultimap(session, searchedMailboxes(session, searchQuery), searchQuery.getSearchQuery())
+                .asMap();
+    }
+
+    /**
+     * Streams the candidate messages and keeps at most offset + limit matching messages in a bounded heap: the memory
+     * usage scales with offset + limit, not with the size of the mailboxes. Without limit, every matching message is
+     * kept.
+     */
+    @Override
+    public List<MessageUidWithMailboxId> sortedSearch(MailboxSession session, MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        SearchQuery query = searchQuery.getSearchQuery();
+        Comparator<MailboxMessage> comparator = CombinedComparator.create(query.getSorts());
+        Optional<Integer> bound = resultBound(searchQuery);
+        PriorityQueue<MailboxMessage> retained = new PriorityQueue<MailboxMessage>(INITIAL_HEAP_CAPACITY, new ReverseComparator(comparator));
+        for (Mailbox mailbox: searchedMailboxes(session, searchQuery)) {
+            if (!isMatchingUser(session, mailbox)) {
+                continue;
+            }
+            Iterator<MailboxMessage> matchingMessages = new MessageSearches(candidateMessages(session, mailbox, query), query, session).matchingMessages();
+            while (matchingMessages.hasNext()) {
+                retained.add(matchingMessages.next());
+                if (bound.isPresent() && retained.size() > bound.get()) {
+                    retained.poll();
+                }
+            }
+        }
+        List<MailboxMessage> sorted = new ArrayList<MailboxMessage>(retained);
+        Collections.sort(sorted, comparator);
+        ImmutableList.Builder<MessageUidWithMailboxId> results = ImmutableList.builder();
+        for (MailboxMessage message : Iterables.skip(sorted, (int) Math.min(searchQuery.getOffset(), Integer.MAX_VALUE))) {
+            results.add(new MessageUidWithMailboxId(message.getMailboxId(), message.getUid()));
+        }
+        return results.build();
+    }
+
+    private Optional<Integer> resultBound(MultimailboxesSearchQuery searchQuery) {
+        if (!searchQuery.getLimit().isPresent()) {
+            return Optional.absent();
+        }
+        long bound = searchQuery.getOffset() + searchQuery.getLimit().get();
+        return Optional.of((int) Math.min(bound, Integer.MAX_VALUE - 1));
+    }
+
+    private List<Mailbox> searchedMailboxes(MailboxSession session, final MultimailboxesSearchQuery searchQuery) throws MailboxException {
+        List<Mailbox> allUserMailboxes = mailboxMapperFactory.getMailboxMapper(session)
+                .findMailboxWithPathLike(new MailboxPath(session.getPersonalSpace(), session.getUser().getUserName(), WILDCARD));
+        FluentIterable<Mailbox> filteredMailboxes = FluentIterable.from(allUserMailboxes).filter(new Predicate<Mailbox>() {
+            @Override
+            public boolean apply(Mailbox input) {
+                return !searchQuery.getNotInMailboxes().contains(input.getMailboxId());
+            }
+        });
+        if (searchQuery.getInMailboxes().isEmpty()) {
+            return filteredMailboxes.toList();
+        }
+        List<Mailbox> queriedMailboxes = new ArrayList<Mailbox>();
+        for (Mailbox mailbox: filteredMailboxes) {
+            if (searchQuery.getInMailboxes().contains(mailbox.getMailboxId())) {
+                queriedMailboxes.add(mailbox);
+            }
+        }
+        return queriedMailboxes;
+    }
+
+}
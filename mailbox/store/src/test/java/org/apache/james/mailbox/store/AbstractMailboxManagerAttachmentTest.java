@@ -29,6 +29,7 @@ import java.util.List;
 
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
+import javax.mail.util.SharedByteArrayInputStream;
 
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
@@ -49,6 +50,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 
 public abstract class AbstractMailboxManagerAttachmentTest {
     private static final String USERNAME = "user@domain.tld";
@@ -134,6 +136,19 @@ public abstract class AbstractMailboxManagerAttachmentTest {
             .hasContentEqualTo(ClassLoader.getSystemResourceAsStream("eml/gimp.png"));
     }
 
+    @Test
+    public void appendMessageShouldStoreContentAndAttachmentWhenSharedMail() throws Exception {
+        byte[] mail = ByteStreams.toByteArray(ClassLoader.getSystemResourceAsStream("eml/oneAttachmentAndSomeTextInlined.eml"));
+        inboxMessageManager.appendMessage(new SharedByteArrayInputStream(mail), SUN_SEP_9TH_2001, mailboxSession, true, new Flags(Flags.Flag.RECENT));
+
+        Iterator<MailboxMessage> messages = messageMapper.findInMailbox(inbox, MessageRange.all(), FetchType.Full, 1);
+        assertThat(messages.hasNext()).isTrue();
+        MailboxMessage message = messages.next();
+        assertThat(message.getFullContentOctets()).isEqualTo(mail.length);
+        assertThat(message.getFullContent()).hasContentEqualTo(new ByteArrayInputStream(mail));
+        assertThat(message.getAttachments()).hasSize(1);
+    }
+
     @Test
     public void appendMessageShouldStoreAttachmentsWhenMailWithTwoAttachment() throws Exception {
         InputStream mailInputStream = ClassLoader.getSystemResourceAsStream("eml/twoAttachments.eml");
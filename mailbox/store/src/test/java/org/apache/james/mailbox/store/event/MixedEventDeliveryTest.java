@@ -40,18 +40,20 @@ public class MixedEventDeliveryTest {
 
     private static final int DELIVERY_DELAY = (int) TimeUnit.MILLISECONDS.toMillis(100);
     private static final long ONE_MINUTE = 60000;
+    private AsynchronousEventDelivery asynchronousEventDelivery;
     private MixedEventDelivery mixedEventDelivery;
     private MailboxListener listener;
 
     @Before
     public void setUp() {
         listener = mock(MailboxListener.class);
-        mixedEventDelivery = new MixedEventDelivery(new AsynchronousEventDelivery(2), new SynchronousEventDelivery());
+        asynchronousEventDelivery = new AsynchronousEventDelivery(2);
+        mixedEventDelivery = new MixedEventDelivery(asynchronousEventDelivery, new SynchronousEventDelivery());
     }
 
     @After
     public void tearDown() {
-        mixedEventDelivery.stop();
+        asynchronousEventDelivery.stop();
     }
 
     @Test
@@ -0,0 +1,223 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class OrderedEventDeliveryTest {
+
+    private static final int ONE_MINUTE = 60000;
+    private static final MailboxPath INBOX = new MailboxPath("#private", "user", "INBOX");
+    private static final MailboxPath OUTBOX = new MailboxPath("#private", "user", "OUTBOX");
+
+    private OrderedEventDelivery orderedEventDelivery;
+
+    @After
+    public void tearDown() {
+        orderedEventDelivery.stop();
+    }
+
+    @Test
+    public void deliverShouldWork() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(2, 10, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        MailboxListener mailboxListener = mock(MailboxListener.class);
+        MailboxListener.Event event = new MailboxListener.Event(null, INBOX) {};
+        orderedEventDelivery.deliver(mailboxListener, event);
+        verify(mailboxListener, timeout(ONE_MINUTE)).event(event);
+    }
+
+    @Test
+    public void deliverShouldNotPropagateException() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(2, 10, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        MailboxListener mailboxListener = mock(MailboxListener.class);
+        MailboxListener.Event event = new MailboxListener.Event(new MockMailboxSession("test"), INBOX) {};
+        doThrow(new RuntimeException()).when(mailboxListener).event(event);
+        orderedEventDelivery.deliver(mailboxListener, event);
+        verify(mailboxListener, timeout(ONE_MINUTE)).event(event);
+    }
+
+    @Test
+    public void deliverShouldKeepTheOrderOfTheEventsOfAMailbox() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(4, 1000, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        RecordingListener listener = new RecordingListener();
+        int eventCount = 500;
+        for (int i = 0; i < eventCount; i++) {
+            orderedEventDelivery.deliver(listener, new SequencedEvent(i));
+        }
+        listener.awaitEvents(eventCount);
+        assertThat(listener.sequences).hasSize(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            assertThat(listener.sequences.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test(timeout = ONE_MINUTE)
+    public void deliverShouldNotDelayOtherMailboxesWhenAListenerIsSlow() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(2, 10, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        final CountDownLatch latch = new CountDownLatch(1);
+        MailboxListener.Event inboxEvent = new MailboxListener.Event(null, INBOX) {};
+        MailboxListener.Event outboxEvent = new MailboxListener.Event(null, OUTBOX) {};
+        MailboxListener mailboxListener = mock(MailboxListener.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return null;
+            }
+        }).when(mailboxListener).event(inboxEvent);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                latch.countDown();
+                return null;
+            }
+        }).when(mailboxListener).event(outboxEvent);
+
+        orderedEventDelivery.deliver(mailboxListener, inboxEvent);
+        orderedEventDelivery.deliver(mailboxListener, outboxEvent);
+
+        verify(mailboxListener, timeout(ONE_MINUTE)).event(inboxEvent);
+    }
+
+    @Test
+    public void deliverShouldDiscardEventsWhenTheQueueIsFullAndThePolicyIsDiscard() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(1, 1, OrderedEventDelivery.OverflowPolicy.DISCARD);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        MailboxListener mailboxListener = mock(MailboxListener.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                latch.await();
+                return null;
+            }
+        }).when(mailboxListener).event(any(MailboxListener.Event.class));
+
+        orderedEventDelivery.deliver(mailboxListener, new MailboxListener.Event(null, INBOX) {});
+        started.await();
+        orderedEventDelivery.deliver(mailboxListener, new MailboxListener.Event(null, INBOX) {});
+        orderedEventDelivery.deliver(mailboxListener, new MailboxListener.Event(null, INBOX) {});
+
+        assertThat(orderedEventDelivery.getQueueDepth()).isEqualTo(1);
+        assertThat(orderedEventDelivery.getListenerMetrics().get(mailboxListener.getClass().getName()).getDiscardedCount())
+            .isEqualTo(1);
+        latch.countDown();
+    }
+
+    @Test(timeout = ONE_MINUTE)
+    public void eventsEmittedByAListenerShouldBeDeliveredAfterTheQueuedOnesWhenTheQueueIsFull() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(1, 1, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        final CountDownLatch queued = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void event(Event event) {
+                super.event(event);
+                if (((SequencedEvent) event).sequence == 0) {
+                    try {
+                        queued.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    orderedEventDelivery.deliver(this, new SequencedEvent(2));
+                }
+            }
+        };
+
+        orderedEventDelivery.deliver(listener, new SequencedEvent(0));
+        orderedEventDelivery.deliver(listener, new SequencedEvent(1));
+        queued.countDown();
+
+        listener.awaitEvents(3);
+        assertThat(listener.sequences).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void deliverShouldRecordDeliveriesAndFailures() throws Exception {
+        orderedEventDelivery = new OrderedEventDelivery(2, 10, OrderedEventDelivery.OverflowPolicy.BLOCK);
+        MailboxListener mailboxListener = mock(MailboxListener.class);
+        MailboxListener.Event failingEvent = new MailboxListener.Event(null, INBOX) {};
+        MailboxListener.Event event = new MailboxListener.Event(null, INBOX) {};
+        doThrow(new RuntimeException()).when(mailboxListener).event(failingEvent);
+
+        orderedEventDelivery.deliver(mailboxListener, failingEvent);
+        orderedEventDelivery.deliver(mailboxListener, event);
+        verify(mailboxListener, timeout(ONE_MINUTE).times(2)).event(any(MailboxListener.Event.class));
+
+        OrderedEventDelivery.ListenerMetrics metrics = orderedEventDelivery.getListenerMetrics()
+            .get(mailboxListener.getClass().getName());
+        assertThat(metrics.getFailureCount()).isEqualTo(1);
+        assertThat(metrics.getDiscardedCount()).isEqualTo(0);
+    }
+
+    private static class SequencedEvent extends MailboxListener.Event {
+        private final int sequence;
+
+        public SequencedEvent(int sequence) {
+            super(null, INBOX);
+            this.sequence = sequence;
+        }
+    }
+
+    private static class RecordingListener implements MailboxListener {
+        private final List<Integer> sequences = new CopyOnWriteArrayList<Integer>();
+
+        @Override
+        public ListenerType getType() {
+            return ListenerType.ONCE;
+        }
+
+        @Override
+        public ExecutionMode getExecutionMode() {
+            return ExecutionMode.ASYNCHRONOUS;
+        }
+
+        @Override
+        public void event(Event event) {
+            sequences.add(((SequencedEvent) event).sequence);
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + ONE_MINUTE;
+            while (sequences.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.TreeMap;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.TestId;
+import org.apache.james.mailbox.model.TestMessageId;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.TestIdDeserializer;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.event.EventSerializer;
+import org.apache.james.mailbox.store.json.event.MailboxConverter;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.junit.Test;
+
+public class CompactEventSerializerTest extends EventSerializerTest {
+
+    @Test
+    public void addedEventShouldKeepTheMetaDataOfAllMessages() throws Exception {
+        SimpleMailbox mailbox = new SimpleMailbox(new MailboxPath("#private", "benwa", "name"), 42);
+        mailbox.setMailboxId(TestId.of(28L));
+        Flags userFlags = new Flags("$Forwarded");
+        userFlags.add(Flags.Flag.SEEN);
+        TreeMap<MessageUid, MessageMetaData> metaData = new TreeMap<MessageUid, MessageMetaData>();
+        for (long uid = 1; uid < 1000; uid += 3) {
+            Flags flags = uid % 2 == 0 ? new Flags(Flags.Flag.SEEN) : userFlags;
+            metaData.put(MessageUid.of(uid), new SimpleMessageMetaData(MessageUid.of(uid), 2000 - uid, flags, uid * 100,
+                new Date(uid * 1000), new TestMessageId.Factory().generate()));
+        }
+        MailboxListener.Event event = new EventFactory().added(new MockMailboxSession("benwa"), metaData, mailbox);
+
+        EventSerializer serializer = createSerializer();
+        MailboxListener.Added deserializedEvent = (MailboxListener.Added) serializer.deSerializeEvent(serializer.serializeEvent(event));
+
+        assertThat(deserializedEvent.getUids()).containsExactlyElementsOf(metaData.keySet());
+        for (MessageMetaData expected : metaData.values()) {
+            MessageMetaData actual = deserializedEvent.getMetaData(expected.getUid());
+            assertThat(actual.getModSeq()).isEqualTo(expected.getModSeq());
+            assertThat(actual.getFlags()).isEqualTo(expected.getFlags());
+            assertThat(actual.getSize()).isEqualTo(expected.getSize());
+            assertThat(actual.getInternalDate()).isEqualTo(expected.getInternalDate());
+            assertThat(actual.getMessageId()).isEqualTo(expected.getMessageId());
+        }
+    }
+
+    @Override
+    EventSerializer createSerializer() {
+        return new CompactEventSerializer(
+            new MailboxConverter(new TestIdDeserializer()),
+            new TestMessageId.Factory());
+    }
+}
@@ -0,0 +1,222 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.store.publisher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class BatchingPublisherTest {
+
+    private static final Topic TOPIC = new Topic("topic");
+    private static final Topic OTHER_TOPIC = new Topic("other");
+    private static final long ONE_HOUR = 3600000;
+
+    private RecordingPublisher recordingPublisher;
+    private BatchingPublisher batchingPublisher;
+    private List<String> receivedEvents;
+    private MessageReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        recordingPublisher = new RecordingPublisher();
+        batchingPublisher = new BatchingPublisher(recordingPublisher, ONE_HOUR, 3);
+        batchingPublisher.init();
+        receivedEvents = new ArrayList<String>();
+        CapturingMessageConsumer capturingMessageConsumer = new CapturingMessageConsumer();
+        BatchingMessageConsumer consumer = new BatchingMessageConsumer(capturingMessageConsumer);
+        consumer.setMessageReceiver(new MessageReceiver() {
+            @Override
+            public void receiveSerializedEvent(byte[] serializedEvent) {
+                receivedEvents.add(new String(serializedEvent, Charsets.UTF_8));
+            }
+        });
+        receiver = capturingMessageConsumer.messageReceiver;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        batchingPublisher.close();
+    }
+
+    @Test
+    public void publishShouldNotSendBeforeTheBatchIsFull() {
+        batchingPublisher.publish(TOPIC, bytes("1"));
+        batchingPublisher.publish(TOPIC, bytes("2"));
+
+        assertThat(recordingPublisher.messages).isEmpty();
+    }
+
+    @Test
+    public void publishShouldSendTheBatchOnceFull() {
+        batchingPublisher.publish(TOPIC, bytes("1"));
+        batchingPublisher.publish(TOPIC, bytes("2"));
+        batchingPublisher.publish(TOPIC, bytes("3"));
+
+        assertThat(recordingPublisher.messages).hasSize(1);
+        receiver.receiveSerializedEvent(recordingPublisher.messages.get(0));
+        assertThat(receivedEvents).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void flushShouldSendOneBatchPerTopic() {
+        batchingPublisher.publish(TOPIC, bytes("1"));
+        batchingPublisher.publish(OTHER_TOPIC, bytes("2"));
+        batchingPublisher.publish(TOPIC, bytes("3"));
+
+        batchingPublisher.flush();
+
+        assertThat(recordingPublisher.messages).hasSize(2);
+        assertThat(recordingPublisher.topics).containsOnly(TOPIC, OTHER_TOPIC);
+        receiver.receiveSerializedEvent(recordingPublisher.messageOf(TOPIC));
+        assertThat(receivedEvents).containsExactly("1", "3");
+    }
+
+    @Test
+    public void fullBatchShouldBeSentAfterTheBatchBeingFlushed() throws Exception {
+        final BlockingPublisher blockingPublisher = new BlockingPublisher();
+        final BatchingPublisher testee = new BatchingPublisher(blockingPublisher, ONE_HOUR, 3);
+        testee.publish(TOPIC, bytes("1"));
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                testee.flush();
+            }
+        });
+        flusher.start();
+        blockingPublisher.sending.await();
+
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                testee.publish(TOPIC, bytes("2"));
+                testee.publish(TOPIC, bytes("3"));
+                testee.publish(TOPIC, bytes("4"));
+            }
+        });
+        publisher.start();
+        publisher.join(100);
+        blockingPublisher.release.countDown();
+        flusher.join();
+        publisher.join();
+
+        assertThat(blockingPublisher.messages).hasSize(2);
+        receiver.receiveSerializedEvent(blockingPublisher.messages.get(0));
+        receiver.receiveSerializedEvent(blockingPublisher.messages.get(1));
+        assertThat(receivedEvents).containsExactly("1", "2", "3", "4");
+    }
+
+    @Test
+    public void batchesShouldSupportLargeEvents() {
+        StringBuilder largeEvent = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            largeEvent.append('a');
+        }
+        batchingPublisher.publish(TOPIC, bytes(largeEvent.toString()));
+        batchingPublisher.publish(TOPIC, bytes(""));
+        batchingPublisher.flush();
+
+        receiver.receiveSerializedEvent(recordingPublisher.messageOf(TOPIC));
+        assertThat(receivedEvents).containsExactly(largeEvent.toString(), "");
+    }
+
+    @Test
+    public void consumerShouldGiveMessagesWhichAreNotBatchesAsTheyAre() {
+        receiver.receiveSerializedEvent(bytes("{}"));
+
+        assertThat(receivedEvents).containsExactly("{}");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static class RecordingPublisher implements Publisher {
+        private final List<Topic> topics = new ArrayList<Topic>();
+        private final List<byte[]> messages = new ArrayList<byte[]>();
+
+        @Override
+        public void publish(Topic topic, byte[] message) {
+            topics.add(topic);
+            messages.add(message);
+        }
+
+        byte[] messageOf(Topic topic) {
+            return messages.get(topics.indexOf(topic));
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class BlockingPublisher implements Publisher {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<byte[]> messages = new CopyOnWriteArrayList<byte[]>();
+
+        @Override
+        public void publish(Topic topic, byte[] message) {
+            sending.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            messages.add(message);
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CapturingMessageConsumer implements MessageConsumer {
+        private MessageReceiver messageReceiver;
+
+        @Override
+        public void setMessageReceiver(MessageReceiver messageReceiver) {
+            this.messageReceiver = messageReceiver;
+        }
+
+        @Override
+        public void init(Topic topic) {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
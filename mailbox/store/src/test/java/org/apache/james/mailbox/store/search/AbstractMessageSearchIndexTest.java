@@ -33,6 +33,7 @@ import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.SearchQuery.AddressType;
@@ -66,6 +67,7 @@ public abstract class AbstractMessageSearchIndexTest {
     private MessageUid m7;
     private MessageUid m8;
     private MessageUid m9;
+    private MessageUid myFolderMessage;
 
     @Before
     public void setUp() throws Exception {
@@ -146,12 +148,12 @@ public abstract class AbstractMessageSearchIndexTest {
             new Flags("Hello")).getUid();
         // sentDate: Thu, 4 Jun 2015 06:08:41 +0200
         // Internal date : 2014/08/02 00:00:00.000
-        myFolderMessageManager.appendMessage(
+        myFolderMessage = myFolderMessageManager.appendMessage(
             ClassLoader.getSystemResourceAsStream("eml/mail.eml"),
             new Date(1406930400000L),
             session,
             true,
-            new Flags(Flags.Flag.SEEN));
+            new Flags(Flags.Flag.SEEN)).getUid();
         // sentDate: Tue, 2 Jun 2015 12:00:55 +0200
         // Internal date : 2014/09/02 00:00:00.000
         m9 = inboxMessageManager.appendMessage(
@@ -880,4 +882,93 @@ public abstract class AbstractMessageSearchIndexTest {
         assertThat(messageSearchIndex.search(session, mailbox, searchQuery))
             .containsExactly(m7);
     }
+
+    @Test
+    public void sortedSearchShouldReturnAllResultsInOrderWhenNoLimit() throws Exception {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .inMailboxes(mailbox.getMailboxId())
+            .build();
+
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .containsExactly(inMailbox(m1), inMailbox(m2), inMailbox(m3), inMailbox(m5), inMailbox(m4),
+                inMailbox(m6), inMailbox(m7), inMailbox(m8), inMailbox(m9));
+    }
+
+    @Test
+    public void sortedSearchShouldApplyLimitAfterSorting() throws Exception {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival, true)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .inMailboxes(mailbox.getMailboxId())
+            .limit(3)
+            .build();
+
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .containsExactly(inMailbox(m9), inMailbox(m8), inMailbox(m7));
+    }
+
+    @Test
+    public void sortedSearchShouldApplyOffsetAfterSorting() throws Exception {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival, true)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .inMailboxes(mailbox.getMailboxId())
+            .offset(2)
+            .limit(3)
+            .build();
+
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .containsExactly(inMailbox(m7), inMailbox(m6), inMailbox(m4));
+    }
+
+    @Test
+    public void sortedSearchShouldReturnEmptyWhenOffsetExceedsResults() throws Exception {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival, true)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .inMailboxes(mailbox.getMailboxId())
+            .offset(20)
+            .limit(3)
+            .build();
+
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .isEmpty();
+    }
+
+    @Test
+    public void sortedSearchShouldFilterResults() throws Exception {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.andCriteria(SearchQuery.flagIsUnSet(Flags.Flag.SEEN));
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival, true)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .inMailboxes(mailbox.getMailboxId())
+            .limit(4)
+            .build();
+
+        // Only message 6 is marked as SEEN in INBOX
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .containsExactly(inMailbox(m9), inMailbox(m8), inMailbox(m7), inMailbox(m4));
+    }
+
+    @Test
+    public void sortedSearchShouldOrderResultsAcrossMailboxes() throws Exception {
+        Assume.assumeTrue(storeMailboxManager.getSupportedSearchCapabilities().contains(MailboxManager.SearchCapabilities.MultimailboxSearch));
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.setSorts(Lists.newArrayList(new SearchQuery.Sort(SearchQuery.Sort.SortClause.Arrival, true)));
+        MultimailboxesSearchQuery query = MultimailboxesSearchQuery.from(searchQuery)
+            .limit(3)
+            .build();
+
+        // m8 and the message in MyFolder share the same internal date
+        assertThat(messageSearchIndex.sortedSearch(session, query))
+            .containsOnly(inMailbox(m9), inMailbox(m8), new MessageUidWithMailboxId(mailbox2.getMailboxId(), myFolderMessage));
+        assertThat(messageSearchIndex.sortedSearch(session, query).get(0))
+            .isEqualTo(inMailbox(m9));
+    }
+
+    private MessageUidWithMailboxId inMailbox(MessageUid uid) {
+        return new MessageUidWithMailboxId(mailbox.getMailboxId(), uid);
+    }
 }
@@ -242,15 +242,14 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
     protected Request parseRequest(Session session, ByteBuffer buffer) throws Exception {
         String curCommandName = null;
         String curCommandArgument = null;
-        byte[] line;
+        String cmdString;
         if (buffer.hasArray()) {
-            line = buffer.array();
+            cmdString = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), session.getCharset().name()).trim();
         } else {
-            line = new byte[buffer.remaining()];
+            byte[] line = new byte[buffer.remaining()];
             buffer.get(line);
+            cmdString = new String(line, session.getCharset().name()).trim();
         }
-        // This should be changed once we move to java6
-        String cmdString = new String(line, session.getCharset().name()).trim();
         int spaceIndex = cmdString.indexOf(" ");
         if (spaceIndex > 0) {
             curCommandName = cmdString.substring(0, spaceIndex);
@@ -150,6 +150,18 @@ public interface SelectedMailbox {
      */
     int remove(MessageUid uid);
 
+    /**
+     * Removes the given UIDs in a single pass.
+     * 
+     * @param uids
+     *            not null
+     * @return the message sequence numbers of the removed UIDs, in ascending
+     *         UID order, each one taking the previous removals into account as
+     *         successive EXPUNGE responses do. UIDs which are not part of the
+     *         mailbox are ignored
+     */
+    int[] removeAll(Collection<MessageUid> uids);
+
     /**
      * Return a Collection which holds all uids reflecting the Messages which
      * flags were updated
@@ -180,4 +192,13 @@ public interface SelectedMailbox {
     
     void resetNewApplicableFlags();
 
+    /**
+     * Register the listener to run once messages of the mailbox were added, expunged or got their flags updated. It
+     * is run by the thread making the change, so it must return quickly.
+     * 
+     * @param changeListener
+     *            the listener, or null to stop the notifications
+     */
+    void setChangeListener(Runnable changeListener);
+
 }
\ No newline at end of file
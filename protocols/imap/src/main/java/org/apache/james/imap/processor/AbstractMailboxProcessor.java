@@ -48,6 +48,7 @@ import org.apache.james.imap.message.response.FlagsResponse;
 import org.apache.james.imap.message.response.RecentResponse;
 import org.apache.james.imap.message.response.VanishedResponse;
 import org.apache.james.imap.processor.base.AbstractChainedProcessor;
+import org.apache.james.imap.processor.base.PipelinedCommands;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageManager;
@@ -136,7 +137,15 @@ abstract public class AbstractMailboxProcessor<M extends ImapRequest> extends Ab
                 session.getLog().debug("No mailbox selected");
             }
         } else {
-            unsolicitedResponses(session, responder, selected, omitExpunged, useUid);
+            final PipelinedCommands commands = PipelinedCommands.get(session);
+            if (commands == null) {
+                unsolicitedResponses(session, responder, selected, omitExpunged, useUid);
+            } else {
+                // Expunged messages would renumber the messages of the commands running concurrently
+                synchronized (commands) {
+                    unsolicitedResponses(session, responder, selected, omitExpunged || commands.isConcurrent(), useUid);
+                }
+            }
         }
     }
 
@@ -173,21 +182,17 @@ abstract public class AbstractMailboxProcessor<M extends ImapRequest> extends Ab
     }
 
     private void addExpungedResponses(SelectedMailbox selected, Collection<MessageUid> expungedUids, ImapProcessor.Responder responder) {
-        for (MessageUid uid : expungedUids) {
-
-            // we need to remove the message in the loop to the sequence numbers
-            // are updated correctly.
-            // See 7.4.1. EXPUNGE Response
-            final int msn = selected.remove(uid);
+        // the sequence numbers take the previous removals into account so
+        // they are updated correctly.
+        // See 7.4.1. EXPUNGE Response
+        for (int msn : selected.removeAll(expungedUids)) {
             ExpungeResponse response = new ExpungeResponse(msn);
             responder.respond(response);
         }
     }
     
     private void addVanishedResponse(SelectedMailbox selected, Collection<MessageUid> expungedUids, ImapProcessor.Responder responder) {
-        for (MessageUid uid : expungedUids) {
-            selected.remove(uid);
-        }
+        selected.removeAll(expungedUids);
         UidRange[] uidRange = uidRanges(MessageRange.toRanges(expungedUids));
         responder.respond(new VanishedResponse(uidRange, false));
     }
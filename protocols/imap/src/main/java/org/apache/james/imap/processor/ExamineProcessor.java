@@ -22,12 +22,17 @@ package org.apache.james.imap.processor;
 import org.apache.james.imap.api.message.response.StatusResponseFactory;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.message.request.ExamineRequest;
+import org.apache.james.imap.processor.base.MailboxSnapshotRegistry;
 import org.apache.james.mailbox.MailboxManager;
 
 public class ExamineProcessor extends AbstractSelectionProcessor<ExamineRequest> {
 
     public ExamineProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory statusResponseFactory) {
-        super(ExamineRequest.class, next, mailboxManager, statusResponseFactory, true);
+        this(next, mailboxManager, statusResponseFactory, new MailboxSnapshotRegistry(mailboxManager));
+    }
+
+    public ExamineProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory statusResponseFactory, MailboxSnapshotRegistry snapshots) {
+        super(ExamineRequest.class, next, mailboxManager, statusResponseFactory, true, snapshots);
     }
 
 }
@@ -32,7 +32,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.james.imap.api.ImapCommand;
 import org.apache.james.imap.api.ImapSessionState;
-import org.apache.james.imap.api.ImapSessionUtils;
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.imap.api.message.response.StatusResponse;
 import org.apache.james.imap.api.message.response.StatusResponseFactory;
@@ -42,10 +41,10 @@ import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.api.process.SelectedMailbox;
 import org.apache.james.imap.message.request.IdleRequest;
 import org.apache.james.imap.message.response.ContinuationResponse;
-import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.imap.processor.base.IdleNotificationHub;
 import org.apache.james.mailbox.MailboxManager;
-import org.apache.james.mailbox.MailboxSession;
-import org.apache.james.mailbox.exception.MailboxException;
+
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> implements CapabilityImplementingProcessor {
 
@@ -58,6 +57,7 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
     private final static String DONE = "DONE";
     private final TimeUnit heartbeatIntervalUnit;
     private final long heartbeatInterval;
+    private final IdleNotificationHub idleNotificationHub;
 
     public IdleProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory) {
         this(next, mailboxManager, factory, DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS, DEFAULT_HEARTBEAT_INTERVAL_UNIT, Executors.newScheduledThreadPool(DEFAULT_SCHEDULED_POOL_CORE_SIZE));
@@ -65,105 +65,97 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
     }
 
     public IdleProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory, long heartbeatInterval, TimeUnit heartbeatIntervalUnit, ScheduledExecutorService heartbeatExecutor) {
+        this(next, mailboxManager, factory, heartbeatInterval, heartbeatIntervalUnit, heartbeatExecutor, new IdleNotificationHub(MoreExecutors.directExecutor()));
+    }
+
+    public IdleProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory, long heartbeatInterval, TimeUnit heartbeatIntervalUnit, ScheduledExecutorService heartbeatExecutor, IdleNotificationHub idleNotificationHub) {
         super(IdleRequest.class, next, mailboxManager, factory);
         this.heartbeatInterval = heartbeatInterval;
         this.heartbeatIntervalUnit = heartbeatIntervalUnit;
         this.heartbeatExecutor = heartbeatExecutor;
+        this.idleNotificationHub = idleNotificationHub;
 
     }
 
     protected void doProcess(IdleRequest message, final ImapSession session, final String tag, final ImapCommand command, final Responder responder) {
 
-        try {
-          
-            final MailboxManager mailboxManager = getMailboxManager();
-            final MailboxSession mailboxSession = ImapSessionUtils.getMailboxSession(session);
-            final SelectedMailbox sm = session.getSelected();
-            final MailboxListener idleListener;
-            if (sm != null) {
-                idleListener = new IdleMailboxListener(session, responder);
-                mailboxManager.addListener(sm.getPath(), idleListener , mailboxSession);
-            } else {
-                idleListener = null;
-            }
-
-            final AtomicBoolean idleActive = new AtomicBoolean(true);
-            
-            session.pushLineHandler(new ImapLineHandler() {
-
-                /**
-                 * @see
-                 * org.apache.james.imap.api.process.ImapLineHandler
-                 * #onLine(org.apache.james.imap.api.process.ImapSession, byte[])
-                 */
-                public void onLine(ImapSession session, byte[] data) {
-                    String line;
-                    if (data.length > 2) {
-                        line = new String(data, 0, data.length - 2);
-                    } else {
-                        line = "";
-                    }
-
-                    if (idleListener != null) {
-                        try {
-                            mailboxManager.removeListener(sm.getPath(), idleListener, mailboxSession);
-                        } catch (MailboxException e) {
-                            if (session.getLog().isInfoEnabled()) {
-                                session.getLog().info("Unable to remove idle listener from mailbox", e);
-                            }
+        final SelectedMailbox sm = session.getSelected();
+        final AtomicBoolean idleActive = new AtomicBoolean(true);
+        if (sm != null) {
+            sm.setChangeListener(idleNotificationHub.changeListener(new Runnable() {
+                public void run() {
+                    // Do not write once DONE was answered
+                    synchronized (idleActive) {
+                        if (idleActive.get()) {
+                            unsolicitedResponses(session, responder, false);
                         }
                     }
-                    session.popLineHandler();
-                    if (!DONE.equals(line.toUpperCase(Locale.US))) {
-                        StatusResponse response = getStatusResponseFactory().taggedBad(tag, command, HumanReadableText.INVALID_COMMAND);
-                        responder.respond(response);
-                    } else {
-                        okComplete(command, tag, responder);
+                }
+            }));
+        }
 
-                    }
-                    idleActive.set(false);
+        session.pushLineHandler(new ImapLineHandler() {
+
+            /**
+             * @see
+             * org.apache.james.imap.api.process.ImapLineHandler
+             * #onLine(org.apache.james.imap.api.process.ImapSession, byte[])
+             */
+            public void onLine(ImapSession session, byte[] data) {
+                String line;
+                if (data.length > 2) {
+                    line = new String(data, 0, data.length - 2);
+                } else {
+                    line = "";
                 }
-            });
-
-            // Check if we should send heartbeats
-            if (heartbeatInterval > 0) {
-                heartbeatExecutor.schedule(new Runnable() {
-
-                    public void run() {
-                        // check if we need to cancel the Runnable
-                        // See IMAP-275
-                        if (session.getState() != ImapSessionState.LOGOUT && idleActive.get()) {
-                            // Send a heartbeat to the client to make sure we
-                            // reset the idle timeout. This is kind of the same
-                            // workaround as dovecot use.
-                            //
-                            // This is mostly needed because of the broken
-                            // outlook client, but can't harm for other clients
-                            // too.
-                            // See IMAP-272
-                            StatusResponse response = getStatusResponseFactory().untaggedOk(HumanReadableText.HEARTBEAT);
-                            responder.respond(response);
-                            
-                            // schedule the heartbeat again for the next interval
-                            heartbeatExecutor.schedule(this, heartbeatInterval, heartbeatIntervalUnit);
-                        }
-                    }
-                }, heartbeatInterval, heartbeatIntervalUnit);
-            }
-            
-            // Write the response after the listener was add
-            // IMAP-341
-            responder.respond(new ContinuationResponse(HumanReadableText.IDLING));
-            unsolicitedResponses(session, responder, false);
 
+                if (sm != null) {
+                    sm.setChangeListener(null);
+                }
+                synchronized (idleActive) {
+                    idleActive.set(false);
+                }
+                session.popLineHandler();
+                if (!DONE.equals(line.toUpperCase(Locale.US))) {
+                    StatusResponse response = getStatusResponseFactory().taggedBad(tag, command, HumanReadableText.INVALID_COMMAND);
+                    responder.respond(response);
+                } else {
+                    okComplete(command, tag, responder);
 
-        } catch (MailboxException e) {
-            if (session.getLog().isInfoEnabled()) {
-                session.getLog().info("Enable idle for " + session.getSelected().getPath() + " failed", e);
+                }
             }
-            // TODO: What should we do here?
-            no(command, tag, responder, HumanReadableText.GENERIC_FAILURE_DURING_PROCESSING);
+        });
+
+        // Check if we should send heartbeats
+        if (heartbeatInterval > 0) {
+            heartbeatExecutor.schedule(new Runnable() {
+
+                public void run() {
+                    // check if we need to cancel the Runnable
+                    // See IMAP-275
+                    if (session.getState() != ImapSessionState.LOGOUT && idleActive.get()) {
+                        // Send a heartbeat to the client to make sure we
+                        // reset the idle timeout. This is kind of the same
+                        // workaround as dovecot use.
+                        //
+                        // This is mostly needed because of the broken
+                        // outlook client, but can't harm for other clients
+                        // too.
+                        // See IMAP-272
+                        StatusResponse response = getStatusResponseFactory().untaggedOk(HumanReadableText.HEARTBEAT);
+                        responder.respond(response);
+                        
+                        // schedule the heartbeat again for the next interval
+                        heartbeatExecutor.schedule(this, heartbeatInterval, heartbeatIntervalUnit);
+                    }
+                }
+            }, heartbeatInterval, heartbeatIntervalUnit);
         }
+        
+        // Write the response after the listener was add
+        // IMAP-341
+        responder.respond(new ContinuationResponse(HumanReadableText.IDLING));
+        unsolicitedResponses(session, responder, false);
     }
 
     /**
@@ -173,31 +165,4 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
     public List<String> getImplementedCapabilities(ImapSession session) {
         return CAPS;
     }
-
-    private class IdleMailboxListener implements MailboxListener {
-
-        private final Responder responder;
-        private final ImapSession session;
-
-        public IdleMailboxListener(ImapSession session, Responder responder) {
-            this.session = session;
-            this.responder = responder;
-        }
-
-        public void event(Event event) {
-            if (event instanceof Added || event instanceof Expunged || event instanceof FlagsUpdated) {
-                unsolicitedResponses(session, responder, false);
-            }
-        }
-
-        @Override
-        public ListenerType getType() {
-            return ListenerType.MAILBOX;
-        }
-
-        @Override
-        public ExecutionMode getExecutionMode() {
-            return ExecutionMode.ASYNCHRONOUS;
-        }
-    }
 }
@@ -0,0 +1,104 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.james.imap.processor.base.IdleNotificationHub;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The thread pools of the IMAP processors. They are owned by the caller, which is in charge of calling
+ * {@link #shutdown()} once the processors are no longer used.
+ */
+public class ImapProcessorExecutors {
+
+    public static final int DEFAULT_EVENT_THREAD_COUNT = 4;
+
+    /**
+     * Forward the mailbox events to the other sessions, and push the changes to the idling sessions, from dedicated
+     * pools
+     */
+    public static ImapProcessorExecutors create() {
+        return new ImapProcessorExecutors(
+            Executors.newFixedThreadPool(DEFAULT_EVENT_THREAD_COUNT, daemonThreads("imap-events-%d")),
+            Executors.newFixedThreadPool(IdleNotificationHub.DEFAULT_THREAD_COUNT, daemonThreads("imap-idle-%d")),
+            Executors.newScheduledThreadPool(IdleProcessor.DEFAULT_SCHEDULED_POOL_CORE_SIZE, daemonThreads("imap-heartbeat-%d")));
+    }
+
+    /**
+     * Forward the mailbox events and push the changes to the idling sessions from the thread making the change. Only
+     * the heartbeats of the idling sessions need a pool.
+     */
+    public static ImapProcessorExecutors sameThread() {
+        return new ImapProcessorExecutors(
+            null,
+            null,
+            Executors.newScheduledThreadPool(IdleProcessor.DEFAULT_SCHEDULED_POOL_CORE_SIZE, daemonThreads("imap-heartbeat-%d")));
+    }
+
+    private static ThreadFactory daemonThreads(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    private final ExecutorService eventExecutor;
+    private final ExecutorService idleExecutor;
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    private ImapProcessorExecutors(ExecutorService eventExecutor, ExecutorService idleExecutor, ScheduledExecutorService heartbeatExecutor) {
+        this.eventExecutor = eventExecutor;
+        this.idleExecutor = idleExecutor;
+        this.heartbeatExecutor = heartbeatExecutor;
+    }
+
+    /**
+     * @return the executor forwarding the mailbox events to the sessions other than the one making the change, or
+     *         null when they are forwarded inline
+     */
+    public Executor getEventExecutor() {
+        return eventExecutor;
+    }
+
+    public Executor getIdleExecutor() {
+        if (idleExecutor == null) {
+            return MoreExecutors.directExecutor();
+        }
+        return idleExecutor;
+    }
+
+    public ScheduledExecutorService getHeartbeatExecutor() {
+        return heartbeatExecutor;
+    }
+
+    public void shutdown() {
+        if (eventExecutor != null) {
+            eventExecutor.shutdown();
+        }
+        if (idleExecutor != null) {
+            idleExecutor.shutdown();
+        }
+        heartbeatExecutor.shutdownNow();
+    }
+}
@@ -22,12 +22,17 @@ package org.apache.james.imap.processor;
 import org.apache.james.imap.api.message.response.StatusResponseFactory;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.message.request.SelectRequest;
+import org.apache.james.imap.processor.base.MailboxSnapshotRegistry;
 import org.apache.james.mailbox.MailboxManager;
 
 public class SelectProcessor extends AbstractSelectionProcessor<SelectRequest> {
 
     public SelectProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory statusResponseFactory) {
-        super(SelectRequest.class, next, mailboxManager, statusResponseFactory, false);
+        this(next, mailboxManager, statusResponseFactory, new MailboxSnapshotRegistry(mailboxManager));
+    }
+
+    public SelectProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory statusResponseFactory, MailboxSnapshotRegistry snapshots) {
+        super(SelectRequest.class, next, mailboxManager, statusResponseFactory, false, snapshots);
     }
 
 }
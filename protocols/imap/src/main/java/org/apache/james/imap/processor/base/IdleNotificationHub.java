@@ -0,0 +1,74 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+
+/**
+ * Pushes the changes of the selected mailboxes to the idling sessions.
+ * 
+ * The events of a mailbox reach the {@link SelectedMailbox} of every session through the single listener of its
+ * {@link MailboxSnapshot}. The thread making the change only marks the idling sessions as notified, the responses
+ * are then written by the executor of the hub. The changes happening before the notification of a session runs are
+ * written by that same run.
+ */
+public class IdleNotificationHub {
+
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    private final Executor executor;
+
+    public IdleNotificationHub(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Return the change listener to register on the {@link SelectedMailbox} of an idling session.
+     * 
+     * @param notification
+     *            writes the pending changes of the session
+     */
+    public Runnable changeListener(final Runnable notification) {
+        final AtomicBoolean pending = new AtomicBoolean(false);
+        final Runnable pendingNotification = new Runnable() {
+            public void run() {
+                // Clear the flag first, so that a change made while we write gets its own run
+                pending.set(false);
+                notification.run();
+            }
+        };
+        return new Runnable() {
+            public void run() {
+                if (pending.compareAndSet(false, true)) {
+                    try {
+                        executor.execute(pendingNotification);
+                    } catch (RejectedExecutionException e) {
+                        pending.set(false);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,356 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.FetchGroupImpl;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageResultIterator;
+import org.apache.james.mailbox.model.UpdatedFlags;
+
+/**
+ * Uids and applicable flags of a mailbox, shared by all the {@link SelectedMailboxImpl} which selected it.
+ * 
+ * The snapshot is loaded from the storage when it is first attached to, and then maintained from the events of the
+ * mailbox. It is the only {@link MailboxListener} registered for the mailbox, and forwards the events to the attached
+ * {@link SelectedMailboxImpl}.
+ * 
+ * Events received while the snapshot is loaded are applied once the mailbox is read, so that event delivery is not
+ * blocked by the load.
+ * 
+ * The thread making a change only updates the snapshot, queues the event, and forwards it to the selections of its
+ * own session, which report it in the response of the command. The other selections receive the queued events on
+ * the fan-out {@link Executor}, in order. Without executor, the events are forwarded to all the selections inline.
+ */
+public class MailboxSnapshot implements MailboxListener {
+
+    /**
+     * A {@link SelectedMailboxImpl} and the sequence number of the last event forwarded to it
+     */
+    private class Subscription {
+        private final SelectedMailboxImpl selected;
+        private volatile long forwarded;
+
+        private Subscription(SelectedMailboxImpl selected, long forwarded) {
+            this.selected = selected;
+            this.forwarded = forwarded;
+        }
+
+        /**
+         * Forward the queued events up to the given sequence number. A single thread forwards the events of a
+         * selection at a time, so that it receives them in order.
+         */
+        private synchronized void forwardUpTo(long sequence) {
+            while (forwarded < sequence) {
+                Event event = queuedEvent(forwarded + 1);
+                if (event == null) {
+                    return;
+                }
+                selected.event(event);
+                forwarded++;
+            }
+        }
+    }
+
+    private final MailboxSnapshotRegistry registry;
+    private final Executor fanOutExecutor;
+    private final List<Subscription> subscriptions;
+    private final SortedUidSet uids;
+    private final Flags applicableFlags;
+    /**
+     * The events not yet forwarded to every selection. The first one has the sequence number firstQueued
+     */
+    private final List<Event> queue;
+    private final AtomicBoolean fanOutScheduled;
+    private volatile MailboxPath path;
+    /**
+     * The events received while the snapshot is being loaded, null when it is not
+     */
+    private List<Event> loadingEvents;
+    private long firstQueued;
+    private long lastQueued;
+    private boolean loaded;
+    private int references;
+
+    MailboxSnapshot(MailboxSnapshotRegistry registry, MailboxPath path, Executor fanOutExecutor) {
+        this.registry = registry;
+        this.path = path;
+        this.fanOutExecutor = fanOutExecutor;
+        this.subscriptions = new ArrayList<Subscription>();
+        this.uids = new SortedUidSet();
+        this.applicableFlags = new Flags(SelectedMailboxImpl.FLAGS);
+        this.queue = new ArrayList<Event>();
+        this.fanOutScheduled = new AtomicBoolean(false);
+        this.firstQueued = 1;
+        this.lastQueued = 0;
+        this.loaded = false;
+        this.references = 0;
+    }
+
+    @Override
+    public ListenerType getType() {
+        return ListenerType.MAILBOX;
+    }
+
+    @Override
+    public ExecutionMode getExecutionMode() {
+        return ExecutionMode.SYNCHRONOUS;
+    }
+
+    public MailboxPath getPath() {
+        return path;
+    }
+
+    /**
+     * Reference counting is guarded by the {@link MailboxSnapshotRegistry}
+     */
+    void retain() {
+        references++;
+    }
+
+    int release() {
+        return --references;
+    }
+
+    /**
+     * Hand a copy of the snapshot to the given {@link SelectedMailboxImpl} and forward it the subsequent events.
+     * The first subscriber loads the snapshot without holding its lock, the others wait for it.
+     */
+    void subscribe(SelectedMailboxImpl selected, MailboxManager mailboxManager, MailboxSession mailboxSession) throws MailboxException {
+        synchronized (this) {
+            awaitLoading();
+            if (loaded) {
+                attach(selected);
+                return;
+            }
+            loadingEvents = new ArrayList<Event>();
+        }
+        load(mailboxManager, mailboxSession);
+        synchronized (this) {
+            attach(selected);
+        }
+    }
+
+    private void awaitLoading() {
+        boolean interrupted = false;
+        while (loadingEvents != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void attach(SelectedMailboxImpl selected) {
+        selected.attached(uids.copy(), new Flags(applicableFlags));
+        // The copy already reflects the queued events
+        subscriptions.add(new Subscription(selected, lastQueued));
+    }
+
+    synchronized void unsubscribe(SelectedMailboxImpl selected) {
+        for (Iterator<Subscription> iterator = subscriptions.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().selected == selected) {
+                iterator.remove();
+            }
+        }
+        trimQueue();
+    }
+
+    synchronized void close(MailboxManager mailboxManager, MailboxSession mailboxSession) throws MailboxException {
+        if (loaded) {
+            loaded = false;
+            uids.clear();
+            mailboxManager.removeListener(path, this, mailboxSession);
+        }
+    }
+
+    /**
+     * Only the loading thread touches the uids and the applicable flags until the snapshot is loaded: the events
+     * received meanwhile are kept aside, and applied once the mailbox is read.
+     */
+    private void load(MailboxManager mailboxManager, MailboxSession mailboxSession) throws MailboxException {
+        boolean listening = false;
+        boolean read = false;
+        try {
+            mailboxManager.addListener(path, this, mailboxSession);
+            listening = true;
+            MessageResultIterator messages = mailboxManager.getMailbox(path, mailboxSession).getMessages(MessageRange.all(), FetchGroupImpl.MINIMAL, mailboxSession);
+            while (messages.hasNext()) {
+                MessageResult mr = messages.next();
+                applicableFlags.add(mr.getFlags());
+                uids.add(mr.getUid());
+            }
+            read = true;
+        } finally {
+            if (!read) {
+                abortLoading(listening, mailboxManager, mailboxSession);
+            }
+        }
+        synchronized (this) {
+            for (Event event : loadingEvents) {
+                apply(event);
+            }
+            // \RECENT is not a applicable flag in imap so remove it from the list
+            applicableFlags.remove(Flags.Flag.RECENT);
+            loadingEvents = null;
+            loaded = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * The listener is removed before the waiting subscribers are woken up, as one of them registers it again
+     */
+    private void abortLoading(boolean listening, MailboxManager mailboxManager, MailboxSession mailboxSession) throws MailboxException {
+        try {
+            if (listening) {
+                mailboxManager.removeListener(path, this, mailboxSession);
+            }
+        } finally {
+            synchronized (this) {
+                uids.clear();
+                loadingEvents = null;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void event(Event event) {
+        long sequence;
+        List<Subscription> ownSubscriptions = new ArrayList<Subscription>();
+        synchronized (this) {
+            if (loadingEvents != null) {
+                loadingEvents.add(event);
+                return;
+            }
+            apply(event);
+            queue.add(event);
+            sequence = ++lastQueued;
+            long sessionId = event.getSession() == null ? -1 : event.getSession().getSessionId();
+            for (Subscription subscription : subscriptions) {
+                if (fanOutExecutor == null || subscription.selected.getSessionId() == sessionId) {
+                    ownSubscriptions.add(subscription);
+                }
+            }
+        }
+        for (Subscription subscription : ownSubscriptions) {
+            subscription.forwardUpTo(sequence);
+        }
+        scheduleFanOut();
+    }
+
+    private void apply(Event event) {
+        if (event instanceof Added) {
+            uids.addAll(((Added) event).getUids());
+        } else if (event instanceof Expunged) {
+            uids.removeAll(((Expunged) event).getUids());
+        } else if (event instanceof FlagsUpdated) {
+            for (UpdatedFlags updatedFlags : ((FlagsUpdated) event).getUpdatedFlags()) {
+                applicableFlags.add(updatedFlags.getNewFlags());
+            }
+            applicableFlags.remove(Flags.Flag.RECENT);
+        } else if (event instanceof MailboxRenamed) {
+            MailboxPath newPath = ((MailboxRenamed) event).getNewPath();
+            registry.renamed(this, path, newPath);
+            path = newPath;
+        } else if (event instanceof MailboxDeletion) {
+            registry.deleted(this);
+        }
+    }
+
+    private void scheduleFanOut() {
+        if (fanOutExecutor == null) {
+            synchronized (this) {
+                trimQueue();
+            }
+            return;
+        }
+        if (fanOutScheduled.compareAndSet(false, true)) {
+            try {
+                fanOutExecutor.execute(new Runnable() {
+                    public void run() {
+                        // Cleared first, so that an event queued while we forward gets its own run
+                        fanOutScheduled.set(false);
+                        fanOut();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fanOutScheduled.set(false);
+                fanOut();
+            }
+        }
+    }
+
+    private void fanOut() {
+        List<Subscription> targets;
+        long sequence;
+        synchronized (this) {
+            targets = new ArrayList<Subscription>(subscriptions);
+            sequence = lastQueued;
+        }
+        for (Subscription subscription : targets) {
+            subscription.forwardUpTo(sequence);
+        }
+        synchronized (this) {
+            trimQueue();
+        }
+    }
+
+    private synchronized Event queuedEvent(long sequence) {
+        if (sequence < firstQueued || sequence > lastQueued) {
+            return null;
+        }
+        return queue.get((int) (sequence - firstQueued));
+    }
+
+    /**
+     * Drop the events forwarded to every selection
+     */
+    private void trimQueue() {
+        long forwarded = lastQueued;
+        for (Subscription subscription : subscriptions) {
+            forwarded = Math.min(forwarded, subscription.forwarded);
+        }
+        if (firstQueued <= forwarded) {
+            queue.subList(0, (int) (forwarded - firstQueued + 1)).clear();
+            firstQueued = forwarded + 1;
+        }
+    }
+}
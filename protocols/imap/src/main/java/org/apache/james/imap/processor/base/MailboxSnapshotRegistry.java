@@ -0,0 +1,131 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+
+/**
+ * Keeps one {@link MailboxSnapshot} per selected mailbox, shared by all the IMAP sessions of this node which selected
+ * it.
+ * 
+ * Selecting a mailbox which is already selected by another session copies its snapshot instead of reading the whole
+ * mailbox from the storage. A snapshot is dropped, and its listener removed, once the last session deselects it.
+ */
+public class MailboxSnapshotRegistry {
+
+    private final MailboxManager mailboxManager;
+    private final Executor fanOutExecutor;
+    private final Map<MailboxPath, MailboxSnapshot> snapshots;
+
+    /**
+     * The events are forwarded to the sessions inline, by the thread making the change
+     */
+    public MailboxSnapshotRegistry(MailboxManager mailboxManager) {
+        this(mailboxManager, null);
+    }
+
+    /**
+     * @param fanOutExecutor
+     *            forwards the events to the sessions other than the one making the change
+     */
+    public MailboxSnapshotRegistry(MailboxManager mailboxManager, Executor fanOutExecutor) {
+        this.mailboxManager = mailboxManager;
+        this.fanOutExecutor = fanOutExecutor;
+        this.snapshots = new HashMap<MailboxPath, MailboxSnapshot>();
+    }
+
+    /**
+     * Attach the given {@link SelectedMailboxImpl} to the snapshot of the mailbox, loading it if needed
+     */
+    public MailboxSnapshot attach(MailboxPath path, SelectedMailboxImpl selected, MailboxSession mailboxSession) throws MailboxException {
+        MailboxSnapshot snapshot = retain(path);
+        try {
+            snapshot.subscribe(selected, mailboxManager, mailboxSession);
+            return snapshot;
+        } catch (MailboxException e) {
+            release(snapshot, mailboxSession);
+            throw e;
+        }
+    }
+
+    public void detach(MailboxSnapshot snapshot, SelectedMailboxImpl selected, MailboxSession mailboxSession) throws MailboxException {
+        snapshot.unsubscribe(selected);
+        release(snapshot, mailboxSession);
+    }
+
+    public synchronized int size() {
+        return snapshots.size();
+    }
+
+    private synchronized MailboxSnapshot retain(MailboxPath path) {
+        MailboxSnapshot snapshot = snapshots.get(path);
+        if (snapshot == null) {
+            snapshot = new MailboxSnapshot(this, path, fanOutExecutor);
+            snapshots.put(path, snapshot);
+        }
+        snapshot.retain();
+        return snapshot;
+    }
+
+    private void release(MailboxSnapshot snapshot, MailboxSession mailboxSession) throws MailboxException {
+        if (releaseReference(snapshot)) {
+            snapshot.close(mailboxManager, mailboxSession);
+        }
+    }
+
+    private synchronized boolean releaseReference(MailboxSnapshot snapshot) {
+        if (snapshot.release() > 0) {
+            return false;
+        }
+        MailboxPath path = snapshot.getPath();
+        if (snapshots.get(path) == snapshot) {
+            snapshots.remove(path);
+        }
+        return true;
+    }
+
+    synchronized void renamed(MailboxSnapshot snapshot, MailboxPath oldPath, MailboxPath newPath) {
+        if (snapshots.get(oldPath) == snapshot) {
+            snapshots.remove(oldPath);
+            if (!snapshots.containsKey(newPath)) {
+                snapshots.put(newPath, snapshot);
+            }
+        }
+    }
+
+    /**
+     * The listeners of a deleted mailbox are unregistered by the {@link MailboxManager}: the snapshot is no longer
+     * maintained and should not be handed to new selections
+     */
+    synchronized void deleted(MailboxSnapshot snapshot) {
+        MailboxPath path = snapshot.getPath();
+        if (snapshots.get(path) == snapshot) {
+            snapshots.remove(path);
+        }
+    }
+}
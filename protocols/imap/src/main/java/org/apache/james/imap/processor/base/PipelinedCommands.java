@@ -0,0 +1,92 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.api.message.request.SearchResultOption;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.message.request.FetchRequest;
+import org.apache.james.imap.message.request.SearchRequest;
+import org.apache.james.imap.message.request.StatusRequest;
+
+/**
+ * Keeps track of the commands of an {@link ImapSession} which are processed at the same time, when the server
+ * pipelines the commands it receives.
+ * 
+ * Only commands which neither modify the session nor the mailboxes may run concurrently, see
+ * {@link #canRunConcurrently(ImapMessage)}. Their responses are still sent in the order of the commands, but they are
+ * computed at the same time: message sequence numbers must then stay stable, so expunged messages are only reported
+ * by a command running alone.
+ */
+public class PipelinedCommands {
+
+    public static final String SESSION_ATTRIBUTE = PipelinedCommands.class.getName();
+
+    /**
+     * Return the {@link PipelinedCommands} of the session, or null if the server does not pipeline its commands
+     */
+    public static PipelinedCommands get(ImapSession session) {
+        return (PipelinedCommands) session.getAttribute(SESSION_ATTRIBUTE);
+    }
+
+    public static void set(ImapSession session, PipelinedCommands commands) {
+        session.setAttribute(SESSION_ATTRIBUTE, commands);
+    }
+
+    /**
+     * Can the given message be processed while the commands received before and after it are processed ?
+     */
+    public static boolean canRunConcurrently(ImapMessage message) {
+        if (message instanceof FetchRequest) {
+            return !((FetchRequest) message).getFetch().isSetSeen();
+        }
+        if (message instanceof SearchRequest) {
+            return !((SearchRequest) message).getSearchOperation().getResultOptions().contains(SearchResultOption.SAVE);
+        }
+        return message instanceof StatusRequest;
+    }
+
+    private int running;
+
+    public synchronized void started() {
+        running++;
+    }
+
+    public synchronized void completed() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Is more than one command running ?
+     */
+    public synchronized boolean isConcurrent() {
+        return running > 1;
+    }
+
+    /**
+     * Wait for all the running commands to complete
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (running > 0) {
+            wait();
+        }
+    }
+}
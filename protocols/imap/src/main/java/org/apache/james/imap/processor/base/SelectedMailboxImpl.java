@@ -19,15 +19,9 @@
 
 package org.apache.james.imap.processor.base;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
@@ -40,11 +34,7 @@ import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.exception.MailboxException;
-import org.apache.james.mailbox.model.FetchGroupImpl;
 import org.apache.james.mailbox.model.MailboxPath;
-import org.apache.james.mailbox.model.MessageRange;
-import org.apache.james.mailbox.model.MessageResult;
-import org.apache.james.mailbox.model.MessageResultIterator;
 import org.apache.james.mailbox.model.UpdatedFlags;
 
 import com.google.common.base.Optional;
@@ -54,18 +44,16 @@ import com.google.common.base.Optional;
  */
 public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
 
-    private final Set<MessageUid> recentUids = new TreeSet<MessageUid>();
+    private final SortedUidSet recentUids = new SortedUidSet();
 
     private boolean recentUidRemoved = false;
 
-    private final MailboxManager mailboxManager;
-
     private MailboxPath path;
 
     private final ImapSession session;
     
 
-    private final static Flags FLAGS = new Flags();
+    final static Flags FLAGS = new Flags();
     static {
         FLAGS.add(Flags.Flag.ANSWERED);
         FLAGS.add(Flags.Flag.DELETED);
@@ -75,9 +63,9 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
     }
     
     private final long sessionId;
-    private final Set<MessageUid> flagUpdateUids = new TreeSet<MessageUid>();
+    private final SortedUidSet flagUpdateUids = new SortedUidSet();
     private final Flags.Flag uninterestingFlag = Flags.Flag.RECENT;
-    private final Set<MessageUid> expungedUids = new TreeSet<MessageUid>();
+    private final SortedUidSet expungedUids = new SortedUidSet();
 
     private boolean isDeletedByOtherSession = false;
     private boolean sizeChanged = false;
@@ -86,18 +74,29 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
 
     private boolean applicableFlagsChanged;
     
-    private final SortedMap<Integer, MessageUid> msnToUid =new TreeMap<Integer, MessageUid>();
+    /**
+     * Uids of the messages of the mailbox: the message sequence number of an uid is its index plus one
+     */
+    private SortedUidSet uids = new SortedUidSet();
 
-    private final SortedMap<MessageUid, Integer> uidToMsn = new TreeMap<MessageUid, Integer>();
+    private final MailboxSnapshotRegistry snapshots;
 
-    private MessageUid highestUid = MessageUid.MIN_VALUE;
+    private MailboxSnapshot snapshot;
+
+    private Runnable changeListener;
 
-    private int highestMsn = 0;
-    
     public SelectedMailboxImpl(MailboxManager mailboxManager, ImapSession session, MailboxPath path) throws MailboxException {
+        this(new MailboxSnapshotRegistry(mailboxManager), session, path);
+    }
+
+    /**
+     * @param snapshots
+     *            the registry of the snapshots shared by the sessions which selected the same mailbox
+     */
+    public SelectedMailboxImpl(MailboxSnapshotRegistry snapshots, ImapSession session, MailboxPath path) throws MailboxException {
         this.session = session;
         this.sessionId = ImapSessionUtils.getMailboxSession(session).getSessionId();
-        this.mailboxManager = mailboxManager;
+        this.snapshots = snapshots;
         
         // Ignore events from our session
         setSilentFlagChanges(true);
@@ -117,111 +116,63 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
 
     private void init() throws MailboxException {
         MailboxSession mailboxSession = ImapSessionUtils.getMailboxSession(session);
-        
-        mailboxManager.addListener(path, this, mailboxSession);
-
-        MessageResultIterator messages = mailboxManager.getMailbox(path, mailboxSession).getMessages(MessageRange.all(), FetchGroupImpl.MINIMAL, mailboxSession);
+        MailboxSnapshot attachedSnapshot = snapshots.attach(path, this, mailboxSession);
         synchronized (this) {
-            while(messages.hasNext()) {
-                MessageResult mr = messages.next();
-                applicableFlags.add(mr.getFlags());
-                add(mr.getUid());
-            }
-            
-          
-            // \RECENT is not a applicable flag in imap so remove it from the list
-            applicableFlags.remove(Flags.Flag.RECENT);
-        }
-       
-    }
-
-    private void add(int msn, MessageUid uid) {
-        if (uid.compareTo(highestUid) > 0) {
-            highestUid = uid;
+            snapshot = attachedSnapshot;
         }
-        msnToUid.put(msn, uid);
-        uidToMsn.put(uid, msn);
     }
 
     /**
-     * Expunge the message with the given uid
+     * Called by the {@link MailboxSnapshot} this mailbox is attached to, before any event is forwarded
      */
-    private void expunge(MessageUid uid) {
-        final int msn = msn(uid);
-        remove(msn, uid);
-        final List<Integer> renumberMsns = new ArrayList<Integer>(msnToUid.tailMap(msn + 1).keySet());
-        for (Integer msnInteger : renumberMsns) {
-            int aMsn = msnInteger.intValue();
-            Optional<MessageUid> aUid = uid(aMsn);
-            if (aUid.isPresent()) {
-                remove(aMsn, aUid.get());
-                add(aMsn - 1, aUid.get());
-            }
-        }
-        highestMsn--;
-    }
-
-    private void remove(int msn, MessageUid uid) {
-        uidToMsn.remove(uid);
-        msnToUid.remove(msn);
-    }
-
-    /**
-     * Add the give uid
-     * 
-     * @param uid
-     */
-    private void add(MessageUid uid) {
-        if (!uidToMsn.containsKey(uid)) {
-            highestMsn++;
-            add(highestMsn, uid);
-        }
+    synchronized void attached(SortedUidSet uids, Flags applicableFlags) {
+        this.uids = uids;
+        this.applicableFlags.add(applicableFlags);
     }
 
     @Override
     public synchronized Optional<MessageUid> getFirstUid() {
-        if (uidToMsn.isEmpty()) {
-            return Optional.absent();
-        } else {
-            return Optional.of(uidToMsn.firstKey());
-        }
+        return uids.first();
     }
 
     @Override
     public synchronized Optional<MessageUid> getLastUid() {
-        if (uidToMsn.isEmpty()) {
-            return Optional.absent();
-        } else {
-            return Optional.of(uidToMsn.lastKey());
-        }
+        return uids.last();
     }
 
 
     
-    public synchronized void deselect() {
+    public void deselect() {
         MailboxSession mailboxSession = ImapSessionUtils.getMailboxSession(session);
+        MailboxSnapshot detachedSnapshot;
+        synchronized (this) {
+            detachedSnapshot = snapshot;
+            snapshot = null;
+        }
 
-        try {
-            mailboxManager.removeListener(path, this, mailboxSession);
-        } catch (MailboxException e) {
-            if (session.getLog().isInfoEnabled()) {
-                session.getLog().info("Unable to remove listener " + this + " from mailbox while closing it", e);
+        // Detach without holding our lock: the snapshot forwards events to us while holding its own
+        if (detachedSnapshot != null) {
+            try {
+                snapshots.detach(detachedSnapshot, this, mailboxSession);
+            } catch (MailboxException e) {
+                if (session.getLog().isInfoEnabled()) {
+                    session.getLog().info("Unable to remove listener " + this + " from mailbox while closing it", e);
+                }
             }
         }
-        
-        uidToMsn.clear();
-        msnToUid.clear();
-        flagUpdateUids.clear();
 
-        expungedUids.clear();
-        recentUids.clear();
- 
+        synchronized (this) {
+            uids.clear();
+            flagUpdateUids.clear();
 
+            expungedUids.clear();
+            recentUids.clear();
+        }
     }
 
     @Override
     public synchronized  boolean removeRecent(MessageUid uid) {
-        final boolean result = recentUids.remove(uid);
+        final boolean result = recentUids.remove(uid) != SortedUidSet.NOT_FOUND;
         if (result) {
             recentUidRemoved = true;
         }
@@ -236,7 +187,7 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
     @Override
     public synchronized Collection<MessageUid> getRecent() {
         checkExpungedRecents();
-        return new ArrayList<MessageUid>(recentUids);
+        return recentUids.asList();
     }
 
     @Override
@@ -250,9 +201,16 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
         return path;
     }
 
+    /**
+     * Id of the {@link org.apache.james.mailbox.MailboxSession} which selected the mailbox
+     */
+    long getSessionId() {
+        return sessionId;
+    }
+
     private void checkExpungedRecents() {
-        for (MessageUid uid : expungedUids()) {
-            removeRecent(uid);
+        if (!expungedUids.isEmpty() && recentUids.removeAll(expungedUids.asList()).length > 0) {
+            recentUidRemoved = true;
         }
     }
 
@@ -281,9 +239,23 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
 
     @Override
     public synchronized  int remove(MessageUid uid) {
-        final int result = msn(uid);
-        expunge(uid);
-        return result;
+        return toMsn(uids.remove(uid));
+    }
+
+    @Override
+    public synchronized int[] removeAll(Collection<MessageUid> uidsToRemove) {
+        int[] msns = uids.removeAll(uidsToRemove);
+        for (int i = 0; i < msns.length; i++) {
+            msns[i] = toMsn(msns[i]);
+        }
+        return msns;
+    }
+
+    private int toMsn(int index) {
+        if (index == SortedUidSet.NOT_FOUND) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return index + 1;
     }
 
 
@@ -362,20 +334,18 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
      */
     @Override
     public synchronized Collection<MessageUid> flagUpdateUids() {
-        // copy the TreeSet to fix possible
+        // return a copy to fix possible
         // java.util.ConcurrentModificationException
         // See IMAP-278
-        return Collections.unmodifiableSet(new TreeSet<MessageUid>(flagUpdateUids));
-        
+        return flagUpdateUids.asList();
     }
 
     @Override
     public synchronized Collection<MessageUid> expungedUids() {
-        // copy the TreeSet to fix possible
+        // return a copy to fix possible
         // java.util.ConcurrentModificationException
         // See IMAP-278
-        return Collections.unmodifiableSet(new TreeSet<MessageUid>(expungedUids));
-        
+        return expungedUids.asList();
     }
 
 
@@ -396,6 +366,10 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
         applicableFlagsChanged = false;
     }
 
+    public synchronized void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
     
     public synchronized void event(Event event) {
 
@@ -406,10 +380,7 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
                 final MessageEvent messageEvent = (MessageEvent) event;
                 if (messageEvent instanceof Added) {
                     sizeChanged = true;
-                    final List<MessageUid> uids = ((Added) event).getUids();
-                    for (MessageUid uid : uids) {
-                        add(uid);
-                    }
+                    uids.addAll(((Added) event).getUids());
                 } else if (messageEvent instanceof FlagsUpdated) {
                     FlagsUpdated updated = (FlagsUpdated) messageEvent;
                     List<UpdatedFlags> uFlags = updated.getUpdatedFlags();
@@ -467,6 +438,9 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
                     expungedUids.addAll(messageEvent.getUids());
                     
                 }
+                if (changeListener != null) {
+                    changeListener.run();
+                }
             } else if (event instanceof MailboxDeletion) {
                 if (eventSessionId != sessionId) {
                     isDeletedByOtherSession = true;
@@ -480,30 +454,20 @@ public class SelectedMailboxImpl implements SelectedMailbox, MailboxListener{
 
     @Override
     public synchronized int msn(MessageUid uid) {
-        Integer msn = uidToMsn.get(uid);
-        if (msn != null) {
-            return msn.intValue();
-        } else {
-            return SelectedMailbox.NO_SUCH_MESSAGE;
-        }
+        return toMsn(uids.indexOf(uid));
     }
 
     @Override
     public synchronized Optional<MessageUid> uid(int msn) {
-        if (msn == -1) {
-            return Optional.absent();
-        }
-        MessageUid uid = msnToUid.get(msn);
-        if (uid != null) {
-            return Optional.of(uid);
-        } else {
+        if (msn == NO_SUCH_MESSAGE) {
             return Optional.absent();
         }
+        return uids.get(msn - 1);
     }
 
     
     public synchronized long existsCount() {
-        return uidToMsn.size();
+        return uids.size();
     }
     
 
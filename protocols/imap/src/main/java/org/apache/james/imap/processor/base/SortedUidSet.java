@@ -0,0 +1,246 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.james.mailbox.MessageUid;
+
+import com.google.common.base.Optional;
+
+/**
+ * Sorted set of {@link MessageUid} backed by a primitive <code>long</code> array.
+ * 
+ * The position of an uid in the set is its index: when the set holds all the uids of a mailbox, the message sequence
+ * number of an uid is its index plus one. Lookups are done by binary search, and several uids can be removed in a
+ * single compaction pass.
+ * 
+ * {@link #copy()} is copy-on-write: the copy shares the array of this set until one of them is modified.
+ * 
+ * This class is not thread safe.
+ */
+public class SortedUidSet {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final long[] EMPTY = new long[0];
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] uids;
+    private int size;
+    private boolean shared;
+
+    public SortedUidSet() {
+        this(EMPTY, 0);
+    }
+
+    private SortedUidSet(long[] uids, int size) {
+        this.uids = uids;
+        this.size = size;
+        this.shared = false;
+    }
+
+    /**
+     * Return a copy of this set, sharing its content until one of the sets is modified
+     */
+    public SortedUidSet copy() {
+        SortedUidSet copy = new SortedUidSet(uids, size);
+        if (size > 0) {
+            shared = true;
+            copy.shared = true;
+        }
+        return copy;
+    }
+
+    /**
+     * Add the given uid
+     * 
+     * @return true if the uid was not already part of the set
+     */
+    public boolean add(MessageUid uid) {
+        long value = uid.asLong();
+        if (size == 0 || uids[size - 1] < value) {
+            ensureCapacity(size + 1);
+            uids[size++] = value;
+            return true;
+        }
+        int position = Arrays.binarySearch(uids, 0, size, value);
+        if (position >= 0) {
+            return false;
+        }
+        int insertionPoint = -position - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(uids, insertionPoint, uids, insertionPoint + 1, size - insertionPoint);
+        uids[insertionPoint] = value;
+        size++;
+        return true;
+    }
+
+    public void addAll(Collection<MessageUid> uids) {
+        for (MessageUid uid : uids) {
+            add(uid);
+        }
+    }
+
+    /**
+     * Remove the given uid
+     * 
+     * @return the index the uid held before removal or {@link #NOT_FOUND}
+     */
+    public int remove(MessageUid uid) {
+        int index = indexOf(uid);
+        if (index != NOT_FOUND) {
+            ensureCapacity(size);
+            System.arraycopy(uids, index + 1, uids, index, size - index - 1);
+            size--;
+        }
+        return index;
+    }
+
+    /**
+     * Remove the given uids in a single pass.
+     * 
+     * @return for each removed uid, in ascending uid order, the index it held once the previous ones were removed.
+     *         Uids which are not part of the set are ignored.
+     */
+    public int[] removeAll(Collection<MessageUid> toRemove) {
+        long[] sortedToRemove = toSortedArray(toRemove);
+        if (size == 0 || sortedToRemove.length == 0) {
+            return new int[0];
+        }
+        ensureCapacity(size);
+        int[] removedIndexes = new int[sortedToRemove.length];
+        int removedCount = 0;
+        int next = 0;
+        int start = Arrays.binarySearch(uids, 0, size, sortedToRemove[0]);
+        int read = start >= 0 ? start : -start - 1;
+        int write = read;
+        for (; read < size; read++) {
+            long value = uids[read];
+            while (next < sortedToRemove.length && sortedToRemove[next] < value) {
+                next++;
+            }
+            if (next < sortedToRemove.length && sortedToRemove[next] == value) {
+                removedIndexes[removedCount] = read - removedCount;
+                removedCount++;
+                next++;
+            } else {
+                uids[write++] = value;
+            }
+        }
+        size = write;
+        return Arrays.copyOf(removedIndexes, removedCount);
+    }
+
+    public boolean contains(MessageUid uid) {
+        return indexOf(uid) != NOT_FOUND;
+    }
+
+    /**
+     * Return the index of the given uid or {@link #NOT_FOUND}
+     */
+    public int indexOf(MessageUid uid) {
+        int position = Arrays.binarySearch(uids, 0, size, uid.asLong());
+        if (position < 0) {
+            return NOT_FOUND;
+        }
+        return position;
+    }
+
+    /**
+     * Return the uid at the given index or empty if the index is out of the bounds of the set
+     */
+    public Optional<MessageUid> get(int index) {
+        if (index < 0 || index >= size) {
+            return Optional.absent();
+        }
+        return Optional.of(MessageUid.of(uids[index]));
+    }
+
+    public Optional<MessageUid> first() {
+        return get(0);
+    }
+
+    public Optional<MessageUid> last() {
+        return get(size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+        if (shared || uids.length > INITIAL_CAPACITY) {
+            uids = EMPTY;
+            shared = false;
+        }
+    }
+
+    /**
+     * Return a copy of the content of this set, in ascending order
+     */
+    public List<MessageUid> asList() {
+        final long[] snapshot = Arrays.copyOf(uids, size);
+        return new AbstractList<MessageUid>() {
+            @Override
+            public MessageUid get(int index) {
+                return MessageUid.of(snapshot[index]);
+            }
+
+            @Override
+            public int size() {
+                return snapshot.length;
+            }
+        };
+    }
+
+    /**
+     * Make sure the array can hold the given number of uids and is not shared with another set before modifying it
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > uids.length) {
+            int newCapacity = Math.max(INITIAL_CAPACITY, uids.length + (uids.length >> 1));
+            uids = Arrays.copyOf(uids, Math.max(newCapacity, capacity));
+            shared = false;
+        } else if (shared) {
+            uids = Arrays.copyOf(uids, uids.length);
+            shared = false;
+        }
+    }
+
+    private long[] toSortedArray(Collection<MessageUid> uids) {
+        long[] result = new long[uids.size()];
+        int i = 0;
+        for (MessageUid uid : uids) {
+            result[i++] = uid.asLong();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -22,6 +22,8 @@ package org.apache.james.imap.processor.fetch;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.james.imap.api.ImapCommand;
 import org.apache.james.imap.api.ImapConstants;
@@ -52,8 +54,38 @@ import org.apache.james.mailbox.model.MessageResultIterator;
 
 public class FetchProcessor extends AbstractMailboxProcessor<FetchRequest> {
 
+    /**
+     * Number of responses read ahead of the one being written
+     */
+    public static final int DEFAULT_PREFETCH_SIZE = 100;
+
+    private static final String PREFETCH_EXECUTOR_ATTRIBUTE = FetchProcessor.class.getName() + ".prefetchExecutor";
+
+    /**
+     * Make the FETCH commands of the session read the next messages on the given {@link Executor} while the previous
+     * ones are written. The executor belongs to the server, which bounds its threads and shuts it down.
+     * 
+     * Only applies when the mailbox manager declares {@link MailboxManager.MailboxCapabilities#ConcurrentFetch}.
+     */
+    public static void setPrefetchExecutor(ImapSession session, Executor prefetchExecutor) {
+        session.setAttribute(PREFETCH_EXECUTOR_ATTRIBUTE, prefetchExecutor);
+    }
+
+    private final int prefetchSize;
+    private final boolean concurrentFetch;
+
     public FetchProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory) {
+        this(next, mailboxManager, factory, DEFAULT_PREFETCH_SIZE);
+    }
+
+    /**
+     * @param prefetchSize
+     *            maximal number of responses read ahead of the one being written
+     */
+    public FetchProcessor(ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory, int prefetchSize) {
         super(FetchRequest.class, next, mailboxManager, factory);
+        this.prefetchSize = prefetchSize;
+        this.concurrentFetch = mailboxManager.hasCapability(MailboxManager.MailboxCapabilities.ConcurrentFetch);
     }
 
     /**
@@ -151,7 +183,53 @@ public class FetchProcessor extends AbstractMailboxProcessor<FetchRequest> {
      * @param responder
      * @throws MailboxException
      */
-    protected void processMessageRanges(ImapSession session, MessageManager mailbox, List<MessageRange> ranges, FetchData fetch, boolean useUids, MailboxSession mailboxSession, Responder responder) throws MailboxException {
+    protected void processMessageRanges(final ImapSession session, final MessageManager mailbox, final List<MessageRange> ranges, final FetchData fetch, final boolean useUids, final MailboxSession mailboxSession, Responder responder) throws MailboxException {
+        final Executor prefetchExecutor = getPrefetchExecutor(session);
+        if (prefetchExecutor == null) {
+            fetchMessageRanges(session, mailbox, ranges, fetch, useUids, mailboxSession, responder);
+            return;
+        }
+        // Read the next messages while the previous ones are written. The messages are read on a single thread, but
+        // the contents of the body sections are streamed by the writing thread: this is why the mailbox needs to
+        // support concurrent fetches.
+        final PrefetchingResponder prefetchingResponder = new PrefetchingResponder(prefetchSize);
+        try {
+            prefetchExecutor.execute(new Runnable() {
+                public void run() {
+                    MailboxException failure = null;
+                    try {
+                        fetchMessageRanges(session, mailbox, ranges, fetch, useUids, mailboxSession, prefetchingResponder);
+                    } catch (PrefetchingResponder.PrefetchCancelledException e) {
+                        session.getLog().debug("Fetch cancelled while reading the messages");
+                        return;
+                    } catch (MailboxException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new MailboxException("Unable to fetch messages", e);
+                    }
+                    try {
+                        prefetchingResponder.complete(failure);
+                    } catch (PrefetchingResponder.PrefetchCancelledException e) {
+                        session.getLog().debug("Fetch cancelled while reading the messages");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // All the prefetching threads are busy
+            fetchMessageRanges(session, mailbox, ranges, fetch, useUids, mailboxSession, responder);
+            return;
+        }
+        prefetchingResponder.respondTo(responder);
+    }
+
+    private Executor getPrefetchExecutor(ImapSession session) {
+        if (!concurrentFetch) {
+            return null;
+        }
+        return (Executor) session.getAttribute(PREFETCH_EXECUTOR_ATTRIBUTE);
+    }
+
+    private void fetchMessageRanges(ImapSession session, MessageManager mailbox, List<MessageRange> ranges, FetchData fetch, boolean useUids, MailboxSession mailboxSession, Responder responder) throws MailboxException {
         final FetchResponseBuilder builder = new FetchResponseBuilder(new EnvelopeBuilder(session.getLog()));
         FetchGroup resultToFetch = getFetchGroup(fetch);
 
@@ -0,0 +1,124 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.fetch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+import org.apache.james.imap.api.process.ImapProcessor.Responder;
+import org.apache.james.mailbox.exception.MailboxException;
+
+/**
+ * {@link Responder} handing the responses of a FETCH over from the thread reading the messages to the thread writing
+ * the responses.
+ * 
+ * At most <code>capacity</code> responses are buffered: the reading thread blocks once it is that far ahead of the
+ * writing thread, so that the memory used does not depend on the number of fetched messages.
+ */
+class PrefetchingResponder implements Responder {
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> responses;
+    private volatile boolean cancelled;
+
+    public PrefetchingResponder(int capacity) {
+        this.responses = new ArrayBlockingQueue<Object>(capacity);
+    }
+
+    /**
+     * Called by the reading thread for each response
+     * 
+     * @throws PrefetchCancelledException
+     *             if the writing thread gave up
+     */
+    public void respond(ImapResponseMessage message) {
+        enqueue(message);
+    }
+
+    /**
+     * Called by the reading thread once all the messages were read, or when it failed to read them
+     */
+    public void complete(MailboxException failure) {
+        if (failure != null) {
+            enqueue(failure);
+        }
+        enqueue(END);
+    }
+
+    private void enqueue(Object element) {
+        if (cancelled) {
+            throw new PrefetchCancelledException();
+        }
+        try {
+            responses.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrefetchCancelledException();
+        }
+    }
+
+    /**
+     * Called by the writing thread to pass the responses to the given {@link Responder} as they get read, till all
+     * the messages were read
+     * 
+     * @throws MailboxException
+     *             if the reading thread failed to read the messages
+     */
+    public void respondTo(Responder responder) throws MailboxException {
+        boolean completed = false;
+        try {
+            while (true) {
+                Object element = responses.take();
+                if (element == END) {
+                    completed = true;
+                    return;
+                }
+                if (element instanceof MailboxException) {
+                    completed = true;
+                    throw (MailboxException) element;
+                }
+                responder.respond((ImapResponseMessage) element);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailboxException("Interrupted while fetching messages", e);
+        } finally {
+            if (!completed) {
+                cancel();
+            }
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        // Unblock the reading thread, it stops at its next response
+        responses.clear();
+    }
+
+    /**
+     * Thrown to the reading thread to stop it once the writing thread gave up
+     */
+    static class PrefetchCancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+}
@@ -47,6 +47,7 @@ import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.api.process.SelectedMailbox;
 import org.apache.james.imap.message.request.SearchRequest;
 import org.apache.james.imap.message.response.SearchResponse;
+import org.apache.james.imap.processor.base.PipelinedCommands;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageManager;
@@ -493,6 +494,8 @@ public class SearchProcessorTest {
             allowing(session).getAttribute(
                     with(equal(SearchProcessor.SEARCH_MODSEQ))); will(returnValue(null));
             allowing(session).setAttribute(SearchProcessor.SEARCH_MODSEQ, null);
+            allowing(session).getAttribute(
+                    with(equal(PipelinedCommands.SESSION_ATTRIBUTE))); will(returnValue(null));
             allowing(session).getAttribute(
                     with(equal(ImapSessionUtils.MAILBOX_SESSION_ATTRIBUTE_SESSION_KEY))); will(returnValue((MailboxSession) mailboxSession));
                     allowing(session).getLog(); will(returnValue(logger));
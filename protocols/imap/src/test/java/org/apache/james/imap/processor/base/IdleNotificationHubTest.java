@@ -0,0 +1,149 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdleNotificationHubTest {
+
+    private QueuedExecutor executor;
+    private AtomicInteger notificationCount;
+    private IdleNotificationHub testee;
+
+    @Before
+    public void setUp() {
+        executor = new QueuedExecutor();
+        notificationCount = new AtomicInteger();
+        testee = new IdleNotificationHub(executor);
+    }
+
+    @Test
+    public void changeShouldNotNotifyOnTheCallingThread() {
+        testee.changeListener(countingNotification()).run();
+
+        assertThat(notificationCount.get()).isEqualTo(0);
+        assertThat(executor.pendingTasks()).isEqualTo(1);
+    }
+
+    @Test
+    public void changesBeforeTheNotificationRunsShouldBeCoalesced() {
+        Runnable changeListener = testee.changeListener(countingNotification());
+
+        changeListener.run();
+        changeListener.run();
+        changeListener.run();
+        executor.runAll();
+
+        assertThat(notificationCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void changeAfterTheNotificationRanShouldNotifyAgain() {
+        Runnable changeListener = testee.changeListener(countingNotification());
+
+        changeListener.run();
+        executor.runAll();
+        changeListener.run();
+        executor.runAll();
+
+        assertThat(notificationCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void changeDuringTheNotificationShouldNotifyAgain() {
+        final Runnable[] changeListener = new Runnable[1];
+        changeListener[0] = testee.changeListener(new Runnable() {
+            public void run() {
+                if (notificationCount.incrementAndGet() == 1) {
+                    changeListener[0].run();
+                }
+            }
+        });
+
+        changeListener[0].run();
+        executor.runAll();
+
+        assertThat(notificationCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void sessionsShouldBeNotifiedIndependently() {
+        Runnable firstListener = testee.changeListener(countingNotification());
+        Runnable secondListener = testee.changeListener(countingNotification());
+
+        firstListener.run();
+        secondListener.run();
+        executor.runAll();
+
+        assertThat(notificationCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectedNotificationShouldNotBlockLaterChanges() {
+        Runnable changeListener = testee.changeListener(countingNotification());
+
+        executor.rejecting = true;
+        changeListener.run();
+        executor.rejecting = false;
+        changeListener.run();
+        executor.runAll();
+
+        assertThat(notificationCount.get()).isEqualTo(1);
+    }
+
+    private Runnable countingNotification() {
+        return new Runnable() {
+            public void run() {
+                notificationCount.incrementAndGet();
+            }
+        };
+    }
+
+    private static class QueuedExecutor implements Executor {
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean rejecting;
+
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        int pendingTasks() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.removeFirst().run();
+            }
+        }
+    }
+}
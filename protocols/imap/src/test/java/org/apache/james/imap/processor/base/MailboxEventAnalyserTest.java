@@ -70,6 +70,7 @@ import org.apache.james.mailbox.model.MessageResult;
 import org.apache.james.mailbox.model.MessageResult.FetchGroup;
 import org.apache.james.mailbox.model.MessageResultIterator;
 import org.apache.james.mailbox.model.MimeDescriptor;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.TestId;
@@ -432,6 +433,11 @@ public class MailboxEventAnalyserTest {
             return null;
         }
 
+        @Override
+        public List<MessageUidWithMailboxId> sortedSearch(MultimailboxesSearchQuery expression, MailboxSession session) throws MailboxException {
+            return null;
+        }
+
         @Override
         public List<MailboxAnnotation> getAnnotationsByKeysWithOneDepth(MailboxPath mailboxPath, MailboxSession session,
                 Set<MailboxAnnotationKey> keys) throws MailboxException {
@@ -0,0 +1,396 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.mail.Flags;
+
+import org.apache.james.imap.api.ImapSessionUtils;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.MessageUid;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageResult.FetchGroup;
+import org.apache.james.mailbox.model.MessageResultIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class MailboxSnapshotRegistryTest {
+
+    private static final MailboxPath PATH = new MailboxPath("#private", "user", "INBOX");
+    private static final MessageUid UID_1 = MessageUid.of(1);
+    private static final MessageUid UID_2 = MessageUid.of(2);
+    private static final MessageUid UID_3 = MessageUid.of(3);
+    private static final MessageUid UID_4 = MessageUid.of(4);
+
+    private MailboxManager mailboxManager;
+    private MessageManager messageManager;
+    private MailboxSession mailboxSession;
+    private MailboxSnapshotRegistry testee;
+
+    @Before
+    public void setUp() throws Exception {
+        mailboxManager = mock(MailboxManager.class);
+        messageManager = mock(MessageManager.class);
+        mailboxSession = mock(MailboxSession.class);
+        when(mailboxManager.getMailbox(eq(PATH), any(MailboxSession.class))).thenReturn(messageManager);
+        when(messageManager.getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class)))
+            .thenAnswer(new Answer<MessageResultIterator>() {
+                @Override
+                public MessageResultIterator answer(InvocationOnMock invocation) throws Throwable {
+                    return messages(UID_1, UID_2, UID_3);
+                }
+            });
+        testee = new MailboxSnapshotRegistry(mailboxManager);
+    }
+
+    @Test
+    public void selectionsOfTheSameMailboxShouldReadTheStorageOnce() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        SelectedMailboxImpl second = select(2);
+
+        verify(messageManager, times(1)).getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class));
+        assertThat(first.existsCount()).isEqualTo(3);
+        assertThat(second.existsCount()).isEqualTo(3);
+        assertThat(testee.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void selectionsOfTheSameMailboxShouldRegisterOneListener() throws Exception {
+        select(1);
+        select(2);
+
+        verify(mailboxManager, times(1)).addListener(eq(PATH), any(MailboxListener.class), any(MailboxSession.class));
+    }
+
+    @Test
+    public void eventsShouldBeForwardedToAllSelections() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        SelectedMailboxImpl second = select(2);
+
+        registeredListener().event(new FakeMailboxListenerAdded(mailboxSession, ImmutableList.of(UID_4), PATH));
+
+        assertThat(first.isSizeChanged()).isTrue();
+        assertThat(second.isSizeChanged()).isTrue();
+        assertThat(first.uid(4)).isEqualTo(Optional.of(UID_4));
+        assertThat(second.uid(4)).isEqualTo(Optional.of(UID_4));
+    }
+
+    @Test
+    public void newSelectionShouldSeeMessagesAddedSinceTheFirstSelection() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        registeredListener().event(new FakeMailboxListenerAdded(mailboxSession, ImmutableList.of(UID_4), PATH));
+
+        SelectedMailboxImpl second = select(2);
+
+        assertThat(second.existsCount()).isEqualTo(4);
+        assertThat(second.isSizeChanged()).isFalse();
+    }
+
+    @Test
+    public void expungeShouldNotRenumberSelectionsBeforeTheyAnnounceIt() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        registeredListener().event(expunged(UID_2));
+
+        SelectedMailboxImpl second = select(2);
+
+        assertThat(first.msn(UID_3)).isEqualTo(3);
+        assertThat(first.expungedUids()).containsExactly(UID_2);
+        assertThat(second.msn(UID_3)).isEqualTo(2);
+        assertThat(second.expungedUids()).isEmpty();
+    }
+
+    @Test
+    public void deselectShouldKeepTheSnapshotWhileOtherSelectionsAreAttached() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        select(2);
+
+        first.deselect();
+
+        assertThat(testee.size()).isEqualTo(1);
+        verify(mailboxManager, times(0)).removeListener(eq(PATH), any(MailboxListener.class), any(MailboxSession.class));
+    }
+
+    @Test
+    public void lastDeselectShouldRemoveTheListener() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        SelectedMailboxImpl second = select(2);
+
+        first.deselect();
+        second.deselect();
+
+        assertThat(testee.size()).isEqualTo(0);
+        verify(mailboxManager, times(1)).removeListener(eq(PATH), any(MailboxListener.class), any(MailboxSession.class));
+    }
+
+    @Test
+    public void deselectShouldBeIdempotent() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        select(2);
+
+        first.deselect();
+        first.deselect();
+
+        assertThat(testee.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void selectionAfterLastDeselectShouldReloadTheSnapshot() throws Exception {
+        select(1).deselect();
+
+        select(2);
+
+        verify(messageManager, times(2)).getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class));
+    }
+
+    @Test
+    public void deletedMailboxSnapshotShouldNotBeSharedWithNewSelections() throws Exception {
+        SelectedMailboxImpl first = select(1);
+        registeredListener().event(new MailboxListener.MailboxDeletion(mailboxSession, PATH) {});
+
+        select(2);
+
+        verify(messageManager, times(2)).getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class));
+        assertThat(first.isDeletedByOtherSession()).isTrue();
+    }
+
+    @Test
+    public void failingLoadShouldNotKeepTheSnapshot() throws Exception {
+        doThrow(new MailboxException()).when(messageManager)
+            .getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class));
+
+        try {
+            select(1);
+        } catch (MailboxException e) {
+            // expected
+        }
+
+        assertThat(testee.size()).isEqualTo(0);
+        verify(mailboxManager, times(1)).removeListener(eq(PATH), any(MailboxListener.class), any(MailboxSession.class));
+    }
+
+    @Test
+    public void eventsShouldBeForwardedToTheSelectionsOfTheActingSessionInline() throws Exception {
+        QueuingExecutor executor = new QueuingExecutor();
+        testee = new MailboxSnapshotRegistry(mailboxManager, executor);
+        SelectedMailboxImpl first = select(1);
+        SelectedMailboxImpl second = select(2);
+
+        registeredListener().event(new FakeMailboxListenerAdded(session(1), ImmutableList.of(UID_4), PATH));
+
+        assertThat(first.isSizeChanged()).isTrue();
+        assertThat(second.isSizeChanged()).isFalse();
+    }
+
+    @Test
+    public void eventsShouldBeForwardedToTheOtherSelectionsByTheExecutor() throws Exception {
+        QueuingExecutor executor = new QueuingExecutor();
+        testee = new MailboxSnapshotRegistry(mailboxManager, executor);
+        select(1);
+        SelectedMailboxImpl second = select(2);
+
+        registeredListener().event(new FakeMailboxListenerAdded(session(1), ImmutableList.of(UID_4), PATH));
+        executor.runAll();
+
+        assertThat(second.isSizeChanged()).isTrue();
+        assertThat(second.uid(4)).isEqualTo(Optional.of(UID_4));
+    }
+
+    @Test
+    public void eventsQueuedBeforeTheFanOutRunsShouldBeForwardedByASingleRun() throws Exception {
+        QueuingExecutor executor = new QueuingExecutor();
+        testee = new MailboxSnapshotRegistry(mailboxManager, executor);
+        select(1);
+        SelectedMailboxImpl second = select(2);
+        MailboxListener listener = registeredListener();
+
+        listener.event(new FakeMailboxListenerAdded(session(1), ImmutableList.of(UID_4), PATH));
+        listener.event(expunged(session(1), UID_2));
+
+        assertThat(executor.tasks).hasSize(1);
+        executor.runAll();
+        assertThat(second.existsCount()).isEqualTo(4);
+        assertThat(second.expungedUids()).containsExactly(UID_2);
+    }
+
+    @Test
+    public void eventsReceivedWhileLoadingShouldNotWaitForTheLoad() throws Exception {
+        final List<MailboxListener> listeners = new ArrayList<MailboxListener>();
+        final List<Thread> notifiers = new ArrayList<Thread>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                listeners.add((MailboxListener) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(mailboxManager).addListener(eq(PATH), any(MailboxListener.class), any(MailboxSession.class));
+        when(messageManager.getMessages(any(MessageRange.class), any(FetchGroup.class), any(MailboxSession.class)))
+            .thenAnswer(new Answer<MessageResultIterator>() {
+                @Override
+                public MessageResultIterator answer(InvocationOnMock invocation) throws Throwable {
+                    final MailboxListener listener = listeners.get(0);
+                    Thread notifier = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.event(new FakeMailboxListenerAdded(mailboxSession, ImmutableList.of(UID_4), PATH));
+                        }
+                    });
+                    notifiers.add(notifier);
+                    notifier.start();
+                    notifier.join(1000);
+                    return messages(UID_1, UID_2, UID_3);
+                }
+            });
+
+        SelectedMailboxImpl selected = select(1);
+
+        assertThat(notifiers.get(0).isAlive()).isFalse();
+        assertThat(selected.existsCount()).isEqualTo(4);
+        assertThat(selected.uid(4)).isEqualTo(Optional.of(UID_4));
+    }
+
+    @Test
+    public void newSelectionShouldNotReceiveTheEventsQueuedBeforeIt() throws Exception {
+        QueuingExecutor executor = new QueuingExecutor();
+        testee = new MailboxSnapshotRegistry(mailboxManager, executor);
+        select(1);
+        select(2);
+        registeredListener().event(new FakeMailboxListenerAdded(session(1), ImmutableList.of(UID_4), PATH));
+
+        SelectedMailboxImpl third = select(3);
+        executor.runAll();
+
+        assertThat(third.existsCount()).isEqualTo(4);
+        assertThat(third.isSizeChanged()).isFalse();
+    }
+
+    private SelectedMailboxImpl select(long sessionId) throws MailboxException {
+        MailboxSession session = session(sessionId);
+        ImapSession imapSession = mock(ImapSession.class);
+        when(imapSession.getAttribute(ImapSessionUtils.MAILBOX_SESSION_ATTRIBUTE_SESSION_KEY)).thenReturn(session);
+        return new SelectedMailboxImpl(testee, imapSession, PATH);
+    }
+
+    private MailboxSession session(long sessionId) {
+        MailboxSession session = mock(MailboxSession.class);
+        when(session.getSessionId()).thenReturn(sessionId);
+        return session;
+    }
+
+    private MailboxListener registeredListener() throws MailboxException {
+        ArgumentCaptor<MailboxListener> listener = ArgumentCaptor.forClass(MailboxListener.class);
+        verify(mailboxManager, atLeastOnce()).addListener(eq(PATH), listener.capture(), any(MailboxSession.class));
+        return listener.getValue();
+    }
+
+    private MailboxListener.Expunged expunged(MessageUid... uids) {
+        return expunged(mailboxSession, uids);
+    }
+
+    private MailboxListener.Expunged expunged(MailboxSession session, final MessageUid... uids) {
+        return new MailboxListener.Expunged(session, PATH) {
+            @Override
+            public List<MessageUid> getUids() {
+                return ImmutableList.copyOf(uids);
+            }
+
+            @Override
+            public MessageMetaData getMetaData(MessageUid uid) {
+                return null;
+            }
+        };
+    }
+
+    private MessageResultIterator messages(MessageUid... uids) {
+        ImmutableList.Builder<MessageResult> results = ImmutableList.builder();
+        for (MessageUid uid : uids) {
+            MessageResult result = mock(MessageResult.class);
+            when(result.getUid()).thenReturn(uid);
+            when(result.getFlags()).thenReturn(new Flags());
+            results.add(result);
+        }
+        final Iterator<MessageResult> iterator = results.build().iterator();
+        return new MessageResultIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public MessageResult next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public MailboxException getException() {
+                return null;
+            }
+        };
+    }
+
+    private static class QueuingExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
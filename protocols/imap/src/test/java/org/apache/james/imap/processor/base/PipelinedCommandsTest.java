@@ -0,0 +1,157 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.message.BodyFetchElement;
+import org.apache.james.imap.api.message.FetchData;
+import org.apache.james.imap.api.message.IdRange;
+import org.apache.james.imap.api.message.StatusDataItems;
+import org.apache.james.imap.api.message.request.SearchKey;
+import org.apache.james.imap.api.message.request.SearchOperation;
+import org.apache.james.imap.api.message.request.SearchResultOption;
+import org.apache.james.imap.message.request.FetchRequest;
+import org.apache.james.imap.message.request.NoopRequest;
+import org.apache.james.imap.message.request.SearchRequest;
+import org.apache.james.imap.message.request.StatusRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PipelinedCommandsTest {
+
+    private static final String TAG = "A1";
+    private static final IdRange[] ALL = new IdRange[] { new IdRange(1, Long.MAX_VALUE) };
+    private static final BodyFetchElement BODY = new BodyFetchElement("BODY[]", BodyFetchElement.CONTENT, null, null, null, null);
+
+    private PipelinedCommands testee;
+
+    @Before
+    public void setUp() {
+        testee = new PipelinedCommands();
+    }
+
+    @Test
+    public void fetchShouldRunConcurrentlyWhenPeeking() {
+        FetchData fetchData = new FetchData();
+        fetchData.add(BODY, true);
+
+        assertThat(PipelinedCommands.canRunConcurrently(fetch(fetchData))).isTrue();
+    }
+
+    @Test
+    public void fetchShouldNotRunConcurrentlyWhenSettingSeen() {
+        FetchData fetchData = new FetchData();
+        fetchData.add(BODY, false);
+
+        assertThat(PipelinedCommands.canRunConcurrently(fetch(fetchData))).isFalse();
+    }
+
+    @Test
+    public void searchShouldRunConcurrently() {
+        SearchOperation operation = new SearchOperation(SearchKey.buildAll(), ImmutableList.of(SearchResultOption.COUNT));
+
+        assertThat(PipelinedCommands.canRunConcurrently(search(operation))).isTrue();
+    }
+
+    @Test
+    public void searchShouldNotRunConcurrentlyWhenSavingItsResult() {
+        SearchOperation operation = new SearchOperation(SearchKey.buildAll(), ImmutableList.of(SearchResultOption.SAVE));
+
+        assertThat(PipelinedCommands.canRunConcurrently(search(operation))).isFalse();
+    }
+
+    @Test
+    public void statusShouldRunConcurrently() {
+        StatusRequest status = new StatusRequest(ImapCommand.authenticatedStateCommand("STATUS"), "INBOX", new StatusDataItems(), TAG);
+
+        assertThat(PipelinedCommands.canRunConcurrently(status)).isTrue();
+    }
+
+    @Test
+    public void otherCommandsShouldNotRunConcurrently() {
+        assertThat(PipelinedCommands.canRunConcurrently(new NoopRequest(ImapCommand.anyStateCommand("NOOP"), TAG))).isFalse();
+    }
+
+    @Test
+    public void isConcurrentShouldBeFalseWhenOneCommandRuns() {
+        testee.started();
+
+        assertThat(testee.isConcurrent()).isFalse();
+    }
+
+    @Test
+    public void isConcurrentShouldBeTrueWhenSeveralCommandsRun() {
+        testee.started();
+        testee.started();
+
+        assertThat(testee.isConcurrent()).isTrue();
+    }
+
+    @Test
+    public void isConcurrentShouldBeFalseOnceOtherCommandsCompleted() {
+        testee.started();
+        testee.started();
+        testee.completed();
+
+        assertThat(testee.isConcurrent()).isFalse();
+    }
+
+    @Test
+    public void awaitCompletionShouldReturnWhenNoCommandRuns() throws Exception {
+        testee.awaitCompletion();
+    }
+
+    @Test
+    public void awaitCompletionShouldWaitForTheRunningCommands() throws Exception {
+        testee.started();
+        final CountDownLatch completed = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    testee.awaitCompletion();
+                    completed.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        waiter.start();
+
+        assertThat(completed.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        testee.completed();
+        assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private FetchRequest fetch(FetchData fetchData) {
+        return new FetchRequest(ImapCommand.selectedStateCommand("FETCH"), false, ALL, fetchData, TAG);
+    }
+
+    private SearchRequest search(SearchOperation operation) {
+        return new SearchRequest(ImapCommand.selectedStateCommand("SEARCH"), operation, false, TAG);
+    }
+}
@@ -0,0 +1,220 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.imap.processor.base;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.apache.james.mailbox.MessageUid;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class SortedUidSetTest {
+
+    private static final MessageUid UID_1 = MessageUid.of(1);
+    private static final MessageUid UID_3 = MessageUid.of(3);
+    private static final MessageUid UID_5 = MessageUid.of(5);
+    private static final MessageUid UID_7 = MessageUid.of(7);
+    private static final MessageUid UID_9 = MessageUid.of(9);
+
+    private SortedUidSet testee;
+
+    @Before
+    public void setUp() {
+        testee = new SortedUidSet();
+    }
+
+    @Test
+    public void newSetShouldBeEmpty() {
+        assertThat(testee.isEmpty()).isTrue();
+        assertThat(testee.first()).isEqualTo(Optional.absent());
+        assertThat(testee.last()).isEqualTo(Optional.absent());
+    }
+
+    @Test
+    public void addShouldKeepUidsSorted() {
+        testee.add(UID_5);
+        testee.add(UID_1);
+        testee.add(UID_9);
+        testee.add(UID_3);
+
+        assertThat(testee.asList()).containsExactly(UID_1, UID_3, UID_5, UID_9);
+    }
+
+    @Test
+    public void addShouldReturnFalseWhenUidIsAlreadyPresent() {
+        testee.add(UID_1);
+        testee.add(UID_3);
+
+        assertThat(testee.add(UID_1)).isFalse();
+        assertThat(testee.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void addShouldGrowBeyondInitialCapacity() {
+        for (long i = 1; i <= 100; i++) {
+            testee.add(MessageUid.of(i * 2));
+        }
+
+        assertThat(testee.size()).isEqualTo(100);
+        assertThat(testee.last()).isEqualTo(Optional.of(MessageUid.of(200)));
+    }
+
+    @Test
+    public void indexOfShouldReturnPositionOfUid() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5));
+
+        assertThat(testee.indexOf(UID_3)).isEqualTo(1);
+    }
+
+    @Test
+    public void indexOfShouldReturnNotFoundWhenUnknownUid() {
+        testee.addAll(ImmutableList.of(UID_1, UID_5));
+
+        assertThat(testee.indexOf(UID_3)).isEqualTo(SortedUidSet.NOT_FOUND);
+    }
+
+    @Test
+    public void getShouldReturnUidAtIndex() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5));
+
+        assertThat(testee.get(2)).isEqualTo(Optional.of(UID_5));
+    }
+
+    @Test
+    public void getShouldReturnAbsentWhenOutOfBounds() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3));
+
+        assertThat(testee.get(-1)).isEqualTo(Optional.absent());
+        assertThat(testee.get(2)).isEqualTo(Optional.absent());
+    }
+
+    @Test
+    public void removeShouldReturnFormerIndexAndShiftFollowingUids() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5));
+
+        assertThat(testee.remove(UID_3)).isEqualTo(1);
+        assertThat(testee.indexOf(UID_5)).isEqualTo(1);
+    }
+
+    @Test
+    public void removeShouldReturnNotFoundWhenUnknownUid() {
+        testee.addAll(ImmutableList.of(UID_1, UID_5));
+
+        assertThat(testee.remove(UID_3)).isEqualTo(SortedUidSet.NOT_FOUND);
+        assertThat(testee.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void removeAllShouldReturnIndexesTakingPreviousRemovalsIntoAccount() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5, UID_7, UID_9));
+
+        assertThat(testee.removeAll(ImmutableList.of(UID_7, UID_3, UID_5))).containsExactly(1, 1, 1);
+        assertThat(testee.asList()).containsExactly(UID_1, UID_9);
+    }
+
+    @Test
+    public void removeAllShouldBeEquivalentToSuccessiveRemovals() {
+        SortedUidSet other = new SortedUidSet();
+        for (long i = 1; i <= 50; i++) {
+            testee.add(MessageUid.of(i));
+            other.add(MessageUid.of(i));
+        }
+        ImmutableList<MessageUid> toRemove = ImmutableList.of(MessageUid.of(2), MessageUid.of(10), MessageUid.of(11), MessageUid.of(50));
+
+        int[] indexes = testee.removeAll(toRemove);
+
+        for (int i = 0; i < toRemove.size(); i++) {
+            assertThat(indexes[i]).isEqualTo(other.remove(toRemove.get(i)));
+        }
+        assertThat(testee.asList()).isEqualTo(other.asList());
+    }
+
+    @Test
+    public void removeAllShouldIgnoreUnknownAndDuplicatedUids() {
+        testee.addAll(ImmutableList.of(UID_1, UID_5, UID_9));
+
+        assertThat(testee.removeAll(ImmutableList.of(UID_3, UID_5, UID_5))).containsExactly(1);
+        assertThat(testee.asList()).containsExactly(UID_1, UID_9);
+    }
+
+    @Test
+    public void removeAllShouldReturnEmptyWhenEmptySet() {
+        assertThat(testee.removeAll(ImmutableList.of(UID_1))).isEmpty();
+    }
+
+    @Test
+    public void asListShouldNotReflectLaterChanges() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3));
+
+        List<MessageUid> snapshot = testee.asList();
+        testee.add(UID_5);
+        testee.remove(UID_1);
+
+        assertThat(snapshot).containsExactly(UID_1, UID_3);
+    }
+
+    @Test
+    public void clearShouldRemoveAllUids() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3));
+
+        testee.clear();
+
+        assertThat(testee.isEmpty()).isTrue();
+        assertThat(testee.contains(UID_1)).isFalse();
+    }
+
+    @Test
+    public void copyShouldHaveTheSameContent() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3));
+
+        assertThat(testee.copy().asList()).containsExactly(UID_1, UID_3);
+    }
+
+    @Test
+    public void modifyingACopyShouldNotModifyTheOriginal() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5));
+        SortedUidSet copy = testee.copy();
+
+        copy.add(UID_7);
+        copy.remove(UID_1);
+        copy.removeAll(ImmutableList.of(UID_3));
+
+        assertThat(testee.asList()).containsExactly(UID_1, UID_3, UID_5);
+        assertThat(copy.asList()).containsExactly(UID_5, UID_7);
+    }
+
+    @Test
+    public void modifyingTheOriginalShouldNotModifyACopy() {
+        testee.addAll(ImmutableList.of(UID_1, UID_3, UID_5));
+        SortedUidSet copy = testee.copy();
+
+        testee.remove(UID_3);
+        testee.add(UID_9);
+        testee.clear();
+
+        assertThat(copy.asList()).containsExactly(UID_1, UID_3, UID_5);
+    }
+}
@@ -0,0 +1,140 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.fetch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+import org.apache.james.imap.api.process.ImapProcessor.Responder;
+import org.apache.james.imap.message.response.ExistsResponse;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.junit.Test;
+
+public class PrefetchingResponderTest {
+
+    private static final ImapResponseMessage RESPONSE_1 = new ExistsResponse(1);
+    private static final ImapResponseMessage RESPONSE_2 = new ExistsResponse(2);
+    private static final ImapResponseMessage RESPONSE_3 = new ExistsResponse(3);
+
+    @Test
+    public void respondToShouldPassTheResponsesInOrder() throws Exception {
+        PrefetchingResponder testee = new PrefetchingResponder(10);
+        testee.respond(RESPONSE_1);
+        testee.respond(RESPONSE_2);
+        testee.complete(null);
+
+        RecordingResponder recorder = new RecordingResponder();
+        testee.respondTo(recorder);
+
+        assertThat(recorder.responses).containsExactly(RESPONSE_1, RESPONSE_2);
+    }
+
+    @Test
+    public void respondToShouldThrowTheFailureOfTheReadingThread() throws Exception {
+        PrefetchingResponder testee = new PrefetchingResponder(10);
+        MailboxException failure = new MailboxException("failure");
+        testee.respond(RESPONSE_1);
+        testee.complete(failure);
+
+        RecordingResponder recorder = new RecordingResponder();
+        try {
+            testee.respondTo(recorder);
+            failBecauseExceptionWasNotThrown(MailboxException.class);
+        } catch (MailboxException e) {
+            assertThat(e).isSameAs(failure);
+        }
+
+        assertThat(recorder.responses).containsExactly(RESPONSE_1);
+    }
+
+    @Test
+    public void respondShouldBlockWhenCapacityIsReached() throws Exception {
+        final PrefetchingResponder testee = new PrefetchingResponder(2);
+        final CountDownLatch respondedAll = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                testee.respond(RESPONSE_1);
+                testee.respond(RESPONSE_2);
+                testee.respond(RESPONSE_3);
+                respondedAll.countDown();
+                testee.complete(null);
+            }
+        };
+        reader.start();
+
+        assertThat(respondedAll.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        RecordingResponder recorder = new RecordingResponder();
+        testee.respondTo(recorder);
+        reader.join();
+
+        assertThat(recorder.responses).containsExactly(RESPONSE_1, RESPONSE_2, RESPONSE_3);
+    }
+
+    @Test
+    public void respondShouldFailWhenTheWritingThreadGaveUp() throws Exception {
+        final PrefetchingResponder testee = new PrefetchingResponder(1);
+        final AtomicReference<RuntimeException> readerFailure = new AtomicReference<RuntimeException>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        testee.respond(RESPONSE_1);
+                    }
+                } catch (RuntimeException e) {
+                    readerFailure.set(e);
+                }
+            }
+        };
+        reader.start();
+
+        try {
+            testee.respondTo(new Responder() {
+                public void respond(ImapResponseMessage message) {
+                    throw new IllegalStateException();
+                }
+            });
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(readerFailure.get()).isInstanceOf(PrefetchingResponder.PrefetchCancelledException.class);
+    }
+
+    private static class RecordingResponder implements Responder {
+        private final List<ImapResponseMessage> responses = new ArrayList<ImapResponseMessage>();
+
+        public void respond(ImapResponseMessage message) {
+            responses.add(message);
+        }
+    }
+
+}
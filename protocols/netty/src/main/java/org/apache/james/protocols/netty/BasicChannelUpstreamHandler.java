@@ -140,16 +140,20 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
             ChannelBuffer buf = (ChannelBuffer) e.getMessage();      
             LineHandler lHandler=  (LineHandler) lineHandlers.getLast();
             long start = System.currentTimeMillis();            
-            Response response = lHandler.onLine(pSession,buf.toByteBuffer());
+            // The frame may be a slice of a bigger buffer, so make sure the line starts at position 0
+            Response response = lHandler.onLine(pSession,buf.toByteBuffer().slice());
             long executionTime = System.currentTimeMillis() - start;
 
-            for (ProtocolHandlerResultHandler resultHandler : resultHandlers) {
-                // Disable till PROTOCOLS-37 is implemented
-                if (response instanceof FutureResponse) {
-                    pSession.getLogger().debug("ProtocolHandlerResultHandler are not supported for FutureResponse yet");
-                    break;
+            // A command may defer its response, like BDAT does until the whole chunk was received
+            if (response != null) {
+                for (ProtocolHandlerResultHandler resultHandler : resultHandlers) {
+                    // Disable till PROTOCOLS-37 is implemented
+                    if (response instanceof FutureResponse) {
+                        pSession.getLogger().debug("ProtocolHandlerResultHandler are not supported for FutureResponse yet");
+                        break;
+                    }
+                    response = resultHandler.onResponse(pSession, response, executionTime, lHandler);
                 }
-                response = resultHandler.onResponse(pSession, response, executionTime, lHandler);
             }
             if (response != null) {
                 // TODO: This kind of sucks but I was able to come up with something more elegant here
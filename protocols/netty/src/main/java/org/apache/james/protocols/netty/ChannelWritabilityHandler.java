@@ -0,0 +1,88 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.netty;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+
+/**
+ * {@link SimpleChannelUpstreamHandler} which lets the threads writing responses to a {@link Channel} wait till it is
+ * writable again, so that a slow client does not make the outbound data pile up in memory.
+ * 
+ * It must be added before the {@link org.jboss.netty.handler.execution.ExecutionHandler} of the pipeline, so that it
+ * gets notified on the IO thread while the executor thread of the {@link Channel} waits. Be aware that this handler
+ * keeps the state of its {@link Channel} so it can't be shared across pipelines
+ */
+public class ChannelWritabilityHandler extends SimpleChannelUpstreamHandler {
+
+    private volatile Thread ioThread;
+
+    /**
+     * Wait till the given {@link Channel} is writable or closed. Returns immediately when called from the IO thread
+     * of the {@link Channel}, which is the one writing the data out, or when the pipeline of the {@link Channel} has
+     * no {@link ChannelWritabilityHandler}
+     */
+    public static void awaitWritable(Channel channel) throws InterruptedException {
+        ChannelWritabilityHandler handler = channel.getPipeline().get(ChannelWritabilityHandler.class);
+        if (handler != null) {
+            handler.await(channel);
+        }
+    }
+
+    private synchronized void await(Channel channel) throws InterruptedException {
+        if (Thread.currentThread() == ioThread) {
+            return;
+        }
+        while (channel.isOpen() && !channel.isWritable()) {
+            wait();
+        }
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ioThread = Thread.currentThread();
+        super.channelConnected(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ioThread = Thread.currentThread();
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        wakeUp();
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        wakeUp();
+        super.channelClosed(ctx, e);
+    }
+
+    private synchronized void wakeUp() {
+        notifyAll();
+    }
+
+}
@@ -47,4 +47,6 @@ public interface HandlerConstants {
 
     String CHUNK_HANDLER = "chunkHandler";
 
+    String WRITABILITY_HANDLER = "writabilityHandler";
+
 }
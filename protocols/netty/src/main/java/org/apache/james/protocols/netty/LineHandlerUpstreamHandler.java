@@ -47,7 +47,8 @@ public class LineHandlerUpstreamHandler<S extends ProtocolSession> extends Simpl
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {        
         ChannelBuffer buf = (ChannelBuffer) e.getMessage();      
 
-        Response response = handler.onLine(session, buf.toByteBuffer()); 
+        // The frame may be a slice of a bigger buffer, so make sure the line starts at position 0
+        Response response = handler.onLine(session, buf.toByteBuffer().slice());
         if (response != null) {
             // TODO: This kind of sucks but I was not able to come up with something more elegant here
             ((ProtocolSessionImpl)session).getProtocolTransport().writeResponse(response, session);
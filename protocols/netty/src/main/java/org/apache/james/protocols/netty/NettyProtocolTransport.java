@@ -110,6 +110,7 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
 
     @Override
     protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+        awaitWritable();
         if (startTLS) {
             prepareStartTLS();
         }
@@ -125,6 +126,7 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
 
     @Override
     protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
+        awaitWritable();
         if (startTLS) {
             prepareStartTLS();
         }
@@ -164,6 +166,17 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
         channel.write(new ChunkedStream(in));
     }
 
+    /**
+     * Wait for the client to read the previous responses, so that they do not pile up in memory
+     */
+    private void awaitWritable() {
+        try {
+            ChannelWritabilityHandler.awaitWritable(channel);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.ProtocolTransport#setReadable(boolean)
@@ -0,0 +1,159 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.netty;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ChannelWritabilityHandlerTest {
+
+    private static final long TIMEOUT_IN_MS = 10000;
+
+    private volatile boolean writable;
+    private volatile boolean open;
+    private ChannelWritabilityHandler testee;
+    private ChannelPipeline pipeline;
+    private Channel channel;
+    private ChannelHandlerContext ctx;
+
+    @Before
+    public void setUp() {
+        writable = true;
+        open = true;
+        testee = new ChannelWritabilityHandler();
+        pipeline = mock(ChannelPipeline.class);
+        when(pipeline.get(ChannelWritabilityHandler.class)).thenReturn(testee);
+        channel = mock(Channel.class);
+        when(channel.getPipeline()).thenReturn(pipeline);
+        when(channel.isWritable()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return writable;
+            }
+        });
+        when(channel.isOpen()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return open;
+            }
+        });
+        ctx = mock(ChannelHandlerContext.class);
+    }
+
+    @Test
+    public void awaitWritableShouldReturnWhenTheChannelIsWritable() throws Exception {
+        ChannelWritabilityHandler.awaitWritable(channel);
+    }
+
+    @Test
+    public void awaitWritableShouldReturnWhenThePipelineHasNoHandler() throws Exception {
+        writable = false;
+        when(pipeline.get(ChannelWritabilityHandler.class)).thenReturn(null);
+
+        ChannelWritabilityHandler.awaitWritable(channel);
+    }
+
+    @Test
+    public void awaitWritableShouldReturnWhenTheChannelIsClosed() throws Exception {
+        writable = false;
+        open = false;
+
+        ChannelWritabilityHandler.awaitWritable(channel);
+    }
+
+    @Test
+    public void awaitWritableShouldNotBlockTheIoThread() throws Exception {
+        testee.messageReceived(ctx, mock(MessageEvent.class));
+        writable = false;
+
+        ChannelWritabilityHandler.awaitWritable(channel);
+    }
+
+    @Test
+    public void awaitWritableShouldBlockTillTheChannelIsWritableAgain() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+
+        writable = true;
+        testee.channelInterestChanged(ctx, mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertFalse(writer.isAlive());
+    }
+
+    @Test
+    public void awaitWritableShouldKeepBlockingWhenTheChannelIsStillNotWritable() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+
+        testee.channelInterestChanged(ctx, mock(ChannelStateEvent.class));
+
+        awaitWaiting(writer);
+        assertTrue(writer.isAlive());
+        writable = true;
+        testee.channelInterestChanged(ctx, mock(ChannelStateEvent.class));
+        writer.join(TIMEOUT_IN_MS);
+    }
+
+    @Test
+    public void awaitWritableShouldReturnWhenTheChannelIsClosedWhileWaiting() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+
+        open = false;
+        testee.channelClosed(ctx, mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertFalse(writer.isAlive());
+    }
+
+    private Thread startWaitingWriter() throws InterruptedException {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ChannelWritabilityHandler.awaitWritable(channel);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        writer.start();
+        awaitWaiting(writer);
+        return writer;
+    }
+
+    private void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(thread.getState() == Thread.State.WAITING);
+    }
+}
@@ -0,0 +1,127 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.netty;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NettyProtocolTransportTest {
+
+    private static final long TIMEOUT_IN_MS = 10000;
+
+    private volatile boolean writable;
+    private volatile boolean open;
+    private ChannelWritabilityHandler handler;
+    private Channel channel;
+    private Response response;
+    private NettyProtocolTransport testee;
+
+    @Before
+    public void setUp() {
+        writable = true;
+        open = true;
+        handler = new ChannelWritabilityHandler();
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(pipeline.get(ChannelWritabilityHandler.class)).thenReturn(handler);
+        channel = mock(Channel.class);
+        when(channel.getPipeline()).thenReturn(pipeline);
+        when(channel.isWritable()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return writable;
+            }
+        });
+        when(channel.isOpen()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return open;
+            }
+        });
+        response = mock(Response.class);
+        List<CharSequence> lines = Arrays.<CharSequence>asList("250 OK");
+        when(response.getLines()).thenReturn(lines);
+        testee = new NettyProtocolTransport(channel, null);
+    }
+
+    @Test
+    public void writeResponseShouldWriteWhenTheChannelIsWritable() {
+        testee.writeResponse(response, mock(ProtocolSession.class));
+
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeResponseShouldWaitTillTheChannelIsWritable() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+        verify(channel, never()).write(any());
+
+        writable = true;
+        handler.channelInterestChanged(mock(ChannelHandlerContext.class), mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertFalse(writer.isAlive());
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeResponseShouldStopWaitingWhenTheChannelIsClosed() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+
+        open = false;
+        handler.channelClosed(mock(ChannelHandlerContext.class), mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertFalse(writer.isAlive());
+    }
+
+    private Thread startWaitingWriter() throws InterruptedException {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                testee.writeResponse(response, mock(ProtocolSession.class));
+            }
+        };
+        writer.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+        while (writer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(writer.getState() == Thread.State.WAITING);
+        return writer;
+    }
+}
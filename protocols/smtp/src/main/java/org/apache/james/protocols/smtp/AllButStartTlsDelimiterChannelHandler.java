@@ -35,10 +35,25 @@ public class AllButStartTlsDelimiterChannelHandler extends DelimiterBasedFrameDe
 
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        checkCommandInjection(buffer);
+        return decodeLine(ctx, channel, buffer);
+    }
+
+    /**
+     * Throw a {@link CommandInjectionDetectedException} if commands were sent after a STARTTLS command in the given
+     * buffer
+     */
+    protected void checkCommandInjection(ChannelBuffer buffer) {
         String trimedLowerCasedInput = readAll(buffer).trim().toLowerCase();
         if (hasCommandInjection(trimedLowerCasedInput)) {
             throw new CommandInjectionDetectedException();
         }
+    }
+
+    /**
+     * Decode the next line of the given buffer, without any check
+     */
+    protected Object decodeLine(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
         return super.decode(ctx, channel, buffer);
     }
 
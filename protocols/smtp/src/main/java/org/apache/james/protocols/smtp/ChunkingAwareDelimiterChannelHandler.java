@@ -0,0 +1,145 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import org.apache.james.protocols.smtp.core.BdatCmdHandler;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+
+import com.google.common.base.Charsets;
+
+/**
+ * {@link AllButStartTlsDelimiterChannelHandler} which is aware of the message content sent by the client:
+ * <ul>
+ * <li>the chunk following a BDAT command (see RFC 3030) is passed as is to the next handler, as slices of the
+ * received buffers, without looking for line delimiters</li>
+ * <li>the lines of the message sent after a DATA command are passed as slices of the received buffers rather than
+ * copies, and are not checked for command injection</li>
+ * </ul>
+ * The message content of a DATA command is expected once the 354 reply was written, as the client must wait for it
+ * before sending the message, and ends with the "." line.
+ * 
+ * This handler holds the state of a connection, so a new one must be created for each channel.
+ */
+public class ChunkingAwareDelimiterChannelHandler extends AllButStartTlsDelimiterChannelHandler implements ChannelDownstreamHandler {
+
+    private static final String BDAT = "BDAT";
+    private static final byte[] DATA_READY = SMTPRetCode.DATA_READY.getBytes(Charsets.US_ASCII);
+
+    // Set by the thread writing the responses
+    private volatile boolean dataMode;
+    private long remainingChunkBytes;
+
+    public ChunkingAwareDelimiterChannelHandler(int maxFrameLength, boolean stripDelimiter, ChannelBuffer[] delimiters) {
+        super(maxFrameLength, stripDelimiter, delimiters);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        if (remainingChunkBytes > 0) {
+            int length = (int) Math.min(remainingChunkBytes, buffer.readableBytes());
+            if (length == 0) {
+                return null;
+            }
+            remainingChunkBytes -= length;
+            return buffer.readSlice(length);
+        }
+        if (dataMode) {
+            ChannelBuffer line = (ChannelBuffer) decodeLine(ctx, channel, buffer);
+            // 46 is "."
+            if (line != null && line.readableBytes() == 3 && line.getByte(line.readerIndex()) == 46) {
+                dataMode = false;
+            }
+            return line;
+        }
+
+        long chunkSize = readChunkSize(buffer);
+        if (chunkSize < 0) {
+            checkCommandInjection(buffer);
+        }
+        Object line = decodeLine(ctx, channel, buffer);
+        if (line != null && chunkSize > 0) {
+            remainingChunkBytes = chunkSize;
+        }
+        return line;
+    }
+
+    @Override
+    protected ChannelBuffer extractFrame(ChannelBuffer buffer, int index, int length) {
+        if (dataMode) {
+            // The received buffers are never modified once read, so the line can share their content
+            return buffer.slice(index, length);
+        }
+        return super.extractFrame(buffer, index, length);
+    }
+
+    /**
+     * Return the size of the chunk announced by the BDAT command of the first line of the given buffer, or -1 if
+     * this line is not a valid BDAT command
+     */
+    private long readChunkSize(ChannelBuffer buffer) {
+        int end = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+        if (end < 0) {
+            return -1;
+        }
+        String line = buffer.toString(buffer.readerIndex(), end - buffer.readerIndex(), Charsets.US_ASCII).trim();
+        int spaceIndex = line.indexOf(" ");
+        if (spaceIndex > 0 && line.substring(0, spaceIndex).equalsIgnoreCase(BDAT)) {
+            return BdatCmdHandler.parseChunkSize(line.substring(spaceIndex + 1));
+        }
+        return -1;
+    }
+
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        if (e instanceof MessageEvent && ((MessageEvent) e).getMessage() instanceof ChannelBuffer) {
+            if (containsDataReady((ChannelBuffer) ((MessageEvent) e).getMessage())) {
+                dataMode = true;
+            }
+        }
+        ctx.sendDownstream(e);
+    }
+
+    private boolean containsDataReady(ChannelBuffer response) {
+        int index = response.readerIndex();
+        while (index >= 0 && index + DATA_READY.length <= response.writerIndex()) {
+            if (startsWith(response, index, DATA_READY)) {
+                return true;
+            }
+            index = response.indexOf(index, response.writerIndex(), (byte) '\n');
+            if (index >= 0) {
+                index++;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(ChannelBuffer buffer, int index, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.getByte(index + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
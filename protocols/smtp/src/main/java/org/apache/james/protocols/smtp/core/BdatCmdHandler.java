@@ -0,0 +1,380 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.CommandHandler;
+import org.apache.james.protocols.api.handler.ExtensibleHandler;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.esmtp.EhloExtension;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+
+/**
+ * Handles BDAT command, see RFC 3030.
+ * 
+ * The chunks are stored through the {@link DataLineFilter}'s of the {@link DataCmdHandler}: the header lines of the
+ * message are passed to the whole chain, like with the DATA command, then the body is passed as is to the
+ * {@link DataContentFilter}, without being split in lines nor dot-stuffed. CHUNKING is only announced when a
+ * {@link DataContentFilter} is configured.
+ * 
+ * The chunk following the command must be framed as is by the transport, which is done by the
+ * ChunkingAwareDelimiterChannelHandler.
+ */
+public class BdatCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHandler, EhloExtension {
+
+    private static final String COMMAND_NAME = "BDAT";
+    private static final String LAST = "LAST";
+    private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList(COMMAND_NAME));
+    private static final List<String> ESMTP_FEATURES = Collections.unmodifiableList(Arrays.asList("CHUNKING"));
+    private static final String CHUNKED_MESSAGE = "CHUNKED_MESSAGE";
+    // Longer lines are not considered as header lines, but as the start of the body
+    private static final int MAX_HEADER_LINE_LENGTH = 8192;
+    // 46 is "."
+    private static final byte DOT = 46;
+    private static final byte[] END_OF_DATA = { DOT, '\r', '\n' };
+
+    private static final Response SYNTAX_ERROR = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Usage: BDAT <chunk-size> [LAST]").immutable();
+    private static final Response NOT_SUPPORTED = new SMTPResponse(SMTPRetCode.UNIMPLEMENTED_COMMAND, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_CMD) + " BDAT is not supported").immutable();
+    private static final Response TRANSACTION_FAILED = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_OTHER) + " A previous chunk of the message was rejected").immutable();
+    private static final Response QUOTA_EXCEEDED = new SMTPResponse(SMTPRetCode.QUOTA_EXCEEDED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SYSTEM_MSG_TOO_BIG) + " Message size exceeds fixed maximum message size").immutable();
+
+    private DataCmdHandler dataCmdHandler;
+
+    /**
+     * Return the chunk size given in the argument of a BDAT command, or -1 if the argument is not valid
+     * 
+     * @param argument the argument of the BDAT command
+     * @return chunkSize
+     */
+    public static long parseChunkSize(String argument) {
+        String[] parts = splitArgument(argument);
+        // Be sure the size fits in a long
+        if (parts == null || parts[0].length() == 0 || parts[0].length() > 18) {
+            return -1;
+        }
+        for (char c : parts[0].toCharArray()) {
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(parts[0]);
+    }
+
+    private static String[] splitArgument(String argument) {
+        if (argument == null) {
+            return null;
+        }
+        String[] parts = argument.trim().split(" +");
+        if (parts.length == 1 || (parts.length == 2 && parts[1].equalsIgnoreCase(LAST))) {
+            return parts;
+        }
+        return null;
+    }
+
+    @Override
+    public void init(Configuration config) throws ConfigurationException {
+
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    /**
+     * Handler method called upon receipt of a BDAT command. The response is written once the whole chunk was
+     * received.
+     */
+    public Response onCommand(SMTPSession session, Request request) {
+        String argument = request.getArgument();
+        long size = parseChunkSize(argument);
+        if (size < 0) {
+            return SYNTAX_ERROR;
+        }
+        boolean last = splitArgument(argument).length == 2;
+
+        ChunkedMessage message = (ChunkedMessage) session.getAttachment(CHUNKED_MESSAGE, State.Transaction);
+        Response rejection = null;
+        if (message == null) {
+            rejection = beginMessage(session);
+            if (rejection == null) {
+                message = new ChunkedMessage();
+                session.setAttachment(CHUNKED_MESSAGE, message, State.Transaction);
+            }
+        } else if (message.failed) {
+            rejection = TRANSACTION_FAILED;
+        }
+        if (rejection == null) {
+            message.size += size;
+            long maxMessageSize = session.getConfiguration().getMaxMessageSize();
+            if (maxMessageSize > 0 && message.size > maxMessageSize) {
+                fail(session, message);
+                rejection = QUOTA_EXCEEDED;
+            }
+        }
+
+        // The chunk needs to be consumed, even if it is rejected
+        Chunk chunk = new Chunk(message, size, last, rejection);
+        if (size == 0) {
+            return chunk.complete(session);
+        }
+        session.pushLineHandler(chunk);
+        return null;
+    }
+
+    private Response beginMessage(SMTPSession session) {
+        if (dataCmdHandler == null || dataCmdHandler.getContentFilter() == null) {
+            return NOT_SUPPORTED;
+        }
+        Response response = dataCmdHandler.doDATAFilter(session, null);
+        if (response == null) {
+            response = dataCmdHandler.beginMessage(session);
+        }
+        return response;
+    }
+
+    private void fail(SMTPSession session, ChunkedMessage message) {
+        message.failed = true;
+        dataCmdHandler.abortMessage(session);
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
+     */
+    public Collection<String> getImplCommands() {
+        return COMMANDS;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.esmtp.EhloExtension#getImplementedEsmtpFeatures(org.apache.james.protocols.smtp.SMTPSession)
+     */
+    public List<String> getImplementedEsmtpFeatures(SMTPSession session) {
+        if (dataCmdHandler != null && dataCmdHandler.getContentFilter() != null) {
+            return ESMTP_FEATURES;
+        }
+        return null;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ExtensibleHandler#getMarkerInterfaces()
+     */
+    public List<Class<?>> getMarkerInterfaces() {
+        List<Class<?>> classes = new LinkedList<Class<?>>();
+        classes.add(DataCmdHandler.class);
+        return classes;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ExtensibleHandler#wireExtensions(java.lang.Class, java.util.List)
+     */
+    public void wireExtensions(Class<?> interfaceName, List<?> extension) throws WiringException {
+        if (DataCmdHandler.class.equals(interfaceName)) {
+            if (extension.size() > 1) {
+                throw new WiringException("Only one DataCmdHandler can be used with BDAT");
+            }
+            dataCmdHandler = extension.isEmpty() ? null : (DataCmdHandler) extension.get(0);
+        }
+    }
+
+    /**
+     * {@link LineHandler} consuming the content of a chunk, which is given as is rather than in lines
+     */
+    private final class Chunk implements LineHandler<SMTPSession> {
+
+        private final ChunkedMessage message;
+        private final long size;
+        private final boolean last;
+        private long remaining;
+        private Response response;
+
+        public Chunk(ChunkedMessage message, long size, boolean last, Response rejection) {
+            this.message = message;
+            this.size = size;
+            this.last = last;
+            this.remaining = size;
+            this.response = rejection;
+        }
+
+        public Response onLine(SMTPSession session, ByteBuffer content) {
+            remaining -= content.remaining();
+            if (response == null) {
+                response = message.append(session, content);
+                if (response != null) {
+                    fail(session, message);
+                }
+            }
+            if (remaining > 0) {
+                return null;
+            }
+            session.popLineHandler();
+            return complete(session);
+        }
+
+        private Response complete(SMTPSession session) {
+            if (message == null) {
+                return response;
+            }
+            if (response != null) {
+                if (last) {
+                    session.resetState();
+                }
+                return response;
+            }
+            if (last) {
+                return message.finish(session);
+            }
+            return new SMTPResponse(SMTPRetCode.MAIL_OK, DSNStatus.getStatus(DSNStatus.SUCCESS, DSNStatus.UNDEFINED_STATUS) + " " + size + " octets received");
+        }
+
+        @Override
+        public void init(Configuration config) throws ConfigurationException {
+
+        }
+
+        @Override
+        public void destroy() {
+
+        }
+    }
+
+    /**
+     * State of the message received in chunks during the current transaction
+     */
+    private final class ChunkedMessage {
+
+        private final ByteArrayOutputStream pendingLine = new ByteArrayOutputStream();
+        private long size;
+        private boolean failed;
+        private boolean inHeader = true;
+
+        private Response append(SMTPSession session, ByteBuffer content) {
+            while (inHeader && content.hasRemaining()) {
+                Response response = appendHeaderLine(session, content);
+                if (response != null) {
+                    return response;
+                }
+            }
+            if (content.hasRemaining()) {
+                return dataCmdHandler.getContentFilter().onContent(session, content);
+            }
+            return null;
+        }
+
+        /**
+         * Pass the next header line of the content to the {@link DataLineFilter}'s, or keep it until the next chunk
+         * if it is not complete
+         */
+        private Response appendHeaderLine(SMTPSession session, ByteBuffer content) {
+            int end = indexOfLineFeed(content);
+            if (end < 0) {
+                if (pendingLine.size() + content.remaining() <= MAX_HEADER_LINE_LENGTH) {
+                    writePending(content, content.limit());
+                    return null;
+                }
+                inHeader = false;
+                if (pendingLine.size() == 0) {
+                    return null;
+                }
+                return onLine(session, stuffedPendingLine());
+            }
+
+            ByteBuffer line;
+            if (pendingLine.size() == 0 && content.get(content.position()) != DOT) {
+                // Common case: pass the line without copying it
+                line = content.duplicate();
+                line.limit(end + 1);
+                line = line.slice();
+                content.position(end + 1);
+            } else {
+                writePending(content, end + 1);
+                line = stuffedPendingLine();
+            }
+            if (isEmptyLine(line)) {
+                inHeader = false;
+            }
+            return onLine(session, line);
+        }
+
+        private Response finish(SMTPSession session) {
+            if (pendingLine.size() > 0) {
+                // The message ends with an incomplete header line
+                pendingLine.write('\r');
+                pendingLine.write('\n');
+                Response response = onLine(session, stuffedPendingLine());
+                if (response != null) {
+                    return response;
+                }
+            }
+            return onLine(session, ByteBuffer.wrap(END_OF_DATA));
+        }
+
+        private Response onLine(SMTPSession session, ByteBuffer line) {
+            return dataCmdHandler.getLineHandler().onLine(session, line);
+        }
+
+        private void writePending(ByteBuffer content, int end) {
+            while (content.position() < end) {
+                pendingLine.write(content.get());
+            }
+        }
+
+        private ByteBuffer stuffedPendingLine() {
+            byte[] line = pendingLine.toByteArray();
+            pendingLine.reset();
+            if (line[0] == DOT) {
+                byte[] stuffed = new byte[line.length + 1];
+                stuffed[0] = DOT;
+                System.arraycopy(line, 0, stuffed, 1, line.length);
+                return ByteBuffer.wrap(stuffed);
+            }
+            return ByteBuffer.wrap(line);
+        }
+
+        private int indexOfLineFeed(ByteBuffer content) {
+            for (int i = content.position(); i < content.limit(); i++) {
+                if (content.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isEmptyLine(ByteBuffer line) {
+            return (line.remaining() == 1 && line.get(0) == '\n')
+                || (line.remaining() == 2 && line.get(0) == '\r' && line.get(1) == '\n');
+        }
+    }
+}
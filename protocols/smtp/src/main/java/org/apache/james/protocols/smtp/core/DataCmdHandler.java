@@ -110,6 +110,7 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
     public final static String MAILENV = "MAILENV";
     
     private LineHandler<SMTPSession> lineHandler;
+    private DataContentFilter contentFilter;
 
     @Override
     public void init(Configuration config) throws ConfigurationException {
@@ -145,14 +146,38 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
      * @param session SMTP session object
      * @param argument the argument passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doDATA(SMTPSession session, String argument) {
-        MailEnvelope env = createEnvelope(session, (MailAddress) session.getAttachment(SMTPSession.SENDER,ProtocolSession.State.Transaction), new ArrayList<MailAddress>((Collection<MailAddress>)session.getAttachment(SMTPSession.RCPT_LIST,ProtocolSession.State.Transaction)));
-        session.setAttachment(MAILENV, env,ProtocolSession.State.Transaction);
+        Response response = beginMessage(session);
+        if (response != null) {
+            return response;
+        }
         session.pushLineHandler(lineHandler);
         
         return DATA_READY;
     }
+
+    /**
+     * Prepare the storage of the message of the current transaction
+     *
+     * @param session SMTP session object
+     * @return the error response if the message can not be received, null otherwise
+     */
+    @SuppressWarnings("unchecked")
+    protected Response beginMessage(SMTPSession session) {
+        MailEnvelope env = createEnvelope(session, (MailAddress) session.getAttachment(SMTPSession.SENDER,ProtocolSession.State.Transaction), new ArrayList<MailAddress>((Collection<MailAddress>)session.getAttachment(SMTPSession.RCPT_LIST,ProtocolSession.State.Transaction)));
+        session.setAttachment(MAILENV, env,ProtocolSession.State.Transaction);
+        return null;
+    }
+
+    /**
+     * Release the storage of the message of the current transaction, which failed before the whole message was
+     * received
+     *
+     * @param session SMTP session object
+     */
+    protected void abortMessage(SMTPSession session) {
+        session.setAttachment(MAILENV, null, ProtocolSession.State.Transaction);
+    }
     
     protected MailEnvelope createEnvelope(SMTPSession session, MailAddress sender, List<MailAddress> recipients) {
         MailEnvelopeImpl env = new MailEnvelopeImpl();
@@ -194,6 +219,13 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
             }
 
             this.lineHandler = lineHandler;
+
+            this.contentFilter = null;
+            for (Object filter : extension) {
+                if (filter instanceof DataContentFilter) {
+                    this.contentFilter = (DataContentFilter) filter;
+                }
+            }
         }
     }
 
@@ -213,4 +245,11 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
         return lineHandler;
     }
 
+    /**
+     * Return the {@link DataContentFilter} storing the message, or null if none is configured
+     */
+    protected DataContentFilter getContentFilter() {
+        return contentFilter;
+    }
+
 }
@@ -49,7 +49,7 @@ import org.apache.james.protocols.smtp.hook.MessageHook;
  * error to the client to report the problem while trying to queue the message 
  *
  */
-public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHandler {
+public class DataLineMessageHookHandler implements DataContentFilter, ExtensibleHandler {
 
     private static final Response ERROR_PROCESSING_MESSAGE = new SMTPResponse(SMTPRetCode.LOCAL_ERROR,DSNStatus.getStatus(DSNStatus.TRANSIENT,
             DSNStatus.UNDEFINED_STATUS) + " Error processing message").immutable();
@@ -90,14 +90,16 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
                 
             // DotStuffing.
             } else if (c == 46 && line.get() == 46) {
-                byte[] bline = readBytes(line);
-                out.write(bline,1,bline.length-1);
+                line.rewind();
+                line.get();
+                write(out, line);
             // Standard write
             } else {
                 // TODO: maybe we should handle the Header/Body recognition here
                 // and if needed let a filter to cache the headers to apply some
                 // transformation before writing them to output.
-                out.write(readBytes(line));
+                line.rewind();
+                write(out, line);
             }
             out.flush();
         } catch (IOException e) {
@@ -110,16 +112,38 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
         return null;
     }
 
-    private byte[] readBytes(ByteBuffer line) {
-        line.rewind();
-        byte[] bline;
-        if (line.hasArray()) {
-            bline = line.array();
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.DataContentFilter#onContent(org.apache.james.protocols.smtp.SMTPSession, java.nio.ByteBuffer)
+     */
+    public Response onContent(SMTPSession session, ByteBuffer content) {
+        MailEnvelopeImpl env = (MailEnvelopeImpl) session.getAttachment(DataCmdHandler.MAILENV, ProtocolSession.State.Transaction);
+        OutputStream out = env.getMessageOutputStream();
+        try {
+            write(out, content);
+            out.flush();
+        } catch (IOException e) {
+            session.getLogger().error(
+                    "Unknown error occurred while processing BDAT.", e);
+
+            session.resetState();
+            return ERROR_PROCESSING_MESSAGE;
+        }
+        return null;
+    }
+
+    /**
+     * Write the remaining bytes of the given buffer, without copying them if they are backed by an array
+     */
+    private void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
         } else {
-            bline = new byte[line.remaining()];
-            line.get(bline);
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
         }
-        return bline;
     }
 
     /**
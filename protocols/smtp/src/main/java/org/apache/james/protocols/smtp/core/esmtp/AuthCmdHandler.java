@@ -80,14 +80,15 @@ public class AuthCmdHandler
         public Response onLine(SMTPSession session, ByteBuffer line) {
             String charset = session.getCharset().name();
             try {
-                byte[] l;
+                String l;
                 if (line.hasArray()) {
-                    l = line.array();
+                    l = new String(line.array(), line.arrayOffset() + line.position(), line.remaining(), charset);
                 } else {
-                    l = new byte[line.remaining()];
-                    line.get(l);
+                    byte[] bytes = new byte[line.remaining()];
+                    line.get(bytes);
+                    l = new String(bytes, charset);
                 }
-                return handleCommand(session, new String(l, charset));
+                return handleCommand(session, l);
             } catch (UnsupportedEncodingException e) {
                 throw new RuntimeException("No " + charset + " support!");
             }
@@ -0,0 +1,145 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class ChunkingAwareDelimiterChannelHandlerTest {
+
+    private DecoderEmbedder<ChannelBuffer> embedder;
+
+    @Before
+    public void setUp() {
+        embedder = new DecoderEmbedder<ChannelBuffer>(new ChunkingAwareDelimiterChannelHandler(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, false, Delimiters.lineDelimiter()));
+    }
+
+    @Test
+    public void commandsShouldBeFramedInLines() {
+        offer("EHLO localhost\r\nMAIL FROM:<a@b>\r\n");
+
+        assertFrames("EHLO localhost\r\n", "MAIL FROM:<a@b>\r\n");
+    }
+
+    @Test
+    public void chunkShouldBePassedAsIs() {
+        offer("BDAT 12\r\nab\r\ncd\r\nefghNOOP\r\n");
+
+        assertFrames("BDAT 12\r\n", "ab\r\ncd\r\nefgh", "NOOP\r\n");
+    }
+
+    @Test
+    public void chunkShouldSpanSeveralBuffers() {
+        offer("BDAT 6 LAST\r\nabc");
+        offer("defQUIT\r\n");
+
+        assertFrames("BDAT 6 LAST\r\n", "abc", "def", "QUIT\r\n");
+    }
+
+    @Test
+    public void commandShouldBeFramedAfterAnEmptyChunk() {
+        offer("BDAT 0 LAST\r\nQUIT\r\n");
+
+        assertFrames("BDAT 0 LAST\r\n", "QUIT\r\n");
+    }
+
+    @Test
+    public void invalidBdatCommandShouldBeFramedAsLine() {
+        offer("BDAT abc\r\nNOOP\r\n");
+
+        assertFrames("BDAT abc\r\n", "NOOP\r\n");
+    }
+
+    @Test
+    public void chunkShouldNotBeCheckedForCommandInjection() {
+        offer("BDAT 16\r\nSTARTTLS\r\nRSET\r\n");
+
+        assertFrames("BDAT 16\r\n", "STARTTLS\r\nRSET\r\n");
+    }
+
+    @Test
+    public void commandInjectionShouldBeDetected() {
+        try {
+            offer("STARTTLS\r\nRSET\r\n");
+            fail("Command injection should be detected");
+        } catch (CodecEmbedderException e) {
+            assertThat(e.getCause()).isInstanceOf(CommandInjectionDetectedException.class);
+        }
+    }
+
+    @Test
+    public void commandInjectionShouldBeDetectedAfterAChunk() {
+        try {
+            offer("BDAT 3\r\nabcSTARTTLS\r\nRSET\r\n");
+            fail("Command injection should be detected");
+        } catch (CodecEmbedderException e) {
+            assertThat(e.getCause()).isInstanceOf(CommandInjectionDetectedException.class);
+        }
+    }
+
+    @Test
+    public void messageContentShouldNotBeInterpretedAsBdatCommand() {
+        writeResponse("250 OK\r\n354 Ok Send data ending with <CRLF>.<CRLF>\r\n");
+
+        offer("BDAT 100\r\nSTARTTLS is announced\r\n.\r\nBDAT 3\r\nabcNOOP\r\n");
+
+        assertFrames("BDAT 100\r\n", "STARTTLS is announced\r\n", ".\r\n", "BDAT 3\r\n", "abc", "NOOP\r\n");
+    }
+
+    @Test
+    public void otherResponsesShouldNotStartMessageContent() {
+        writeResponse("250 DATA 354\r\n");
+
+        offer("BDAT 3\r\nabcNOOP\r\n");
+
+        assertFrames("BDAT 3\r\n", "abc", "NOOP\r\n");
+    }
+
+    private void offer(String input) {
+        embedder.offer(ChannelBuffers.copiedBuffer(input, Charsets.US_ASCII));
+    }
+
+    private void writeResponse(String response) {
+        Channels.write(embedder.getPipeline().getChannel(), ChannelBuffers.copiedBuffer(response, Charsets.US_ASCII));
+        // The written response is collected by the embedder
+        embedder.poll();
+    }
+
+    private void assertFrames(String... frames) {
+        for (String frame : frames) {
+            ChannelBuffer buffer = embedder.poll();
+            assertThat(buffer).isNotNull();
+            assertThat(buffer.toString(Charsets.US_ASCII)).isEqualTo(frame);
+        }
+        assertThat(embedder.poll()).isNull();
+    }
+}
@@ -0,0 +1,249 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.netty;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.james.protocols.api.Protocol;
+import org.apache.james.protocols.api.ProtocolServer;
+import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.api.utils.MockLogger;
+import org.apache.james.protocols.api.utils.ProtocolServerUtils;
+import org.apache.james.protocols.netty.AbstractChannelPipelineFactory;
+import org.apache.james.protocols.netty.ChannelHandlerFactory;
+import org.apache.james.protocols.netty.NettyServer;
+import org.apache.james.protocols.smtp.ChunkingAwareDelimiterChannelHandler;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPProtocol;
+import org.apache.james.protocols.smtp.SMTPProtocolHandlerChain;
+import org.apache.james.protocols.smtp.core.BdatCmdHandler;
+import org.apache.james.protocols.smtp.utils.TestMessageHook;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class NettyChunkingSMTPServerTest {
+
+    private static final String LOCALHOST_IP = "127.0.0.1";
+    private static final int RANDOM_PORT = 0;
+    private static final String HEADERS = "Subject: Chunked\r\nX-Test: yes\r\n\r\n";
+
+    private TestMessageHook hook;
+    private ProtocolServer server;
+    private Socket socket;
+    private OutputStream out;
+    private BufferedReader in;
+
+    @Before
+    public void setUp() throws Exception {
+        hook = new TestMessageHook();
+        server = createServer(createProtocol());
+        server.bind();
+
+        InetSocketAddress bindedAddress = new ProtocolServerUtils(server).retrieveBindedAddress();
+        socket = new Socket(bindedAddress.getAddress(), bindedAddress.getPort());
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.US_ASCII));
+        assertThat(readReply()).startsWith("220");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+        if (server != null) {
+            server.unbind();
+        }
+    }
+
+    private ProtocolServer createServer(Protocol protocol) {
+        NettyServer server = NettyServer.builder()
+                .protocol(protocol)
+                .frameHandlerFactory(new ChannelHandlerFactory() {
+                    @Override
+                    public ChannelHandler create(ChannelPipeline pipeline) {
+                        return new ChunkingAwareDelimiterChannelHandler(AbstractChannelPipelineFactory.MAX_LINE_LENGTH, false, Delimiters.lineDelimiter());
+                    }
+                })
+                .build();
+        server.setListenAddresses(new InetSocketAddress(LOCALHOST_IP, RANDOM_PORT));
+        return server;
+    }
+
+    private Protocol createProtocol() throws WiringException {
+        SMTPProtocolHandlerChain chain = new SMTPProtocolHandlerChain();
+        chain.add(0, hook);
+        chain.add(new BdatCmdHandler());
+        chain.wireExtensibleHandlers();
+        return new SMTPProtocol(chain, new SMTPConfigurationImpl(), new MockLogger());
+    }
+
+    @Test
+    public void ehloShouldAnnounceChunking() throws Exception {
+        send("EHLO localhost\r\n");
+
+        assertThat(readReply()).contains("CHUNKING");
+    }
+
+    @Test
+    public void chunksShouldBeStoredAsIs() throws Exception {
+        startTransaction();
+
+        String body = "..line starting with dots\r\nBDAT 5\r\n.\r\nend without CRLF";
+        send(bdat(HEADERS.substring(0, 10), false));
+        assertThat(readReply()).startsWith("250");
+        send(bdat(HEADERS.substring(10), false));
+        assertThat(readReply()).startsWith("250");
+        send(bdat(body, true));
+        assertThat(readReply()).startsWith("250");
+
+        assertThat(hook.getQueued()).hasSize(1);
+        String message = read(hook.getQueued().get(0));
+        assertThat(message).startsWith("Received: ");
+        assertThat(message).endsWith(HEADERS + body);
+    }
+
+    @Test
+    public void chunksShouldBePipelined() throws Exception {
+        send("EHLO localhost\r\nMAIL FROM:<me@sender>\r\nRCPT TO:<rcpt@domain>\r\n"
+            + bdat("Subje", false) + bdat("", false) + bdat("ct: a\r\n\r\nbody", true));
+
+        assertThat(readReply()).startsWith("250");
+        assertThat(readReply()).startsWith("250");
+        assertThat(readReply()).startsWith("250");
+        assertThat(readReply()).startsWith("250");
+        assertThat(readReply()).startsWith("250");
+        assertThat(readReply()).startsWith("250");
+
+        assertThat(hook.getQueued()).hasSize(1);
+        assertThat(read(hook.getQueued().get(0))).endsWith("Subject: a\r\n\r\nbody");
+    }
+
+    @Test
+    public void dataShouldStillBeSupported() throws Exception {
+        startTransaction();
+
+        send("DATA\r\n");
+        assertThat(readReply()).startsWith("354");
+        send(HEADERS + "BDAT 3\r\n..\r\n.\r\n");
+        assertThat(readReply()).startsWith("250");
+
+        assertThat(hook.getQueued()).hasSize(1);
+        assertThat(read(hook.getQueued().get(0))).endsWith(HEADERS + "BDAT 3\r\n.\r\n");
+    }
+
+    @Test
+    public void chunkShouldBeDiscardedWhenRejected() throws Exception {
+        send("EHLO localhost\r\n");
+        readReply();
+        send("MAIL FROM:<me@sender>\r\n");
+        assertThat(readReply()).startsWith("250");
+
+        send(bdat("NOOP\r\nNOOP\r\n", true));
+        assertThat(readReply()).startsWith("503");
+
+        send("NOOP\r\n");
+        assertThat(readReply()).startsWith("250");
+        assertThat(hook.getQueued()).isEmpty();
+    }
+
+    @Test
+    public void invalidBdatShouldBeRejected() throws Exception {
+        startTransaction();
+
+        send("BDAT ten\r\n");
+
+        assertThat(readReply()).startsWith("501");
+    }
+
+    @Test
+    public void anotherMessageShouldBeReceivedAfterTheLastChunk() throws Exception {
+        startTransaction();
+        send(bdat("Subject: 1\r\n\r\n", true));
+        assertThat(readReply()).startsWith("250");
+
+        send("MAIL FROM:<me@sender>\r\n");
+        assertThat(readReply()).startsWith("250");
+        send("RCPT TO:<rcpt@domain>\r\n");
+        assertThat(readReply()).startsWith("250");
+        send(bdat("Subject: 2\r\n\r\n", true));
+        assertThat(readReply()).startsWith("250");
+
+        assertThat(hook.getQueued()).hasSize(2);
+    }
+
+    private void startTransaction() throws IOException {
+        send("EHLO localhost\r\n");
+        readReply();
+        send("MAIL FROM:<me@sender>\r\n");
+        assertThat(readReply()).startsWith("250");
+        send("RCPT TO:<rcpt@domain>\r\n");
+        assertThat(readReply()).startsWith("250");
+    }
+
+    private String bdat(String chunk, boolean last) {
+        return "BDAT " + chunk.length() + (last ? " LAST" : "") + "\r\n" + chunk;
+    }
+
+    private void send(String command) throws IOException {
+        out.write(command.getBytes(Charsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Read a whole reply, which may span several lines
+     */
+    private String readReply() throws IOException {
+        StringBuilder reply = new StringBuilder();
+        String line;
+        do {
+            line = in.readLine();
+            reply.append(line).append("\r\n");
+        } while (line != null && line.length() > 3 && line.charAt(3) == '-');
+        return reply.toString();
+    }
+
+    private String read(MailEnvelope envelope) throws IOException {
+        InputStream input = envelope.getMessageInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), Charsets.US_ASCII);
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.mailbox.elasticsearch.ClientProvider;
 import org.apache.james.mailbox.elasticsearch.ClientProviderImpl;
+import org.apache.james.mailbox.elasticsearch.ElasticSearchBulkIndexer;
 import org.apache.james.mailbox.elasticsearch.IndexAttachments;
 import org.apache.james.mailbox.elasticsearch.IndexCreationFactory;
 import org.apache.james.mailbox.elasticsearch.NodeMappingFactory;
@@ -37,6 +38,7 @@ import org.apache.james.mailbox.extractor.TextExtractor;
 import org.apache.james.mailbox.store.search.ListeningMessageSearchIndex;
 import org.apache.james.mailbox.store.search.MessageSearchIndex;
 import org.apache.james.mailbox.tika.extractor.TikaTextExtractor;
+import org.apache.james.utils.PropertiesProvider;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.NoNodeAvailableException;
 
@@ -85,6 +87,16 @@ public class ElasticSearchMailboxModule extends AbstractModule {
                 .withMinDelay(configuration.getInt("elasticsearch.retryConnection.minDelay", DEFAULT_CONNECTION_MIN_DELAY));
     }
 
+    @Provides
+    @Singleton
+    protected ElasticSearchBulkIndexer provideBulkIndexer(Client client, PropertiesProvider propertiesProvider) throws ConfigurationException, FileNotFoundException {
+        PropertiesConfiguration configuration = propertiesProvider.getConfiguration("elasticsearch");
+        return new ElasticSearchBulkIndexer(client,
+            configuration.getInt("elasticsearch.bulk.size", ElasticSearchBulkIndexer.DEFAULT_BULK_SIZE),
+            configuration.getLong("elasticsearch.bulk.flushDelayInMs", ElasticSearchBulkIndexer.DEFAULT_FLUSH_DELAY_IN_MS),
+            configuration.getInt("elasticsearch.bulk.capacity", ElasticSearchBulkIndexer.DEFAULT_CAPACITY));
+    }
+
     @Provides 
     @Singleton
     public IndexAttachments provideIndexAttachments(PropertiesConfiguration configuration) {
@@ -25,6 +25,7 @@ import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.encode.ImapEncoder;
 import org.apache.james.imap.encode.main.DefaultImapEncoderFactory;
 import org.apache.james.imap.main.DefaultImapDecoderFactory;
+import org.apache.james.imap.processor.ImapProcessorExecutors;
 import org.apache.james.imap.processor.main.DefaultImapProcessorFactory;
 import org.apache.james.imapserver.netty.IMAPServerFactory;
 import org.apache.james.lifecycle.api.Configurable;
@@ -55,6 +56,7 @@ public class IMAPServerModule extends AbstractModule {
     @Override
     protected void configure() {
         Multibinder.newSetBinder(binder(), ConfigurationPerformer.class).addBinding().to(IMAPModuleConfigurationPerformer.class);
+        bind(ImapProcessorExecutors.class).toProvider(ImapProcessorExecutorsProvider.class).in(Singleton.class);
     }
 
     @Provides
@@ -63,7 +65,8 @@ public class IMAPServerModule extends AbstractModule {
             @Named(Names.MAILBOXMANAGER_NAME)MailboxManager mailboxManager,
             SubscriptionManager subscriptionManager,
             QuotaManager quotaManager,
-            QuotaRootResolver quotaRootResolver) {
+            QuotaRootResolver quotaRootResolver,
+            ImapProcessorExecutors executors) {
         return DefaultImapProcessorFactory.createXListSupportingProcessor(
                 mailboxManager,
                 subscriptionManager,
@@ -71,7 +74,8 @@ public class IMAPServerModule extends AbstractModule {
                 quotaManager,
                 quotaRootResolver,
                 120,
-                ImmutableSet.of("ACL", "MOVE"));
+                ImmutableSet.of("ACL", "MOVE"),
+                executors);
     }
 
     @Provides
@@ -40,4 +40,9 @@ public class DropWizardMetric implements Metric {
     public void decrement() {
         counter.dec();
     }
+
+    @Override
+    public void add(long value) {
+        counter.inc(value);
+    }
 }
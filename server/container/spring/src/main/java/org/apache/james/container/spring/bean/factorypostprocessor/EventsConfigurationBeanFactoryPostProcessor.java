@@ -40,6 +40,7 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
             String publisher = config.getString("publisher", "kafka");
             String registration = config.getString("registration", "cassandra");
             String delivery = config.getString("delivery", "synchronous");
+            boolean batching = config.getBoolean("batching", false);
             String delegatingListenerAlias = getDelegatingListenerAlias(type);
             String serializationAlias = getSerializationAlias(serialization);
             String registrationAlias = getRegistrationAlias(registration);
@@ -60,8 +61,15 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
                 detectInvalidValue(serializationAlias, "Serialization system type " + serialization + " not supported!");
                 detectInvalidValue(publisherAlias, "Publisher system type " + publisher + " not supported!");
                 beanFactory.registerAlias(serializationAlias, "event-serializer");
-                beanFactory.registerAlias(publisherAlias, "publisher");
-                beanFactory.registerAlias(consumerAlias, "consumer");
+                if (batching) {
+                    beanFactory.registerAlias(publisherAlias, "unbatched-publisher");
+                    beanFactory.registerAlias(consumerAlias, "unbatched-consumer");
+                    beanFactory.registerAlias("batching-publisher", "publisher");
+                    beanFactory.registerAlias("batching-consumer", "consumer");
+                } else {
+                    beanFactory.registerAlias(publisherAlias, "publisher");
+                    beanFactory.registerAlias(consumerAlias, "consumer");
+                }
                 if (delegatingListenerAlias.equals("registered")) {
                     detectInvalidValue(registrationAlias, "Registration system type " + registration + " not supported!");
                     beanFactory.registerAlias(registrationAlias, "distant-mailbox-path-register-mapper");
@@ -91,6 +99,8 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
             return "json-event-serializer";
         } else if (serialization.equals("message-pack")) {
             return "message-pack-event-serializer";
+        } else if (serialization.equals("compact")) {
+            return "compact-event-serializer";
         }
         return null;
     }
@@ -111,6 +121,8 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
             return  "synchronous-event-delivery";
         } else if (delivery.equals("asynchronous")) {
             return  "asynchronous-event-delivery";
+        } else if (delivery.equals("ordered")) {
+            return  "ordered-event-delivery";
         } else if (delivery.equals("mixed")) {
             return  "mixed-event-delivery";
         }
@@ -44,10 +44,15 @@ import org.apache.mailet.base.GenericMailet;
  * This mailet is a composition of RecipientRewriteTable, SieveMailet 
  * and MailboxManager configured to mimic the old "LocalDelivery"
  * James 2.3 behavior.
+ *
+ * The optional 'concurrency' parameter sets how many recipients of a
+ * given mail are stored in parallel. It defaults to 1 (sequential delivery).
  */
 public class LocalDelivery extends GenericMailet {
 
     public static final String LOCAL_DELIVERED_MAILS_METRIC_NAME = "localDeliveredMails";
+    public static final String CONCURRENCY_PARAMETER = "concurrency";
+    public static final String DEFAULT_CONCURRENCY = "1";
     private final UsersRepository usersRepository;
     private final MailboxManager mailboxManager;
     private final RecipientRewriteTable recipientRewriteTable;
@@ -90,9 +95,15 @@ public class LocalDelivery extends GenericMailet {
                 .log(log)
                 .build())
             .consume(getInitParameter("consume", true))
+            .concurrency(Integer.parseInt(getInitParameter(CONCURRENCY_PARAMETER, DEFAULT_CONCURRENCY)))
             .mailetContext(getMailetContext())
             .log(log)
             .build();
     }
 
+    @Override
+    public void destroy() {
+        mailDispatcher.dispose();
+    }
+
 }
@@ -25,6 +25,7 @@ import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -38,6 +39,9 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -67,8 +71,12 @@ import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.james.transport.mailets.remoteDelivery.AsyncSmtpClient;
+import org.apache.james.transport.mailets.remoteDelivery.DomainDeliveryScheduler;
+import org.apache.james.transport.mailets.remoteDelivery.SmtpDeliveryListener;
 import org.apache.james.transport.util.Patterns;
 import org.apache.james.util.TimeConverter;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.apache.mailet.HostAddress;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
@@ -111,6 +119,31 @@ import org.slf4j.Logger;
  * Default is 0.
  * <li><b>timeout</b> (optional) - an Integer for the Socket I/O timeout in milliseconds. Default is 180000</li>
  * <li><b>connectionTimeout</b> (optional) - an Integer for the Socket connection timeout in milliseconds. Default is 60000</li>
+ * <li><b>maxConnectionsPerHost</b> (optional) - an Integer for the maximum number of connections opened to one SMTP server.
+ * Default is 10</li>
+ * <li><b>connectionIdleTimeout</b> (optional) - an Integer for the time in milliseconds after which a connection kept for
+ * the next mails sent to a server is closed. Default is 30000</li>
+ * <li><b>maxMessagesPerConnection</b> (optional) - an Integer for the number of mails sent over a connection before it is
+ * closed. 1 opens a connection for each mail. Default is 100</li>
+ * <li><b>nonBlocking</b> (optional) - a Boolean (true/false) indicating whether mails are delivered by a non blocking SMTP
+ * client, which pipelines the commands when the server supports it and does not hold a delivery thread while waiting for
+ * the servers. The <code>mail.*</code> parameters are not applied in this mode. Default is false.</li>
+ * <li><b>maxConcurrentDeliveries</b> (optional) - an Integer for the maximum number of mails being delivered at the same
+ * time in non blocking mode. Default is 1000</li>
+ * <li><b>domainScheduling</b> (optional) - a Boolean (true/false) indicating whether the mails taken from the outgoing
+ * queue are buffered in one sub-queue per destination domain, the domains being served in turn and the deliveries
+ * to each of them being throttled according to its temporary failures and delivery times. Default is false.</li>
+ * <li><b>maxBufferedMails</b> (optional) - an Integer for the number of mails taken from the outgoing queue ahead of
+ * their delivery when domainScheduling is enabled. Default is 100</li>
+ * <li><b>maxBufferedMailsPerDomain</b> (optional) - an Integer for the number of mails of a single domain taken from the
+ * outgoing queue ahead of their delivery when domainScheduling is enabled. The mails exceeding it are queued again
+ * with a delay. Default is 20</li>
+ * <li><b>maxConcurrencyPerDomain</b> (optional) - an Integer for the maximum number of concurrent deliveries to a
+ * domain when domainScheduling is enabled. Default is 10</li>
+ * <li><b>domainMaxBackoff</b> (optional) - an Integer for the maximum time in milliseconds the deliveries to a domain
+ * are suspended after temporary failures when domainScheduling is enabled. Default is 60000</li>
+ * <li><b>domainLatencyThreshold</b> (optional) - an Integer for the delivery time in milliseconds above which the
+ * concurrency of the deliveries to a domain is lowered when domainScheduling is enabled. Default is 30000</li>
  * <li><b>bounceProcessor</b> (optional) - a String containing the name of the mailet processor to pass messages that cannot
  * be delivered to for DSN bounce processing. Default is to send a traditional message containing the bounce details.</li>
  * <li><b>startTLS</b> (optional) - a Boolean (true/false) indicating whether the STARTTLS command (if supported by the server)
@@ -161,6 +194,7 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
     private static final Pattern PATTERN = Patterns.compilePatternUncheckedException(PATTERN_STRING);
     private static final String OUTGOING_MAILS = "outgoingMails";
+    private static final int DEFAULT_MAX_CONCURRENT_DELIVERIES = 1000;
 
     @Inject
     private DNSService dnsServer;
@@ -266,6 +300,36 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
     private MetricFactory metricFactory;
     private Metric outgoingMailsMetric;
 
+    /**
+     * The connections kept open to the SMTP servers
+     */
+    private RemoteDeliveryConnectionPool connectionPool;
+
+    /**
+     * The client delivering the mails in non blocking mode, null otherwise
+     */
+    private AsyncSmtpClient smtpClient;
+
+    /**
+     * Runs the completion of the deliveries in non blocking mode
+     */
+    private ExecutorService completionExecutor;
+
+    /**
+     * Streams the messages to the servers in non blocking mode
+     */
+    private ExecutorService messageExecutor;
+
+    /**
+     * Bounds the number of mails being delivered in non blocking mode
+     */
+    private Semaphore concurrentDeliveries;
+
+    /**
+     * Distributes the mails between the destination domains, null if domainScheduling is disabled
+     */
+    private DomainDeliveryScheduler scheduler;
+
     @Inject
     public void setDomainList(DomainList domainList) {
         this.domainList = domainList;
@@ -378,6 +442,33 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             log("Invalid timeout setting: " + getInitParameter("timeout"));
         }
 
+        int maxConnectionsPerHost = RemoteDeliveryConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        try {
+            if (getInitParameter("maxConnectionsPerHost") != null) {
+                maxConnectionsPerHost = Integer.parseInt(getInitParameter("maxConnectionsPerHost"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxConnectionsPerHost setting: " + getInitParameter("maxConnectionsPerHost"));
+        }
+
+        long connectionIdleTimeout = RemoteDeliveryConnectionPool.DEFAULT_IDLE_TIMEOUT;
+        try {
+            if (getInitParameter("connectionIdleTimeout") != null) {
+                connectionIdleTimeout = Integer.parseInt(getInitParameter("connectionIdleTimeout"));
+            }
+        } catch (Exception e) {
+            log("Invalid connectionIdleTimeout setting: " + getInitParameter("connectionIdleTimeout"));
+        }
+
+        int maxMessagesPerConnection = RemoteDeliveryConnectionPool.DEFAULT_MAX_MESSAGES_PER_CONNECTION;
+        try {
+            if (getInitParameter("maxMessagesPerConnection") != null) {
+                maxMessagesPerConnection = Integer.parseInt(getInitParameter("maxMessagesPerConnection"));
+            }
+        } catch (Exception e) {
+            log("Invalid maxMessagesPerConnection setting: " + getInitParameter("maxMessagesPerConnection"));
+        }
+
         sendPartial = (getInitParameter("sendpartial") == null) ? false : Boolean.valueOf(getInitParameter("sendpartial"));
 
         bounceProcessor = getInitParameter("bounceProcessor");
@@ -450,11 +541,91 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             usePriority = Boolean.valueOf(prio);
         }
 
+        connectionPool = new RemoteDeliveryConnectionPool(new RemoteDeliveryConnectionPool.Connector() {
+            public SMTPTransport connect(Session session, HostAddress host) throws MessagingException {
+                return openTransport(session, host);
+            }
+        }, maxConnectionsPerHost, connectionIdleTimeout, maxMessagesPerConnection, connectionTimeout, logger);
+
         // Start Workers Threads.
         workersThreadCount = Integer.parseInt(getInitParameter("deliveryThreads"));
+
+        boolean nonBlocking = (getInitParameter("nonBlocking") == null) ? false : Boolean.valueOf(getInitParameter("nonBlocking"));
+        if (nonBlocking) {
+            int maxConcurrentDeliveries = DEFAULT_MAX_CONCURRENT_DELIVERIES;
+            try {
+                if (getInitParameter("maxConcurrentDeliveries") != null) {
+                    maxConcurrentDeliveries = Integer.parseInt(getInitParameter("maxConcurrentDeliveries"));
+                }
+            } catch (Exception e) {
+                log("Invalid maxConcurrentDeliveries setting: " + getInitParameter("maxConcurrentDeliveries"));
+            }
+            concurrentDeliveries = new Semaphore(maxConcurrentDeliveries);
+            completionExecutor = Executors.newFixedThreadPool(workersThreadCount, new NamedThreadFactory("Remote delivery completion"));
+            // Kept apart from the completions, which access the queue and the DNS, as it waits for the servers
+            messageExecutor = Executors.newFixedThreadPool(workersThreadCount, new NamedThreadFactory("Remote delivery message writer"));
+
+            AsyncSmtpClient.Builder builder = AsyncSmtpClient.builder()
+                .heloName(defprops.getProperty("mail.smtp.localhost", getHeloName()))
+                .executor(completionExecutor)
+                .messageExecutor(messageExecutor)
+                .messageConverter(new AsyncSmtpClient.MessageConverter() {
+                    public void convertTo7Bit(MimeMessage message) throws MessagingException, IOException {
+                        RemoteDelivery.this.convertTo7Bit(message);
+                    }
+                })
+                .logger(logger)
+                .timeout(smtpTimeout)
+                .connectionTimeout(connectionTimeout)
+                .startTls(startTLS)
+                .ssl(isSSLEnable)
+                .sendPartial(sendPartial)
+                .maxConnectionsPerHost(maxConnectionsPerHost)
+                .idleTimeout(connectionIdleTimeout)
+                .maxMessagesPerConnection(maxMessagesPerConnection);
+            if (authUser != null) {
+                builder.authentication(authUser, authPass);
+            }
+            if (isBindUsed) {
+                try {
+                    builder.bindAddress(InetAddress.getByName(bindAddress));
+                } catch (UnknownHostException e) {
+                    log("Invalid bind setting (" + bindAddress + "): " + e.toString());
+                }
+            }
+            smtpClient = builder.build();
+        }
+
+        boolean domainScheduling = (getInitParameter("domainScheduling") == null) ? false : Boolean.valueOf(getInitParameter("domainScheduling"));
+        if (domainScheduling) {
+            scheduler = new DomainDeliveryScheduler(
+                getIntInitParameter("maxBufferedMails", DomainDeliveryScheduler.DEFAULT_MAX_BUFFERED_MAILS),
+                getIntInitParameter("maxBufferedMailsPerDomain", DomainDeliveryScheduler.DEFAULT_MAX_BUFFERED_MAILS_PER_DOMAIN),
+                getIntInitParameter("maxConcurrencyPerDomain", DomainDeliveryScheduler.DEFAULT_MAX_CONCURRENCY_PER_DOMAIN),
+                getIntInitParameter("domainMaxBackoff", (int) DomainDeliveryScheduler.DEFAULT_MAX_BACKOFF),
+                getIntInitParameter("domainLatencyThreshold", (int) DomainDeliveryScheduler.DEFAULT_LATENCY_THRESHOLD),
+                metricFactory,
+                new DomainDeliveryScheduler.Requeuer() {
+                    public void requeue(MailQueueItem queueItem, long delay) {
+                        delayDelivery(queueItem, delay);
+                    }
+                });
+        }
+
         initDeliveryThreads();
     }
 
+    private int getIntInitParameter(String name, int defaultValue) {
+        try {
+            if (getInitParameter(name) != null) {
+                return Integer.parseInt(getInitParameter(name));
+            }
+        } catch (Exception e) {
+            log("Invalid " + name + " setting: " + getInitParameter(name));
+        }
+        return defaultValue;
+    }
+
     private void initDeliveryThreads() {
         for (int a = 0; a < workersThreadCount; a++) {
             String threadName = "Remote delivery thread (" + a + ")";
@@ -462,6 +633,121 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             t.start();
             workersThreads.add(t);
         }
+        if (scheduler != null) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    fillScheduler();
+                }
+            }, "Remote delivery dispatcher");
+            t.start();
+            workersThreads.add(t);
+        }
+    }
+
+    /**
+     * Moves the mails from the outgoing queue to the sub-queue of their
+     * destination domain.
+     */
+    private void fillScheduler() {
+        try {
+            while (!Thread.interrupted() && !destroyed) {
+                try {
+                    MailQueueItem queueItem = queue.deQueue();
+                    if (!scheduler.add(getDestinationDomain(queueItem.getMail()), queueItem)) {
+                        rollback(queueItem);
+                    }
+                } catch (Throwable e) {
+                    if (!destroyed) {
+                        log("Exception caught in RemoteDelivery.fillScheduler()", e);
+                    }
+                }
+            }
+        } finally {
+            // Restore the thread state to non-interrupted.
+            Thread.interrupted();
+        }
+    }
+
+    private String getDestinationDomain(Mail mail) {
+        // Mails are split by domain before being queued, unless a gateway is used
+        Iterator<MailAddress> recipients = mail.getRecipients().iterator();
+        if (!recipients.hasNext()) {
+            return "";
+        }
+        return recipients.next().getDomain().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Takes the next mail to deliver, either from the outgoing queue or from
+     * the domain scheduler.
+     *
+     * @return the mail and its ticket, or null if the scheduler is closed
+     */
+    private ScheduledItem nextItem() throws MailQueueException, InterruptedException {
+        if (scheduler == null) {
+            return new ScheduledItem(queue.deQueue(), null);
+        }
+        DomainDeliveryScheduler.Ticket ticket = scheduler.take();
+        if (ticket == null) {
+            return null;
+        }
+        return new ScheduledItem(ticket.getItem(), ticket);
+    }
+
+    /**
+     * A mail taken for delivery, with the scheduler ticket to report its
+     * outcome to when domainScheduling is enabled.
+     */
+    private final static class ScheduledItem {
+        private final MailQueueItem queueItem;
+        private final DomainDeliveryScheduler.Ticket ticket;
+
+        public ScheduledItem(MailQueueItem queueItem, DomainDeliveryScheduler.Ticket ticket) {
+            this.queueItem = queueItem;
+            this.ticket = ticket;
+        }
+
+        public void complete(boolean temporaryFailure) {
+            if (ticket != null) {
+                ticket.complete(temporaryFailure);
+            }
+        }
+
+        public void cancel() {
+            if (ticket != null) {
+                ticket.cancel();
+            }
+        }
+    }
+
+    /**
+     * Queues the mail again to be delivered after the given delay, when it
+     * can not be buffered by the domain scheduler.
+     */
+    private void delayDelivery(MailQueueItem queueItem, long delay) {
+        Mail mail = queueItem.getMail();
+        try {
+            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+        } catch (MailQueueException e) {
+            log("Unable to delay the delivery of mail " + mail.getName(), e);
+            rollback(queueItem);
+            return;
+        }
+        try {
+            LifecycleUtil.dispose(mail);
+            queueItem.done(true);
+        } catch (MailQueueException e) {
+            log("Unable to remove the delayed mail " + mail.getName() + " from the queue", e);
+        }
+    }
+
+    private void rollback(MailQueueItem queueItem) {
+        try {
+            LifecycleUtil.dispose(queueItem.getMail());
+            queueItem.done(false);
+        } catch (MailQueueException e) {
+            log("Unable to roll back the delivery of mail " + queueItem.getMail().getName(), e);
+        }
     }
 
     /**
@@ -623,6 +909,22 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
     }
 
+    /**
+     * Thrown when no server could be found to deliver a mail to.
+     */
+    private final static class TargetServerNotFoundException extends MessagingException {
+        private final boolean permanent;
+
+        public TargetServerNotFoundException(String message, boolean permanent) {
+            super(message);
+            this.permanent = permanent;
+        }
+
+        public boolean isPermanent() {
+            return permanent;
+        }
+    }
+
     @Override
     public String getMailetInfo() {
         return "RemoteDelivery Mailet";
@@ -714,11 +1016,30 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         // Mark flag so threads from this Mailet stop themselves
         destroyed = true;
 
+        if (scheduler != null) {
+            for (MailQueueItem queueItem : scheduler.close()) {
+                rollback(queueItem);
+            }
+        }
+
         // Wake up all threads from waiting for an accept
         for (Thread t : workersThreads) {
             t.interrupt();
         }
         notifyAll();
+
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        if (smtpClient != null) {
+            smtpClient.close();
+        }
+        if (completionExecutor != null) {
+            completionExecutor.shutdown();
+        }
+        if (messageExecutor != null) {
+            messageExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -727,6 +1048,10 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
      */
     @Override
     public void run() {
+        if (smtpClient != null) {
+            dispatchDeliveries();
+            return;
+        }
 
         // Checks the pool and delivers a mail message
         Properties props = new Properties();
@@ -785,7 +1110,11 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                     // of time to block is determined by the 'getWaitTime'
                     // method of the
                     // MultipleDelayFilter.
-                    MailQueueItem queueItem = queue.deQueue();
+                    ScheduledItem scheduledItem = nextItem();
+                    if (scheduledItem == null) {
+                        continue;
+                    }
+                    MailQueueItem queueItem = scheduledItem.queueItem;
                     Mail mail = queueItem.getMail();
 
                     String key = mail.getName();
@@ -797,45 +1126,13 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                         }
 
                         // Deliver message
-                        if (deliver(mail, session)) {
-                            // Message was successfully delivered/fully
-                            // failed...
-                            // delete it
-                            LifecycleUtil.dispose(mail);
-                            // workRepository.remove(key);
-                        } else {
-                            // Something happened that will delay delivery.
-                            // Store it back in the retry repository.
-                            // workRepository.store(mail);
-                            int retries = 0;
-                            try {
-                                retries = Integer.parseInt(mail.getErrorMessage());
-                            } catch (NumberFormatException e) {
-                                // Something strange was happen with the
-                                // errorMessage..
-                            }
-
-                            long delay = getNextDelay(retries);
-
-                            if (usePriority) {
-                                // Use lowest priority for retries. See JAMES-1311
-                                mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
-                            }
-                            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
-                            LifecycleUtil.dispose(mail);
-
-                            // This is an update, so we have to unlock and
-                            // notify or this mail is kept locked by this
-                            // thread.
-                            // workRepository.unlock(key);
-
-                            // Note: We do not notify because we updated an
-                            // already existing mail and we are now free to
-                            // handle
-                            // more mails.
-                            // Furthermore this mail should not be processed now
-                            // because we have a retry time scheduling.
+                        boolean delivered = false;
+                        try {
+                            delivered = deliver(mail, session);
+                        } finally {
+                            scheduledItem.complete(!delivered);
                         }
+                        completeDelivery(mail, delivered);
 
                         // Clear the object handle to make sure it recycles
                         // this object.
@@ -868,6 +1165,206 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
     }
 
+    /**
+     * Handles checking the outgoing spool for new mail and starting their
+     * delivery in non blocking mode. The delivery thread is released as soon
+     * as the delivery of a mail is started.
+     */
+    private void dispatchDeliveries() {
+        try {
+            while (!Thread.interrupted() && !destroyed) {
+                try {
+                    concurrentDeliveries.acquire();
+                    boolean started = false;
+                    try {
+                        ScheduledItem scheduledItem = nextItem();
+                        if (scheduledItem == null) {
+                            continue;
+                        }
+                        if (isDebug) {
+                            log(Thread.currentThread().getName() + " will process mail " + scheduledItem.queueItem.getMail().getName());
+                        }
+                        new NonBlockingDelivery(scheduledItem).start();
+                        started = true;
+                    } finally {
+                        if (!started) {
+                            concurrentDeliveries.release();
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (!destroyed) {
+                        log("Exception caught in RemoteDelivery.run()", e);
+                    }
+                }
+            }
+        } finally {
+            // Restore the thread state to non-interrupted.
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * The delivery of a mail in non blocking mode. The target servers are
+     * tried one after the other, as {@link #deliver(Mail, Session)} does.
+     */
+    private class NonBlockingDelivery implements SmtpDeliveryListener {
+        private final ScheduledItem scheduledItem;
+        private final Mail mail;
+        private InternetAddress[] addresses;
+        private Iterator<HostAddress> targetServers;
+        private String sender;
+        private HostAddress server;
+        private MessagingException lastError;
+
+        public NonBlockingDelivery(ScheduledItem scheduledItem) {
+            this.scheduledItem = scheduledItem;
+            this.mail = scheduledItem.queueItem.getMail();
+        }
+
+        public void start() {
+            try {
+                if (isDebug) {
+                    log("Attempting to deliver " + mail.getName());
+                }
+                Collection<MailAddress> recipients = mail.getRecipients();
+                addresses = new InternetAddress[recipients.size()];
+                int j = 0;
+                for (MailAddress rcpt : recipients) {
+                    addresses[j++] = rcpt.toInternetAddress();
+                }
+                if (addresses.length <= 0) {
+                    log("No recipients specified... not sure how this could have happened.");
+                    finish(true);
+                    return;
+                }
+                targetServers = getTargetServers(mail);
+                sender = mail.getSender() == null ? "" : mail.getSender().toString();
+            } catch (TargetServerNotFoundException e) {
+                finish(failMessage(mail, e, e.isPermanent()));
+                return;
+            } catch (Exception e) {
+                finish(handleDeliveryFailure(mail, e));
+                return;
+            }
+            next();
+        }
+
+        private void next() {
+            if (destroyed) {
+                scheduledItem.cancel();
+                rollback(scheduledItem.queueItem);
+                concurrentDeliveries.release();
+                return;
+            }
+            if (!targetServers.hasNext()) {
+                if (lastError != null) {
+                    finish(handleDeliveryFailure(mail, lastError));
+                } else {
+                    finish(failMessage(mail, new MessagingException("No mail server(s) available at this time."), false));
+                }
+                return;
+            }
+            server = targetServers.next();
+            try {
+                String logMessageBuffer = "Attempting delivery of " + mail.getName() + " to host " + server.getHostName() + " at " + server.getHost() + " from " + (sender.isEmpty() ? "<>" : sender) + " for addresses " + Arrays.asList(addresses);
+                log(logMessageBuffer);
+                smtpClient.send(server, sender, addresses, mail.getMessage(), this);
+            } catch (MessagingException e) {
+                finish(handleDeliveryFailure(mail, e));
+            }
+        }
+
+        public void connectionFailed(MessagingException e) {
+            // Any error on connect should cause the mailet to attempt to
+            // connect to the next SMTP server associated with this MX record.
+            if (isDebug) {
+                log(e.getMessage(), e.getCause());
+            } else {
+                log(e.getMessage());
+            }
+            next();
+        }
+
+        public void delivered() {
+            String logMessageBuffer = "Mail (" + mail.getName() + ") sent successfully to " + server.getHostName() + " at " + server.getHost() + " from " + (sender.isEmpty() ? "<>" : sender) + " for " + mail.getRecipients();
+            log(logMessageBuffer);
+            outgoingMailsMetric.increment();
+            finish(true);
+        }
+
+        public void deliveryFailed(MessagingException e) {
+            try {
+                lastError = handleServerFailure(mail, e);
+            } catch (MessagingException me) {
+                finish(handleDeliveryFailure(mail, me));
+                return;
+            }
+            next();
+        }
+
+        private void finish(boolean delivered) {
+            scheduledItem.complete(!delivered);
+            try {
+                completeDelivery(mail, delivered);
+                scheduledItem.queueItem.done(true);
+            } catch (Exception e) {
+                log("Exception caught in RemoteDelivery.run()", e);
+                rollback(scheduledItem.queueItem);
+            } finally {
+                concurrentDeliveries.release();
+            }
+        }
+    }
+
+    /**
+     * Disposes the given mail once it was delivered or fully failed, or stores it back in the queue to retry its
+     * delivery later.
+     *
+     * @param mail the mail
+     * @param delivered whether the delivery was successful or fully failed
+     */
+    private void completeDelivery(Mail mail, boolean delivered) throws MailQueueException {
+        if (delivered) {
+            // Message was successfully delivered/fully
+            // failed...
+            // delete it
+            LifecycleUtil.dispose(mail);
+            // workRepository.remove(key);
+        } else {
+            // Something happened that will delay delivery.
+            // Store it back in the retry repository.
+            // workRepository.store(mail);
+            int retries = 0;
+            try {
+                retries = Integer.parseInt(mail.getErrorMessage());
+            } catch (NumberFormatException e) {
+                // Something strange was happen with the
+                // errorMessage..
+            }
+
+            long delay = getNextDelay(retries);
+
+            if (usePriority) {
+                // Use lowest priority for retries. See JAMES-1311
+                mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
+            }
+            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+            LifecycleUtil.dispose(mail);
+
+            // This is an update, so we have to unlock and
+            // notify or this mail is kept locked by this
+            // thread.
+            // workRepository.unlock(key);
+
+            // Note: We do not notify because we updated an
+            // already existing mail and we are now free to
+            // handle
+            // more mails.
+            // Furthermore this mail should not be processed now
+            // because we have a retry time scheduling.
+        }
+    }
+
     /**
      * We can assume that the recipients of this message are all going to the
      * same mail server. We will now rely on the DNS server to do DNS MX record
@@ -902,42 +1399,7 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
             // Figure out which servers to try to send to. This collection
             // will hold all the possible target servers
-            Iterator<HostAddress> targetServers;
-            if (gatewayServer == null) {
-                MailAddress rcpt = recipients.iterator().next();
-                String host = rcpt.getDomain();
-
-                // Lookup the possible targets
-                try {
-                    targetServers = new MXHostAddressIterator(dnsServer.findMXRecords(host).iterator(), dnsServer, false, logger);
-                } catch (TemporaryResolutionException e) {
-                    log("Temporary problem looking up mail server for host: " + host);
-                    String exceptionBuffer = "Temporary problem looking up mail server for host: " + host + ".  I cannot determine where to send this message.";
-
-                    // temporary problems
-                    return failMessage(mail, new MessagingException(exceptionBuffer), false);
-                }
-                if (!targetServers.hasNext()) {
-                    log("No mail server found for: " + host);
-                    String exceptionBuffer = "There are no DNS entries for the hostname " + host + ".  I cannot determine where to send this message.";
-
-                    int retry = 0;
-                    try {
-                        retry = Integer.parseInt(mail.getErrorMessage());
-                    } catch (NumberFormatException e) {
-                        // Unable to parse retryCount
-                    }
-                    if (retry == 0 || retry > dnsProblemRetry) {
-                        // The domain has no dns entry.. Return a permanent
-                        // error
-                        return failMessage(mail, new MessagingException(exceptionBuffer), true);
-                    } else {
-                        return failMessage(mail, new MessagingException(exceptionBuffer), false);
-                    }
-                }
-            } else {
-                targetServers = getGatewaySMTPHostAddresses(gatewayServer);
-            }
+            Iterator<HostAddress> targetServers = getTargetServers(mail);
 
             MessagingException lastError = null;
 
@@ -966,33 +1428,29 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                     // "mail.smtp.dsn.notify" //default to nothing...appended as
                     // NOTIFY= after RCPT TO line.
 
-                    SMTPTransport transport = null;
+                    RemoteDeliveryConnectionPool.PooledConnection connection;
                     try {
-                        transport =  (SMTPTransport) session.getTransport(outgoingMailServer);
-                        transport.setLocalHost( props.getProperty("mail.smtp.localhost", heloName) );
-                        try {
-                            if (authUser != null) {
-                                transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
-                            } else {
-                                transport.connect();
-                            }
-                        } catch (MessagingException me) {
-                            // Any error on connect should cause the mailet to
-                            // attempt
-                            // to connect to the next SMTP server associated
-                            // with this
-                            // MX record. Just log the exception. We'll worry
-                            // about
-                            // failing the message at the end of the loop.
-
-                            // Also include the stacktrace if debug is enabled. See JAMES-1257
-                            if (isDebug) {
-                                log(me.getMessage(), me.getCause());
-                            } else {
-                                log(me.getMessage());
-                            }
-                            continue;
+                        connection = connectionPool.borrow(session, outgoingMailServer);
+                    } catch (MessagingException me) {
+                        // Any error on connect should cause the mailet to
+                        // attempt
+                        // to connect to the next SMTP server associated
+                        // with this
+                        // MX record. Just log the exception. We'll worry
+                        // about
+                        // failing the message at the end of the loop.
+
+                        // Also include the stacktrace if debug is enabled. See JAMES-1257
+                        if (isDebug) {
+                            log(me.getMessage(), me.getCause());
+                        } else {
+                            log(me.getMessage());
                         }
+                        continue;
+                    }
+                    boolean reusable = false;
+                    try {
+                        SMTPTransport transport = connection.getTransport();
                         // if the transport is a SMTPTransport (from sun) some
                         // performance enhancement can be done.
                         if (transport.getClass().getName().endsWith(".SMTPTransport")) {
@@ -1041,86 +1499,24 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                             }
                         }
                         transport.sendMessage(message, addr);
+                        reusable = true;
+                    } catch (SendFailedException sfe) {
+                        // The server refused the mail, not the connection
+                        reusable = true;
+                        throw sfe;
                     } finally {
-                        if (transport != null) {
-                            try {
-                                // James-899: transport.close() sends QUIT to
-                                // the server; if that fails
-                                // (e.g. because the server has already closed
-                                // the connection) the message
-                                // should be considered to be delivered because
-                                // the error happened outside
-                                // of the mail transaction (MAIL, RCPT, DATA).
-                                transport.close();
-                            } catch (MessagingException e) {
-                                log("Warning: could not close the SMTP transport after sending mail (" + mail.getName() + ") to " + outgoingMailServer.getHostName() + " at " + outgoingMailServer.getHost() + " for " + mail.getRecipients() + "; probably the server has already closed the "
-                                        + "connection. Message is considered to be delivered. Exception: " + e.getMessage());
-                            }
-                            transport = null;
-                        }
+                        // The connection is kept for the next mails sent to
+                        // this server. James-899: closing it sends QUIT, the
+                        // mail is delivered whatever the answer to it.
+                        connectionPool.release(connection, reusable);
                     }
                     logMessageBuffer = new StringBuilder(256).append("Mail (").append(mail.getName()).append(") sent successfully to ").append(outgoingMailServer.getHostName()).append(" at ").append(outgoingMailServer.getHost()).append(" from ").append(props.get("mail.smtp.from")).append(" for ")
                             .append(mail.getRecipients());
                     log(logMessageBuffer.toString());
                     outgoingMailsMetric.increment();
                     return true;
-                } catch (SendFailedException sfe) {
-                    logSendFailedException(sfe);
-
-                    if (sfe.getValidSentAddresses() != null) {
-                        Address[] validSent = sfe.getValidSentAddresses();
-                        if (validSent.length > 0) {
-                            String logMessageBuffer = "Mail (" + mail.getName() + ") sent successfully for " + Arrays.asList(validSent);
-                            log(logMessageBuffer);
-                        }
-                    }
-
-                    /*
-                     * SMTPSendFailedException introduced in JavaMail 1.3.2, and
-                     * provides detailed protocol reply code for the operation
-                     */
-                    if (sfe.getClass().getName().endsWith(".SMTPSendFailedException")) {
-                        try {
-                            int returnCode = (Integer) invokeGetter(sfe, "getReturnCode");
-                            // if 5xx, terminate this delivery attempt by
-                            // re-throwing the exception.
-                            if (returnCode >= 500 && returnCode <= 599)
-                                throw sfe;
-                        } catch (ClassCastException cce) {
-                        } catch (IllegalArgumentException iae) {
-                        }
-                    }
-
-                    if (sfe.getValidUnsentAddresses() != null && sfe.getValidUnsentAddresses().length > 0) {
-                        if (isDebug)
-                            log("Send failed, " + sfe.getValidUnsentAddresses().length + " valid addresses remain, continuing with any other servers");
-                        lastError = sfe;
-                    } else {
-                        // There are no valid addresses left to send, so rethrow
-                        throw sfe;
-                    }
                 } catch (MessagingException me) {
-                    // MessagingException are horribly difficult to figure out
-                    // what actually happened.
-                    String exceptionBuffer = "Exception delivering message (" + mail.getName() + ") - " + me.getMessage();
-                    log(exceptionBuffer);
-                    if ((me.getNextException() != null) && (me.getNextException() instanceof java.io.IOException)) {
-                        // This is more than likely a temporary failure
-
-                        // If it's an IO exception with no nested exception,
-                        // it's probably
-                        // some socket or weird I/O related problem.
-                        lastError = me;
-                        continue;
-                    }
-                    // This was not a connection or I/O error particular to one
-                    // SMTP server of an MX set. Instead, it is almost certainly
-                    // a protocol level error. In this case we assume that this
-                    // is an error we'd encounter with any of the SMTP servers
-                    // associated with this MX record, and we pass the exception
-                    // to the code in the outer block that determines its
-                    // severity.
-                    throw me;
+                    lastError = handleServerFailure(mail, me);
                 }
             } // end while
             // If we encountered an exception while looping through,
@@ -1132,7 +1528,145 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             if (lastError != null) {
                 throw lastError;
             }
-        } catch (SendFailedException sfe) {
+        } catch (TargetServerNotFoundException e) {
+            return failMessage(mail, e, e.isPermanent());
+        } catch (Exception ex) {
+            return handleDeliveryFailure(mail, ex);
+        }
+
+        /*
+         * If we get here, we've exhausted the loop of servers without sending
+         * the message or throwing an exception. One case where this might
+         * happen is if we get a MessagingException on each transport.connect(),
+         * e.g., if there is only one server and we get a connect exception.
+         */
+        return failMessage(mail, new MessagingException("No mail server(s) available at this time."), false);
+    }
+
+    /**
+     * Returns the servers to try to deliver the given mail to, either the gateways or the MX of the domain of its
+     * recipients.
+     *
+     * @param mail the mail to deliver
+     * @return the target servers, sorted by priority
+     * @throws TargetServerNotFoundException if no server could be found
+     */
+    private Iterator<HostAddress> getTargetServers(Mail mail) throws TargetServerNotFoundException {
+        Iterator<HostAddress> targetServers;
+        if (gatewayServer == null) {
+            MailAddress rcpt = mail.getRecipients().iterator().next();
+            String host = rcpt.getDomain();
+
+            // Lookup the possible targets
+            try {
+                targetServers = new MXHostAddressIterator(dnsServer.findMXRecords(host).iterator(), dnsServer, false, logger);
+            } catch (TemporaryResolutionException e) {
+                log("Temporary problem looking up mail server for host: " + host);
+                String exceptionBuffer = "Temporary problem looking up mail server for host: " + host + ".  I cannot determine where to send this message.";
+
+                // temporary problems
+                throw new TargetServerNotFoundException(exceptionBuffer, false);
+            }
+            if (!targetServers.hasNext()) {
+                log("No mail server found for: " + host);
+                String exceptionBuffer = "There are no DNS entries for the hostname " + host + ".  I cannot determine where to send this message.";
+
+                int retry = 0;
+                try {
+                    retry = Integer.parseInt(mail.getErrorMessage());
+                } catch (NumberFormatException e) {
+                    // Unable to parse retryCount
+                }
+                // The domain has no dns entry.. Return a permanent
+                // error, unless dns problems are retried
+                throw new TargetServerNotFoundException(exceptionBuffer, retry == 0 || retry > dnsProblemRetry);
+            }
+        } else {
+            targetServers = getGatewaySMTPHostAddresses(gatewayServer);
+        }
+        return targetServers;
+    }
+
+    /**
+     * Handles the failure to deliver a mail to one of its target servers.
+     *
+     * @param mail the mail being delivered
+     * @param e the failure
+     * @return the error to report if no other server accepts the mail
+     * @throws MessagingException if the other servers should not be tried
+     */
+    private MessagingException handleServerFailure(Mail mail, MessagingException e) throws MessagingException {
+        if (e instanceof SendFailedException) {
+            SendFailedException sfe = (SendFailedException) e;
+            logSendFailedException(sfe);
+
+            if (sfe.getValidSentAddresses() != null) {
+                Address[] validSent = sfe.getValidSentAddresses();
+                if (validSent.length > 0) {
+                    String logMessageBuffer = "Mail (" + mail.getName() + ") sent successfully for " + Arrays.asList(validSent);
+                    log(logMessageBuffer);
+                }
+            }
+
+            /*
+             * SMTPSendFailedException introduced in JavaMail 1.3.2, and
+             * provides detailed protocol reply code for the operation
+             */
+            if (sfe.getClass().getName().endsWith(".SMTPSendFailedException")) {
+                try {
+                    int returnCode = (Integer) invokeGetter(sfe, "getReturnCode");
+                    // if 5xx, terminate this delivery attempt by
+                    // re-throwing the exception.
+                    if (returnCode >= 500 && returnCode <= 599)
+                        throw sfe;
+                } catch (ClassCastException cce) {
+                } catch (IllegalArgumentException iae) {
+                }
+            }
+
+            if (sfe.getValidUnsentAddresses() != null && sfe.getValidUnsentAddresses().length > 0) {
+                if (isDebug)
+                    log("Send failed, " + sfe.getValidUnsentAddresses().length + " valid addresses remain, continuing with any other servers");
+                return sfe;
+            } else {
+                // There are no valid addresses left to send, so rethrow
+                throw sfe;
+            }
+        } else {
+            MessagingException me = e;
+            // MessagingException are horribly difficult to figure out
+            // what actually happened.
+            String exceptionBuffer = "Exception delivering message (" + mail.getName() + ") - " + me.getMessage();
+            log(exceptionBuffer);
+            if ((me.getNextException() != null) && (me.getNextException() instanceof java.io.IOException)) {
+                // This is more than likely a temporary failure
+
+                // If it's an IO exception with no nested exception,
+                // it's probably
+                // some socket or weird I/O related problem.
+                return me;
+            }
+            // This was not a connection or I/O error particular to one
+            // SMTP server of an MX set. Instead, it is almost certainly
+            // a protocol level error. In this case we assume that this
+            // is an error we'd encounter with any of the SMTP servers
+            // associated with this MX record, and we pass the exception
+            // to the code in the outer block that determines its
+            // severity.
+            throw me;
+        }
+    }
+
+    /**
+     * Handles the failure to deliver a mail to all of its target servers.
+     *
+     * @param mail the mail being delivered
+     * @param e the last failure
+     * @return boolean Whether the message failed fully and can be deleted
+     */
+    private boolean handleDeliveryFailure(Mail mail, Exception e) {
+        if (e instanceof SendFailedException) {
+            SendFailedException sfe = (SendFailedException) e;
             logSendFailedException(sfe);
 
             // Copy the recipients as direct modification may not be possible
@@ -1246,7 +1780,8 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
 
             return deleteMessage;
-        } catch (MessagingException ex) {
+        } else if (e instanceof MessagingException) {
+            MessagingException ex = (MessagingException) e;
             // We should do a better job checking this... if the failure is a
             // general
             // connect exception, this is less descriptive than more specific
@@ -1262,19 +1797,11 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             // or mailbox is full or domain is setup wrong).
             // We fail permanently if this was a 5xx error
             return failMessage(mail, ex, ('5' == ex.getMessage().charAt(0)));
-        } catch (Exception ex) {
-            log("Generic exception = permanent failure: "+ex.getMessage(), ex);
+        } else {
+            log("Generic exception = permanent failure: "+e.getMessage(), e);
             // Generic exception = permanent failure
-            return failMessage(mail, ex, true);
+            return failMessage(mail, e, true);
         }
-
-        /*
-         * If we get here, we've exhausted the loop of servers without sending
-         * the message or throwing an exception. One case where this might
-         * happen is if we get a MessagingException on each transport.connect(),
-         * e.g., if there is only one server and we get a connect exception.
-         */
-        return failMessage(mail, new MessagingException("No mail server(s) available at this time."), false);
     }
 
     /**
@@ -1601,6 +2128,24 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
     }
 
+    /**
+     * Opens a connection to the given SMTP server, authenticating if a gateway user is configured.
+     *
+     * @param session the session the connection will be used with
+     * @param outgoingMailServer the server to connect to
+     * @return the connected transport
+     */
+    private SMTPTransport openTransport(Session session, HostAddress outgoingMailServer) throws MessagingException {
+        SMTPTransport transport = (SMTPTransport) session.getTransport(outgoingMailServer);
+        transport.setLocalHost(session.getProperties().getProperty("mail.smtp.localhost", heloName));
+        if (authUser != null) {
+            transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+        } else {
+            transport.connect();
+        }
+        return transport;
+    }
+
     /**
      * Returns the javamail Session object.
      *
@@ -0,0 +1,325 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+import org.apache.mailet.HostAddress;
+import org.slf4j.Logger;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Keeps the SMTP connections opened by {@link RemoteDelivery} to reuse them for the next mails sent to the same
+ * server, saving the TCP connect, EHLO, STARTTLS and AUTH round trips of each mail.
+ * <p/>
+ * A connection is only handed to a worker using the {@link Session} it was opened with, as JavaMail reads the
+ * envelope sender from the session properties of the transport. Before being reused, a connection is reset with RSET,
+ * which also checks the server still has it open.
+ * <p/>
+ * The number of connections opened to a server is bounded. When the bound is reached, an idle connection of
+ * another session is closed to make room, otherwise the worker waits for a connection to be returned.
+ */
+public class RemoteDeliveryConnectionPool {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_MESSAGES_PER_CONNECTION = 100;
+
+    /**
+     * Opens a new connection to a server.
+     */
+    public interface Connector {
+        SMTPTransport connect(Session session, HostAddress host) throws MessagingException;
+    }
+
+    /**
+     * A connection borrowed from the pool.
+     */
+    public static class PooledConnection {
+        private final SMTPTransport transport;
+        private final Session session;
+        private final String key;
+        private int messageCount;
+        private long lastUsed;
+
+        private PooledConnection(SMTPTransport transport, Session session, String key) {
+            this.transport = transport;
+            this.session = session;
+            this.key = key;
+        }
+
+        public SMTPTransport getTransport() {
+            return transport;
+        }
+    }
+
+    /**
+     * The connections to one server.
+     */
+    private static class HostConnections {
+        private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+        private int openCount;
+    }
+
+    private final Connector connector;
+    private final int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private final int maxMessagesPerConnection;
+    private final long waitTimeout;
+    private final Logger logger;
+    private final Map<String, HostConnections> hosts = new HashMap<String, HostConnections>();
+    private long lastEviction;
+    private boolean closed;
+
+    /**
+     * @param connector opens the connections
+     * @param maxConnectionsPerHost maximum number of connections opened to one server
+     * @param idleTimeout time in milliseconds after which an unused connection is closed
+     * @param maxMessagesPerConnection number of mails sent over a connection before it is closed
+     * @param waitTimeout time in milliseconds to wait for a connection when the server has too many of them
+     * @param logger the logger
+     */
+    public RemoteDeliveryConnectionPool(Connector connector, int maxConnectionsPerHost, long idleTimeout, int maxMessagesPerConnection, long waitTimeout, Logger logger) {
+        this.connector = connector;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.waitTimeout = waitTimeout;
+        this.logger = logger;
+    }
+
+    /**
+     * Return a connection to the given server, reusing an idle one opened with the given session if any.
+     *
+     * @throws MessagingException when no connection could be opened
+     */
+    public PooledConnection borrow(Session session, HostAddress host) throws MessagingException {
+        String key = host.toString();
+        long deadline = System.currentTimeMillis() + waitTimeout;
+        while (true) {
+            PooledConnection idleConnection = null;
+            List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+            try {
+                synchronized (this) {
+                    evictExpired(toClose);
+                    while (true) {
+                        if (closed) {
+                            throw new MessagingException("Connection pool is closed");
+                        }
+                        // Looked up again after each wait: the entry is dropped by the eviction once it has no connection
+                        HostConnections connections = hostConnections(key);
+                        idleConnection = takeIdle(connections, session);
+                        if (idleConnection != null) {
+                            break;
+                        }
+                        if (connections.openCount < maxConnectionsPerHost) {
+                            connections.openCount++;
+                            break;
+                        }
+                        if (!connections.idle.isEmpty()) {
+                            // Make room by closing the idle connection of another session, its slot goes to the new one
+                            toClose.add(connections.idle.removeFirst());
+                            break;
+                        }
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new MessagingException("Too many connections opened to " + host.getHostName() + " at " + host.getHost());
+                        }
+                        try {
+                            wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new MessagingException("Interrupted while waiting for a connection to " + host.getHostName(), e);
+                        }
+                    }
+                }
+            } finally {
+                closeAll(toClose);
+            }
+
+            if (idleConnection == null) {
+                return open(session, host, key);
+            }
+            if (reset(idleConnection)) {
+                return idleConnection;
+            }
+            discard(idleConnection);
+        }
+    }
+
+    /**
+     * Give a connection back to the pool.
+     *
+     * @param reusable false if the state of the connection is unknown, for example after an I/O error
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        connection.messageCount++;
+        if (reusable && connection.messageCount < maxMessagesPerConnection) {
+            synchronized (this) {
+                if (!closed) {
+                    connection.lastUsed = System.currentTimeMillis();
+                    hostConnections(connection.key).idle.addLast(connection);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+        discard(connection);
+    }
+
+    /**
+     * Close all the idle connections. The borrowed connections are closed when given back.
+     */
+    public void close() {
+        List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            closed = true;
+            for (HostConnections connections : hosts.values()) {
+                connections.openCount -= connections.idle.size();
+                toClose.addAll(connections.idle);
+                connections.idle.clear();
+            }
+            notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Return the number of connections currently opened to the given server.
+     */
+    public synchronized int getOpenConnectionCount(HostAddress host) {
+        HostConnections connections = hosts.get(host.toString());
+        if (connections == null) {
+            return 0;
+        }
+        return connections.openCount;
+    }
+
+    private PooledConnection open(Session session, HostAddress host, String key) throws MessagingException {
+        boolean opened = false;
+        try {
+            PooledConnection connection = new PooledConnection(connector.connect(session, host), session, key);
+            opened = true;
+            return connection;
+        } finally {
+            if (!opened) {
+                closed(key);
+            }
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        closed(connection.key);
+        close(connection);
+    }
+
+    private synchronized void closed(String key) {
+        hostConnections(key).openCount--;
+        notifyAll();
+    }
+
+    private HostConnections hostConnections(String key) {
+        HostConnections connections = hosts.get(key);
+        if (connections == null) {
+            connections = new HostConnections();
+            hosts.put(key, connections);
+        }
+        return connections;
+    }
+
+    private PooledConnection takeIdle(HostConnections connections, Session session) {
+        // Most recently used first, so that the older connections expire
+        Iterator<PooledConnection> it = connections.idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection connection = it.next();
+            if (connection.session == session) {
+                it.remove();
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private void evictExpired(List<PooledConnection> toClose) {
+        long now = System.currentTimeMillis();
+        if (now - lastEviction < idleTimeout) {
+            return;
+        }
+        lastEviction = now;
+        Iterator<HostConnections> hostIterator = hosts.values().iterator();
+        while (hostIterator.hasNext()) {
+            HostConnections connections = hostIterator.next();
+            Iterator<PooledConnection> it = connections.idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (now - connection.lastUsed >= idleTimeout) {
+                    it.remove();
+                    connections.openCount--;
+                    toClose.add(connection);
+                }
+            }
+            if (connections.openCount == 0) {
+                hostIterator.remove();
+            }
+        }
+    }
+
+    private boolean reset(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.lastUsed >= idleTimeout) {
+            return false;
+        }
+        try {
+            connection.transport.issueCommand("RSET", 250);
+            return true;
+        } catch (MessagingException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to reuse the connection to " + connection.key + ": " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    private void closeAll(List<PooledConnection> connections) {
+        for (PooledConnection connection : connections) {
+            close(connection);
+        }
+    }
+
+    private void close(PooledConnection connection) {
+        try {
+            // Sends QUIT, the mails sent over the connection are delivered whatever the answer. See JAMES-899
+            connection.transport.close();
+        } catch (MessagingException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to close the connection to " + connection.key + ": " + e.getMessage());
+            }
+        }
+    }
+}
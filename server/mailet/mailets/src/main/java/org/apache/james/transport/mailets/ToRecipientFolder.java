@@ -18,6 +18,8 @@
  ****************************************************************/
 package org.apache.james.transport.mailets;
 
+import static org.apache.james.transport.mailets.LocalDelivery.CONCURRENCY_PARAMETER;
+import static org.apache.james.transport.mailets.LocalDelivery.DEFAULT_CONCURRENCY;
 import static org.apache.james.transport.mailets.LocalDelivery.LOCAL_DELIVERED_MAILS_METRIC_NAME;
 
 import javax.inject.Inject;
@@ -43,11 +45,14 @@ import org.apache.mailet.base.GenericMailet;
  * You have to define the folder name of the recipient(s).
  * The flag 'consume' will tell is the mail will be further
  * processed by the upcoming processor mailets, or not.
+ * The optional 'concurrency' parameter sets how many recipients
+ * are stored in parallel (defaults to 1).
  * 
  * <pre>
  * &lt;mailet match="RecipientIsLocal" class="ToRecipientFolder"&gt;
  *    &lt;folder&gt; <i>Junk</i> &lt;/folder&gt;
  *    &lt;consume&gt; <i>false</i> &lt;/consume&gt;
+ *    &lt;concurrency&gt; <i>1</i> &lt;/concurrency&gt;
  * &lt;/mailet&gt;
  * </pre>
  * 
@@ -91,6 +96,7 @@ public class ToRecipientFolder extends GenericMailet {
                 .log(log)
                 .build())
             .consume(getInitParameter(CONSUME_PARAMETER, false))
+            .concurrency(Integer.parseInt(getInitParameter(CONCURRENCY_PARAMETER, DEFAULT_CONCURRENCY)))
             .mailetContext(getMailetContext())
             .log(log)
             .build();
@@ -101,4 +107,9 @@ public class ToRecipientFolder extends GenericMailet {
         return ToRecipientFolder.class.getName() + " Mailet";
     }
 
+    @Override
+    public void destroy() {
+        mailDispatcher.dispose();
+    }
+
 }
@@ -0,0 +1,80 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.delivery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MimeMessageInputStream;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.core.MimeMessageUtil;
+import org.apache.mailet.MailAddress;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Exposes a shared message with a per recipient Delivered-To header prepended,
+ * without modifying nor copying the shared message. The shared message is read
+ * lazily, hence it should not be modified while the view is being stored.
+ */
+public class DeliveredToMimeMessageSource extends MimeMessageSource {
+
+    private static final String CRLF = "\r\n";
+
+    private final MimeMessage message;
+    private final String sourceId;
+    private final byte[] deliveredToHeader;
+
+    public DeliveredToMimeMessageSource(String sourceId, MimeMessage message, MailAddress recipient) {
+        this.message = message;
+        this.sourceId = sourceId;
+        this.deliveredToHeader = (MailDispatcher.DELIVERED_TO + ": " + recipient.toString() + CRLF)
+            .getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        try {
+            return new SequenceInputStream(new ByteArrayInputStream(deliveredToHeader), new MimeMessageInputStream(message));
+        } catch (MessagingException e) {
+            throw new IOException("Unable to read shared message", e);
+        }
+    }
+
+    @Override
+    public long getMessageSize() throws IOException {
+        try {
+            return deliveredToHeader.length + MimeMessageUtil.getMessageSize(message);
+        } catch (MessagingException e) {
+            throw new IOException("Unable to compute shared message size", e);
+        }
+    }
+}
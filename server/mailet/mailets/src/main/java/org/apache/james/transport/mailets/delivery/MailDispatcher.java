@@ -18,15 +18,30 @@
  ****************************************************************/
 package org.apache.james.transport.mailets.delivery;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
 import org.apache.commons.logging.Log;
+import org.apache.james.core.MailImpl;
+import org.apache.james.core.MimeMessageWrapper;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.apache.mailet.MailetContext;
@@ -39,6 +54,33 @@ public class MailDispatcher {
 
     public static final String DELIVERED_TO = "Delivered-To";
     public static final String[] NO_HEADERS = {};
+    // Bound of the threads storing recipients, whatever the number of concurrent dispatchers
+    public static final int SHARED_EXECUTOR_THREADS = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService sharedExecutor;
+    private static int sharedExecutorUsers;
+
+    /**
+     * The concurrent dispatchers share one executor, shut down once the last of them is disposed
+     */
+    private static synchronized ExecutorService acquireSharedExecutor() {
+        if (sharedExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(SHARED_EXECUTOR_THREADS, SHARED_EXECUTOR_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(MailDispatcher.class.getSimpleName()));
+            executor.allowCoreThreadTimeOut(true);
+            sharedExecutor = executor;
+        }
+        sharedExecutorUsers++;
+        return sharedExecutor;
+    }
+
+    private static synchronized void releaseSharedExecutor() {
+        sharedExecutorUsers--;
+        if (sharedExecutorUsers == 0) {
+            sharedExecutor.shutdownNow();
+            sharedExecutor = null;
+        }
+    }
 
     public static Builder builder() {
         return new Builder();
@@ -46,8 +88,10 @@ public class MailDispatcher {
 
     public static class Builder {
         public static final boolean CONSUME = true;
+        public static final int SEQUENTIAL = 1;
         private MailStore mailStore;
         private Optional<Boolean> consume = Optional.absent();
+        private Optional<Integer> concurrency = Optional.absent();
         private MailetContext mailetContext;
         private Log log;
 
@@ -56,6 +100,16 @@ public class MailDispatcher {
             return this;
         }
 
+        /**
+         * Maximum number of recipients of a single mail being stored in parallel.
+         * A value of 1 keeps the historical sequential delivery.
+         */
+        public Builder concurrency(int concurrency) {
+            Preconditions.checkArgument(concurrency > 0, "Concurrency should be strictly positive");
+            this.concurrency = Optional.of(concurrency);
+            return this;
+        }
+
         public Builder mailStore(MailStore mailStore) {
             this.mailStore = mailStore;
             return this;
@@ -75,21 +129,37 @@ public class MailDispatcher {
             Preconditions.checkNotNull(mailStore);
             Preconditions.checkNotNull(log);
             Preconditions.checkNotNull(mailetContext);
-            return new MailDispatcher(mailStore, consume.or(CONSUME), log, mailetContext);
+            return new MailDispatcher(mailStore, consume.or(CONSUME), concurrency.or(SEQUENTIAL), log, mailetContext);
         }
 
     }
 
     private final MailStore mailStore;
     private final boolean consume;
+    private final int concurrency;
+    private final Optional<ExecutorService> executor;
+    private final AtomicBoolean disposed;
     private final MailetContext mailetContext;
     private final Log log;
 
-    private MailDispatcher(MailStore mailStore, boolean consume, Log log, MailetContext mailetContext) {
+    private MailDispatcher(MailStore mailStore, boolean consume, int concurrency, Log log, MailetContext mailetContext) {
         this.mailStore = mailStore;
         this.consume = consume;
+        this.concurrency = concurrency;
         this.log = log;
         this.mailetContext = mailetContext;
+        this.disposed = new AtomicBoolean(false);
+        if (concurrency > Builder.SEQUENTIAL) {
+            this.executor = Optional.of(acquireSharedExecutor());
+        } else {
+            this.executor = Optional.absent();
+        }
+    }
+
+    public void dispose() {
+        if (executor.isPresent() && disposed.compareAndSet(false, true)) {
+            releaseSharedExecutor();
+        }
     }
 
     public void dispatch(Mail mail) throws MessagingException {
@@ -117,7 +187,7 @@ public class MailDispatcher {
         message.setHeader(RFC2822Headers.RETURN_PATH, DeliveryUtils.prettyPrint(mail.getSender()));
 
         List<String> deliveredToHeader = removeDeliveryHeaders(message);
-        Collection<MailAddress> errors = deliver(mail, message);
+        Collection<MailAddress> errors = deliver(mail, message, mail.getRecipients().size());
         putDeliveryHeadersBack(message, deliveredToHeader);
 
         return errors;
@@ -135,7 +205,14 @@ public class MailDispatcher {
         }
     }
 
-    private Collection<MailAddress> deliver(Mail mail, MimeMessage message) {
+    private Collection<MailAddress> deliver(Mail mail, MimeMessage message, int recipientCount) {
+        if (executor.isPresent() && recipientCount > 1) {
+            return deliverConcurrently(mail, message, Math.min(concurrency, recipientCount));
+        }
+        return deliverSequentially(mail, message);
+    }
+
+    private Collection<MailAddress> deliverSequentially(Mail mail, MimeMessage message) {
         Collection<MailAddress> errors = new Vector<MailAddress>();
         for (MailAddress recipient : mail.getRecipients()) {
             try {
@@ -150,4 +227,119 @@ public class MailDispatcher {
         }
         return errors;
     }
+
+    /**
+     * Stores the pending recipients on a thread of the shared executor. It is claimed by the first of the executor and
+     * the dispatching thread, so that the dispatching thread only gives up the workers which never started.
+     */
+    private class Worker implements Runnable {
+        private final Mail mail;
+        private final MimeMessage message;
+        private final Queue<MailAddress> pendingRecipients;
+        private final Collection<MailAddress> errors;
+        private final CountDownLatch completed;
+        private final AtomicBoolean claimed;
+        private Future<?> future;
+
+        private Worker(Mail mail, MimeMessage message, Queue<MailAddress> pendingRecipients, Collection<MailAddress> errors, CountDownLatch completed) {
+            this.mail = mail;
+            this.message = message;
+            this.pendingRecipients = pendingRecipients;
+            this.errors = errors;
+            this.completed = completed;
+            this.claimed = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                deliverPending(mail, message, pendingRecipients, errors);
+            } finally {
+                completed.countDown();
+            }
+        }
+
+        private void cancelIfNotStarted() {
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(false);
+                completed.countDown();
+            }
+        }
+    }
+
+    private Collection<MailAddress> deliverConcurrently(Mail mail, MimeMessage message, int workerCount) {
+        Collection<MailAddress> errors = new ConcurrentLinkedQueue<MailAddress>();
+        Queue<MailAddress> pendingRecipients = new ConcurrentLinkedQueue<MailAddress>(mail.getRecipients());
+        CountDownLatch completed = new CountDownLatch(workerCount - 1);
+        List<Worker> workers = new ArrayList<Worker>();
+        // The calling thread is one of the workers, so that the mail is delivered even when the shared executor is busy
+        for (int i = 1; i < workerCount; i++) {
+            Worker worker = new Worker(mail, message, pendingRecipients, errors, completed);
+            try {
+                worker.future = executor.get().submit(worker);
+                workers.add(worker);
+            } catch (RejectedExecutionException e) {
+                // Disposed: the calling thread stores the recipients alone
+                completed.countDown();
+            }
+        }
+        deliverPending(mail, message, pendingRecipients, errors);
+        awaitWorkers(workers, completed, pendingRecipients, errors);
+        return errors;
+    }
+
+    private void awaitWorkers(List<Worker> workers, CountDownLatch completed, Queue<MailAddress> pendingRecipients, Collection<MailAddress> errors) {
+        for (Worker worker : workers) {
+            // No recipient is left: the workers still waiting for a thread have nothing to do
+            worker.cancelIfNotStarted();
+        }
+        // The started workers still read the message: it can only be changed once they are done
+        boolean interrupted = false;
+        while (true) {
+            try {
+                completed.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // Recipients left behind by a failed worker are reported as errors
+        MailAddress recipient;
+        while ((recipient = pendingRecipients.poll()) != null) {
+            errors.add(recipient);
+        }
+    }
+
+    private void deliverPending(Mail mail, MimeMessage message, Queue<MailAddress> pendingRecipients, Collection<MailAddress> errors) {
+        MailAddress recipient;
+        while ((recipient = pendingRecipients.poll()) != null) {
+            try {
+                mailStore.storeMail(recipient, recipientMail(mail, message, recipient));
+            } catch (Exception ex) {
+                log.error("Error while storing mail.", ex);
+                errors.add(recipient);
+            }
+        }
+    }
+
+    private Mail recipientMail(Mail mail, MimeMessage message, MailAddress recipient) throws MessagingException {
+        // Add qmail's de facto standard Delivered-To header on a per recipient view of the shared message
+        MimeMessage recipientMessage = new MimeMessageWrapper(new DeliveredToMimeMessageSource(mail.getName(), message, recipient));
+        MailImpl recipientMail = new MailImpl(mail.getName(), mail.getSender(), mail.getRecipients(), recipientMessage);
+        recipientMail.setRemoteHost(mail.getRemoteHost());
+        recipientMail.setRemoteAddr(mail.getRemoteAddr());
+        recipientMail.setLastUpdated(mail.getLastUpdated());
+        Iterator<String> attributeNames = mail.getAttributeNames();
+        while (attributeNames.hasNext()) {
+            String attributeName = attributeNames.next();
+            recipientMail.setAttribute(attributeName, mail.getAttribute(attributeName));
+        }
+        return recipientMail;
+    }
 }
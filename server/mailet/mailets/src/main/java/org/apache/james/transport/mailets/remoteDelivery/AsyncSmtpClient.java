@@ -0,0 +1,561 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.apache.james.util.concurrent.NamedThreadFactory;
+import org.apache.mailet.HostAddress;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A non blocking SMTP client delivering mails over connections multiplexed on a few I/O threads.
+ * <p/>
+ * The connections to a server are kept open for the next mails sent to it. Their number is bounded per server: the
+ * deliveries started while the bound is reached wait, without holding any thread, for a connection to be
+ * available. When the server advertises PIPELINING, the RCPT commands are sent along with the MAIL command.
+ */
+public class AsyncSmtpClient {
+
+    /**
+     * Converts a message for the servers not supporting 8BITMIME.
+     */
+    public interface MessageConverter {
+        void convertTo7Bit(MimeMessage message) throws MessagingException, IOException;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        public static final long DEFAULT_TIMEOUT = 180000;
+        public static final int DEFAULT_CONNECTION_TIMEOUT = 60000;
+        public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+        public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+        public static final int DEFAULT_MAX_MESSAGES_PER_CONNECTION = 100;
+
+        private String heloName;
+        private Executor executor;
+        private Optional<Executor> messageExecutor = Optional.absent();
+        private MessageConverter messageConverter;
+        private Logger logger;
+        private Optional<Long> timeout = Optional.absent();
+        private Optional<Integer> connectionTimeout = Optional.absent();
+        private boolean startTls;
+        private boolean ssl;
+        private Optional<String> authUser = Optional.absent();
+        private Optional<String> authPassword = Optional.absent();
+        private boolean sendPartial;
+        private Optional<InetAddress> bindAddress = Optional.absent();
+        private Optional<Integer> maxConnectionsPerHost = Optional.absent();
+        private Optional<Long> idleTimeout = Optional.absent();
+        private Optional<Integer> maxMessagesPerConnection = Optional.absent();
+        private Optional<Integer> ioThreads = Optional.absent();
+
+        public Builder heloName(String heloName) {
+            this.heloName = heloName;
+            return this;
+        }
+
+        /**
+         * The executor running the listeners, which can block.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The executor reading the messages and streaming them to the servers. Its threads block while the servers
+         * read the messages, so it should not be the one running the listeners. Defaults to the listener executor.
+         */
+        public Builder messageExecutor(Executor messageExecutor) {
+            this.messageExecutor = Optional.of(messageExecutor);
+            return this;
+        }
+
+        public Builder messageConverter(MessageConverter messageConverter) {
+            this.messageConverter = messageConverter;
+            return this;
+        }
+
+        public Builder logger(Logger logger) {
+            this.logger = logger;
+            return this;
+        }
+
+        /**
+         * Time in milliseconds to wait for a reply of the server.
+         */
+        public Builder timeout(long timeout) {
+            Preconditions.checkArgument(timeout > 0, "Timeout should be strictly positive");
+            this.timeout = Optional.of(timeout);
+            return this;
+        }
+
+        /**
+         * Time in milliseconds to wait for a connection to be established.
+         */
+        public Builder connectionTimeout(int connectionTimeout) {
+            Preconditions.checkArgument(connectionTimeout > 0, "Connection timeout should be strictly positive");
+            this.connectionTimeout = Optional.of(connectionTimeout);
+            return this;
+        }
+
+        public Builder startTls(boolean startTls) {
+            this.startTls = startTls;
+            return this;
+        }
+
+        public Builder ssl(boolean ssl) {
+            this.ssl = ssl;
+            return this;
+        }
+
+        public Builder authentication(String user, String password) {
+            this.authUser = Optional.fromNullable(user);
+            this.authPassword = Optional.fromNullable(password);
+            return this;
+        }
+
+        public Builder sendPartial(boolean sendPartial) {
+            this.sendPartial = sendPartial;
+            return this;
+        }
+
+        public Builder bindAddress(InetAddress bindAddress) {
+            this.bindAddress = Optional.fromNullable(bindAddress);
+            return this;
+        }
+
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            Preconditions.checkArgument(maxConnectionsPerHost > 0, "Max connections per host should be strictly positive");
+            this.maxConnectionsPerHost = Optional.of(maxConnectionsPerHost);
+            return this;
+        }
+
+        /**
+         * Time in milliseconds an unused connection is kept open.
+         */
+        public Builder idleTimeout(long idleTimeout) {
+            this.idleTimeout = Optional.of(idleTimeout);
+            return this;
+        }
+
+        public Builder maxMessagesPerConnection(int maxMessagesPerConnection) {
+            Preconditions.checkArgument(maxMessagesPerConnection > 0, "Max messages per connection should be strictly positive");
+            this.maxMessagesPerConnection = Optional.of(maxMessagesPerConnection);
+            return this;
+        }
+
+        /**
+         * Number of threads performing the I/O of all the connections.
+         */
+        public Builder ioThreads(int ioThreads) {
+            Preconditions.checkArgument(ioThreads > 0, "I/O threads should be strictly positive");
+            this.ioThreads = Optional.of(ioThreads);
+            return this;
+        }
+
+        public AsyncSmtpClient build() {
+            Preconditions.checkNotNull(heloName);
+            Preconditions.checkNotNull(executor);
+            Preconditions.checkNotNull(messageConverter);
+            Preconditions.checkNotNull(logger);
+            return new AsyncSmtpClient(this);
+        }
+    }
+
+    /**
+     * A mail to deliver to a server.
+     */
+    static class Delivery {
+        final HostAddress server;
+        final String key;
+        final String sender;
+        final InternetAddress[] recipients;
+        final MimeMessage message;
+        final SmtpDeliveryListener listener;
+
+        private Delivery(HostAddress server, String sender, InternetAddress[] recipients, MimeMessage message, SmtpDeliveryListener listener) {
+            this.server = server;
+            this.key = server.toString();
+            this.sender = sender;
+            this.recipients = recipients;
+            this.message = message;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * The connections to one server and the deliveries waiting for one of them.
+     */
+    private static class HostConnections {
+        private final LinkedList<SmtpClientHandler> idle = new LinkedList<SmtpClientHandler>();
+        private final LinkedList<Delivery> waiting = new LinkedList<Delivery>();
+        private int openCount;
+    }
+
+    private final String heloName;
+    private final Executor executor;
+    private final Executor messageExecutor;
+    private final MessageConverter messageConverter;
+    private final Logger logger;
+    private final long timeout;
+    private final int connectionTimeout;
+    private final boolean startTls;
+    private final boolean ssl;
+    private final Optional<String> authUser;
+    private final Optional<String> authPassword;
+    private final boolean sendPartial;
+    private final Optional<InetAddress> bindAddress;
+    private final int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private final int maxMessagesPerConnection;
+
+    private final ClientSocketChannelFactory channelFactory;
+    private final HashedWheelTimer timer;
+    private final ChannelGroup channels = new DefaultChannelGroup(AsyncSmtpClient.class.getSimpleName());
+    private final Map<String, HostConnections> hosts = new HashMap<String, HostConnections>();
+    private boolean closed;
+
+    private AsyncSmtpClient(Builder builder) {
+        this.heloName = builder.heloName;
+        this.executor = builder.executor;
+        this.messageExecutor = builder.messageExecutor.or(builder.executor);
+        this.messageConverter = builder.messageConverter;
+        this.logger = builder.logger;
+        this.timeout = builder.timeout.or(Builder.DEFAULT_TIMEOUT);
+        this.connectionTimeout = builder.connectionTimeout.or(Builder.DEFAULT_CONNECTION_TIMEOUT);
+        this.startTls = builder.startTls;
+        this.ssl = builder.ssl;
+        this.authUser = builder.authUser;
+        this.authPassword = builder.authPassword;
+        this.sendPartial = builder.sendPartial;
+        this.bindAddress = builder.bindAddress;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost.or(Builder.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        this.idleTimeout = builder.idleTimeout.or(Builder.DEFAULT_IDLE_TIMEOUT);
+        this.maxMessagesPerConnection = builder.maxMessagesPerConnection.or(Builder.DEFAULT_MAX_MESSAGES_PER_CONNECTION);
+        this.channelFactory = new NioClientSocketChannelFactory(
+            Executors.newCachedThreadPool(new NamedThreadFactory("smtp-client-boss")),
+            Executors.newCachedThreadPool(new NamedThreadFactory("smtp-client-io")),
+            1, builder.ioThreads.or(Runtime.getRuntime().availableProcessors() * 2));
+        this.timer = new HashedWheelTimer(new NamedThreadFactory("smtp-client-timer"));
+    }
+
+    /**
+     * Start the delivery of a mail to the given server. The outcome is reported to the listener.
+     *
+     * @param server the server to deliver the mail to
+     * @param sender the envelope sender, or an empty String for the null sender
+     * @param recipients the envelope recipients
+     * @param message the message to send
+     * @param listener notified of the outcome
+     */
+    public void send(HostAddress server, String sender, InternetAddress[] recipients, MimeMessage message, SmtpDeliveryListener listener) {
+        send(new Delivery(server, sender, recipients, message, listener));
+    }
+
+    void send(final Delivery delivery) {
+        SmtpClientHandler idleHandler = null;
+        boolean open = false;
+        synchronized (this) {
+            if (closed) {
+                connectionFailed(delivery, new MessagingException("SMTP client is closed"));
+                return;
+            }
+            HostConnections connections = hostConnections(delivery.key);
+            if (!connections.idle.isEmpty()) {
+                idleHandler = connections.idle.removeLast();
+            } else if (connections.openCount < maxConnectionsPerHost) {
+                connections.openCount++;
+                open = true;
+            } else {
+                connections.waiting.addLast(delivery);
+            }
+        }
+        if (idleHandler != null) {
+            idleHandler.start(delivery, true);
+        } else if (open) {
+            connect(delivery);
+        }
+    }
+
+    /**
+     * Return the number of connections currently opened to the given server.
+     */
+    public synchronized int getOpenConnectionCount(HostAddress server) {
+        HostConnections connections = hosts.get(server.toString());
+        if (connections == null) {
+            return 0;
+        }
+        return connections.openCount;
+    }
+
+    /**
+     * Close all the connections. The deliveries in progress are reported as failed.
+     */
+    public void close() {
+        List<Delivery> waiting = new ArrayList<Delivery>();
+        synchronized (this) {
+            closed = true;
+            for (HostConnections connections : hosts.values()) {
+                waiting.addAll(connections.waiting);
+                connections.waiting.clear();
+            }
+        }
+        for (Delivery delivery : waiting) {
+            connectionFailed(delivery, new MessagingException("SMTP client is closed"));
+        }
+        channels.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        timer.stop();
+    }
+
+    private void connect(Delivery delivery) {
+        final SmtpClientHandler handler = new SmtpClientHandler(this, delivery);
+        ChannelPipeline pipeline = Channels.pipeline();
+        if (ssl) {
+            SslHandler sslHandler = new SslHandler(createSslEngine(delivery.server));
+            sslHandler.setIssueHandshake(true);
+            pipeline.addLast("ssl", sslHandler);
+        }
+        pipeline.addLast("decoder", new SmtpReplyDecoder());
+        pipeline.addLast("handler", handler);
+
+        Channel channel = channelFactory.newChannel(pipeline);
+        channels.add(channel);
+        channel.getConfig().setConnectTimeoutMillis(connectionTimeout);
+        if (bindAddress.isPresent()) {
+            channel.bind(new InetSocketAddress(bindAddress.get(), 0));
+        }
+        channel.connect(new InetSocketAddress(delivery.server.getHost(), port(delivery.server))).addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    handler.failure(future.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by a handler once its delivery completed.
+     *
+     * @param reusable whether the connection can be used for another delivery
+     */
+    void released(SmtpClientHandler handler, boolean reusable) {
+        Delivery next = null;
+        boolean idle = false;
+        synchronized (this) {
+            if (reusable && !closed && handler.getMessageCount() < maxMessagesPerConnection) {
+                HostConnections connections = hostConnections(handler.getKey());
+                next = connections.waiting.pollFirst();
+                if (next == null) {
+                    connections.idle.addLast(handler);
+                    idle = true;
+                }
+            }
+        }
+        if (next != null) {
+            handler.start(next, false);
+        } else if (idle) {
+            handler.idle(idleTimeout);
+        } else {
+            handler.quit();
+        }
+    }
+
+    /**
+     * Called by a handler once its idle timeout expired.
+     *
+     * @return true if the handler was still idle, and is no more available for the next deliveries
+     */
+    synchronized boolean expired(SmtpClientHandler handler) {
+        HostConnections connections = hosts.get(handler.getKey());
+        return connections != null && connections.idle.remove(handler);
+    }
+
+    /**
+     * Called by a handler once its connection is closed, or could not be opened.
+     */
+    void closed(SmtpClientHandler handler) {
+        Delivery next = null;
+        synchronized (this) {
+            HostConnections connections = hostConnections(handler.getKey());
+            connections.idle.remove(handler);
+            connections.openCount--;
+            if (!closed) {
+                next = connections.waiting.pollFirst();
+                if (next != null) {
+                    connections.openCount++;
+                }
+            }
+            if (connections.openCount == 0 && connections.waiting.isEmpty()) {
+                hosts.remove(handler.getKey());
+            }
+        }
+        if (next != null) {
+            connect(next);
+        }
+    }
+
+    void connectionFailed(final Delivery delivery, final MessagingException e) {
+        dispatch(new Runnable() {
+            public void run() {
+                delivery.listener.connectionFailed(e);
+            }
+        });
+    }
+
+    void delivered(final Delivery delivery) {
+        dispatch(new Runnable() {
+            public void run() {
+                delivery.listener.delivered();
+            }
+        });
+    }
+
+    void deliveryFailed(final Delivery delivery, final MessagingException e) {
+        dispatch(new Runnable() {
+            public void run() {
+                delivery.listener.deliveryFailed(e);
+            }
+        });
+    }
+
+    void dispatch(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to notify the outcome of an SMTP delivery", e);
+        }
+    }
+
+    /**
+     * Run the task writing a message on the message executor.
+     *
+     * @return false if the executor rejected it
+     */
+    boolean dispatchMessage(Runnable task) {
+        try {
+            messageExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to write a message of an SMTP delivery", e);
+            return false;
+        }
+    }
+
+    SSLEngine createSslEngine(HostAddress server) {
+        try {
+            SSLEngine engine = SSLContext.getDefault().createSSLEngine(server.getHostName(), port(server));
+            engine.setUseClientMode(true);
+            return engine;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("No SSL context available", e);
+        }
+    }
+
+    private int port(HostAddress server) {
+        if (server.getPort() > 0) {
+            return server.getPort();
+        }
+        return ssl ? 465 : 25;
+    }
+
+    private HostConnections hostConnections(String key) {
+        HostConnections connections = hosts.get(key);
+        if (connections == null) {
+            connections = new HostConnections();
+            hosts.put(key, connections);
+        }
+        return connections;
+    }
+
+    Timer getTimer() {
+        return timer;
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+
+    MessageConverter getMessageConverter() {
+        return messageConverter;
+    }
+
+    String getHeloName() {
+        return heloName;
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+
+    boolean isStartTls() {
+        return startTls;
+    }
+
+    boolean isSendPartial() {
+        return sendPartial;
+    }
+
+    Optional<String> getAuthUser() {
+        return authUser;
+    }
+
+    Optional<String> getAuthPassword() {
+        return authPassword;
+    }
+}
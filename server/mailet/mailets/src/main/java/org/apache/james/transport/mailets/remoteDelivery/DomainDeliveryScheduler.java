@@ -0,0 +1,362 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.james.metrics.api.Metric;
+import org.apache.james.metrics.api.MetricFactory;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+
+/**
+ * Buffers the mails taken from the outgoing queue in one sub-queue per destination domain, and hands them to the
+ * delivery threads in turn, one domain after the other. The deliveries to each domain are limited by a
+ * {@link DomainThrottle}, so that a slow or rate limiting domain does not hold the delivery threads while mails
+ * for other domains wait.
+ * <p>
+ * The buffer is bounded both globally and per domain. Mails which do not fit the sub-queue of their domain, or
+ * whose domain is suspended by its throttle while the buffer is full, are given back to the outgoing queue through
+ * the {@link Requeuer} to be retried later. Only the domains which can be delivered to hold the dispatching thread.
+ * <p>
+ * For each domain, the number of buffered mails, the number of deliveries and their total duration in
+ * milliseconds are exported as metrics. As metrics can not be unregistered, only the first
+ * {@link #MAX_METERED_DOMAINS} domains get their own: the other ones share the metrics of {@link #OTHER_DOMAINS}.
+ */
+public class DomainDeliveryScheduler {
+
+    public static final int DEFAULT_MAX_BUFFERED_MAILS = 100;
+    public static final int DEFAULT_MAX_BUFFERED_MAILS_PER_DOMAIN = 20;
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_DOMAIN = 10;
+    public static final long DEFAULT_MAX_BACKOFF = 60000;
+    public static final long DEFAULT_LATENCY_THRESHOLD = 30000;
+    public static final int MAX_METERED_DOMAINS = 100;
+    public static final String OTHER_DOMAINS = "*other*";
+
+    private static final String QUEUE_DEPTH_METRIC = "outgoingQueueDepth:";
+    private static final String DELIVERIES_METRIC = "outgoingDeliveries:";
+    private static final String DELIVERY_TIME_METRIC = "outgoingDeliveryTime:";
+    /**
+     * Delay before retrying a mail whose domain sub-queue is full
+     */
+    private static final long MIN_REQUEUE_DELAY = 1000;
+
+    /**
+     * Gives the mails which can not be buffered back to the outgoing queue.
+     */
+    public interface Requeuer {
+        /**
+         * Requeue the mail so that its delivery is attempted again after the given delay in milliseconds.
+         */
+        void requeue(MailQueueItem item, long delay);
+    }
+
+    private static class Requeued {
+        private final MailQueueItem item;
+        private final long delay;
+
+        private Requeued(MailQueueItem item, long delay) {
+            this.item = item;
+            this.delay = delay;
+        }
+    }
+
+    /**
+     * A mail handed to a delivery thread. The outcome of its delivery must be reported once it completes.
+     */
+    public class Ticket {
+        private final DomainQueue domainQueue;
+        private final MailQueueItem item;
+        private final long start;
+
+        private Ticket(DomainQueue domainQueue, MailQueueItem item, long start) {
+            this.domainQueue = domainQueue;
+            this.item = item;
+            this.start = start;
+        }
+
+        public MailQueueItem getItem() {
+            return item;
+        }
+
+        public String getDomain() {
+            return domainQueue.domain;
+        }
+
+        /**
+         * Report the outcome of the delivery.
+         *
+         * @param temporaryFailure whether the delivery failed and should be retried later
+         */
+        public void complete(boolean temporaryFailure) {
+            long now = System.currentTimeMillis();
+            long latency = now - start;
+            domainQueue.deliveries.increment();
+            domainQueue.deliveryTime.add(latency);
+            synchronized (DomainDeliveryScheduler.this) {
+                domainQueue.throttle.release(now, temporaryFailure, latency);
+                released(now);
+            }
+        }
+
+        /**
+         * Report that the delivery was abandoned, without any outcome.
+         */
+        public void cancel() {
+            synchronized (DomainDeliveryScheduler.this) {
+                domainQueue.throttle.cancel();
+                released(System.currentTimeMillis());
+            }
+        }
+    }
+
+    private class DomainQueue {
+        private final String domain;
+        private final LinkedList<MailQueueItem> items = new LinkedList<MailQueueItem>();
+        private final DomainThrottle throttle;
+        private final Metric depth;
+        private final Metric deliveries;
+        private final Metric deliveryTime;
+
+        private DomainQueue(String domain) {
+            this.domain = domain;
+            this.throttle = new DomainThrottle(maxConcurrencyPerDomain, maxBackoff, latencyThreshold);
+            String meteredDomain = meteredDomain(domain);
+            this.depth = metricFactory.generate(QUEUE_DEPTH_METRIC + meteredDomain);
+            this.deliveries = metricFactory.generate(DELIVERIES_METRIC + meteredDomain);
+            this.deliveryTime = metricFactory.generate(DELIVERY_TIME_METRIC + meteredDomain);
+        }
+    }
+
+    private final int maxBufferedMails;
+    private final int maxBufferedMailsPerDomain;
+    private final int maxConcurrencyPerDomain;
+    private final long maxBackoff;
+    private final long latencyThreshold;
+    private final MetricFactory metricFactory;
+    private final Requeuer requeuer;
+
+    /**
+     * The domains having their own metrics. It never shrinks, the metrics of a domain staying registered.
+     */
+    private final Set<String> meteredDomains = new HashSet<String>();
+    private final Map<String, DomainQueue> domains = new HashMap<String, DomainQueue>();
+    /**
+     * The domains having buffered mails, in the order they are served
+     */
+    private final LinkedList<DomainQueue> pending = new LinkedList<DomainQueue>();
+    private int bufferedMails;
+    private boolean closed;
+
+    public DomainDeliveryScheduler(int maxBufferedMails, int maxBufferedMailsPerDomain, int maxConcurrencyPerDomain, long maxBackoff,
+                                   long latencyThreshold, MetricFactory metricFactory, Requeuer requeuer) {
+        this.maxBufferedMails = maxBufferedMails;
+        this.maxBufferedMailsPerDomain = maxBufferedMailsPerDomain;
+        this.maxConcurrencyPerDomain = maxConcurrencyPerDomain;
+        this.maxBackoff = maxBackoff;
+        this.latencyThreshold = latencyThreshold;
+        this.metricFactory = metricFactory;
+        this.requeuer = requeuer;
+    }
+
+    /**
+     * Buffer a mail for delivery. The mail is requeued when the sub-queue of its domain is full, or when the buffer
+     * is full and its domain is suspended. Otherwise, the mails of the suspended domains are requeued to make room,
+     * and the caller waits while the buffer is still full.
+     *
+     * @return false if the scheduler is closed, the mail being left to the caller
+     */
+    public boolean add(String domain, MailQueueItem item) throws InterruptedException {
+        List<Requeued> requeued = new ArrayList<Requeued>();
+        try {
+            return add(domain, item, requeued);
+        } finally {
+            // Outside of the lock: requeuing writes to the outgoing queue
+            for (Requeued mail : requeued) {
+                requeuer.requeue(mail.item, mail.delay);
+            }
+        }
+    }
+
+    private synchronized boolean add(String domain, MailQueueItem item, List<Requeued> requeued) throws InterruptedException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            DomainQueue domainQueue = domains.get(domain);
+            long suspension = domainQueue == null ? 0 : domainQueue.throttle.suspendedFor(now);
+            if (domainQueue != null && domainQueue.items.size() >= maxBufferedMailsPerDomain) {
+                requeued.add(new Requeued(item, Math.max(suspension, MIN_REQUEUE_DELAY)));
+                return true;
+            }
+            if (bufferedMails < maxBufferedMails) {
+                buffer(domain, domainQueue, item);
+                return true;
+            }
+            if (suspension > 0) {
+                requeued.add(new Requeued(item, suspension));
+                return true;
+            }
+            requeueSuspendedDomains(now, requeued);
+            if (bufferedMails >= maxBufferedMails) {
+                // The buffered mails can all be delivered: wait for the delivery threads
+                wait();
+            }
+        }
+        return false;
+    }
+
+    private void buffer(String domain, DomainQueue domainQueue, MailQueueItem item) {
+        if (domainQueue == null) {
+            domainQueue = new DomainQueue(domain);
+            domains.put(domain, domainQueue);
+        }
+        domainQueue.items.addLast(item);
+        domainQueue.depth.increment();
+        if (domainQueue.items.size() == 1) {
+            pending.addLast(domainQueue);
+        }
+        bufferedMails++;
+        notifyAll();
+    }
+
+    private void requeueSuspendedDomains(long now, List<Requeued> requeued) {
+        for (Iterator<DomainQueue> iterator = pending.iterator(); iterator.hasNext(); ) {
+            DomainQueue domainQueue = iterator.next();
+            long suspension = domainQueue.throttle.suspendedFor(now);
+            if (suspension > 0) {
+                iterator.remove();
+                for (MailQueueItem item : domainQueue.items) {
+                    requeued.add(new Requeued(item, suspension));
+                    domainQueue.depth.decrement();
+                    bufferedMails--;
+                }
+                domainQueue.items.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for the next mail to deliver, taken from the next domain whose throttle allows a delivery.
+     *
+     * @return the mail to deliver, or null if the scheduler is closed
+     */
+    public synchronized Ticket take() throws InterruptedException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            long wakeUp = Long.MAX_VALUE;
+            for (Iterator<DomainQueue> iterator = pending.iterator(); iterator.hasNext(); ) {
+                DomainQueue domainQueue = iterator.next();
+                long availableAt = domainQueue.throttle.availableAt(now);
+                if (availableAt <= now) {
+                    iterator.remove();
+                    MailQueueItem item = domainQueue.items.removeFirst();
+                    domainQueue.depth.decrement();
+                    domainQueue.throttle.acquire();
+                    if (!domainQueue.items.isEmpty()) {
+                        // The other domains are served first
+                        pending.addLast(domainQueue);
+                    }
+                    bufferedMails--;
+                    notifyAll();
+                    return new Ticket(domainQueue, item, now);
+                }
+                wakeUp = Math.min(wakeUp, availableAt);
+            }
+            if (wakeUp == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(wakeUp - now);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the current concurrency limit of the deliveries to the given domain.
+     */
+    public synchronized int getConcurrencyLimit(String domain) {
+        DomainQueue domainQueue = domains.get(domain);
+        if (domainQueue == null) {
+            return new DomainThrottle(maxConcurrencyPerDomain, maxBackoff, latencyThreshold).getLimit();
+        }
+        return domainQueue.throttle.getLimit();
+    }
+
+    /**
+     * Return the number of buffered mails for the given domain.
+     */
+    public synchronized int getQueueDepth(String domain) {
+        DomainQueue domainQueue = domains.get(domain);
+        if (domainQueue == null) {
+            return 0;
+        }
+        return domainQueue.items.size();
+    }
+
+    /**
+     * Close the scheduler. The threads waiting in {@link #add(String, MailQueueItem)} or {@link #take()} are
+     * released.
+     *
+     * @return the mails still buffered, which need to be given back to the queue
+     */
+    public synchronized List<MailQueueItem> close() {
+        closed = true;
+        List<MailQueueItem> buffered = new ArrayList<MailQueueItem>();
+        for (DomainQueue domainQueue : pending) {
+            for (MailQueueItem item : domainQueue.items) {
+                buffered.add(item);
+                domainQueue.depth.decrement();
+            }
+            domainQueue.items.clear();
+        }
+        pending.clear();
+        bufferedMails = 0;
+        notifyAll();
+        return buffered;
+    }
+
+    private String meteredDomain(String domain) {
+        if (meteredDomains.contains(domain)) {
+            return domain;
+        }
+        if (meteredDomains.size() < MAX_METERED_DOMAINS) {
+            meteredDomains.add(domain);
+            return domain;
+        }
+        return OTHER_DOMAINS;
+    }
+
+    private void released(long now) {
+        // Forget about the domains no more delivered to
+        for (Iterator<DomainQueue> iterator = domains.values().iterator(); iterator.hasNext(); ) {
+            DomainQueue domainQueue = iterator.next();
+            if (domainQueue.items.isEmpty() && domainQueue.throttle.isIdle(now)) {
+                iterator.remove();
+            }
+        }
+        notifyAll();
+    }
+}
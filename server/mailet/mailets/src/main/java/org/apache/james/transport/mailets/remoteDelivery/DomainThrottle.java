@@ -0,0 +1,117 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+/**
+ * Adapts the number of concurrent deliveries to a domain to how its servers behave: the concurrency grows by one
+ * each time as many deliveries as allowed succeeded, is halved on temporary failures and lowered when deliveries
+ * get slow. Temporary failures also suspend the deliveries to the domain for an exponentially growing delay.
+ */
+class DomainThrottle {
+
+    private static final int INITIAL_CONCURRENCY = 2;
+    private static final long INITIAL_BACKOFF = 1000;
+
+    private final int maxConcurrency;
+    private final long maxBackoff;
+    private final long latencyThreshold;
+
+    private int limit;
+    private int inFlight;
+    private int successes;
+    private long backoff;
+    private long notBefore;
+
+    DomainThrottle(int maxConcurrency, long maxBackoff, long latencyThreshold) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxBackoff = maxBackoff;
+        this.latencyThreshold = latencyThreshold;
+        this.limit = Math.min(INITIAL_CONCURRENCY, maxConcurrency);
+    }
+
+    /**
+     * Return when a delivery can be started: now, the end of the current backoff, or {@link Long#MAX_VALUE} if
+     * the concurrency limit is reached.
+     */
+    long availableAt(long now) {
+        if (now < notBefore) {
+            return notBefore;
+        }
+        if (inFlight >= limit) {
+            return Long.MAX_VALUE;
+        }
+        return now;
+    }
+
+    /**
+     * Return how long the deliveries to the domain are still suspended after a temporary failure, or 0.
+     */
+    long suspendedFor(long now) {
+        return Math.max(0, notBefore - now);
+    }
+
+    void acquire() {
+        inFlight++;
+    }
+
+    /**
+     * Record the outcome of a delivery started with {@link #acquire()}.
+     *
+     * @param temporaryFailure whether the delivery failed and should be retried later
+     * @param latency the duration of the delivery in milliseconds
+     */
+    void release(long now, boolean temporaryFailure, long latency) {
+        inFlight--;
+        if (temporaryFailure) {
+            limit = Math.max(1, limit / 2);
+            successes = 0;
+            backoff = backoff == 0 ? Math.min(INITIAL_BACKOFF, maxBackoff) : Math.min(backoff * 2, maxBackoff);
+            notBefore = Math.max(notBefore, now + backoff);
+        } else {
+            backoff = 0;
+            if (latency > latencyThreshold) {
+                limit = Math.max(1, limit - 1);
+                successes = 0;
+            } else if (++successes >= limit) {
+                successes = 0;
+                limit = Math.min(maxConcurrency, limit + 1);
+            }
+        }
+    }
+
+    /**
+     * Cancel a delivery started with {@link #acquire()}, without recording any outcome.
+     */
+    void cancel() {
+        inFlight--;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Return whether no delivery is in progress and the throttle does not hold back the next ones.
+     */
+    boolean isIdle(long now) {
+        return inFlight == 0 && now >= notBefore;
+    }
+}
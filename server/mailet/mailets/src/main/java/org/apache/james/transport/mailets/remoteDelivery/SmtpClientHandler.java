@@ -0,0 +1,729 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+import com.google.common.io.BaseEncoding;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPOutputStream;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Drives the SMTP session of one connection of an {@link AsyncSmtpClient}: the session is established once, then
+ * the connection delivers mails one after the other until the client closes it.
+ */
+class SmtpClientHandler extends SimpleChannelUpstreamHandler {
+
+    private static final String[] IGNORED_HEADERS = {"Bcc", "Content-Length"};
+    private static final Address[] NO_ADDRESS = new Address[0];
+    private static final int CHUNK_SIZE = 8192;
+
+    private enum State {
+        GREETING, EHLO, HELO, STARTTLS, AUTH, AUTH_LOGIN, AUTH_LOGIN_USER, RSET, MAIL, RCPT, DATA, MESSAGE, IDLE, QUIT, CLOSED
+    }
+
+    private final AsyncSmtpClient client;
+    private final String key;
+    private final String host;
+    private Channel channel;
+    private State state = State.GREETING;
+    private boolean tlsStarted;
+    private final Map<String, String> extensions = new HashMap<String, String>();
+    private int messageCount;
+    private Timeout timeout;
+    /**
+     * Notified when the channel becomes writable again, or gets closed
+     */
+    private final Object writability = new Object();
+
+    private AsyncSmtpClient.Delivery delivery;
+    private String mailCommand;
+    private int rcptSent;
+    private int rcptReplied;
+    private SMTPSendFailedException mailFailure;
+    private List<Address> valid;
+    private List<Address> validUnsent;
+    private List<Address> invalid;
+    private MessagingException addressFailures;
+
+    SmtpClientHandler(AsyncSmtpClient client, AsyncSmtpClient.Delivery delivery) {
+        this.client = client;
+        this.key = delivery.key;
+        this.host = delivery.server.getHostName() + " at " + delivery.server.getHost();
+        this.delivery = delivery;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    synchronized int getMessageCount() {
+        return messageCount;
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            channel = e.getChannel();
+            expectReply();
+        }
+        super.channelConnected(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        reply((SmtpReply) e.getMessage());
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        failure(e.getCause());
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (writability) {
+            writability.notifyAll();
+        }
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (writability) {
+            writability.notifyAll();
+        }
+        failure(new IOException("Connection closed by " + host));
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Start the delivery of a mail over the already established session.
+     *
+     * @param reset whether the session should be reset first, as it was idle or its last transaction failed
+     */
+    synchronized void start(AsyncSmtpClient.Delivery delivery, boolean reset) {
+        cancelTimeout();
+        if (state == State.CLOSED) {
+            // Closed while idle, the delivery goes to another connection
+            client.send(delivery);
+            return;
+        }
+        this.delivery = delivery;
+        if (reset) {
+            state = State.RSET;
+            write("RSET");
+        } else {
+            startTransaction();
+        }
+    }
+
+    /**
+     * Keep the connection open for the next deliveries, until the idle timeout expires.
+     */
+    synchronized void idle(long idleTimeout) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.IDLE;
+        timeout = client.getTimer().newTimeout(new TimerTask() {
+            public void run(Timeout timeout) throws Exception {
+                if (client.expired(SmtpClientHandler.this)) {
+                    quit();
+                }
+            }
+        }, idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * End the session and close the connection.
+     */
+    synchronized void quit() {
+        cancelTimeout();
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.QUIT;
+        write("QUIT");
+    }
+
+    private synchronized void reply(SmtpReply reply) {
+        cancelTimeout();
+        switch (state) {
+        case GREETING:
+            if (reply.getCode() == 220) {
+                ehlo();
+            } else {
+                connectionFailure(new MessagingException("Got bad greeting from SMTP host: " + host + ", response: " + reply));
+            }
+            break;
+        case EHLO:
+            if (reply.getCode() == 250) {
+                readExtensions(reply);
+                sessionStarted();
+            } else {
+                state = State.HELO;
+                write("HELO " + client.getHeloName());
+            }
+            break;
+        case HELO:
+            if (reply.getCode() == 250) {
+                extensions.clear();
+                sessionStarted();
+            } else {
+                connectionFailure(new MessagingException(reply.toString()));
+            }
+            break;
+        case STARTTLS:
+            if (reply.getCode() == 220) {
+                startTls();
+            } else {
+                connectionFailure(new MessagingException(reply.toString()));
+            }
+            break;
+        case AUTH_LOGIN:
+            if (reply.getCode() == 334) {
+                state = State.AUTH_LOGIN_USER;
+                write(base64(client.getAuthUser().get()));
+            } else {
+                connectionFailure(new AuthenticationFailedException(reply.toString()));
+            }
+            break;
+        case AUTH_LOGIN_USER:
+            if (reply.getCode() == 334) {
+                state = State.AUTH;
+                write(base64(client.getAuthPassword().or("")));
+            } else {
+                connectionFailure(new AuthenticationFailedException(reply.toString()));
+            }
+            break;
+        case AUTH:
+            if (reply.getCode() == 235) {
+                startTransaction();
+            } else {
+                connectionFailure(new AuthenticationFailedException(reply.toString()));
+            }
+            break;
+        case RSET:
+            if (reply.getCode() == 250) {
+                startTransaction();
+            } else {
+                retry();
+            }
+            break;
+        case MAIL:
+            mailReply(reply);
+            break;
+        case RCPT:
+            rcptReply(reply);
+            break;
+        case DATA:
+            dataReply(reply);
+            break;
+        case MESSAGE:
+            messageReply(reply);
+            break;
+        case QUIT:
+            close();
+            break;
+        default:
+            // Unsolicited reply, most likely the server shutting down an idle connection
+            close();
+        }
+    }
+
+    private void ehlo() {
+        state = State.EHLO;
+        write("EHLO " + client.getHeloName());
+    }
+
+    private void readExtensions(SmtpReply reply) {
+        extensions.clear();
+        List<String> lines = reply.getLines();
+        // The first line is the greeting of the server
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.trim().split(" ", 2);
+            extensions.put(parts[0].toUpperCase(Locale.US), parts.length > 1 ? parts[1].toUpperCase(Locale.US) : "");
+        }
+    }
+
+    private boolean supports(String extension) {
+        return extensions.containsKey(extension);
+    }
+
+    private void sessionStarted() {
+        if (client.isStartTls() && !tlsStarted && supports("STARTTLS")) {
+            state = State.STARTTLS;
+            write("STARTTLS");
+        } else if (client.getAuthUser().isPresent() && (supports("AUTH") || supports("AUTH=LOGIN"))) {
+            authenticate();
+        } else {
+            startTransaction();
+        }
+    }
+
+    private void startTls() {
+        SslHandler sslHandler = new SslHandler(client.createSslEngine(delivery.server));
+        channel.getPipeline().addFirst("ssl", sslHandler);
+        expectReply();
+        sslHandler.handshake().addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    tlsStarted();
+                } else {
+                    failure(future.getCause());
+                }
+            }
+        });
+    }
+
+    private synchronized void tlsStarted() {
+        if (state != State.STARTTLS) {
+            return;
+        }
+        cancelTimeout();
+        tlsStarted = true;
+        ehlo();
+    }
+
+    private void authenticate() {
+        List<String> mechanisms = new ArrayList<String>();
+        if (supports("AUTH")) {
+            mechanisms.addAll(Arrays.asList(extensions.get("AUTH").split(" ")));
+        }
+        if (supports("AUTH=LOGIN")) {
+            mechanisms.add("LOGIN");
+        }
+        if (mechanisms.contains("PLAIN")) {
+            state = State.AUTH;
+            write("AUTH PLAIN " + base64("\0" + client.getAuthUser().get() + "\0" + client.getAuthPassword().or("")));
+        } else if (mechanisms.contains("LOGIN")) {
+            state = State.AUTH_LOGIN;
+            write("AUTH LOGIN");
+        } else {
+            connectionFailure(new AuthenticationFailedException("No authentication mechanisms supported by both server and client"));
+        }
+    }
+
+    private void startTransaction() {
+        state = State.MAIL;
+        rcptSent = 0;
+        rcptReplied = 0;
+        mailFailure = null;
+        valid = new ArrayList<Address>();
+        validUnsent = new ArrayList<Address>();
+        invalid = new ArrayList<Address>();
+        addressFailures = null;
+
+        mailCommand = "MAIL FROM:<" + delivery.sender + ">";
+        if (supports("8BITMIME")) {
+            mailCommand += " BODY=8BITMIME";
+        }
+        StringBuilder commands = new StringBuilder(mailCommand).append("\r\n");
+        if (supports("PIPELINING")) {
+            // Save a round trip per recipient
+            while (rcptSent < delivery.recipients.length) {
+                commands.append(rcptCommand(rcptSent++)).append("\r\n");
+            }
+        }
+        writeRaw(commands.toString());
+    }
+
+    private String rcptCommand(int index) {
+        return "RCPT TO:<" + delivery.recipients[index].getAddress() + ">";
+    }
+
+    private void mailReply(SmtpReply reply) {
+        if (reply.getCode() != 250) {
+            mailFailure = new SMTPSendFailedException(mailCommand, reply.getCode(), reply.toString(), null, null, NO_ADDRESS, null);
+        }
+        if (rcptSent == 0) {
+            if (mailFailure != null) {
+                transactionFailure(mailFailure);
+                return;
+            }
+            state = State.RCPT;
+            write(rcptCommand(rcptSent++));
+        } else {
+            // The replies to the pipelined RCPT commands follow
+            state = State.RCPT;
+        }
+    }
+
+    private void rcptReply(SmtpReply reply) {
+        int index = rcptReplied++;
+        if (mailFailure == null) {
+            recordRecipient(delivery.recipients[index], reply);
+        }
+        if (rcptReplied < delivery.recipients.length) {
+            if (rcptSent == rcptReplied) {
+                write(rcptCommand(rcptSent++));
+            }
+            return;
+        }
+        if (mailFailure != null) {
+            transactionFailure(mailFailure);
+            return;
+        }
+
+        boolean sendFailed = valid.isEmpty() || (!client.isSendPartial() && (!invalid.isEmpty() || !validUnsent.isEmpty()));
+        if (sendFailed) {
+            transactionFailure(new SendFailedException("Invalid Addresses", addressFailures, null, unsentAddresses(), addresses(invalid)));
+        } else {
+            state = State.DATA;
+            write("DATA");
+        }
+    }
+
+    private void recordRecipient(InternetAddress address, SmtpReply reply) {
+        int code = reply.getCode();
+        if (code == 250 || code == 251) {
+            valid.add(address);
+            return;
+        }
+        SMTPAddressFailedException failure = new SMTPAddressFailedException(address, rcptCommand(rcptReplied - 1), code, reply.toString());
+        if (addressFailures == null) {
+            addressFailures = failure;
+        } else {
+            addressFailures.setNextException(failure);
+        }
+        if (code >= 500 && code <= 599 && code != 552) {
+            invalid.add(address);
+        } else {
+            validUnsent.add(address);
+        }
+    }
+
+    private void dataReply(SmtpReply reply) {
+        if (reply.getCode() != 354) {
+            transactionFailure(new SMTPSendFailedException("DATA", reply.getCode(), reply.toString(), addressFailures, null, unsentAddresses(), addresses(invalid)));
+            return;
+        }
+        state = State.MESSAGE;
+        final AsyncSmtpClient.Delivery current = delivery;
+        final boolean supports8BitMime = supports("8BITMIME");
+        // Reading the message and waiting for the server to read it block
+        boolean dispatched = client.dispatchMessage(new Runnable() {
+            public void run() {
+                writeMessage(current, supports8BitMime);
+            }
+        });
+        if (!dispatched) {
+            messageFailure(current, new MessagingException("Unable to write the message"));
+        }
+    }
+
+    private void writeMessage(AsyncSmtpClient.Delivery current, boolean supports8BitMime) {
+        try {
+            if (!supports8BitMime) {
+                try {
+                    client.getMessageConverter().convertTo7Bit(current.message);
+                } catch (IOException e) {
+                    client.getLogger().error("Error during the conversion to 7 bit.", e);
+                }
+            }
+            ChunkedMessageOutputStream chunks = new ChunkedMessageOutputStream(current);
+            SMTPOutputStream out = new SMTPOutputStream(chunks);
+            current.message.writeTo(out, IGNORED_HEADERS);
+            out.ensureAtBOL();
+            out.flush();
+            // Not to be dot-stuffed
+            chunks.write(".\r\n".getBytes(CharsetUtil.US_ASCII));
+            chunks.flush();
+            chunks.lastChunkWritten().addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        messageWritten();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            messageFailure(current, new MessagingException("IOException while sending message", e));
+        } catch (MessagingException e) {
+            messageFailure(current, e);
+        }
+    }
+
+    /**
+     * Writes the message to the channel by chunks of {@link #CHUNK_SIZE} bytes. Once the channel is no more
+     * writable, the writing thread waits for the server to read what was written: only a few chunks of the message
+     * are held in memory, whatever its size.
+     */
+    private class ChunkedMessageOutputStream extends OutputStream {
+        private final AsyncSmtpClient.Delivery current;
+        private ChannelBuffer chunk = ChannelBuffers.buffer(CHUNK_SIZE);
+        private ChannelFuture lastWrite;
+
+        private ChunkedMessageOutputStream(AsyncSmtpClient.Delivery current) {
+            this.current = current;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            chunk.writeByte(b);
+            if (!chunk.writable()) {
+                writeChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int length = Math.min(len, chunk.writableBytes());
+                chunk.writeBytes(b, off, length);
+                off += length;
+                len -= length;
+                if (!chunk.writable()) {
+                    writeChunk();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (chunk.readable()) {
+                writeChunk();
+            }
+        }
+
+        ChannelFuture lastChunkWritten() {
+            return lastWrite;
+        }
+
+        private void writeChunk() throws IOException {
+            awaitWritable();
+            synchronized (SmtpClientHandler.this) {
+                if (delivery != current || state != State.MESSAGE) {
+                    throw new IOException("The delivery was aborted");
+                }
+                lastWrite = channel.write(chunk);
+            }
+            chunk = ChannelBuffers.buffer(CHUNK_SIZE);
+        }
+
+        private void awaitWritable() throws IOException {
+            long deadline = System.currentTimeMillis() + client.getTimeout();
+            synchronized (writability) {
+                while (!channel.isWritable()) {
+                    if (!channel.isOpen()) {
+                        throw new IOException("Connection closed by " + host);
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timeout while sending the message to " + host);
+                    }
+                    try {
+                        writability.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while sending the message");
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void messageWritten() {
+        if (state == State.MESSAGE) {
+            expectReply();
+        }
+    }
+
+    private synchronized void messageFailure(AsyncSmtpClient.Delivery current, MessagingException e) {
+        if (delivery != current || state != State.MESSAGE) {
+            return;
+        }
+        // The server waits for the message, the session can not be recovered
+        delivery = null;
+        client.deliveryFailed(current, e);
+        close();
+    }
+
+    private void messageReply(SmtpReply reply) {
+        messageCount++;
+        if (reply.getCode() != 250) {
+            transactionFailure(new SMTPSendFailedException(".", reply.getCode(), reply.toString(), addressFailures, null, unsentAddresses(), addresses(invalid)));
+        } else if (!invalid.isEmpty() || !validUnsent.isEmpty()) {
+            // Partially delivered
+            transactionFailure(new SMTPSendFailedException(".", reply.getCode(), reply.toString(), addressFailures, addresses(valid), addresses(validUnsent), addresses(invalid)));
+        } else {
+            AsyncSmtpClient.Delivery delivered = delivery;
+            delivery = null;
+            state = State.IDLE;
+            client.delivered(delivered);
+            client.released(this, true);
+        }
+    }
+
+    private void transactionFailure(MessagingException e) {
+        AsyncSmtpClient.Delivery failed = delivery;
+        delivery = null;
+        state = State.IDLE;
+        client.deliveryFailed(failed, e);
+        client.released(this, true);
+    }
+
+    private void connectionFailure(MessagingException e) {
+        AsyncSmtpClient.Delivery failed = delivery;
+        delivery = null;
+        client.connectionFailed(failed, e);
+        close();
+    }
+
+    /**
+     * A reused connection turned out to be unusable, deliver the mail over another one.
+     */
+    private void retry() {
+        AsyncSmtpClient.Delivery retried = delivery;
+        delivery = null;
+        close();
+        client.send(retried);
+    }
+
+    synchronized void failure(Throwable cause) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (client.getLogger().isDebugEnabled()) {
+            client.getLogger().debug("SMTP connection to " + host + " failed in state " + state, cause);
+        }
+        State failedState = state;
+        AsyncSmtpClient.Delivery failed = delivery;
+        delivery = null;
+        close();
+        if (failed == null) {
+            return;
+        }
+        Exception exception = asIOException(cause);
+        switch (failedState) {
+        case GREETING:
+        case EHLO:
+        case HELO:
+        case STARTTLS:
+        case AUTH:
+        case AUTH_LOGIN:
+        case AUTH_LOGIN_USER:
+            client.connectionFailed(failed, new MessagingException("Could not connect to SMTP host: " + host, exception));
+            break;
+        case RSET:
+            client.send(failed);
+            break;
+        default:
+            client.deliveryFailed(failed, new MessagingException("Exception reading response", exception));
+        }
+    }
+
+    private Exception asIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private void close() {
+        cancelTimeout();
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        if (channel != null) {
+            channel.close();
+        }
+        client.closed(this);
+    }
+
+    private void write(String command) {
+        writeRaw(command + "\r\n");
+    }
+
+    private void writeRaw(String commands) {
+        channel.write(ChannelBuffers.copiedBuffer(commands, CharsetUtil.US_ASCII));
+        expectReply();
+    }
+
+    private void expectReply() {
+        cancelTimeout();
+        timeout = client.getTimer().newTimeout(new TimerTask() {
+            public void run(Timeout timeout) throws Exception {
+                timedOut(timeout);
+            }
+        }, client.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void timedOut(Timeout expired) {
+        if (expired == timeout) {
+            failure(new SocketTimeoutException("Read timed out"));
+        }
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    private Address[] unsentAddresses() {
+        List<Address> unsent = new ArrayList<Address>(valid);
+        unsent.addAll(validUnsent);
+        return addresses(unsent);
+    }
+
+    private Address[] addresses(List<Address> addresses) {
+        return addresses.toArray(new Address[addresses.size()]);
+    }
+
+    private String base64(String value) {
+        return BaseEncoding.base64().encode(value.getBytes(CharsetUtil.UTF_8));
+    }
+}
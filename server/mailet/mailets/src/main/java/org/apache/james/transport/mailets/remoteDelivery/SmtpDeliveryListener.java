@@ -0,0 +1,48 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import javax.mail.MessagingException;
+
+/**
+ * Notified of the outcome of a delivery started with {@link AsyncSmtpClient#send}. The methods are called from the
+ * executor of the client, exactly one of them once per delivery.
+ * <p/>
+ * The failures are reported with the exceptions JavaMail would have thrown for the same server replies.
+ */
+public interface SmtpDeliveryListener {
+
+    /**
+     * No session could be established with the server: connection, greeting, EHLO, STARTTLS or AUTH failed.
+     */
+    void connectionFailed(MessagingException e);
+
+    /**
+     * The server accepted the mail for all its recipients.
+     */
+    void delivered();
+
+    /**
+     * The server refused the mail for some or all of its recipients, or the connection failed during the
+     * transaction.
+     */
+    void deliveryFailed(MessagingException e);
+}
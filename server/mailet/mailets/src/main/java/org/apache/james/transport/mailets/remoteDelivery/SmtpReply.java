@@ -0,0 +1,65 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A reply of an SMTP server, made of one or more lines sharing the same code.
+ */
+public class SmtpReply {
+
+    private final int code;
+    private final List<String> lines;
+
+    public SmtpReply(int code, List<String> lines) {
+        this.code = code;
+        this.lines = ImmutableList.copyOf(lines);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Return the text of each line, without the code.
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * Return the reply as read from the server, lines being separated by new lines as JavaMail reports it.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                builder.append('\n');
+            }
+            builder.append(code).append(i < lines.size() - 1 ? '-' : ' ').append(lines.get(i));
+        }
+        return builder.toString();
+    }
+}
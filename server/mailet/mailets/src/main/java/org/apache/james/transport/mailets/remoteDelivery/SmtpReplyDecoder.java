@@ -0,0 +1,77 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * Decodes the lines sent by an SMTP server into {@link SmtpReply}, joining the lines of multi-line replies.
+ */
+public class SmtpReplyDecoder extends FrameDecoder {
+
+    public static final int MAX_LINE_LENGTH = 4096;
+
+    private List<String> lines = new ArrayList<String>();
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        while (true) {
+            int lineEnd = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+            if (lineEnd < 0) {
+                if (buffer.readableBytes() > MAX_LINE_LENGTH) {
+                    throw new TooLongFrameException("SMTP reply line exceeds " + MAX_LINE_LENGTH + " bytes");
+                }
+                return null;
+            }
+            int length = lineEnd - buffer.readerIndex();
+            if (length > 0 && buffer.getByte(lineEnd - 1) == '\r') {
+                length--;
+            }
+            String line = buffer.toString(buffer.readerIndex(), length, CharsetUtil.UTF_8);
+            buffer.readerIndex(lineEnd + 1);
+
+            if (line.length() < 3) {
+                throw new CorruptedFrameException("Invalid SMTP reply line: " + line);
+            }
+            int code;
+            try {
+                code = Integer.parseInt(line.substring(0, 3));
+            } catch (NumberFormatException e) {
+                throw new CorruptedFrameException("Invalid SMTP reply line: " + line);
+            }
+            lines.add(line.length() > 4 ? line.substring(4) : "");
+            if (line.length() <= 3 || line.charAt(3) != '-') {
+                SmtpReply reply = new SmtpReply(code, lines);
+                lines = new ArrayList<String>();
+                return reply;
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+import org.apache.mailet.HostAddress;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+public class RemoteDeliveryConnectionPoolTest {
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final int MAX_MESSAGES_PER_CONNECTION = 3;
+    private static final long WAIT_TIMEOUT = 10;
+
+    private static final HostAddress HOST = new HostAddress("mx.domain.tld", "smtp://10.0.0.1:25");
+    private static final HostAddress OTHER_HOST = new HostAddress("mx.other.tld", "smtp://10.0.0.2:25");
+
+    private RecordingConnector connector;
+    private Session session;
+    private RemoteDeliveryConnectionPool testee;
+
+    @Before
+    public void setUp() {
+        connector = new RecordingConnector();
+        session = Session.getInstance(new Properties());
+        testee = createPool(IDLE_TIMEOUT);
+    }
+
+    private RemoteDeliveryConnectionPool createPool(long idleTimeout) {
+        return createPool(idleTimeout, WAIT_TIMEOUT);
+    }
+
+    private RemoteDeliveryConnectionPool createPool(long idleTimeout, long waitTimeout) {
+        return new RemoteDeliveryConnectionPool(connector, MAX_CONNECTIONS_PER_HOST, idleTimeout, MAX_MESSAGES_PER_CONNECTION,
+            waitTimeout, LoggerFactory.getLogger(RemoteDeliveryConnectionPoolTest.class));
+    }
+
+    @Test
+    public void borrowShouldReuseReleasedConnection() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        testee.release(first, true);
+
+        RemoteDeliveryConnectionPool.PooledConnection second = testee.borrow(session, HOST);
+
+        assertThat(second.getTransport()).isSameAs(first.getTransport());
+        assertThat(connector.opened).hasSize(1);
+    }
+
+    @Test
+    public void borrowShouldResetReusedConnection() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        testee.release(first, true);
+
+        testee.borrow(session, HOST);
+
+        verify(first.getTransport()).issueCommand("RSET", 250);
+    }
+
+    @Test
+    public void borrowShouldNotReuseConnectionOfAnotherHost() throws Exception {
+        testee.release(testee.borrow(session, HOST), true);
+
+        testee.borrow(session, OTHER_HOST);
+
+        assertThat(connector.opened).hasSize(2);
+    }
+
+    @Test
+    public void borrowShouldNotReuseConnectionOfAnotherSession() throws Exception {
+        testee.release(testee.borrow(session, HOST), true);
+
+        testee.borrow(Session.getInstance(new Properties()), HOST);
+
+        assertThat(connector.opened).hasSize(2);
+    }
+
+    @Test
+    public void releaseShouldCloseConnectionWhenNotReusable() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection connection = testee.borrow(session, HOST);
+
+        testee.release(connection, false);
+
+        verify(connection.getTransport()).close();
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(0);
+    }
+
+    @Test
+    public void releaseShouldCloseConnectionAfterMaxMessages() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection connection = null;
+        for (int i = 0; i < MAX_MESSAGES_PER_CONNECTION; i++) {
+            connection = testee.borrow(session, HOST);
+            testee.release(connection, true);
+        }
+
+        verify(connection.getTransport()).close();
+        assertThat(connector.opened).hasSize(1);
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(0);
+    }
+
+    @Test
+    public void borrowShouldOpenNewConnectionWhenResetFails() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        doThrow(new MessagingException("closed")).when(first.getTransport()).issueCommand("RSET", 250);
+        testee.release(first, true);
+
+        RemoteDeliveryConnectionPool.PooledConnection second = testee.borrow(session, HOST);
+
+        assertThat(second.getTransport()).isNotSameAs(first.getTransport());
+        verify(first.getTransport()).close();
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(1);
+    }
+
+    @Test
+    public void borrowShouldNotReuseExpiredConnection() throws Exception {
+        testee = createPool(0);
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        testee.release(first, true);
+
+        testee.borrow(session, HOST);
+
+        verify(first.getTransport()).close();
+        verify(first.getTransport(), never()).issueCommand("RSET", 250);
+        assertThat(connector.opened).hasSize(2);
+    }
+
+    @Test
+    public void borrowShouldCloseIdleConnectionOfAnotherSessionWhenHostIsFull() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        testee.borrow(session, HOST);
+        testee.release(first, true);
+
+        testee.borrow(Session.getInstance(new Properties()), HOST);
+
+        verify(first.getTransport()).close();
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(MAX_CONNECTIONS_PER_HOST);
+    }
+
+    @Test(expected = MessagingException.class)
+    public void borrowShouldFailWhenHostIsFullAfterWaiting() throws Exception {
+        testee.borrow(session, HOST);
+        testee.borrow(session, HOST);
+
+        testee.borrow(session, HOST);
+    }
+
+    @Test
+    public void waitingBorrowShouldBeCountedWhenTheHostWasEvictedMeanwhile() throws Exception {
+        testee = createPool(0, 60000);
+        RemoteDeliveryConnectionPool.PooledConnection first = testee.borrow(session, HOST);
+        RemoteDeliveryConnectionPool.PooledConnection second = testee.borrow(session, HOST);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    testee.borrow(session, HOST);
+                } catch (MessagingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        // The waiter only gets the slot once the entry of the host was dropped by the eviction
+        synchronized (testee) {
+            testee.release(first, false);
+            testee.release(second, false);
+            testee.borrow(session, OTHER_HOST);
+        }
+        waiter.join(10000);
+
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(1);
+    }
+
+    @Test
+    public void borrowShouldNotCountFailedConnection() throws Exception {
+        connector.failure = new MessagingException("refused");
+        try {
+            testee.borrow(session, HOST);
+        } catch (MessagingException e) {
+            // expected
+        }
+
+        assertThat(testee.getOpenConnectionCount(HOST)).isEqualTo(0);
+    }
+
+    @Test
+    public void closeShouldCloseIdleConnections() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection connection = testee.borrow(session, HOST);
+        testee.release(connection, true);
+
+        testee.close();
+
+        verify(connection.getTransport()).close();
+    }
+
+    @Test
+    public void releaseShouldCloseConnectionOnceThePoolIsClosed() throws Exception {
+        RemoteDeliveryConnectionPool.PooledConnection connection = testee.borrow(session, HOST);
+        testee.close();
+
+        testee.release(connection, true);
+
+        verify(connection.getTransport()).close();
+    }
+
+    private static class RecordingConnector implements RemoteDeliveryConnectionPool.Connector {
+        private final List<SMTPTransport> opened = new ArrayList<SMTPTransport>();
+        private MessagingException failure;
+
+        public SMTPTransport connect(Session session, HostAddress host) throws MessagingException {
+            if (failure != null) {
+                throw failure;
+            }
+            SMTPTransport transport = mock(SMTPTransport.class);
+            opened.add(transport);
+            return transport;
+        }
+    }
+}
@@ -21,12 +21,14 @@ package org.apache.james.transport.mailets.delivery;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -239,11 +241,234 @@ public class MailDispatcherTest {
                 new String[]{MailAddressFixture.ANY_AT_JAMES2.toString()});
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void concurrencyShouldBeStrictlyPositive() throws Exception {
+        MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .concurrency(0);
+    }
+
+    @Test
+    public void concurrentDispatchShouldStoreMailForEachRecipient() throws Exception {
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .consume(true)
+            .concurrency(2)
+            .build();
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES)
+            .state("state")
+            .mimeMessage(textMessage())
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        verify(mailStore).storeMail(eq(MailAddressFixture.ANY_AT_JAMES), any(Mail.class));
+        verify(mailStore).storeMail(eq(MailAddressFixture.ANY_AT_JAMES2), any(Mail.class));
+        verify(mailStore).storeMail(eq(MailAddressFixture.OTHER_AT_JAMES), any(Mail.class));
+        verifyNoMoreInteractions(mailStore);
+        assertThat(mail.getState()).isEqualTo(Mail.GHOST);
+    }
+
+    @Test
+    public void disposingADispatcherShouldNotStopTheExecutorOfTheOthers() throws Exception {
+        MailDispatcher disposed = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .concurrency(2)
+            .build();
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .concurrency(2)
+            .build();
+        disposed.dispose();
+        disposed.dispose();
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES)
+            .state("state")
+            .mimeMessage(textMessage())
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        verify(mailStore).storeMail(eq(MailAddressFixture.ANY_AT_JAMES), any(Mail.class));
+        verify(mailStore).storeMail(eq(MailAddressFixture.ANY_AT_JAMES2), any(Mail.class));
+        verify(mailStore).storeMail(eq(MailAddressFixture.OTHER_AT_JAMES), any(Mail.class));
+        verifyNoMoreInteractions(mailStore);
+    }
+
+    @Test
+    public void concurrentDispatchShouldCustomizeDeliveredToHeader() throws Exception {
+        AccumulatorDeliveredToHeaderMailStore accumulator = new AccumulatorDeliveredToHeaderMailStore();
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(accumulator)
+            .consume(false)
+            .concurrency(2)
+            .build();
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2)
+            .mimeMessage(textMessage())
+            .state("state")
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        assertThat(accumulator.getDeliveredToHeaderValues())
+            .containsOnly(new String[]{MailAddressFixture.ANY_AT_JAMES.toString()},
+                new String[]{MailAddressFixture.ANY_AT_JAMES2.toString()});
+    }
+
+    @Test
+    public void concurrentDispatchShouldNotModifySharedMessage() throws Exception {
+        AccumulatorDeliveredToHeaderMailStore accumulator = new AccumulatorDeliveredToHeaderMailStore();
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(accumulator)
+            .consume(false)
+            .concurrency(2)
+            .build();
+
+        MimeMessage mimeMessage = textMessage();
+        String delivered_to = "delivered_to";
+        mimeMessage.addHeader(MailDispatcher.DELIVERED_TO, delivered_to);
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2)
+            .mimeMessage(mimeMessage)
+            .state("state")
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        assertThat(mimeMessage.getHeader(MailDispatcher.DELIVERED_TO)).containsExactly(delivered_to);
+        assertThat(accumulator.getDeliveredToHeaderValues())
+            .containsOnly(new String[]{MailAddressFixture.ANY_AT_JAMES.toString()},
+                new String[]{MailAddressFixture.ANY_AT_JAMES2.toString()});
+    }
+
+    @Test
+    public void concurrentDispatchShouldExposeReturnPathAndContent() throws Exception {
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .consume(false)
+            .concurrency(2)
+            .build();
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2)
+            .mimeMessage(textMessage())
+            .state("state")
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        ArgumentCaptor<Mail> mailCaptor = ArgumentCaptor.forClass(Mail.class);
+        verify(mailStore).storeMail(eq(MailAddressFixture.ANY_AT_JAMES), mailCaptor.capture());
+
+        assertThat(mailCaptor.getValue().getMessage().getHeader(RFC2822Headers.RETURN_PATH))
+            .containsExactly("<" + MailAddressFixture.OTHER_AT_JAMES +">");
+        assertThat(IOUtils.toString(mailCaptor.getValue().getMessage().getInputStream(), Charsets.UTF_8))
+            .isEqualTo("toto");
+    }
+
+    @Test
+    public void concurrentDispatchShouldAggregateErrors() throws Exception {
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(mailStore)
+            .consume(true)
+            .concurrency(2)
+            .build();
+        doThrow(new MessagingException())
+            .when(mailStore)
+            .storeMail(eq(MailAddressFixture.ANY_AT_JAMES2), any(Mail.class));
+        doThrow(new MessagingException())
+            .when(mailStore)
+            .storeMail(eq(MailAddressFixture.OTHER_AT_JAMES), any(Mail.class));
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES)
+            .mimeMessage(textMessage())
+            .state("state")
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        List<FakeMailContext.SentMail> actual = fakeMailContext.getSentMails();
+        assertThat(actual).hasSize(1);
+        assertThat(actual.get(0).getRecipients())
+            .containsOnly(MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES);
+        assertThat(actual.get(0).getState()).isEqualTo(Mail.ERROR);
+    }
+
+    @Test
+    public void concurrentDispatchShouldWaitForTheStartedWorkers() throws Exception {
+        MailDispatcher testee = MailDispatcher.builder()
+            .log(mock(Log.class))
+            .mailetContext(fakeMailContext)
+            .mailStore(new MailStore() {
+                @Override
+                public void storeMail(MailAddress recipient, Mail mail) throws MessagingException {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new MessagingException();
+                }
+            })
+            .consume(true)
+            .concurrency(3)
+            .build();
+
+        FakeMail mail = FakeMail.builder()
+            .sender(MailAddressFixture.OTHER_AT_JAMES)
+            .recipients(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES)
+            .mimeMessage(textMessage())
+            .state("state")
+            .build();
+        testee.dispatch(mail);
+        testee.dispose();
+
+        List<FakeMailContext.SentMail> actual = fakeMailContext.getSentMails();
+        assertThat(actual).hasSize(1);
+        assertThat(actual.get(0).getRecipients())
+            .containsOnly(MailAddressFixture.ANY_AT_JAMES, MailAddressFixture.ANY_AT_JAMES2, MailAddressFixture.OTHER_AT_JAMES);
+    }
+
+    private MimeMessage textMessage() throws MessagingException {
+        MimeMessage mimeMessage = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        mimeMessage.setText("toto");
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
+
     public static class AccumulatorDeliveredToHeaderMailStore implements MailStore {
         public final List<String[]> deliveredToHeaderValues;
 
         public AccumulatorDeliveredToHeaderMailStore() {
-            this.deliveredToHeaderValues = new ArrayList<String[]>();
+            this.deliveredToHeaderValues = Collections.synchronizedList(new ArrayList<String[]>());
         }
 
         @Override
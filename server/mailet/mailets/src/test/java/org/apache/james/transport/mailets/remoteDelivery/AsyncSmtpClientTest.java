@@ -0,0 +1,374 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.mailet.HostAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+public class AsyncSmtpClientTest {
+
+    private static final String SENDER = "sender@domain.tld";
+    private static final long TIMEOUT = 5000;
+
+    private FakeSmtpServer server;
+    private ExecutorService executor;
+    private AsyncSmtpClient testee;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSmtpServer();
+        executor = Executors.newCachedThreadPool();
+        testee = createClient(10, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testee.close();
+        executor.shutdownNow();
+        server.close();
+    }
+
+    private AsyncSmtpClient createClient(int maxConnectionsPerHost, boolean sendPartial) {
+        return AsyncSmtpClient.builder()
+            .heloName("localhost")
+            .executor(executor)
+            .messageConverter(new AsyncSmtpClient.MessageConverter() {
+                public void convertTo7Bit(MimeMessage message) {
+                }
+            })
+            .logger(LoggerFactory.getLogger(AsyncSmtpClientTest.class))
+            .timeout(TIMEOUT)
+            .sendPartial(sendPartial)
+            .maxConnectionsPerHost(maxConnectionsPerHost)
+            .ioThreads(1)
+            .build();
+    }
+
+    @Test
+    public void sendShouldDeliverTheMessage() throws Exception {
+        RecordingListener listener = send("rcpt@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        assertThat(server.getCommands()).contains("MAIL FROM:<" + SENDER + "> BODY=8BITMIME", "RCPT TO:<rcpt@domain.tld>", "DATA");
+        assertThat(server.getMessages()).hasSize(1);
+        assertThat(server.getMessages().get(0)).contains("Subject: test", "message body");
+    }
+
+    @Test
+    public void sendShouldStreamMessagesLargerThanAChunk() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            body.append("line ").append(i).append("\r\n");
+        }
+        body.append(".dot stuffed\r\n");
+        MimeMessage message = message();
+        message.setText(body.toString());
+        message.saveChanges();
+        RecordingListener listener = new RecordingListener();
+
+        testee.send(server.getHostAddress(), SENDER, new InternetAddress[] {new InternetAddress("rcpt@domain.tld")}, message, listener);
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        assertThat(server.getMessages()).hasSize(1);
+        assertThat(server.getMessages().get(0)).contains("line 0\r\n", "line 9999\r\n", "..dot stuffed\r\n");
+    }
+
+    @Test
+    public void sendShouldPipelineTheRecipientsWhenSupported() throws Exception {
+        server.pipelining = true;
+
+        RecordingListener listener = send("rcpt1@domain.tld", "rcpt2@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        assertThat(server.getPipelinedMailCommands()).containsExactly(true);
+    }
+
+    @Test
+    public void sendShouldNotPipelineTheRecipientsWhenNotSupported() throws Exception {
+        RecordingListener listener = send("rcpt1@domain.tld", "rcpt2@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        assertThat(server.getPipelinedMailCommands()).containsExactly(false);
+    }
+
+    @Test
+    public void sendShouldReportInvalidRecipients() throws Exception {
+        server.pipelining = true;
+
+        RecordingListener listener = send("rcpt@domain.tld", "invalid@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERY_FAILED);
+        SendFailedException failure = (SendFailedException) listener.failure;
+        assertThat(failure.getInvalidAddresses()).containsOnly(new InternetAddress("invalid@domain.tld"));
+        assertThat(failure.getValidUnsentAddresses()).containsOnly(new InternetAddress("rcpt@domain.tld"));
+        assertThat(server.getCommands()).doesNotContain("DATA");
+    }
+
+    @Test
+    public void sendShouldReportTemporaryFailedRecipientsAsValidUnsent() throws Exception {
+        RecordingListener listener = send("later@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERY_FAILED);
+        SendFailedException failure = (SendFailedException) listener.failure;
+        assertThat(failure.getInvalidAddresses()).isEmpty();
+        assertThat(failure.getValidUnsentAddresses()).containsOnly(new InternetAddress("later@domain.tld"));
+    }
+
+    @Test
+    public void sendShouldDeliverToValidRecipientsWhenSendPartial() throws Exception {
+        testee.close();
+        testee = createClient(10, true);
+
+        RecordingListener listener = send("rcpt@domain.tld", "invalid@domain.tld");
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERY_FAILED);
+        SMTPSendFailedException failure = (SMTPSendFailedException) listener.failure;
+        assertThat(failure.getReturnCode()).isEqualTo(250);
+        assertThat(failure.getValidSentAddresses()).containsOnly(new InternetAddress("rcpt@domain.tld"));
+        assertThat(failure.getInvalidAddresses()).containsOnly(new InternetAddress("invalid@domain.tld"));
+        assertThat(server.getMessages()).hasSize(1);
+    }
+
+    @Test
+    public void sendShouldReportConnectionFailures() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        RecordingListener listener = new RecordingListener();
+        testee.send(new HostAddress("localhost", "smtp://127.0.0.1:" + port), SENDER,
+            new InternetAddress[] {new InternetAddress("rcpt@domain.tld")}, message(), listener);
+
+        assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.CONNECTION_FAILED);
+    }
+
+    @Test
+    public void sendShouldReuseTheConnection() throws Exception {
+        assertThat(send("rcpt1@domain.tld").awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        assertThat(send("rcpt2@domain.tld").awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+
+        assertThat(server.connections.get()).isEqualTo(1);
+        assertThat(server.getCommands()).contains("RSET");
+        assertThat(server.getMessages()).hasSize(2);
+    }
+
+    @Test
+    public void sendShouldQueueTheDeliveriesAboveTheConnectionLimit() throws Exception {
+        testee.close();
+        testee = createClient(1, false);
+
+        List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        for (int i = 0; i < 3; i++) {
+            listeners.add(send("rcpt" + i + "@domain.tld"));
+        }
+
+        for (RecordingListener listener : listeners) {
+            assertThat(listener.awaitOutcome()).isEqualTo(RecordingListener.DELIVERED);
+        }
+        assertThat(server.connections.get()).isEqualTo(1);
+        assertThat(server.getMessages()).hasSize(3);
+    }
+
+    private RecordingListener send(String... recipients) throws Exception {
+        InternetAddress[] addresses = new InternetAddress[recipients.length];
+        for (int i = 0; i < recipients.length; i++) {
+            addresses[i] = new InternetAddress(recipients[i]);
+        }
+        RecordingListener listener = new RecordingListener();
+        testee.send(server.getHostAddress(), SENDER, addresses, message(), listener);
+        return listener;
+    }
+
+    private MimeMessage message() throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setSubject("test");
+        message.setText("message body");
+        message.saveChanges();
+        return message;
+    }
+
+    private static class RecordingListener implements SmtpDeliveryListener {
+        static final String CONNECTION_FAILED = "connectionFailed";
+        static final String DELIVERED = "delivered";
+        static final String DELIVERY_FAILED = "deliveryFailed";
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile String outcome;
+        private volatile MessagingException failure;
+
+        public void connectionFailed(MessagingException e) {
+            complete(CONNECTION_FAILED, e);
+        }
+
+        public void delivered() {
+            complete(DELIVERED, null);
+        }
+
+        public void deliveryFailed(MessagingException e) {
+            complete(DELIVERY_FAILED, e);
+        }
+
+        private void complete(String outcome, MessagingException failure) {
+            this.outcome = outcome;
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        String awaitOutcome() throws InterruptedException {
+            assertThat(latch.await(TIMEOUT, TimeUnit.MILLISECONDS)).isTrue();
+            return outcome;
+        }
+    }
+
+    /**
+     * An SMTP server accepting any mail, but refusing the recipients whose address starts with "invalid", and
+     * temporarily failing the ones starting with "later".
+     */
+    private static class FakeSmtpServer {
+        private final ServerSocket serverSocket;
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Boolean> pipelinedMailCommands = Collections.synchronizedList(new ArrayList<Boolean>());
+        private final AtomicInteger connections = new AtomicInteger();
+        private volatile boolean pipelining;
+
+        FakeSmtpServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread acceptor = new Thread(new Runnable() {
+                public void run() {
+                    accept();
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        HostAddress getHostAddress() {
+            return new HostAddress("localhost", "smtp://127.0.0.1:" + serverSocket.getLocalPort());
+        }
+
+        List<String> getCommands() {
+            return new ArrayList<String>(commands);
+        }
+
+        List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+
+        List<Boolean> getPipelinedMailCommands() {
+            return new ArrayList<Boolean>(pipelinedMailCommands);
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread session = new Thread(new Runnable() {
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                reply(out, "220 fake ESMTP");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    commands.add(line);
+                    if (line.startsWith("EHLO")) {
+                        reply(out, pipelining ? "250-fake\r\n250-PIPELINING\r\n250 8BITMIME" : "250-fake\r\n250 8BITMIME");
+                    } else if (line.startsWith("MAIL")) {
+                        pipelinedMailCommands.add(in.ready());
+                        reply(out, "250 OK");
+                    } else if (line.startsWith("RCPT TO:<invalid")) {
+                        reply(out, "550 5.1.1 Unknown user");
+                    } else if (line.startsWith("RCPT TO:<later")) {
+                        reply(out, "451 4.3.0 Try again later");
+                    } else if (line.equals("DATA")) {
+                        reply(out, "354 Go ahead");
+                        StringBuilder message = new StringBuilder();
+                        while (!(line = in.readLine()).equals(".")) {
+                            message.append(line).append("\r\n");
+                        }
+                        messages.add(message.toString());
+                        reply(out, "250 OK");
+                    } else if (line.equals("QUIT")) {
+                        reply(out, "221 Bye");
+                        break;
+                    } else {
+                        reply(out, "250 OK");
+                    }
+                }
+                socket.close();
+            } catch (IOException e) {
+                // Connection closed by the client
+            }
+        }
+
+        private void reply(OutputStream out, String reply) throws IOException {
+            out.write((reply + "\r\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+    }
+}
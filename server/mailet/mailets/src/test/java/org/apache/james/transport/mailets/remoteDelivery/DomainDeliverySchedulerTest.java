@@ -0,0 +1,300 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.james.metrics.api.Metric;
+import org.apache.james.metrics.api.MetricFactory;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class DomainDeliverySchedulerTest {
+
+    private static final int MAX_BUFFERED_MAILS = 5;
+    private static final int MAX_BUFFERED_MAILS_PER_DOMAIN = 3;
+    private static final int MAX_CONCURRENCY_PER_DOMAIN = 10;
+    private static final long MAX_BACKOFF = 200;
+    private static final long LATENCY_THRESHOLD = 60000;
+    private static final String SLOW_DOMAIN = "slow.tld";
+    private static final String FAST_DOMAIN = "fast.tld";
+    private static final String OTHER_DOMAIN = "other.tld";
+
+    private MetricFactory metricFactory;
+    private ExecutorService executor;
+    private DomainDeliveryScheduler.Requeuer requeuer;
+    private DomainDeliveryScheduler testee;
+
+    @Before
+    public void setUp() {
+        metricFactory = mock(MetricFactory.class);
+        when(metricFactory.generate(anyString())).thenReturn(mock(Metric.class));
+        executor = Executors.newCachedThreadPool();
+        requeuer = mock(DomainDeliveryScheduler.Requeuer.class);
+        testee = new DomainDeliveryScheduler(MAX_BUFFERED_MAILS, MAX_BUFFERED_MAILS_PER_DOMAIN, MAX_CONCURRENCY_PER_DOMAIN, MAX_BACKOFF,
+            LATENCY_THRESHOLD, metricFactory, requeuer);
+    }
+
+    @After
+    public void tearDown() {
+        testee.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void takeShouldReturnTheMailsOfADomainInOrder() throws Exception {
+        MailQueueItem first = mock(MailQueueItem.class);
+        MailQueueItem second = mock(MailQueueItem.class);
+        testee.add(FAST_DOMAIN, first);
+        testee.add(FAST_DOMAIN, second);
+
+        assertThat(testee.take().getItem()).isSameAs(first);
+        assertThat(testee.take().getItem()).isSameAs(second);
+    }
+
+    @Test
+    public void takeShouldServeTheDomainsInTurn() throws Exception {
+        addItems(SLOW_DOMAIN, 3);
+        addItems(FAST_DOMAIN, 2);
+
+        List<String> domains = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            domains.add(testee.take().getDomain());
+        }
+
+        assertThat(domains).containsExactly(SLOW_DOMAIN, FAST_DOMAIN, SLOW_DOMAIN, FAST_DOMAIN);
+    }
+
+    @Test
+    public void takeShouldSkipTheDomainsAtTheirConcurrencyLimit() throws Exception {
+        addItems(SLOW_DOMAIN, 3);
+        testee.take();
+        testee.take();
+        addItems(FAST_DOMAIN, 1);
+
+        DomainDeliveryScheduler.Ticket ticket = testee.take();
+
+        // The initial limit of a domain is 2
+        assertThat(ticket.getDomain()).isEqualTo(FAST_DOMAIN);
+        assertThat(testee.getQueueDepth(SLOW_DOMAIN)).isEqualTo(1);
+    }
+
+    @Test
+    public void takeShouldWaitForADeliveryToCompleteWhenAllDomainsAreAtTheirLimit() throws Exception {
+        addItems(SLOW_DOMAIN, 3);
+        DomainDeliveryScheduler.Ticket first = testee.take();
+        testee.take();
+
+        Future<DomainDeliveryScheduler.Ticket> third = executor.submit(take());
+        assertBlocked(third);
+
+        first.complete(false);
+
+        assertThat(third.get(1, TimeUnit.SECONDS).getDomain()).isEqualTo(SLOW_DOMAIN);
+    }
+
+    @Test
+    public void temporaryFailureShouldSuspendTheDeliveriesToTheDomainOnly() throws Exception {
+        addItems(SLOW_DOMAIN, 2);
+        testee.take().complete(true);
+        addItems(FAST_DOMAIN, 1);
+
+        assertThat(testee.take().getDomain()).isEqualTo(FAST_DOMAIN);
+
+        long start = System.currentTimeMillis();
+        assertThat(testee.take().getDomain()).isEqualTo(SLOW_DOMAIN);
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(MAX_BACKOFF / 2);
+    }
+
+    @Test
+    public void temporaryFailureShouldLowerTheConcurrencyLimit() throws Exception {
+        addItems(SLOW_DOMAIN, 1);
+
+        testee.take().complete(true);
+
+        assertThat(testee.getConcurrencyLimit(SLOW_DOMAIN)).isEqualTo(1);
+    }
+
+    @Test
+    public void successesShouldRaiseTheConcurrencyLimit() throws Exception {
+        addItems(FAST_DOMAIN, 3);
+
+        testee.take().complete(false);
+        testee.take().complete(false);
+
+        assertThat(testee.getConcurrencyLimit(FAST_DOMAIN)).isEqualTo(3);
+    }
+
+    @Test
+    public void addShouldWaitWhileTheBufferIsFull() throws Exception {
+        addItems(FAST_DOMAIN, MAX_BUFFERED_MAILS_PER_DOMAIN);
+        addItems(OTHER_DOMAIN, MAX_BUFFERED_MAILS - MAX_BUFFERED_MAILS_PER_DOMAIN);
+
+        Future<Boolean> added = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return testee.add(SLOW_DOMAIN, mock(MailQueueItem.class));
+            }
+        });
+        assertBlocked(added);
+
+        testee.take();
+
+        assertThat(added.get(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void addShouldRequeueTheMailsExceedingTheSubQueueOfTheirDomain() throws Exception {
+        addItems(FAST_DOMAIN, MAX_BUFFERED_MAILS_PER_DOMAIN);
+        MailQueueItem exceeding = mock(MailQueueItem.class);
+
+        assertThat(testee.add(FAST_DOMAIN, exceeding)).isTrue();
+
+        verify(requeuer).requeue(same(exceeding), anyLong());
+        assertThat(testee.getQueueDepth(FAST_DOMAIN)).isEqualTo(MAX_BUFFERED_MAILS_PER_DOMAIN);
+    }
+
+    @Test
+    public void addShouldRequeueTheMailOfASuspendedDomainWhenTheBufferIsFull() throws Exception {
+        addItems(SLOW_DOMAIN, 1);
+        testee.take().complete(true);
+        addItems(FAST_DOMAIN, MAX_BUFFERED_MAILS_PER_DOMAIN);
+        addItems(OTHER_DOMAIN, MAX_BUFFERED_MAILS - MAX_BUFFERED_MAILS_PER_DOMAIN);
+        MailQueueItem suspended = mock(MailQueueItem.class);
+
+        assertThat(testee.add(SLOW_DOMAIN, suspended)).isTrue();
+
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(requeuer).requeue(same(suspended), delay.capture());
+        assertThat(delay.getValue()).isPositive();
+    }
+
+    @Test
+    public void addShouldRequeueTheMailsOfTheSuspendedDomainsToMakeRoom() throws Exception {
+        addItems(SLOW_DOMAIN, 2);
+        testee.take().complete(true);
+        addItems(FAST_DOMAIN, MAX_BUFFERED_MAILS_PER_DOMAIN);
+        List<MailQueueItem> suspended = addItems(SLOW_DOMAIN, 1);
+        MailQueueItem item = mock(MailQueueItem.class);
+
+        assertThat(testee.add(OTHER_DOMAIN, item)).isTrue();
+
+        ArgumentCaptor<MailQueueItem> requeued = ArgumentCaptor.forClass(MailQueueItem.class);
+        verify(requeuer, times(2)).requeue(requeued.capture(), anyLong());
+        assertThat(requeued.getAllValues()).contains(suspended.get(0));
+        assertThat(testee.getQueueDepth(SLOW_DOMAIN)).isEqualTo(0);
+        assertThat(testee.getQueueDepth(OTHER_DOMAIN)).isEqualTo(1);
+    }
+
+    @Test
+    public void metricsShouldBeSharedBeyondTheMaximalNumberOfMeteredDomains() throws Exception {
+        for (int i = 0; i < DomainDeliveryScheduler.MAX_METERED_DOMAINS + 10; i++) {
+            testee.add("domain" + i + ".tld", mock(MailQueueItem.class));
+            testee.take().complete(false);
+        }
+
+        verify(metricFactory, times(DomainDeliveryScheduler.MAX_METERED_DOMAINS)).generate(startsWith("outgoingQueueDepth:domain"));
+        verify(metricFactory, times(10)).generate("outgoingQueueDepth:" + DomainDeliveryScheduler.OTHER_DOMAINS);
+    }
+
+    @Test
+    public void closeShouldReturnTheBufferedMails() throws Exception {
+        List<MailQueueItem> items = addItems(FAST_DOMAIN, 2);
+
+        assertThat(testee.close()).containsExactlyElementsOf(items);
+        assertThat(testee.add(FAST_DOMAIN, mock(MailQueueItem.class))).isFalse();
+        assertThat(testee.take()).isNull();
+    }
+
+    @Test
+    public void closeShouldReleaseTheWaitingThreads() throws Exception {
+        Future<DomainDeliveryScheduler.Ticket> ticket = executor.submit(take());
+        assertBlocked(ticket);
+
+        testee.close();
+
+        assertThat(ticket.get(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    public void completeShouldRecordTheDeliveryMetrics() throws Exception {
+        Metric depth = mock(Metric.class);
+        Metric deliveries = mock(Metric.class);
+        Metric deliveryTime = mock(Metric.class);
+        when(metricFactory.generate("outgoingQueueDepth:" + FAST_DOMAIN)).thenReturn(depth);
+        when(metricFactory.generate("outgoingDeliveries:" + FAST_DOMAIN)).thenReturn(deliveries);
+        when(metricFactory.generate("outgoingDeliveryTime:" + FAST_DOMAIN)).thenReturn(deliveryTime);
+        addItems(FAST_DOMAIN, 1);
+
+        testee.take().complete(false);
+
+        verify(depth).increment();
+        verify(depth).decrement();
+        verify(deliveries).increment();
+        verify(deliveryTime).add(anyLong());
+    }
+
+    private List<MailQueueItem> addItems(String domain, int count) throws InterruptedException {
+        List<MailQueueItem> items = new ArrayList<MailQueueItem>();
+        for (int i = 0; i < count; i++) {
+            MailQueueItem item = mock(MailQueueItem.class);
+            assertThat(testee.add(domain, item)).isTrue();
+            items.add(item);
+        }
+        return items;
+    }
+
+    private Callable<DomainDeliveryScheduler.Ticket> take() {
+        return new Callable<DomainDeliveryScheduler.Ticket>() {
+            public DomainDeliveryScheduler.Ticket call() throws Exception {
+                return testee.take();
+            }
+        };
+    }
+
+    private void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Expected to be blocked");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets.remoteDelivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DomainThrottleTest {
+
+    private static final int MAX_CONCURRENCY = 4;
+    private static final long MAX_BACKOFF = 3000;
+    private static final long LATENCY_THRESHOLD = 500;
+    private static final long NOW = 100000;
+
+    private DomainThrottle testee;
+
+    @Before
+    public void setUp() {
+        testee = new DomainThrottle(MAX_CONCURRENCY, MAX_BACKOFF, LATENCY_THRESHOLD);
+    }
+
+    @Test
+    public void availableAtShouldBeNowWhenUnderTheLimit() {
+        testee.acquire();
+
+        assertThat(testee.availableAt(NOW)).isEqualTo(NOW);
+    }
+
+    @Test
+    public void availableAtShouldBeNeverWhenTheLimitIsReached() {
+        testee.acquire();
+        testee.acquire();
+
+        assertThat(testee.availableAt(NOW)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void limitShouldGrowAfterAsManySuccessesAsTheLimit() {
+        succeed(2);
+
+        assertThat(testee.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    public void limitShouldNotExceedTheMaximum() {
+        succeed(100);
+
+        assertThat(testee.getLimit()).isEqualTo(MAX_CONCURRENCY);
+    }
+
+    @Test
+    public void temporaryFailureShouldHalveTheLimit() {
+        succeed(100);
+
+        fail(NOW);
+
+        assertThat(testee.getLimit()).isEqualTo(MAX_CONCURRENCY / 2);
+    }
+
+    @Test
+    public void temporaryFailureShouldSuspendTheDeliveries() {
+        fail(NOW);
+
+        assertThat(testee.availableAt(NOW)).isEqualTo(NOW + 1000);
+        assertThat(testee.availableAt(NOW + 1000)).isEqualTo(NOW + 1000);
+    }
+
+    @Test
+    public void backoffShouldDoubleOnConsecutiveFailures() {
+        fail(NOW);
+        fail(NOW + 1000);
+
+        assertThat(testee.availableAt(NOW + 1000)).isEqualTo(NOW + 3000);
+    }
+
+    @Test
+    public void backoffShouldNotExceedTheMaximum() {
+        fail(NOW);
+        fail(NOW + 1000);
+        fail(NOW + 3000);
+
+        assertThat(testee.availableAt(NOW + 3000)).isEqualTo(NOW + 3000 + MAX_BACKOFF);
+    }
+
+    @Test
+    public void successShouldResetTheBackoff() {
+        fail(NOW);
+        succeed(1);
+        fail(NOW + 1000);
+
+        assertThat(testee.availableAt(NOW + 1000)).isEqualTo(NOW + 2000);
+    }
+
+    @Test
+    public void slowDeliveriesShouldLowerTheLimit() {
+        succeed(100);
+
+        testee.acquire();
+        testee.release(NOW, false, LATENCY_THRESHOLD + 1);
+
+        assertThat(testee.getLimit()).isEqualTo(MAX_CONCURRENCY - 1);
+    }
+
+    @Test
+    public void limitShouldNotGoBelowOne() {
+        for (int i = 0; i < 10; i++) {
+            fail(NOW);
+        }
+
+        assertThat(testee.getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    public void isIdleShouldBeFalseDuringDeliveries() {
+        testee.acquire();
+
+        assertThat(testee.isIdle(NOW)).isFalse();
+    }
+
+    @Test
+    public void isIdleShouldBeFalseDuringBackoff() {
+        fail(NOW);
+
+        assertThat(testee.isIdle(NOW)).isFalse();
+        assertThat(testee.isIdle(NOW + 1000)).isTrue();
+    }
+
+    @Test
+    public void cancelShouldNotChangeTheLimit() {
+        testee.acquire();
+        testee.cancel();
+
+        assertThat(testee.getLimit()).isEqualTo(2);
+        assertThat(testee.isIdle(NOW)).isTrue();
+    }
+
+    private void succeed(int count) {
+        for (int i = 0; i < count; i++) {
+            testee.acquire();
+            testee.release(NOW, false, 0);
+        }
+    }
+
+    private void fail(long now) {
+        testee.acquire();
+        testee.release(now, true, 0);
+    }
+}
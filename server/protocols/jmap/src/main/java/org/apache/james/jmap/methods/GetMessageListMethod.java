@@ -20,9 +20,9 @@
 package org.apache.james.jmap.methods;
 
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
@@ -38,21 +38,21 @@ import org.apache.james.jmap.model.GetMessageListRequest;
 import org.apache.james.jmap.model.GetMessageListResponse;
 import org.apache.james.jmap.model.GetMessagesRequest;
 import org.apache.james.jmap.utils.FilterToSearchQuery;
-import org.apache.james.jmap.utils.SortToComparatorConvertor;
+import org.apache.james.jmap.utils.SortToSearchQueryConvertor;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.MessageManager;
 import org.apache.james.mailbox.MessageUid;
 import org.apache.james.mailbox.exception.MailboxException;
-import org.apache.james.mailbox.exception.MailboxNotFoundException;
 import org.apache.james.mailbox.model.FetchGroupImpl;
 import org.apache.james.mailbox.model.MailboxId;
 import org.apache.james.mailbox.model.MailboxId.Factory;
-import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageId;
 import org.apache.james.mailbox.model.MessageRange;
-import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.model.SearchQuery.Sort;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,8 +61,9 @@ import com.github.steveash.guavate.Guavate;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 
 public class GetMessageListMethod implements Method {
@@ -117,13 +118,12 @@ public class GetMessageListMethod implements Method {
         GetMessageListResponse.Builder builder = GetMessageListResponse.builder();
         try {
             MultimailboxesSearchQuery searchQuery = convertToSearchQuery(messageListRequest);
-            Map<MailboxId, Collection<MessageUid>> searchResults = mailboxManager.search(searchQuery, mailboxSession);
-            
-            aggregateResults(mailboxSession, searchResults).entries().stream()
-                .sorted(comparatorFor(messageListRequest))
-                .map(entry -> entry.getValue().getMessageId())
-                .skip(messageListRequest.getPosition())
-                .limit(limit(messageListRequest.getLimit()))
+            List<MessageUidWithMailboxId> searchResults = mailboxManager.sortedSearch(searchQuery, mailboxSession);
+            Map<MessageUidWithMailboxId, MessageId> messageIds = retrieveMessageIds(mailboxSession, searchResults);
+
+            searchResults.stream()
+                .map(messageIds::get)
+                .filter(Objects::nonNull)
                 .forEach(builder::messageId);
 
             return builder.build();
@@ -132,29 +132,29 @@ public class GetMessageListMethod implements Method {
         }
     }
 
-    private Multimap<MailboxPath, MessageResult> aggregateResults(MailboxSession mailboxSession, Map<MailboxId, Collection<MessageUid>> searchResults) {
-        Multimap<MailboxPath, MessageResult> messages = LinkedHashMultimap.create();
-        for (Map.Entry<MailboxId, Collection<MessageUid>> mailboxResults: searchResults.entrySet()) {
+    private Map<MessageUidWithMailboxId, MessageId> retrieveMessageIds(MailboxSession mailboxSession, List<MessageUidWithMailboxId> searchResults) {
+        Multimap<MailboxId, MessageUid> uidsByMailbox = ArrayListMultimap.create();
+        searchResults.forEach(result -> uidsByMailbox.put(result.getMailboxId(), result.getUid()));
+        ImmutableMap.Builder<MessageUidWithMailboxId, MessageId> messageIds = ImmutableMap.builder();
+        for (Map.Entry<MailboxId, Collection<MessageUid>> mailboxResults: uidsByMailbox.asMap().entrySet()) {
             try {
-                aggregate(mailboxSession, messages, mailboxResults);
+                aggregate(mailboxSession, messageIds, mailboxResults);
             } catch (MailboxException e) {
                 LOGGER.error("Error retrieving mailbox", e);
                 throw Throwables.propagate(e);
             }
         }
-        return messages;
+        return messageIds.build();
     }
 
-    private void aggregate(MailboxSession mailboxSession, Multimap<MailboxPath, MessageResult> aggregation, Map.Entry<MailboxId, Collection<MessageUid>> mailboxResults) throws MailboxNotFoundException, MailboxException {
-        MailboxPath mailboxPath = mailboxManager.getMailbox(mailboxResults.getKey(), mailboxSession).getMailboxPath();
-        MessageManager messageManager = getMessageManager(mailboxPath, mailboxSession)
-            .orElseThrow(() -> new MailboxNotFoundException(mailboxPath));
-        List<MessageResult> mailboxMessages = MessageRange.toRanges(mailboxResults.getValue()).stream()
+    private void aggregate(MailboxSession mailboxSession, ImmutableMap.Builder<MessageUidWithMailboxId, MessageId> aggregation, Map.Entry<MailboxId, Collection<MessageUid>> mailboxResults) throws MailboxException {
+        MailboxId mailboxId = mailboxResults.getKey();
+        MessageManager messageManager = mailboxManager.getMailbox(mailboxId, mailboxSession);
+        MessageRange.toRanges(mailboxResults.getValue()).stream()
             .map(Throwing.function(range -> messageManager.getMessages(range, FetchGroupImpl.MINIMAL, mailboxSession)))
             .map(messageIterator -> ImmutableList.copyOf(messageIterator))
             .flatMap(List::stream)
-            .collect(Guavate.toImmutableList());
-        aggregation.putAll(mailboxPath, mailboxMessages);
+            .forEach(message -> aggregation.put(new MessageUidWithMailboxId(mailboxId, message.getUid()), message.getMessageId()));
     }
 
     private MultimailboxesSearchQuery convertToSearchQuery(GetMessageListRequest messageListRequest) {
@@ -163,10 +163,16 @@ public class GetMessageListMethod implements Method {
                 .orElse(new SearchQuery());
         Set<MailboxId> inMailboxes = buildFilterMailboxesSet(messageListRequest.getFilter(), condition -> condition.getInMailboxes());
         Set<MailboxId> notInMailboxes = buildFilterMailboxesSet(messageListRequest.getFilter(), condition -> condition.getNotInMailboxes());
+        List<Sort> sorts = SortToSearchQueryConvertor.sortsFor(messageListRequest.getSort());
+        if (!sorts.isEmpty()) {
+            searchQuery.setSorts(sorts);
+        }
         return MultimailboxesSearchQuery
                 .from(searchQuery)
                 .inMailboxes(inMailboxes)
                 .notInMailboxes(notInMailboxes)
+                .offset(messageListRequest.getPosition())
+                .limit(limit(messageListRequest.getLimit()))
                 .build();
     }
 
@@ -208,17 +214,4 @@ public class GetMessageListMethod implements Method {
         return limit.orElse(maximumLimit);
     }
 
-    private Comparator<Map.Entry<MailboxPath, MessageResult>> comparatorFor(GetMessageListRequest messageListRequest) {
-        return SortToComparatorConvertor.comparatorFor(messageListRequest.getSort());
-    }
-
-    private Optional<MessageManager> getMessageManager(MailboxPath mailboxPath, MailboxSession mailboxSession) {
-        try {
-            return Optional.of(mailboxManager.getMailbox(mailboxPath, mailboxSession));
-        } catch (MailboxException e) {
-            LOGGER.warn("Error retrieveing mailbox :" + mailboxPath, e);
-            return Optional.empty();
-        }
-    }
-
 }
@@ -19,67 +19,51 @@
 
 package org.apache.james.jmap.utils;
 
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
-import org.apache.james.mailbox.model.MailboxId;
-import org.apache.james.mailbox.model.MailboxPath;
-import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.SearchQuery.Sort;
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
 
+import com.github.steveash.guavate.Guavate;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 
-public class SortToComparatorConvertor {
+public class SortToSearchQueryConvertor {
 
     private static final String SEPARATOR = " ";
     private static final String DESC_ORDERING = "desc";
 
-    private SortToComparatorConvertor() {
-    }
+    private static final Map<String, SortClause> fieldsSortClauseMap = ImmutableMap.of(
+            "date", SortClause.Arrival,
+            "id", SortClause.Uid);
 
-    @SuppressWarnings("rawtypes")
-    private static final Map<String, Function<Map.Entry<MailboxPath, MessageResult>, Comparable>> fieldsMessageFunctionMap = ImmutableMap.of(
-            "date", entry -> entry.getValue().getInternalDate(),
-            "id", entry -> entry.getValue().getUid());
+    private SortToSearchQueryConvertor() {
+    }
 
-    public static <M extends Map.Entry<MailboxPath, MessageResult>, Id extends MailboxId> Comparator<M> comparatorFor(List<String> sort) {
+    public static List<Sort> sortsFor(List<String> sort) {
         return sort.stream()
-            .map(SortToComparatorConvertor::<M, Id> comparatorForField)
-            .reduce(new EmptyComparator<>(), (x, y) -> x.thenComparing(y));
+            .map(SortToSearchQueryConvertor::sortForField)
+            .collect(Guavate.toImmutableList());
     }
 
-    @SuppressWarnings("unchecked")
-    private static <M extends Map.Entry<MailboxPath, MessageResult>, Id extends MailboxId> Comparator<M> comparatorForField(String field) {
+    private static Sort sortForField(String field) {
         List<String> splitToList = Splitter.on(SEPARATOR).splitToList(field);
         checkField(splitToList);
-        Comparator<M> fieldComparator = Comparator.comparing(functionForField(splitToList.get(0)));
-        if (splitToList.size() == 1 || splitToList.get(1).equals(DESC_ORDERING)) {
-            return fieldComparator.reversed();
-        }
-        return fieldComparator;
+        SortClause sortClause = sortClauseForField(splitToList.get(0));
+        boolean reverse = splitToList.size() == 1 || splitToList.get(1).equals(DESC_ORDERING);
+        return new Sort(sortClause, reverse);
     }
 
-    @SuppressWarnings("rawtypes")
-    private static Function<Map.Entry<MailboxPath, MessageResult>, Comparable> functionForField(String field) {
-        if (!fieldsMessageFunctionMap.containsKey(field)) {
+    private static SortClause sortClauseForField(String field) {
+        if (!fieldsSortClauseMap.containsKey(field)) {
             throw new IllegalArgumentException("Unknown sorting field");
         }
-        return fieldsMessageFunctionMap.get(field);
+        return fieldsSortClauseMap.get(field);
     }
 
     private static void checkField(List<String> splitToList) {
         Preconditions.checkArgument(splitToList.size() >= 1 && splitToList.size() <= 2, "Bad sort field definition");
     }
-
-    private static class EmptyComparator<Type> implements Comparator<Type> {
-
-        @Override
-        public int compare(Type o1, Type o2) {
-            return 0;
-        }
-        
-    }
 }
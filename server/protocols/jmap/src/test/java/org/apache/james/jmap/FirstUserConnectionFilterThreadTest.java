@@ -43,6 +43,7 @@ import org.apache.james.mailbox.model.MailboxMetaData;
 import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.model.MailboxQuery;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageUidWithMailboxId;
 import org.apache.james.mailbox.model.MultimailboxesSearchQuery;
 import org.apache.james.user.lib.mock.InMemoryUsersRepository;
 import org.junit.Test;
@@ -252,6 +253,11 @@ public class FirstUserConnectionFilterThreadTest {
             return null;
         }
 
+        @Override
+        public List<MessageUidWithMailboxId> sortedSearch(MultimailboxesSearchQuery expression, MailboxSession session) throws MailboxException {
+            return null;
+        }
+
         @Override
         public List<MailboxAnnotation> getAnnotationsByKeysWithOneDepth(MailboxPath mailboxPath, MailboxSession session,
                 Set<MailboxAnnotationKey> keys) throws MailboxException {
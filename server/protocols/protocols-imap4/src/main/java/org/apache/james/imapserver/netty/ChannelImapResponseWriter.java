@@ -22,10 +22,12 @@ package org.apache.james.imapserver.netty;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.channels.FileChannel;
 
 import org.apache.james.imap.encode.ImapResponseWriter;
 import org.apache.james.imap.message.response.Literal;
+import org.apache.james.protocols.netty.ChannelWritabilityHandler;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -42,6 +44,12 @@ import org.jboss.netty.handler.stream.ChunkedStream;
  */
 public class ChannelImapResponseWriter implements ImapResponseWriter {
 
+    /**
+     * Set on the threads processing a command. Only those wait for the client to read the previous responses, the
+     * other writing threads, like the ones delivering mailbox events, are shared between the connections.
+     */
+    private static final ThreadLocal<Boolean> PROCESSING_COMMAND = new ThreadLocal<Boolean>();
+
     private final Channel channel;
 	private final boolean zeroCopy;
 
@@ -58,8 +66,9 @@ public class ChannelImapResponseWriter implements ImapResponseWriter {
      * @see org.apache.james.imap.encode.ImapResponseWriter#write(byte[])
      */
     public void write(byte[] buffer) throws IOException {
+        awaitWritable();
         if (channel.isConnected()) {
-            channel.write(ChannelBuffers.wrappedBuffer(buffer));
+            writeMessage(ChannelBuffers.wrappedBuffer(buffer));
         }
     }
 
@@ -67,6 +76,7 @@ public class ChannelImapResponseWriter implements ImapResponseWriter {
      * @see org.apache.james.imap.encode.ImapResponseWriter#write(org.apache.james.imap.message.response.Literal)
      */
     public void write(Literal literal) throws IOException {
+        awaitWritable();
         if (channel.isConnected()) {
             InputStream in = literal.getInputStream();
             if (in instanceof FileInputStream && channel.getFactory() instanceof NioServerSocketChannelFactory) {
@@ -76,16 +86,45 @@ public class ChannelImapResponseWriter implements ImapResponseWriter {
                 // See JAMES-1305 and JAMES-1306
                 ChannelPipeline cp = channel.getPipeline();
                 if (zeroCopy && cp.get(SslHandler.class) == null && cp.get(ZlibEncoder.class) == null ) {
-                    channel.write(new DefaultFileRegion(fc, fc.position(), literal.size()));
+                    writeMessage(new DefaultFileRegion(fc, fc.position(), literal.size()));
                 } else {
-                    channel.write(new ChunkedNioFile(fc, 8192));
+                    writeMessage(new ChunkedNioFile(fc, 8192));
                 }
             } else {
-                channel.write(new ChunkedStream(literal.getInputStream()));
+                writeMessage(new ChunkedStream(literal.getInputStream()));
             }
         }
     }
-    
-    
+
+    /**
+     * Wait for the client to read the previous responses, so that a slow client does not make them pile up in memory
+     */
+    private void awaitWritable() throws IOException {
+        if (PROCESSING_COMMAND.get() == null) {
+            return;
+        }
+        try {
+            ChannelWritabilityHandler.awaitWritable(channel);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the channel to be writable");
+        }
+    }
+
+    static void commandProcessingStarted() {
+        PROCESSING_COMMAND.set(Boolean.TRUE);
+    }
+
+    static void commandProcessingCompleted() {
+        PROCESSING_COMMAND.remove();
+    }
+
+    /**
+     * Write the given message to the {@link Channel}
+     */
+    protected void writeMessage(Object message) {
+        channel.write(message);
+    }
+
 
 }
@@ -20,6 +20,8 @@ package org.apache.james.imapserver.netty;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLEngine;
@@ -30,11 +32,16 @@ import org.apache.james.imap.api.ImapConstants;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.encode.ImapEncoder;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxManager.MailboxCapabilities;
 import org.apache.james.protocols.api.Encryption;
 import org.apache.james.protocols.lib.netty.AbstractConfigurableAsyncServer;
 import org.apache.james.protocols.netty.ChannelGroupHandler;
+import org.apache.james.protocols.netty.ChannelWritabilityHandler;
 import org.apache.james.protocols.netty.ConnectionLimitUpstreamHandler;
 import org.apache.james.protocols.netty.ConnectionPerIpLimitUpstreamHandler;
+import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -59,6 +66,7 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
     private final ImapEncoder encoder;
     private final ImapDecoder decoder;
     private final ImapMetrics imapMetrics;
+    private final MailboxManager mailboxManager;
 
     private String hello;
     private boolean compress;
@@ -67,17 +75,24 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
     private boolean plainAuthDisallowed;
     private int timeout;
     private int literalSizeLimit;
+    private int pipeliningThreadCount;
+    private ExecutorService pipeliningExecutor;
+    private int fetchThreadCount;
+    private ExecutorService fetchExecutor;
 
     public final static int DEFAULT_MAX_LINE_LENGTH = 65536; // Use a big default
     public final static int DEFAULT_IN_MEMORY_SIZE_LIMIT = 10485760; // Use 10MB as default
     public final static int DEFAULT_TIMEOUT = 30 * 60; // default timeout is 30 seconds
     public final static int DEFAULT_LITERAL_SIZE_LIMIT = 0;
+    public final static int DEFAULT_PIPELINING_THREAD_COUNT = 0; // pipelining is disabled by default
+    public final static int DEFAULT_FETCH_THREAD_COUNT = 16;
 
-    public IMAPServer(ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, ImapMetrics imapMetrics) {
+    public IMAPServer(ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, ImapMetrics imapMetrics, MailboxManager mailboxManager) {
         this.processor = processor;
         this.encoder = encoder;
         this.decoder = decoder;
         this.imapMetrics = imapMetrics;
+        this.mailboxManager = mailboxManager;
     }
 
     @Override
@@ -93,6 +108,8 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
 
         plainAuthDisallowed = configuration.getBoolean("plainAuthDisallowed", false);
         timeout = configuration.getInt("timeout", DEFAULT_TIMEOUT);
+        pipeliningThreadCount = configuration.getInt("pipeliningThreadCount", DEFAULT_PIPELINING_THREAD_COUNT);
+        fetchThreadCount = configuration.getInt("fetchThreadCount", DEFAULT_FETCH_THREAD_COUNT);
         if (timeout < DEFAULT_TIMEOUT) {
             throw new ConfigurationException("Minimum timeout of 30 minutes required. See rfc2060 5.4 for details");
         }
@@ -103,6 +120,31 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
         
     }
 
+    @Override
+    protected void preInit() throws Exception {
+        if (pipeliningThreadCount > 0 && !mailboxManager.hasCapability(MailboxCapabilities.ConcurrentFetch)) {
+            // Pipelined commands share the MailboxSession, and thus its mappers: not every backend supports it
+            getLogger().warn("pipeliningThreadCount is ignored as the mailbox backend does not support concurrent use of a session");
+        } else if (pipeliningThreadCount > 0) {
+            pipeliningExecutor = JMXEnabledThreadPoolExecutor.newFixedThreadPool(getThreadPoolJMXPath(), getDefaultJMXName() + "-pipelining", pipeliningThreadCount);
+        }
+        if (fetchThreadCount > 0 && mailboxManager.hasCapability(MailboxCapabilities.ConcurrentFetch)) {
+            // No queue: a FETCH finding all the threads busy reads its messages itself
+            fetchExecutor = new JMXEnabledThreadPoolExecutor(0, fetchThreadCount, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new NamedThreadFactory(getDefaultJMXName() + "-fetch"), getThreadPoolJMXPath());
+        }
+    }
+
+    @Override
+    protected void postDestroy() {
+        if (pipeliningExecutor != null) {
+            pipeliningExecutor.shutdown();
+        }
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+        }
+    }
+
     /**
      * @see AbstractConfigurableAsyncServer#getDefaultPort()
      */
@@ -154,13 +196,14 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
                 pipeline.addLast(CONNECTION_COUNT_HANDLER, getConnectionCountHandler());
 
                 pipeline.addLast(CHUNK_WRITE_HANDLER, new ChunkedWriteHandler());
+                pipeline.addLast(WRITABILITY_HANDLER, new ChannelWritabilityHandler());
 
                 ExecutionHandler ehandler = getExecutionHandler();
                 if (ehandler  != null) {
                     pipeline.addLast(EXECUTION_HANDLER, ehandler);
 
                 }
-                pipeline.addLast(REQUEST_DECODER, new ImapRequestFrameDecoder(decoder, inMemorySizeLimit, literalSizeLimit));
+                pipeline.addLast(REQUEST_DECODER, new ImapRequestFrameDecoder(decoder, inMemorySizeLimit, literalSizeLimit, maxLineLength));
 
                 pipeline.addLast(CORE_HANDLER, createCoreHandler());
                 return pipeline;
@@ -179,9 +222,9 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
         ImapChannelUpstreamHandler coreHandler;
         Encryption secure = getEncryption();
         if (secure!= null && secure.isStartTLS()) {
-           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, secure.getContext(), getEnabledCipherSuites(), imapMetrics);
+           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, secure.getContext(), getEnabledCipherSuites(), imapMetrics, pipeliningExecutor, fetchExecutor);
         } else {
-           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, imapMetrics);
+           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, null, null, imapMetrics, pipeliningExecutor, fetchExecutor);
         }
         return coreHandler;
     }
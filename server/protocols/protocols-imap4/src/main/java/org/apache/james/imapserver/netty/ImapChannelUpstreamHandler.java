@@ -20,6 +20,7 @@ package org.apache.james.imapserver.netty;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.SSLContext;
 
@@ -32,6 +33,8 @@ import org.apache.james.imap.encode.ImapEncoder;
 import org.apache.james.imap.encode.ImapResponseComposer;
 import org.apache.james.imap.encode.base.ImapResponseComposerImpl;
 import org.apache.james.imap.main.ResponseEncoder;
+import org.apache.james.imap.processor.base.PipelinedCommands;
+import org.apache.james.imap.processor.fetch.FetchProcessor;
 import org.apache.james.metrics.api.Metric;
 import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
 import org.apache.james.protocols.api.logger.ProtocolSessionLogger;
@@ -40,6 +43,7 @@ import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
@@ -74,6 +78,12 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
 
     private final Metric imapConnectionsMetric;
     private final Metric imapCommandsMetric;
+
+    private final Executor pipeliningExecutor;
+
+    private final Executor fetchExecutor;
+
+    private final ChannelLocal<ImapCommandPipeline> pipelines = new ChannelLocal<ImapCommandPipeline>();
     
     public ImapChannelUpstreamHandler(String hello, ImapProcessor processor, ImapEncoder encoder, Logger logger, boolean compress,
                                       boolean plainAuthDisallowed, ImapMetrics imapMetrics) {
@@ -83,6 +93,18 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     public ImapChannelUpstreamHandler(String hello, ImapProcessor processor, ImapEncoder encoder, Logger logger, boolean compress,
                                       boolean plainAuthDisallowed, SSLContext context, String[] enabledCipherSuites,
                                       ImapMetrics imapMetrics) {
+        this(hello, processor, encoder, logger, compress, plainAuthDisallowed, context, enabledCipherSuites, imapMetrics, null, null);
+    }
+
+    /**
+     * @param pipeliningExecutor {@link Executor} processing the commands which can run concurrently with the other
+     *            commands of their connection, or null to process all the commands in sequence
+     * @param fetchExecutor {@link Executor} reading the messages of a FETCH while the previous ones are written, or
+     *            null to read and write them in turn
+     */
+    public ImapChannelUpstreamHandler(String hello, ImapProcessor processor, ImapEncoder encoder, Logger logger, boolean compress,
+                                      boolean plainAuthDisallowed, SSLContext context, String[] enabledCipherSuites,
+                                      ImapMetrics imapMetrics, Executor pipeliningExecutor, Executor fetchExecutor) {
         this.logger = logger;
         this.hello = hello;
         this.processor = processor;
@@ -93,6 +115,8 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
         this.plainAuthDisallowed = plainAuthDisallowed;
         this.imapConnectionsMetric = imapMetrics.getConnectionsMetric();
         this.imapCommandsMetric = imapMetrics.getCommandsMetric();
+        this.pipeliningExecutor = pipeliningExecutor;
+        this.fetchExecutor = fetchExecutor;
     }
 
     private Logger getLogger(Channel channel) {
@@ -103,6 +127,14 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     public void channelBound(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         ImapSession imapsession = new NettyImapSession(ctx.getChannel(), logger, context, enabledCipherSuites, compress, plainAuthDisallowed);
         attributes.set(ctx.getChannel(), imapsession);
+        if (fetchExecutor != null) {
+            FetchProcessor.setPrefetchExecutor(imapsession, fetchExecutor);
+        }
+        if (pipeliningExecutor != null) {
+            ImapCommandPipeline pipeline = new ImapCommandPipeline(ctx.getChannel(), pipeliningExecutor);
+            PipelinedCommands.set(imapsession, pipeline.getCommands());
+            pipelines.set(ctx.getChannel(), pipeline);
+        }
         super.channelBound(ctx, e);
     }
 
@@ -114,6 +146,7 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
 
         // remove the stored attribute for the channel to free up resources
         // See JAMES-1195
+        pipelines.remove(ctx.getChannel());
         ImapSession imapSession = (ImapSession) attributes.remove(ctx.getChannel());
         if (imapSession != null)
             imapSession.logout();
@@ -184,44 +217,66 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
 
         imapCommandsMetric.increment();
-        ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
-        ImapResponseComposer response = (ImapResponseComposer) ctx.getAttachment();
-        ImapMessage message = (ImapMessage) e.getMessage();
-        ChannelPipeline cp = ctx.getPipeline();
-
-        try {
-            if (cp.get(NettyConstants.EXECUTION_HANDLER) != null) {
-                cp.addBefore(NettyConstants.EXECUTION_HANDLER, NettyConstants.HEARTBEAT_HANDLER, heartbeatHandler);
-            } else {
-                cp.addBefore(NettyConstants.CORE_HANDLER, NettyConstants.HEARTBEAT_HANDLER, heartbeatHandler);
-
-            }
-            final ResponseEncoder responseEncoder = new ResponseEncoder(encoder, response, session);
-            processor.process(message, responseEncoder, session);
-
-            if (session.getState() == ImapSessionState.LOGOUT) {
-                // Make sure we close the channel after all the buffers were flushed out
-                Channel channel = ctx.getChannel();
-                if (channel.isConnected()) {
-                    channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        final ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
+        final ImapMessage message = (ImapMessage) e.getMessage();
+        final Channel channel = ctx.getChannel();
+        ImapCommandPipeline commandPipeline = pipelines.get(channel);
+
+        if (commandPipeline != null && PipelinedCommands.canRunConcurrently(message)) {
+            commandPipeline.execute(new ImapCommandPipeline.Command() {
+                public void process(ImapResponseComposer composer) throws IOException {
+                    ImapChannelUpstreamHandler.this.process(channel, session, message, composer);
                 }
+            });
+        } else {
+            if (commandPipeline != null) {
+                // Other commands may depend on the state left by the pipelined ones, or alter it
+                commandPipeline.awaitCompletion();
             }
-            final IOException failure = responseEncoder.getFailure();
+            ImapResponseComposer response = (ImapResponseComposer) ctx.getAttachment();
+            ChannelPipeline cp = ctx.getPipeline();
+            try {
+                if (cp.get(NettyConstants.EXECUTION_HANDLER) != null) {
+                    cp.addBefore(NettyConstants.EXECUTION_HANDLER, NettyConstants.HEARTBEAT_HANDLER, heartbeatHandler);
+                } else {
+                    cp.addBefore(NettyConstants.CORE_HANDLER, NettyConstants.HEARTBEAT_HANDLER, heartbeatHandler);
 
-            if (failure != null) {
-                final Logger logger = session.getLog();
-                logger.info(failure.getMessage());
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Failed to write " + message, failure);
                 }
-                throw failure;
+                process(channel, session, message, response);
+            } finally {
+                ctx.getPipeline().remove(NettyConstants.HEARTBEAT_HANDLER);
             }
-        } finally {
-            ctx.getPipeline().remove(NettyConstants.HEARTBEAT_HANDLER);
         }
 
         super.messageReceived(ctx, e);
 
     }
 
+    private void process(Channel channel, ImapSession session, ImapMessage message, ImapResponseComposer response) throws IOException {
+        final ResponseEncoder responseEncoder = new ResponseEncoder(encoder, response, session);
+        ChannelImapResponseWriter.commandProcessingStarted();
+        try {
+            processor.process(message, responseEncoder, session);
+        } finally {
+            ChannelImapResponseWriter.commandProcessingCompleted();
+        }
+
+        if (session.getState() == ImapSessionState.LOGOUT) {
+            // Make sure we close the channel after all the buffers were flushed out
+            if (channel.isConnected()) {
+                channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+        final IOException failure = responseEncoder.getFailure();
+
+        if (failure != null) {
+            final Logger logger = session.getLog();
+            logger.info(failure.getMessage());
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to write " + message, failure);
+            }
+            throw failure;
+        }
+    }
+
 }
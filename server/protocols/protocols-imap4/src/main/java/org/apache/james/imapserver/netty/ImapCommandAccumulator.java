@@ -0,0 +1,265 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * Accumulates the bytes of an IMAP command, including its literals, across the chunks received from the
+ * {@link Channel}.
+ * 
+ * Each received byte is examined once: lines are searched for their end, and literals announced at the end of a line
+ * are copied without being looked at. The scan position is kept between chunks, so that the command is only parsed
+ * once it was completely received. Literals which do not fit into the in memory size limit are streamed to a temporary
+ * file as they arrive. This file is then shared with the consumers of the literals, and is kept till the command is
+ * disposed.
+ * 
+ * The lines following a literal are received while the framing of the channel is disabled: their length is checked
+ * here.
+ */
+public class ImapCommandAccumulator {
+
+    public enum State {
+        /**
+         * The chunk was consumed but the command is not complete yet
+         */
+        INCOMPLETE,
+        /**
+         * A literal was announced at the end of the last received line
+         */
+        LITERAL_STARTED,
+        /**
+         * The command was completely received. Remaining bytes of the chunk belong to the next command
+         */
+        COMPLETE
+    }
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final int INITIAL_LINE_CAPACITY = 128;
+    // The announced size of a literal is only trusted up to this amount: the buffer grows as the bytes are received
+    private static final int MAX_PREALLOCATED_LITERAL_SIZE = 64 * 1024;
+
+    private final int inMemorySizeLimit;
+    private final int maxLineLength;
+    private final ChannelBuffer currentLine;
+    private ChannelBuffer memory;
+    private File file;
+    private OutputStream out;
+    private SharedFileInputStream content;
+    private long size;
+    private long literalRemaining;
+    private long literalSize;
+    private boolean synchronizingLiteral;
+    private boolean hasLiteral;
+
+    /**
+     * @param inMemorySizeLimit
+     *            size above which the command is streamed to a temporary file, or 0 to keep it in memory
+     * @param maxLineLength
+     *            maximal length of a line of the command, or 0 for no limit
+     */
+    public ImapCommandAccumulator(int inMemorySizeLimit, int maxLineLength) {
+        this.inMemorySizeLimit = inMemorySizeLimit;
+        this.maxLineLength = maxLineLength;
+        this.currentLine = ChannelBuffers.dynamicBuffer(INITIAL_LINE_CAPACITY);
+        this.memory = ChannelBuffers.dynamicBuffer(INITIAL_LINE_CAPACITY);
+        this.size = 0;
+        this.literalRemaining = 0;
+    }
+
+    /**
+     * Consume the given chunk till the end of the command or the end of the next line announcing a literal
+     * 
+     * @throws TooLongFrameException
+     *             if a line of the command exceeds the maximal line length
+     */
+    public State accumulate(ChannelBuffer buffer) throws IOException, TooLongFrameException {
+        while (buffer.readable()) {
+            if (literalRemaining > 0) {
+                int amount = (int) Math.min(buffer.readableBytes(), literalRemaining);
+                write(buffer, amount);
+                literalRemaining -= amount;
+                continue;
+            }
+            int lineEnd = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), LF);
+            if (lineEnd == -1) {
+                checkLineLength(buffer.readableBytes());
+                appendLine(buffer, buffer.readableBytes());
+                return State.INCOMPLETE;
+            }
+            checkLineLength(lineEnd - buffer.readerIndex());
+            appendLine(buffer, lineEnd - buffer.readerIndex() + 1);
+            long literalSize = announcedLiteralSize();
+            currentLine.clear();
+            if (literalSize < 0) {
+                return State.COMPLETE;
+            }
+            startLiteral(literalSize);
+            return State.LITERAL_STARTED;
+        }
+        return State.INCOMPLETE;
+    }
+
+    /**
+     * Size announced by the last literal
+     */
+    public long getLiteralSize() {
+        return literalSize;
+    }
+
+    /**
+     * Was the last announced literal a synchronizing one, which needs a command continuation request ?
+     */
+    public boolean isSynchronizingLiteral() {
+        return synchronizingLiteral;
+    }
+
+    /**
+     * Does the command contain literals ?
+     */
+    public boolean hasLiteral() {
+        return hasLiteral;
+    }
+
+    /**
+     * Return a reader over the complete command. Command continuation requests were already sent while accumulating
+     * the command, so the reader will not send them again.
+     */
+    public ImapRequestLineReader reader(Channel channel, int literalSizeLimit) throws IOException {
+        if (file == null) {
+            return new NettyImapRequestLineReader(channel, memory, true, literalSizeLimit);
+        }
+        out.close();
+        content = new SharedFileInputStream(file);
+        return new NettyStreamImapRequestLineReader(channel, content, true);
+    }
+
+    /**
+     * Release the resources of the command, once it was processed or if it will not be read
+     */
+    public void dispose() {
+        if (file != null) {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(content);
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * As for the framer, the line end is not counted
+     */
+    private void checkLineLength(int appended) throws TooLongFrameException {
+        if (maxLineLength > 0 && currentLine.readableBytes() + appended > maxLineLength + 1) {
+            throw new TooLongFrameException("The line exceeds " + maxLineLength + " bytes");
+        }
+    }
+
+    private void appendLine(ChannelBuffer buffer, int length) throws IOException {
+        currentLine.writeBytes(buffer, buffer.readerIndex(), length);
+        write(buffer, length);
+    }
+
+    private void write(ChannelBuffer buffer, int length) throws IOException {
+        if (file == null) {
+            memory.writeBytes(buffer, length);
+        } else {
+            buffer.readBytes(out, length);
+        }
+        size += length;
+    }
+
+    private void startLiteral(long literalSize) throws IOException {
+        hasLiteral = true;
+        this.literalSize = literalSize;
+        literalRemaining = literalSize;
+        if (file == null) {
+            if (inMemorySizeLimit > 0 && size + literalSize > inMemorySizeLimit) {
+                spoolToFile();
+            } else {
+                memory.ensureWritableBytes((int) Math.min(literalSize, MAX_PREALLOCATED_LITERAL_SIZE));
+            }
+        }
+    }
+
+    private void spoolToFile() throws IOException {
+        file = File.createTempFile("imap-literal", ".tmp");
+        try {
+            out = new FileOutputStream(file, true);
+            memory.readBytes(out, memory.readableBytes());
+        } catch (IOException e) {
+            dispose();
+            throw e;
+        }
+        memory = null;
+    }
+
+    /**
+     * Look for a literal announced at the end of the current line, either <code>{size}</code> or the non
+     * synchronizing <code>{size+}</code>
+     * 
+     * @return the size of the literal or -1 if the line does not end with a literal
+     */
+    private long announcedLiteralSize() {
+        int start = currentLine.readerIndex();
+        int end = currentLine.writerIndex() - 1;
+        if (end > start && currentLine.getByte(end - 1) == CR) {
+            end--;
+        }
+        int index = end - 1;
+        if (index < start || currentLine.getByte(index) != '}') {
+            return -1;
+        }
+        index--;
+        boolean nonSynchronizing = index >= start && currentLine.getByte(index) == '+';
+        if (nonSynchronizing) {
+            index--;
+        }
+        int lastDigit = index;
+        while (index >= start && Character.isDigit(currentLine.getByte(index))) {
+            index--;
+        }
+        if (index == lastDigit || index < start || currentLine.getByte(index) != '{' || lastDigit - index > 10) {
+            return -1;
+        }
+        long literalSize = 0;
+        for (int digit = index + 1; digit <= lastDigit; digit++) {
+            literalSize = literalSize * 10 + (currentLine.getByte(digit) - '0');
+        }
+        if (literalSize > Integer.MAX_VALUE) {
+            return -1;
+        }
+        synchronizingLiteral = !nonSynchronizing;
+        return literalSize;
+    }
+}
@@ -0,0 +1,144 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.james.imap.encode.ImapResponseComposer;
+import org.apache.james.imap.encode.base.ImapResponseComposerImpl;
+import org.apache.james.imap.processor.base.PipelinedCommands;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+
+/**
+ * Processes the commands of a {@link Channel} which can run concurrently on an {@link Executor}, and writes their
+ * responses to the {@link Channel} in the order the commands were received.
+ * 
+ * The responses of the oldest running command are written straight to the {@link Channel}. The responses of the
+ * following ones are queued till all the commands received before them completed.
+ */
+public class ImapCommandPipeline {
+
+    /**
+     * A command to process, writing its responses with the given {@link ImapResponseComposer}
+     */
+    public interface Command {
+        void process(ImapResponseComposer composer) throws Exception;
+    }
+
+    private final Channel channel;
+    private final Executor executor;
+    private final PipelinedCommands commands;
+    private final LinkedList<CommandResponseWriter> writers;
+
+    public ImapCommandPipeline(Channel channel, Executor executor) {
+        this.channel = channel;
+        this.executor = executor;
+        this.commands = new PipelinedCommands();
+        this.writers = new LinkedList<CommandResponseWriter>();
+    }
+
+    public PipelinedCommands getCommands() {
+        return commands;
+    }
+
+    /**
+     * Process the given command on the {@link Executor}, concurrently with the other pipelined commands
+     */
+    public void execute(final Command command) {
+        final CommandResponseWriter writer = new CommandResponseWriter();
+        synchronized (this) {
+            writers.add(writer);
+        }
+        commands.started();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        command.process(new ImapResponseComposerImpl(writer));
+                    } catch (Exception e) {
+                        Channels.fireExceptionCaughtLater(channel, e);
+                    } finally {
+                        completed(writer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completed(writer);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the pipelined commands to complete, and for their responses to be written
+     */
+    public void awaitCompletion() throws InterruptedException {
+        commands.awaitCompletion();
+    }
+
+    private void completed(CommandResponseWriter writer) {
+        synchronized (this) {
+            writer.completed = true;
+            while (!writers.isEmpty() && writers.getFirst().completed) {
+                writers.removeFirst();
+                if (!writers.isEmpty()) {
+                    writers.getFirst().flush();
+                }
+            }
+        }
+        commands.completed();
+    }
+
+    /**
+     * Writes the responses of a command to the {@link Channel} once it is the oldest running command, and queues them
+     * before
+     */
+    private class CommandResponseWriter extends ChannelImapResponseWriter {
+
+        private final List<Object> queued = new ArrayList<Object>();
+        private boolean completed;
+
+        public CommandResponseWriter() {
+            super(channel);
+        }
+
+        @Override
+        protected void writeMessage(Object message) {
+            synchronized (ImapCommandPipeline.this) {
+                if (writers.getFirst() == this) {
+                    super.writeMessage(message);
+                } else {
+                    queued.add(message);
+                }
+            }
+        }
+
+        private void flush() {
+            for (Object message : queued) {
+                super.writeMessage(message);
+            }
+            queued.clear();
+        }
+    }
+}
@@ -19,21 +19,18 @@
 
 package org.apache.james.imapserver.netty;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.james.imap.api.ImapMessage;
 import org.apache.james.imap.api.ImapSessionState;
+import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.protocols.imap.DecodingException;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
@@ -41,172 +38,130 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 
 /**
  * {@link FrameDecoder} which will decode via and {@link ImapDecoder} instance
+ * 
+ * The bytes of a command are first accumulated by an {@link ImapCommandAccumulator}, which keeps its position
+ * between the received chunks, sends the command continuation requests and streams the literals. The command is then
+ * decoded once it was completely received.
+ * 
+ * Literals exceeding the literal size limit are rejected before any command continuation request is sent. A line
+ * exceeding the maximal line length is answered by the {@link ImapChannelUpstreamHandler}, and its remaining bytes
+ * are discarded.
  */
 public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConstants {
 
     private final ImapDecoder decoder;
     private final int inMemorySizeLimit;
     private final int literalSizeLimit;
-    private final static String NEEDED_DATA = "NEEDED_DATA";
-    private final static String STORED_DATA = "STORED_DATA";
-    private final static String WRITTEN_DATA = "WRITTEN_DATA";
-    private final static String OUTPUT_STREAM = "OUTPUT_STREAM";
+    private final int maxLineLength;
+    private final static String PENDING_COMMAND = "PENDING_COMMAND";
+    private final static String DISCARDING_LINE = "DISCARDING_LINE";
+    private final static String DECODED_COMMANDS = "DECODED_COMMANDS";
+    private final ChannelBuffer cRequest = ChannelBuffers.wrappedBuffer("+\r\n".getBytes());
 
-    public ImapRequestFrameDecoder(ImapDecoder decoder, int inMemorySizeLimit, int literalSizeLimit) {
+    public ImapRequestFrameDecoder(ImapDecoder decoder, int inMemorySizeLimit, int literalSizeLimit, int maxLineLength) {
         this.decoder = decoder;
         this.inMemorySizeLimit = inMemorySizeLimit;
         this.literalSizeLimit = literalSizeLimit;
+        this.maxLineLength = maxLineLength;
     }
 
     @Override
     public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        ctx.setAttachment(new HashMap<String, Object>());
+        Map<String, Object> attachment = new HashMap<String, Object>();
+        attachment.put(DECODED_COMMANDS, new ArrayList<ImapCommandAccumulator>());
+        ctx.setAttachment(attachment);
         super.channelOpen(ctx, e);
     }
 
+    /**
+     * The decoded messages are processed while the received chunk is decoded. The commands they come from can then be
+     * disposed, as their literals were consumed.
+     */
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        try {
+            super.messageReceived(ctx, e);
+        } finally {
+            disposeDecodedCommands(ctx);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        try {
+            super.channelClosed(ctx, e);
+        } finally {
+            ImapCommandAccumulator command = (ImapCommandAccumulator) attachment(ctx).remove(PENDING_COMMAND);
+            if (command != null) {
+                command.dispose();
+            }
+            disposeDecodedCommands(ctx);
+        }
+    }
+
     /**
      * @see
      * org.jboss.netty.handler.codec.frame.FrameDecoder#decode(org.jboss.netty.channel.ChannelHandlerContext,
      * org.jboss.netty.channel.Channel, org.jboss.netty.buffer.ChannelBuffer)
      */
-    @SuppressWarnings("unchecked")
     protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
-        buffer.markReaderIndex();
-        boolean retry = false;
-
-        ImapRequestLineReader reader;
-        // check if we failed before and if we already know how much data we
-        // need to sucess next run
-        Map<String, Object> attachment = (Map<String, Object>) ctx.getAttachment();
-        int size = -1;
-        if (attachment.containsKey(NEEDED_DATA)) {
-            retry = true;
-            size = (Integer) attachment.get(NEEDED_DATA);
-            // now see if the buffer hold enough data to process.
-            if (size != NettyImapRequestLineReader.NotEnoughDataException.UNKNOWN_SIZE && size > buffer.readableBytes()) {
-
-                // check if we have a inMemorySize limit and if so if the
-                // expected size will fit into it
-                if (inMemorySizeLimit > 0 && inMemorySizeLimit < size) {
-
-                    // ok seems like it will not fit in the memory limit so we
-                    // need to store it in a temporary file
-                    final File f;
-                    int written;
-
-                    OutputStream out;
-                    // check if we have created a temporary file already or if
-                    // we need to create a new one
-                    if (attachment.containsKey(STORED_DATA)) {
-                        f = (File) attachment.get(STORED_DATA);
-                        written = (Integer) attachment.get(WRITTEN_DATA);
-                        out = (OutputStream) attachment.get(OUTPUT_STREAM);
-                    } else {
-                        f = File.createTempFile("imap-literal", ".tmp");
-                        attachment.put(STORED_DATA, f);
-                        written = 0;
-                        attachment.put(WRITTEN_DATA, written);
-                        out = new FileOutputStream(f, true);
-                        attachment.put(OUTPUT_STREAM, out);
-
-                    }
-
-
-                    try {
-                        int amount = Math.min(buffer.readableBytes(), size - written);
-                        buffer.readBytes(out, amount);
-                        written += amount;
-                    } catch (Exception e) {
-                        IOUtils.closeQuietly(out);
-                        throw e;
-                    }
-                    // Check if all needed data was streamed to the file.
-                    if (written == size) {
-                        IOUtils.closeQuietly(out);
-
-                        reader = new NettyStreamImapRequestLineReader(channel, new FileInputStream(f) {
-                            /**
-                             * Delete the File on close too
-                             */
-                            @Override
-                            public void close() throws IOException {
-                                super.close();
-                                FileUtils.forceDelete(f);
-                            }
-
-                        }, retry);
-                    } else {
-                        attachment.put(WRITTEN_DATA, written);
-                        return null;
-                    }
-
-                } else {
-                    buffer.resetReaderIndex();
-                    return null;
-                }
-
-            } else {
-
-                reader = new NettyImapRequestLineReader(channel, buffer, retry, literalSizeLimit);
+        Map<String, Object> attachment = attachment(ctx);
+        if (attachment.containsKey(DISCARDING_LINE)) {
+            discardLine(attachment, channel, buffer);
+            return null;
+        }
+        ImapCommandAccumulator command = (ImapCommandAccumulator) attachment.get(PENDING_COMMAND);
+        if (command == null) {
+            command = new ImapCommandAccumulator(inMemorySizeLimit, maxLineLength);
+            attachment.put(PENDING_COMMAND, command);
+        }
+
+        ImapCommandAccumulator.State state = accumulate(attachment, command, buffer);
+        while (state == ImapCommandAccumulator.State.LITERAL_STARTED) {
+            if (literalSizeLimit > 0 && command.getLiteralSize() > literalSizeLimit) {
+                // Rejected before the client is invited to send it
+                abort(attachment, command);
+                throw new DecodingException(HumanReadableText.FAILED, "Specified literal is greater than the allowed size");
             }
-        } else {
-            reader = new NettyImapRequestLineReader(channel, buffer, retry, literalSizeLimit);
+            if (command.isSynchronizingLiteral()) {
+                channel.write(cRequest.duplicate());
+            }
+            // The literal is not delimited by lines: hand us the bytes as they are received.
+            // The state of the command must be up to date here, as the bytes buffered by the framer are
+            // passed to this decoder straight away.
+            disableFraming(channel);
+            state = accumulate(attachment, command, buffer);
+        }
+        if (state == ImapCommandAccumulator.State.INCOMPLETE) {
+            return null;
         }
+        attachment.remove(PENDING_COMMAND);
+        ((SwitchableDelimiterBasedFrameDecoder) channel.getPipeline().get(FRAMER)).enableFraming();
 
         ImapSession session = (ImapSession) attributes.get(channel);
 
         // check if the session was removed before to prevent a harmless NPE. See JAMES-1312
         // Also check if the session was logged out if so there is not need to try to decode it. See JAMES-1341
         if (session != null && session.getState() != ImapSessionState.LOGOUT) {
-            try {
-
-                ImapMessage message = decoder.decode(reader, session);
-
-                // if size is != -1 the case was a literal. if thats the case we
-                // should not consume the line
-                // See JAMES-1199
-                if (size == -1) {
-                    reader.consumeLine();
-                }
-                
-                // Code portion commented further to JAMES-1436.
-                // TODO Remove if no negative feedback on JAMES-1436.
-//                ChannelHandler handler = (ChannelHandler) attachment.remove(FRAMER);
-//                if (handler != null) {
-//                    channel.getPipeline().addFirst(FRAMER, handler);
-//                }
-                
-                ((SwitchableDelimiterBasedFrameDecoder) channel.getPipeline().get(FRAMER)).enableFraming();
-                
-                attachment.clear();
-                return message;
-            } catch (NettyImapRequestLineReader.NotEnoughDataException e) {
-                // this exception was thrown because we don't have enough data
-                // yet
-                int neededData = e.getNeededSize();
-                // store the needed data size for later usage
-                attachment.put(NEEDED_DATA, neededData);
-                
-                final ChannelPipeline pipeline = channel.getPipeline();
-                final ChannelHandlerContext framerContext = pipeline.getContext(FRAMER);
-                
-                // Code portion commented further to JAMES-1436.
-                // TODO Remove if no negative feedback on JAMES-1436.
-//                ChannelHandler handler = channel.getPipeline().remove(FRAMER);
-//                attachment.put(FRAMER, handler);
-
-                // SwitchableDelimiterBasedFrameDecoder added further to JAMES-1436.
-                final SwitchableDelimiterBasedFrameDecoder framer = (SwitchableDelimiterBasedFrameDecoder) pipeline.get(FRAMER);
-                framer.disableFraming(framerContext);
-                
-                buffer.resetReaderIndex();
-                return null;
+            // The literals of the command may be shared with its processing: it is only disposed once processed
+            decodedCommands(ctx).add(command);
+            ImapRequestLineReader reader = command.reader(channel, literalSizeLimit);
+            ImapMessage message = decoder.decode(reader, session);
+
+            // if the command contains a literal we should not consume the line
+            // See JAMES-1199
+            if (!command.hasLiteral()) {
+                reader.consumeLine();
             }
+            return message;
         } else {
+            command.dispose();
             // The session was null so may be the case because the channel was already closed but there were still bytes in the buffer.
             // We now try to disconnect the client if still connected
             if (channel.isConnected()) {
@@ -216,21 +171,65 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
         }
     }
 
-    @Override
-    protected synchronized ChannelBuffer newCumulationBuffer(ChannelHandlerContext ctx, int minimumCapacity) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> attachment = (Map<String, Object>) ctx.getAttachment();
-        int size = (Integer) attachment.get(NEEDED_DATA);
-        
-        if (inMemorySizeLimit > 0) {
-            return ChannelBuffers.dynamicBuffer(Math.min(size, inMemorySizeLimit), ctx.getChannel().getConfig().getBufferFactory());
+    private ImapCommandAccumulator.State accumulate(Map<String, Object> attachment, ImapCommandAccumulator command, ChannelBuffer buffer) throws Exception {
+        try {
+            return command.accumulate(buffer);
+        } catch (TooLongFrameException e) {
+            // The client is answered and can go on: the rest of the line is dropped. The framing stays disabled
+            // till then, so that the framer does not drop it on its own.
+            abort(attachment, command);
+            attachment.put(DISCARDING_LINE, Boolean.TRUE);
+            throw e;
+        } catch (Exception e) {
+            abort(attachment, command);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop the pending command, so that the next received bytes start a new one
+     */
+    private void abort(Map<String, Object> attachment, ImapCommandAccumulator command) {
+        command.dispose();
+        attachment.remove(PENDING_COMMAND);
+    }
+
+    private void discardLine(Map<String, Object> attachment, Channel channel, ChannelBuffer buffer) {
+        int lineEnd = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte) '\n');
+        if (lineEnd == -1) {
+            buffer.skipBytes(buffer.readableBytes());
         } else {
+            buffer.readerIndex(lineEnd + 1);
+            attachment.remove(DISCARDING_LINE);
+            ((SwitchableDelimiterBasedFrameDecoder) channel.getPipeline().get(FRAMER)).enableFraming();
+        }
+    }
 
-            if (size > 0) {
-                return ChannelBuffers.dynamicBuffer(size, ctx.getChannel().getConfig().getBufferFactory());
-            }
-            return super.newCumulationBuffer(ctx, minimumCapacity);
+    private void disableFraming(Channel channel) {
+        final ChannelPipeline pipeline = channel.getPipeline();
+        final ChannelHandlerContext framerContext = pipeline.getContext(FRAMER);
+
+        // SwitchableDelimiterBasedFrameDecoder added further to JAMES-1436.
+        final SwitchableDelimiterBasedFrameDecoder framer = (SwitchableDelimiterBasedFrameDecoder) pipeline.get(FRAMER);
+        framer.disableFraming(framerContext);
+    }
+
+    private void disposeDecodedCommands(ChannelHandlerContext ctx) {
+        List<ImapCommandAccumulator> commands = decodedCommands(ctx);
+        for (ImapCommandAccumulator command : commands) {
+            command.dispose();
         }
+        commands.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ImapCommandAccumulator> decodedCommands(ChannelHandlerContext ctx) {
+        return (List<ImapCommandAccumulator>) attachment(ctx).get(DECODED_COMMANDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> attachment(ChannelHandlerContext ctx) {
+        return (Map<String, Object>) ctx.getAttachment();
     }
 
 }
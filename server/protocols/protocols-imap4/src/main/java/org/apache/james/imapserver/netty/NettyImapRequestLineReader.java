@@ -21,6 +21,8 @@ package org.apache.james.imapserver.netty;
 
 import java.io.InputStream;
 
+import javax.mail.util.SharedByteArrayInputStream;
+
 import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.imap.decode.ImapRequestLineReader;
@@ -84,7 +86,7 @@ public class NettyImapRequestLineReader extends AbstractNettyImapRequestLineRead
             crlf = 2;
         }
         
-        if (maxLiteralSize > 0 && maxLiteralSize > size) {
+        if (maxLiteralSize > 0 && size > maxLiteralSize) {
             throw new DecodingException(HumanReadableText.FAILED, "Specified literal is greater then the allowed size");
         }
         // Check if we have enough data
@@ -98,6 +100,17 @@ public class NettyImapRequestLineReader extends AbstractNettyImapRequestLineRead
         nextSeen = false;
         nextChar = 0;
 
+        if (buffer.hasArray()) {
+            // share the bytes of the literal rather than copying them, so that its consumer can reuse them as they are
+            InputStream in = new SharedByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), size);
+            buffer.skipBytes(size);
+            if (extraCRLF) {
+                // The whole literal was received, so the end of line can be checked straight away
+                eol();
+            }
+            return in;
+        }
+
         // limit the size via commons-io as ChannelBufferInputStream size limiting is buggy
         InputStream in = new BoundedInputStream(new ChannelBufferInputStream(buffer), size); 
         if (extraCRLF) {
@@ -18,8 +18,8 @@
  ****************************************************************/
 package org.apache.james.imapserver.netty;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.SSLContext;
 
@@ -42,7 +42,7 @@ public class NettyImapSession implements ImapSession, NettyConstants {
 
     private ImapSessionState state = ImapSessionState.NON_AUTHENTICATED;
     private SelectedMailbox selectedMailbox;
-    private final Map<String, Object> attributesByKey = new HashMap<String, Object>();
+    private final Map<String, Object> attributesByKey = new ConcurrentHashMap<String, Object>();
     private final SSLContext sslContext;
     private final String[] enabledCipherSuites;
     private final boolean compress;
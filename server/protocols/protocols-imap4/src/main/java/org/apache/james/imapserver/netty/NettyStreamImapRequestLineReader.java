@@ -21,6 +21,8 @@ package org.apache.james.imapserver.netty;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.mail.internet.SharedInputStream;
+
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.protocols.imap.DecodingException;
 import org.apache.james.protocols.imap.utils.EolInputStream;
@@ -84,6 +86,9 @@ public class NettyStreamImapRequestLineReader extends AbstractNettyImapRequestLi
         // Unset the next char.
         nextSeen = false;
         nextChar = 0;
+        if (in instanceof SharedInputStream) {
+            return readShared(size, extraCRLF);
+        }
         FixedLengthInputStream fin = new FixedLengthInputStream(this.in, size);
         if (extraCRLF) {
             return new EolInputStream(this, fin);
@@ -93,6 +98,33 @@ public class NettyStreamImapRequestLineReader extends AbstractNettyImapRequestLi
         
     }
 
+    /**
+     * Share the literal with the caller instead of wrapping the underlying stream, so that its consumer can reuse
+     * the content as it is
+     */
+    private InputStream readShared(int size, boolean extraCRLF) throws DecodingException {
+        SharedInputStream shared = (SharedInputStream) in;
+        long start = shared.getPosition();
+        InputStream literal = shared.newStream(start, start + size);
+        try {
+            long remaining = size;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "Unexpected end of stream.");
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            throw new DecodingException(HumanReadableText.SOCKET_IO_FAILURE, "Error reading from stream.", e);
+        }
+        if (extraCRLF) {
+            // The whole command is available, so the end of line can be checked straight away
+            eol();
+        }
+        return literal;
+    }
+
     public void dispose() throws IOException {
         in.close();
     }
@@ -21,6 +21,7 @@ package org.apache.james.imapserver.netty;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.encode.ImapEncoder;
+import org.apache.james.mailbox.MailboxManager;
 import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.oio.OioServerSocketChannelFactory;
 import org.jboss.netty.handler.execution.ExecutionHandler;
@@ -31,8 +32,8 @@ import org.jboss.netty.handler.execution.ExecutionHandler;
  */
 public class OioIMAPServer extends IMAPServer {
 
-    public OioIMAPServer(ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, ImapMetrics imapMetrics) {
-        super(decoder, encoder, processor, imapMetrics);
+    public OioIMAPServer(ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, ImapMetrics imapMetrics, MailboxManager mailboxManager) {
+        super(decoder, encoder, processor, imapMetrics, mailboxManager);
     }
 
     @Override
@@ -24,18 +24,19 @@ import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.encode.ImapEncoder;
+import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.metrics.api.MetricFactory;
 
 public class OioIMAPServerFactory extends IMAPServerFactory {
 
     @Inject
-    public OioIMAPServerFactory(FileSystem fileSystem, ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, MetricFactory metricFactory) {
-        super(fileSystem, decoder, encoder, processor, metricFactory);
+    public OioIMAPServerFactory(FileSystem fileSystem, ImapDecoder decoder, ImapEncoder encoder, ImapProcessor processor, MetricFactory metricFactory, MailboxManager mailboxManager) {
+        super(fileSystem, decoder, encoder, processor, metricFactory, mailboxManager);
     }
 
     @Override
     protected IMAPServer createServer() {
-        return new OioIMAPServer(decoder, encoder, processor, imapMetrics);
+        return new OioIMAPServer(decoder, encoder, processor, imapMetrics, mailboxManager);
     }
 
 }
@@ -0,0 +1,161 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.james.protocols.netty.ChannelWritabilityHandler;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ChannelImapResponseWriterTest {
+
+    private static final long TIMEOUT_IN_MS = 10000;
+    private static final byte[] RESPONSE = "* OK\r\n".getBytes();
+
+    private volatile boolean writable;
+    private volatile boolean open;
+    private ChannelWritabilityHandler handler;
+    private Channel channel;
+    private ChannelImapResponseWriter testee;
+
+    @Before
+    public void setUp() {
+        writable = true;
+        open = true;
+        handler = new ChannelWritabilityHandler();
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(pipeline.get(ChannelWritabilityHandler.class)).thenReturn(handler);
+        channel = mock(Channel.class);
+        when(channel.getPipeline()).thenReturn(pipeline);
+        when(channel.isWritable()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return writable;
+            }
+        });
+        when(channel.isOpen()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return open;
+            }
+        });
+        when(channel.isConnected()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return open;
+            }
+        });
+        testee = new ChannelImapResponseWriter(channel);
+    }
+
+    @After
+    public void tearDown() {
+        ChannelImapResponseWriter.commandProcessingCompleted();
+    }
+
+    @Test
+    public void writeShouldNotWaitOutsideOfCommandProcessing() throws Exception {
+        writable = false;
+
+        testee.write(RESPONSE);
+
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeShouldNotWaitOnceCommandProcessingCompleted() throws Exception {
+        writable = false;
+        ChannelImapResponseWriter.commandProcessingStarted();
+        ChannelImapResponseWriter.commandProcessingCompleted();
+
+        testee.write(RESPONSE);
+
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeShouldNotWaitWhenTheChannelIsWritable() throws Exception {
+        ChannelImapResponseWriter.commandProcessingStarted();
+
+        testee.write(RESPONSE);
+
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeShouldWaitTillTheChannelIsWritableWhileProcessingACommand() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+        verify(channel, never()).write(any());
+
+        writable = true;
+        handler.channelInterestChanged(mock(ChannelHandlerContext.class), mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertThat(writer.isAlive()).isFalse();
+        verify(channel).write(any());
+    }
+
+    @Test
+    public void writeShouldGiveUpWhenTheChannelIsClosedWhileWaiting() throws Exception {
+        writable = false;
+        Thread writer = startWaitingWriter();
+
+        open = false;
+        handler.channelClosed(mock(ChannelHandlerContext.class), mock(ChannelStateEvent.class));
+
+        writer.join(TIMEOUT_IN_MS);
+        assertThat(writer.isAlive()).isFalse();
+        verify(channel, never()).write(any());
+    }
+
+    private Thread startWaitingWriter() throws InterruptedException {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                ChannelImapResponseWriter.commandProcessingStarted();
+                try {
+                    testee.write(RESPONSE);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    ChannelImapResponseWriter.commandProcessingCompleted();
+                }
+            }
+        };
+        writer.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+        while (writer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(writer.getState()).isEqualTo(Thread.State.WAITING);
+        return writer;
+    }
+}
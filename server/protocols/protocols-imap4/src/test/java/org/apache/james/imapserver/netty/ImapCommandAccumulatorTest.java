@@ -0,0 +1,216 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.After;
+import org.junit.Test;
+
+public class ImapCommandAccumulatorTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int NO_LIMIT = 0;
+
+    private ImapCommandAccumulator testee;
+
+    @After
+    public void tearDown() {
+        if (testee != null) {
+            testee.dispose();
+        }
+    }
+
+    @Test
+    public void lineShouldBeCompleteWhenItsEndIsSplitAcrossChunks() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 NOOP\r"))).isEqualTo(ImapCommandAccumulator.State.INCOMPLETE);
+        assertThat(testee.accumulate(chunk("\n"))).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(content("A1 NOOP\r\n".length())).isEqualTo("A1 NOOP\r\n");
+    }
+
+    @Test
+    public void lineShouldBeCompleteWhenReceivedByteByByte() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+        String command = "A1 NOOP\r\n";
+
+        for (int i = 0; i < command.length() - 1; i++) {
+            assertThat(testee.accumulate(chunk(command.substring(i, i + 1)))).isEqualTo(ImapCommandAccumulator.State.INCOMPLETE);
+        }
+
+        assertThat(testee.accumulate(chunk("\n"))).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(content(command.length())).isEqualTo(command);
+    }
+
+    @Test
+    public void remainingBytesShouldBeLeftForTheNextCommand() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+        ChannelBuffer chunk = chunk("A1 NOOP\r\nA2 NOOP\r\n");
+
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(chunk.toString(US_ASCII)).isEqualTo("A2 NOOP\r\n");
+    }
+
+    @Test
+    public void synchronizingLiteralShouldBeAnnounced() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 LOGIN {4}\r\n"))).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.isSynchronizingLiteral()).isTrue();
+        assertThat(testee.getLiteralSize()).isEqualTo(4);
+        assertThat(testee.hasLiteral()).isTrue();
+    }
+
+    @Test
+    public void nonSynchronizingLiteralShouldBeAnnounced() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 LOGIN {4+}\r\n"))).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.isSynchronizingLiteral()).isFalse();
+        assertThat(testee.getLiteralSize()).isEqualTo(4);
+    }
+
+    @Test
+    public void bracesInsideTheLineShouldNotAnnounceALiteral() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 SELECT {4} INBOX\r\n"))).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(testee.hasLiteral()).isFalse();
+    }
+
+    @Test
+    public void literalShouldBeAnnouncedWhenTheLineEndIsSplitAcrossChunks() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 LOGIN {4}\r"))).isEqualTo(ImapCommandAccumulator.State.INCOMPLETE);
+        assertThat(testee.accumulate(chunk("\n"))).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+    }
+
+    @Test
+    public void severalLiteralsShouldBeAccumulated() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+        String command = "A1 LOGIN {4+}\r\nuser {4+}\r\npass\r\n";
+        ChannelBuffer chunk = chunk(command);
+
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(content(command.length())).isEqualTo(command);
+    }
+
+    @Test
+    public void literalShouldNotBeScannedForLineEnds() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+        String command = "A1 APPEND INBOX {6}\r\na\r\n{1}\r\n";
+        ChannelBuffer chunk = chunk(command);
+
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.accumulate(chunk)).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+        assertThat(content(command.length())).isEqualTo(command);
+    }
+
+    @Test
+    public void literalShouldBeAccumulatedAcrossChunks() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, NO_LIMIT);
+
+        assertThat(testee.accumulate(chunk("A1 APPEND INBOX {10}\r\n"))).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.accumulate(chunk("01234"))).isEqualTo(ImapCommandAccumulator.State.INCOMPLETE);
+        ChannelBuffer last = chunk("56789\r\nA2 NOOP\r\n");
+        assertThat(testee.accumulate(last)).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+
+        String command = "A1 APPEND INBOX {10}\r\n0123456789\r\n";
+        assertThat(content(command.length())).isEqualTo(command);
+        assertThat(last.toString(US_ASCII)).isEqualTo("A2 NOOP\r\n");
+    }
+
+    @Test
+    public void commandShouldBeKeptInMemoryBelowTheInMemorySizeLimit() throws Exception {
+        testee = new ImapCommandAccumulator(1024, NO_LIMIT);
+        String command = "A1 APPEND INBOX {10}\r\n0123456789\r\n";
+        ChannelBuffer chunk = chunk(command);
+
+        testee.accumulate(chunk);
+        testee.accumulate(chunk);
+
+        assertThat(testee.reader(null, NO_LIMIT)).isInstanceOf(NettyImapRequestLineReader.class);
+    }
+
+    @Test
+    public void commandShouldBeSpooledToAFileAboveTheInMemorySizeLimit() throws Exception {
+        testee = new ImapCommandAccumulator(32, NO_LIMIT);
+        String literal = repeat("0123456789", 10);
+        String command = "A1 APPEND INBOX {100}\r\n" + literal + "\r\n";
+
+        assertThat(testee.accumulate(chunk("A1 APPEND INBOX {100}\r\n"))).isEqualTo(ImapCommandAccumulator.State.LITERAL_STARTED);
+        assertThat(testee.accumulate(chunk(literal.substring(0, 50)))).isEqualTo(ImapCommandAccumulator.State.INCOMPLETE);
+        assertThat(testee.accumulate(chunk(literal.substring(50) + "\r\n"))).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+
+        ImapRequestLineReader reader = testee.reader(null, NO_LIMIT);
+        assertThat(reader).isInstanceOf(NettyStreamImapRequestLineReader.class);
+        assertThat(IOUtils.toString(reader.read(command.length(), false), "US-ASCII")).isEqualTo(command);
+    }
+
+    @Test(expected = TooLongFrameException.class)
+    public void accumulateShouldThrowWhenALineExceedsTheMaximalLength() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, 16);
+
+        testee.accumulate(chunk("A1 SELECT " + repeat("a", 16)));
+    }
+
+    @Test(expected = TooLongFrameException.class)
+    public void accumulateShouldThrowWhenALineFollowingALiteralExceedsTheMaximalLength() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, 32);
+        testee.accumulate(chunk("A1 APPEND INBOX {2}\r\n"));
+
+        testee.accumulate(chunk("ab" + repeat(" ", 16)));
+        testee.accumulate(chunk(repeat(" ", 32)));
+    }
+
+    @Test
+    public void lineOfTheMaximalLengthShouldBeAccepted() throws Exception {
+        testee = new ImapCommandAccumulator(NO_LIMIT, 16);
+
+        assertThat(testee.accumulate(chunk("A1 SELECT INBOX\r\n"))).isEqualTo(ImapCommandAccumulator.State.COMPLETE);
+    }
+
+    private ChannelBuffer chunk(String content) {
+        return ChannelBuffers.copiedBuffer(content, US_ASCII);
+    }
+
+    private String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private String content(int length) throws Exception {
+        return IOUtils.toString(testee.reader(null, NO_LIMIT).read(length, false), "US-ASCII");
+    }
+}
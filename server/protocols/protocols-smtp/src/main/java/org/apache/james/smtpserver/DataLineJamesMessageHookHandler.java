@@ -38,7 +38,7 @@ import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler;
-import org.apache.james.protocols.smtp.core.DataLineFilter;
+import org.apache.james.protocols.smtp.core.DataContentFilter;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookResultHook;
@@ -61,7 +61,7 @@ import java.util.List;
 /**
  * Handles the calling of JamesMessageHooks
  */
-public class DataLineJamesMessageHookHandler implements DataLineFilter, ExtensibleHandler {
+public class DataLineJamesMessageHookHandler implements DataContentFilter, ExtensibleHandler {
 
     private List<JamesMessageHook> messageHandlers;
 
@@ -79,10 +79,7 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
     }
 
-    public Response onLine(SMTPSession session, ByteBuffer lineByteBuffer, LineHandler<SMTPSession> next) {
-
-        byte[] line = new byte[lineByteBuffer.remaining()];
-        lineByteBuffer.get(line, 0, line.length);
+    public Response onLine(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
 
         MimeMessageInputStreamSource mmiss = (MimeMessageInputStreamSource) session.getAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, State.Transaction);
 
@@ -91,7 +88,7 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
             // 46 is "."
             // Stream terminated
-            if (line.length == 3 && line[0] == 46) {
+            if (line.remaining() == 3 && line.get(line.position()) == 46) {
                 out.flush();
                 out.close();
 
@@ -135,14 +132,15 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
                 }
 
                 // DotStuffing.
-            } else if (line[0] == 46 && line[1] == 46) {
-                out.write(line, 1, line.length - 1);
+            } else if (line.get(line.position()) == 46 && line.get(line.position() + 1) == 46) {
+                line.get();
+                write(out, line);
                 // Standard write
             } else {
                 // TODO: maybe we should handle the Header/Body recognition here
                 // and if needed let a filter to cache the headers to apply some
                 // transformation before writing them to output.
-                out.write(line);
+                write(out, line);
             }
         } catch (IOException e) {
             LifecycleUtil.dispose(mmiss);
@@ -158,6 +156,37 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
         return null;
     }
 
+    /**
+     * @see org.apache.james.protocols.smtp.core.DataContentFilter#onContent(SMTPSession, ByteBuffer)
+     */
+    public Response onContent(SMTPSession session, ByteBuffer content) {
+        MimeMessageInputStreamSource mmiss = (MimeMessageInputStreamSource) session.getAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, State.Transaction);
+        try {
+            write(mmiss.getWritableOutputStream(), content);
+        } catch (IOException e) {
+            LifecycleUtil.dispose(mmiss);
+            SMTPResponse response = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + " Error processing message: " + e.getMessage());
+            session.getLogger().error("Unknown error occurred while processing BDAT.", e);
+            return response;
+        }
+        return null;
+    }
+
+    /**
+     * Write the remaining bytes of the given buffer, straight from its backing
+     * array when it has one
+     */
+    private void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+    }
+
     protected Response processExtensions(SMTPSession session, Mail mail) {
         if (mail != null && messageHandlers != null) {
             try {
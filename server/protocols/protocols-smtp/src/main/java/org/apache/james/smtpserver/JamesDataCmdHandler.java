@@ -20,6 +20,7 @@ package org.apache.james.smtpserver;
 
 import org.apache.james.core.MailImpl;
 import org.apache.james.core.MimeMessageInputStreamSource;
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
@@ -32,13 +33,12 @@ import org.apache.james.protocols.smtp.core.DataCmdHandler;
 public class JamesDataCmdHandler extends DataCmdHandler {
 
     /**
-     * Handler method called upon receipt of a DATA command. Reads in message
-     * data, creates header, and delivers to mail server service for delivery.
+     * Create the {@link MimeMessageInputStreamSource} which stores the message
+     * of the current transaction.
      *
-     * @param session  SMTP session object
-     * @param argument the argument passed in with the command by the SMTP client
+     * @param session SMTP session object
      */
-    protected SMTPResponse doDATA(SMTPSession session, String argument) {
+    protected SMTPResponse beginMessage(SMTPSession session) {
         try {
             MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId());
             session.setAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, mmiss, State.Transaction);
@@ -46,11 +46,18 @@ public class JamesDataCmdHandler extends DataCmdHandler {
             session.getLogger().warn("Error creating mimemessagesource for incoming data", e);
             return new SMTPResponse(SMTPRetCode.LOCAL_ERROR, "Unexpected error preparing to receive DATA.");
         }
+        return null;
+    }
 
-        // out = new PipedOutputStream(messageIn);
-        session.pushLineHandler(getLineHandler());
-
-        return new SMTPResponse(SMTPRetCode.DATA_READY, "Ok Send data ending with <CRLF>.<CRLF>");
+    /**
+     * Dispose the {@link MimeMessageInputStreamSource} of a message which
+     * will not be received.
+     *
+     * @param session SMTP session object
+     */
+    protected void abortMessage(SMTPSession session) {
+        MimeMessageInputStreamSource mmiss = (MimeMessageInputStreamSource) session.setAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, null, State.Transaction);
+        LifecycleUtil.dispose(mmiss);
     }
 
 }
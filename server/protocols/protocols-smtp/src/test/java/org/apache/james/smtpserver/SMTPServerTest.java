@@ -454,7 +454,7 @@ public class SMTPServerTest {
 
         assertThat(capabilitieslist)
             .as("capabilities")
-            .hasSize(3);
+            .hasSize(4);
         assertThat(capabilitieslist.contains("PIPELINING"))
             .as("capabilities present PIPELINING")
             .isTrue();
@@ -464,6 +464,9 @@ public class SMTPServerTest {
         assertThat(capabilitieslist.contains("8BITMIME"))
             .as("capabilities present 8BITMIME")
             .isTrue();
+        assertThat(capabilitieslist.contains("CHUNKING"))
+            .as("capabilities present CHUNKING")
+            .isTrue();
 
         smtpProtocol.setSender("mail@localhost");
         smtpProtocol.addRecipient("mail@localhost");
@@ -502,10 +505,10 @@ public class SMTPServerTest {
 
         assertThat(capabilitieslist)
             .as("capabilities")
-            .hasSize(4);
+            .hasSize(5);
         assertThat(capabilitieslist)
-            .as("capabilities present PIPELINING ENHANCEDSTATUSCODES 8BITMIME STARTTLS")
-            .containsOnly("PIPELINING", "ENHANCEDSTATUSCODES", "8BITMIME", "STARTTLS");
+            .as("capabilities present PIPELINING ENHANCEDSTATUSCODES 8BITMIME CHUNKING STARTTLS")
+            .containsOnly("PIPELINING", "ENHANCEDSTATUSCODES", "8BITMIME", "CHUNKING", "STARTTLS");
 
         smtpProtocol.quit();
         smtpProtocol.disconnect();
@@ -1727,6 +1730,106 @@ public class SMTPServerTest {
     }
 
     // See http://www.ietf.org/rfc/rfc2920.txt 4: Examples
+    @Test
+    public void testChunking() throws Exception {
+        init(smtpConfiguration);
+        InetSocketAddress bindedAddress = new ProtocolServerUtils(smtpServer).retrieveBindedAddress();
+        Socket client = new Socket(bindedAddress.getAddress().getHostAddress(), bindedAddress.getPort());
+
+        String firstChunk = "Subject: test\r\n\r\n..content";
+        String lastChunk = "\r\n.\r\nend";
+        String commands = "EHLO TEST\r\n"
+            + "MAIL FROM: <test@localhost>\r\n"
+            + "RCPT TO: <test2@localhost>\r\n"
+            + "BDAT " + firstChunk.length() + "\r\n" + firstChunk
+            + "BDAT " + lastChunk.length() + " LAST\r\n" + lastChunk
+            + "QUIT\r\n";
+
+        OutputStream out = client.getOutputStream();
+        out.write(commands.getBytes());
+        out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("Connection made")
+            .isEqualTo(220);
+        String line = in.readLine();
+        boolean chunkingAnnounced = false;
+        while (line.charAt(3) == '-') {
+            chunkingAnnounced |= line.substring(4).equals("CHUNKING");
+            line = in.readLine();
+        }
+        chunkingAnnounced |= line.substring(4).equals("CHUNKING");
+        assertThat(chunkingAnnounced)
+            .as("CHUNKING announced")
+            .isTrue();
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("MAIL FROM accepted")
+            .isEqualTo(250);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("RCPT TO accepted")
+            .isEqualTo(250);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("First chunk accepted")
+            .isEqualTo(250);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("Message accepted")
+            .isEqualTo(250);
+        in.close();
+        out.close();
+        client.close();
+
+        Mail mail = queue.getLastMail();
+        assertThat(mail.getMessage().getSubject()).isEqualTo("test");
+        assertThat(mail.getMessage().getContent()).isEqualTo("..content\r\n.\r\nend");
+    }
+
+    @Test
+    public void testChunkingMessageSizeLimitExceeded() throws Exception {
+        smtpConfiguration.setMaxMessageSize(1); // set message limit to 1kb
+        init(smtpConfiguration);
+        InetSocketAddress bindedAddress = new ProtocolServerUtils(smtpServer).retrieveBindedAddress();
+        Socket client = new Socket(bindedAddress.getAddress().getHostAddress(), bindedAddress.getPort());
+
+        StringBuilder chunk = new StringBuilder("Subject: test\r\n\r\n");
+        while (chunk.length() <= 1024) {
+            chunk.append("1234567810123456782012345678301234567840123456785012345678601234567870123456788012345678901234567100\r\n");
+        }
+        String commands = "EHLO TEST\r\n"
+            + "MAIL FROM: <test@localhost>\r\n"
+            + "RCPT TO: <test2@localhost>\r\n"
+            + "BDAT " + chunk.length() + " LAST\r\n" + chunk
+            + "NOOP\r\n";
+
+        OutputStream out = client.getOutputStream();
+        out.write(commands.getBytes());
+        out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        String line = in.readLine();
+        while (!line.startsWith("250 ")) {
+            line = in.readLine();
+        }
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("MAIL FROM accepted")
+            .isEqualTo(250);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("RCPT TO accepted")
+            .isEqualTo(250);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("expected 552 error")
+            .isEqualTo(552);
+        assertThat(Integer.parseInt(in.readLine().split(" ")[0]))
+            .as("chunk consumed")
+            .isEqualTo(250);
+        in.close();
+        out.close();
+        client.close();
+
+        assertThat(queue.getLastMail()).isNull();
+    }
+
     @Test
     public void testRejectAllRCPTPipelining() throws Exception {
         StringBuilder buf = new StringBuilder();
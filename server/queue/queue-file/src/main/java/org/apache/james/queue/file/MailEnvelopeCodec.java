@@ -0,0 +1,157 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+
+/**
+ * Binary encoding of the envelope of a {@link Mail}, which means everything but the message itself.
+ * <p/>
+ * The fields are written one after the other, strings as length prefixed UTF-8. Only the attributes need Java
+ * serialization, and they are skipped completely when the {@link Mail} has none.
+ */
+final class MailEnvelopeCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte VERSION = 1;
+    private static final int NULL = -1;
+
+    private MailEnvelopeCodec() {
+    }
+
+    public static byte[] encode(Mail mail) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeString(out, mail.getName());
+        writeString(out, mail.getSender() == null ? null : mail.getSender().toString());
+        Collection<MailAddress> recipients = mail.getRecipients();
+        if (recipients == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(recipients.size());
+            for (MailAddress recipient : recipients) {
+                writeString(out, recipient.toString());
+            }
+        }
+        writeString(out, mail.getState());
+        writeString(out, mail.getErrorMessage());
+        writeString(out, mail.getRemoteHost());
+        writeString(out, mail.getRemoteAddr());
+        Date lastUpdated = mail.getLastUpdated();
+        out.writeLong(lastUpdated == null ? NULL : lastUpdated.getTime());
+        out.writeBoolean(mail.hasAttributes());
+        if (mail.hasAttributes()) {
+            HashMap<String, Serializable> attributes = new HashMap<String, Serializable>();
+            Iterator<String> names = mail.getAttributeNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                attributes.put(name, mail.getAttribute(name));
+            }
+            ObjectOutputStream oout = new ObjectOutputStream(out);
+            oout.writeObject(attributes);
+            oout.flush();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the envelope stored in the remaining content of the given {@link ByteBuffer}. The returned {@link Mail}
+     * has no message set.
+     */
+    @SuppressWarnings("unchecked")
+    public static MailImpl decode(ByteBuffer buffer) throws IOException, MessagingException {
+        ByteBuffer in = buffer.duplicate();
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported envelope version " + version);
+        }
+        String name = readString(in);
+        String sender = readString(in);
+        int recipientCount = in.getInt();
+        List<MailAddress> recipients = null;
+        if (recipientCount != NULL) {
+            recipients = new ArrayList<MailAddress>(recipientCount);
+            for (int i = 0; i < recipientCount; i++) {
+                recipients.add(new MailAddress(readString(in)));
+            }
+        }
+        MailImpl mail = new MailImpl(name, sender == null ? null : new MailAddress(sender), recipients);
+        mail.setState(readString(in));
+        mail.setErrorMessage(readString(in));
+        mail.setRemoteHost(readString(in));
+        mail.setRemoteAddr(readString(in));
+        long lastUpdated = in.getLong();
+        mail.setLastUpdated(lastUpdated == NULL ? null : new Date(lastUpdated));
+        if (in.get() != 0) {
+            ObjectInputStream oin = new ObjectInputStream(new ByteBufferInputStream(in));
+            try {
+                Map<String, Serializable> attributes = (Map<String, Serializable>) oin.readObject();
+                for (Map.Entry<String, Serializable> attribute : attributes.entrySet()) {
+                    mail.setAttribute(attribute.getKey(), attribute.getValue());
+                }
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to read the attributes of " + name + ": " + e.getMessage());
+            }
+        }
+        return mail;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
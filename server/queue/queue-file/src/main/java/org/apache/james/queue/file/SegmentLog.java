@@ -0,0 +1,533 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+
+/**
+ * Append-only log of records stored in memory-mapped segment files.
+ * <p/>
+ * Each record is addressed by its position, which is the offset of the segment it belongs to plus its offset in
+ * the segment. Segment files are named after their offset and have a fixed size, except when a record does not fit
+ * in it. A record is laid out as:
+ * 
+ * <pre>
+ * int   length of the body
+ * int   CRC32 of the body
+ * body: byte   type
+ *       long   next delivery time
+ *       short  key length, followed by the UTF-8 key
+ *       int    envelope length, followed by the envelope and the message (enqueue records only)
+ * </pre>
+ * 
+ * The log keeps track of how many bytes of each segment are still referenced by enqueue records, so that the oldest
+ * segment can be deleted once it is not needed anymore. Segments are only ever deleted from the head of the log,
+ * which makes sure a record acknowledging an enqueue never outlives the enqueue itself.
+ * <p/>
+ * Appends are serialized, while {@link #sync(long)} forces the segments outside of the append lock. Concurrent
+ * callers of {@link #sync(long)} share a single <code>fsync</code> for all the records appended before it started.
+ */
+final class SegmentLog {
+
+    public static final byte ENQUEUE = 1;
+    public static final byte ACK = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_KEY_LENGTH = 0xFFFF;
+
+    private final File dir;
+    private final int segmentSize;
+    private final Logger log;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+    private final Object syncLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[8192];
+    private Segment active;
+    private volatile long writePosition;
+    // guarded by syncLock
+    private long syncedPosition;
+
+    public SegmentLog(File dir, int segmentSize, Logger log) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.log = log;
+    }
+
+    /**
+     * Map the existing segments
+     * 
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        FileUtils.forceMkdir(dir);
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        for (String name : names) {
+            long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+            File file = new File(dir, name);
+            segments.put(base, new Segment(base, file, map(file, (int) file.length())));
+        }
+    }
+
+    /**
+     * Pass all valid records, starting at the given position, to the {@link RecordHandler}. Appends will continue
+     * after the last valid record of the last segment, a partially written record at the end of the log is dropped.
+     * 
+     * @param from position of the first record to read
+     * @param handler
+     * @throws IOException
+     */
+    public synchronized void recover(long from, RecordHandler handler) throws IOException {
+        for (Segment segment : segments.values()) {
+            int offset = 0;
+            if (from > segment.base) {
+                offset = (int) Math.min(from - segment.base, segment.buffer.capacity());
+            }
+            offset = recover(segment, offset, handler);
+            active = segment;
+            writePosition = segment.base + offset;
+        }
+        syncedPosition = writePosition;
+    }
+
+    /**
+     * Read the records of the given segment starting at the given offset, and return the offset following the last
+     * valid one
+     */
+    private int recover(Segment segment, int offset, RecordHandler handler) throws IOException {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        while (offset + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                // Nothing was written after this offset
+                break;
+            }
+            if (length < 0 || offset + HEADER_SIZE + length > buffer.capacity() || buffer.getInt(offset + 4) != checksum(buffer, offset + HEADER_SIZE, length)) {
+                log.warn("Dropping invalid content of queue segment " + segment.file + " starting at offset " + offset);
+                // Make sure what is left of it can not be mistaken for records once new ones are appended
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            Record record = new Record(segment.base + offset, buffer, offset);
+            if (record.getType() == ENQUEUE) {
+                segment.liveBytes += record.getSize();
+            }
+            handler.onRecord(record);
+            offset += record.getSize();
+        }
+        return offset;
+    }
+
+    /**
+     * Append an enqueue record, and return its position
+     */
+    public synchronized long appendEnqueue(String key, long nextDelivery, byte[] envelope, ByteArrayOutputStream message) throws IOException {
+        byte[] keyBytes = encodeKey(key);
+        int length = 1 + 8 + 2 + keyBytes.length + 4 + envelope.length + message.size();
+        BodyWriter writer = prepare(length);
+        writer.writeHeader(ENQUEUE, nextDelivery, keyBytes);
+        writer.writeInt(envelope.length);
+        writer.write(envelope);
+        message.writeTo(writer);
+        long position = writer.complete();
+        active.liveBytes += HEADER_SIZE + length;
+        return position;
+    }
+
+    /**
+     * Append a record acknowledging the enqueue record with the given key, and return its position
+     */
+    public synchronized long appendAck(String key) throws IOException {
+        byte[] keyBytes = encodeKey(key);
+        BodyWriter writer = prepare(1 + 8 + 2 + keyBytes.length);
+        writer.writeHeader(ACK, 0, keyBytes);
+        return writer.complete();
+    }
+
+    /**
+     * Append a copy of the record stored at the given position, and return the position of the copy
+     */
+    public synchronized long copy(long position) throws IOException {
+        Record record = read(position);
+        ByteBuffer content = record.buffer.duplicate();
+        content.limit(record.offset + record.getSize());
+        content.position(record.offset);
+        BodyWriter writer = prepare(record.getSize() - HEADER_SIZE);
+        writer.buffer.position(writer.offset);
+        writer.buffer.put(content);
+        long copy = writer.position;
+        writePosition += record.getSize();
+        if (record.getType() == ENQUEUE) {
+            active.liveBytes += record.getSize();
+        }
+        return copy;
+    }
+
+    /**
+     * Mark the enqueue record stored at the given position as referenced. This is only needed for records which
+     * were not read by {@link #recover(long, RecordHandler)}.
+     */
+    public synchronized void retain(long position) {
+        Segment segment = segmentOf(position);
+        if (segment != null) {
+            segment.liveBytes += HEADER_SIZE + segment.buffer.getInt((int) (position - segment.base));
+        }
+    }
+
+    /**
+     * Mark the enqueue record stored at the given position as not referenced anymore
+     */
+    public synchronized void release(long position) {
+        Segment segment = segmentOf(position);
+        if (segment != null) {
+            segment.liveBytes -= HEADER_SIZE + segment.buffer.getInt((int) (position - segment.base));
+        }
+    }
+
+    /**
+     * Read the record stored at the given position
+     */
+    public Record read(long position) throws IOException {
+        Segment segment = segmentOf(position);
+        if (segment == null) {
+            throw new IOException("No queue segment contains position " + position);
+        }
+        return new Record(position, segment.buffer.duplicate(), (int) (position - segment.base));
+    }
+
+    /**
+     * Make sure the record stored at the given position, and all records before it, are written to disk. This
+     * forces all the records appended so far, so concurrent callers share a single write.
+     */
+    public void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (position < syncedPosition) {
+                return;
+            }
+            force();
+        }
+    }
+
+    /**
+     * Write all appended records to disk
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            force();
+        }
+    }
+
+    private void force() {
+        long target = writePosition;
+        for (Segment segment : segments.values()) {
+            if (segment.end() > syncedPosition && segment.base < target) {
+                segment.buffer.force();
+            }
+        }
+        syncedPosition = target;
+    }
+
+    /**
+     * Return the position following the last appended record
+     */
+    public long getPosition() {
+        return writePosition;
+    }
+
+    /**
+     * Return the position of the first record of the log
+     */
+    public long getStartPosition() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        return first == null ? writePosition : first.getKey();
+    }
+
+    /**
+     * Return the position range of the oldest segment if it can be removed from the log, or <code>null</code>. This
+     * is the case when less than half of it is still referenced, after copying its remaining enqueue records to the
+     * end of the log.
+     */
+    public synchronized long[] getCompactableRange() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        if (first == null || first.getValue() == active) {
+            return null;
+        }
+        Segment head = first.getValue();
+        if (head.liveBytes * 2 >= head.buffer.capacity()) {
+            return null;
+        }
+        return new long[] { head.base, head.end() };
+    }
+
+    /**
+     * Delete the oldest segment. All its remaining enqueue records need to be copied first.
+     */
+    public synchronized void deleteHead() throws IOException {
+        // The copies must be on disk before the originals go away
+        sync();
+        Map.Entry<Long, Segment> first = segments.pollFirstEntry();
+        if (first != null && !first.getValue().file.delete()) {
+            log.warn("Unable to delete queue segment " + first.getValue().file);
+        }
+    }
+
+    /**
+     * Return the number of segments of the log
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private Segment segmentOf(long position) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+        if (entry == null || position >= entry.getValue().end()) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Make room for a record with the given body length in the active segment, and return a {@link BodyWriter} for it
+     */
+    private BodyWriter prepare(int length) throws IOException {
+        int size = HEADER_SIZE + length;
+        if (active == null || writePosition + size > active.end()) {
+            long base = active == null ? writePosition : active.end();
+            File file = new File(dir, String.format("%020d%s", base, SEGMENT_EXTENSION));
+            Segment segment = new Segment(base, file, map(file, Math.max(segmentSize, size)));
+            segments.put(base, segment);
+            active = segment;
+            writePosition = base;
+        }
+        return new BodyWriter(writePosition, active.buffer.duplicate(), (int) (writePosition - active.base), length);
+    }
+
+    private MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid once the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private byte[] encodeKey(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IOException("Key too long: " + key);
+        }
+        return keyBytes;
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length);
+        body.position(offset);
+        crc.reset();
+        while (body.hasRemaining()) {
+            int count = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Callback used while recovering the log
+     */
+    public interface RecordHandler {
+
+        void onRecord(Record record) throws IOException;
+    }
+
+    /**
+     * View over a record stored in the log
+     */
+    public static final class Record {
+
+        private final long position;
+        private final ByteBuffer buffer;
+        private final int offset;
+
+        private Record(long position, ByteBuffer buffer, int offset) {
+            this.position = position;
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public int getSize() {
+            return HEADER_SIZE + buffer.getInt(offset);
+        }
+
+        public byte getType() {
+            return buffer.get(offset + HEADER_SIZE);
+        }
+
+        public long getNextDelivery() {
+            return buffer.getLong(offset + HEADER_SIZE + 1);
+        }
+
+        public String getKey() {
+            byte[] key = new byte[getKeyLength()];
+            ByteBuffer content = buffer.duplicate();
+            content.position(offset + HEADER_SIZE + 1 + 8 + 2);
+            content.get(key);
+            return new String(key, UTF_8);
+        }
+
+        /**
+         * Return the envelope of an enqueue record
+         */
+        public ByteBuffer getEnvelope() {
+            int start = envelopeOffset();
+            return slice(start + 4, buffer.getInt(start));
+        }
+
+        /**
+         * Return the message of an enqueue record
+         */
+        public ByteBuffer getMessage() {
+            int start = envelopeOffset();
+            int messageStart = start + 4 + buffer.getInt(start);
+            return slice(messageStart, offset + getSize() - messageStart);
+        }
+
+        private int getKeyLength() {
+            return buffer.getShort(offset + HEADER_SIZE + 1 + 8) & MAX_KEY_LENGTH;
+        }
+
+        private int envelopeOffset() {
+            return offset + HEADER_SIZE + 1 + 8 + 2 + getKeyLength();
+        }
+
+        private ByteBuffer slice(int start, int length) {
+            ByteBuffer content = buffer.duplicate();
+            content.limit(start + length);
+            content.position(start);
+            return content.slice().asReadOnlyBuffer();
+        }
+    }
+
+    private static final class Segment {
+
+        private final long base;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private long liveBytes;
+
+        private Segment(long base, File file, MappedByteBuffer buffer) {
+            this.base = base;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private long end() {
+            return base + buffer.capacity();
+        }
+    }
+
+    /**
+     * {@link OutputStream} writing the body of a record into a segment, while computing its checksum
+     */
+    private final class BodyWriter extends OutputStream {
+
+        private final long position;
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private final byte[] scratch = new byte[8];
+
+        private BodyWriter(long position, ByteBuffer buffer, int offset, int length) {
+            this.position = position;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            buffer.position(offset + HEADER_SIZE);
+            crc.reset();
+        }
+
+        private void writeHeader(byte type, long nextDelivery, byte[] key) throws IOException {
+            write(type);
+            ByteBuffer.wrap(scratch).putLong(nextDelivery);
+            write(scratch, 0, 8);
+            ByteBuffer.wrap(scratch).putShort((short) key.length);
+            write(scratch, 0, 2);
+            write(key);
+        }
+
+        private void writeInt(int value) throws IOException {
+            ByteBuffer.wrap(scratch).putInt(value);
+            write(scratch, 0, 4);
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+            crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        /**
+         * Write the length and the checksum of the record, and return its position
+         */
+        private long complete() throws IOException {
+            if (buffer.position() != offset + HEADER_SIZE + length) {
+                throw new IOException("Record length mismatch at position " + position);
+            }
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            buffer.putInt(offset, length);
+            writePosition = position + HEADER_SIZE + length;
+            return position;
+        }
+    }
+}
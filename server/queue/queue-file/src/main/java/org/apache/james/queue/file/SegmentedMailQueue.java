@@ -0,0 +1,543 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import javax.mail.MessagingException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.core.MailImpl;
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.queue.api.MailQueueItemDecoratorFactory;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.slf4j.Logger;
+
+/**
+ * {@link ManageableMailQueue} implementation which stores the {@link Mail}'s in an append-only {@link SegmentLog}.
+ * <p/>
+ * Enqueuing a {@link Mail} appends a single record holding its envelope and its message, and dequeuing it
+ * successfully appends a small acknowledge record. When <code>sync</code> is enabled, concurrent enqueues share
+ * the <code>fsync</code> of the log. The oldest segments are deleted, or compacted, once their mails were
+ * delivered.
+ * <p/>
+ * The position and the next delivery time of the pending mails are kept in memory, ordered by next delivery time.
+ * On {@link #dispose()} they are written to an index file, so that the next startup only needs to read it and the
+ * records appended after it was written. Without a valid index the whole log is read instead.
+ */
+public class SegmentedMailQueue implements ManageableMailQueue, Disposable {
+
+    private final static String SEGMENTS_DIR = "segments";
+    private final static String INDEX_FILE = "queue.index";
+    private final static int INDEX_VERSION = 1;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final DelayQueue<Entry> delayIndex = new DelayQueue<Entry>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final MailQueueItemDecoratorFactory mailQueueItemDecoratorFactory;
+    private final File queueDir;
+    private final boolean sync;
+    private final Logger log;
+    private final SegmentLog segmentLog;
+
+    public SegmentedMailQueue(MailQueueItemDecoratorFactory mailQueueItemDecoratorFactory, File parentDir, String queuename, boolean sync, int segmentSize, Logger log) throws IOException {
+        this.mailQueueItemDecoratorFactory = mailQueueItemDecoratorFactory;
+        this.queueDir = new File(parentDir, queuename);
+        this.sync = sync;
+        this.log = log;
+        this.segmentLog = new SegmentLog(new File(queueDir, SEGMENTS_DIR), segmentSize, log);
+        init();
+    }
+
+    private void init() throws IOException {
+        segmentLog.open();
+        long from = readIndex();
+        segmentLog.recover(from, new SegmentLog.RecordHandler() {
+
+            @Override
+            public void onRecord(SegmentLog.Record record) {
+                String key = record.getKey();
+                Entry previous;
+                if (record.getType() == SegmentLog.ENQUEUE) {
+                    // A record copied by the compaction replaces the original one
+                    previous = entries.put(key, new Entry(key, record.getPosition(), record.getNextDelivery(), sequence.incrementAndGet()));
+                } else {
+                    previous = entries.remove(key);
+                }
+                if (previous != null) {
+                    segmentLog.release(previous.position);
+                }
+            }
+        });
+        for (Entry entry : entries.values()) {
+            delayIndex.add(entry);
+        }
+        compact();
+    }
+
+    /**
+     * Load the entries stored in the index file, and return the position of the first record which was appended
+     * after it was written
+     */
+    private long readIndex() {
+        File index = new File(queueDir, INDEX_FILE);
+        if (!index.exists()) {
+            return 0;
+        }
+        List<Entry> loaded = new ArrayList<Entry>();
+        long position;
+        CRC32 crc = new CRC32();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(index)), crc));
+            if (in.readInt() != INDEX_VERSION) {
+                throw new IOException("Unsupported index version");
+            }
+            position = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                loaded.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), i));
+            }
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the index of queue " + queueDir + ", reading the whole queue instead", e);
+            return 0;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        long start = segmentLog.getStartPosition();
+        for (Entry entry : loaded) {
+            // Entries of deleted segments were either delivered or copied after the index was written
+            if (entry.position >= start) {
+                entry.sequence = sequence.incrementAndGet();
+                entries.put(entry.key, entry);
+                segmentLog.retain(entry.position);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Write the pending entries to the index file, in enqueue order
+     */
+    private void writeIndex() throws IOException {
+        segmentLog.sync();
+        List<Entry> pending = new ArrayList<Entry>(entries.values());
+        Collections.sort(pending, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+            }
+        });
+
+        File tmp = new File(queueDir, INDEX_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        FileOutputStream fout = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fout), crc));
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(segmentLog.getPosition());
+            out.writeInt(pending.size());
+            for (Entry entry : pending) {
+                out.writeUTF(entry.key);
+                out.writeLong(entry.position);
+                out.writeLong(entry.nextDelivery);
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            fout.getFD().sync();
+        } finally {
+            IOUtils.closeQuietly(fout);
+        }
+        FileUtils.deleteQuietly(new File(queueDir, INDEX_FILE));
+        if (!tmp.renameTo(new File(queueDir, INDEX_FILE))) {
+            throw new IOException("Unable to write the index of queue " + queueDir);
+        }
+    }
+
+    @Override
+    public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+        // The log outlives the process: the key must not clash with the keys of the mails enqueued before a restart
+        final String key = mail.getName() + "-" + UUID.randomUUID();
+        long nextDelivery = System.currentTimeMillis();
+        if (delay > 0) {
+            nextDelivery += unit.toMillis(delay);
+        }
+        try {
+            byte[] envelope = MailEnvelopeCodec.encode(mail);
+            ByteArrayOutputStream message = new ByteArrayOutputStream((int) Math.min(Math.max(mail.getMessageSize(), 1024), Integer.MAX_VALUE));
+            mail.getMessage().writeTo(message);
+
+            Entry entry;
+            // The entry needs to be known before the compaction runs again
+            synchronized (segmentLog) {
+                long position = segmentLog.appendEnqueue(key, nextDelivery, envelope, message);
+                entry = new Entry(key, position, nextDelivery, sequence.incrementAndGet());
+                entries.put(key, entry);
+            }
+            if (sync) {
+                segmentLog.sync(entry.position);
+            }
+            delayIndex.put(entry);
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        }
+    }
+
+    @Override
+    public void enQueue(Mail mail) throws MailQueueException {
+        enQueue(mail, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public MailQueueItem deQueue() throws MailQueueException {
+        try {
+            Entry next;
+            do {
+                next = delayIndex.take();
+                // Skip the entries removed while waiting
+            } while (entries.get(next.key) != next);
+
+            final Entry entry = next;
+            final Mail mail;
+            boolean read = false;
+            try {
+                mail = readMail(entry);
+                read = true;
+            } finally {
+                if (!read && entries.get(entry.key) == entry) {
+                    // Keep the entry deliverable, it was only taken out of the delay index
+                    delayIndex.put(entry);
+                }
+            }
+            MailQueueItem segmentMailQueueItem = new MailQueueItem() {
+
+                @Override
+                public Mail getMail() {
+                    return mail;
+                }
+
+                @Override
+                public void done(boolean success) throws MailQueueException {
+                    if (success) {
+                        acknowledge(entry);
+                    } else if (entries.get(entry.key) == entry) {
+                        delayIndex.put(entry);
+                    }
+                    LifecycleUtil.dispose(mail);
+                }
+            };
+            return mailQueueItemDecoratorFactory.decorate(segmentMailQueueItem);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailQueueException("Unable to dequeue", e);
+        }
+    }
+
+    private Mail readMail(Entry entry) throws MailQueueException {
+        try {
+            SegmentLog.Record record = readRecord(entry);
+            MailImpl mail = MailEnvelopeCodec.decode(record.getEnvelope());
+            mail.setMessage(new MimeMessageCopyOnWriteProxy(new SegmentMimeMessageSource(entry.key, record.getMessage())));
+            return mail;
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to read mail " + entry.key, e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to read mail " + entry.key, e);
+        }
+    }
+
+    /**
+     * Read the record of the given entry under the lock held by {@link #compact()}, which moves records and deletes
+     * the segments they were read from. The returned record stays readable once its segment is deleted.
+     */
+    private SegmentLog.Record readRecord(Entry entry) throws IOException {
+        synchronized (segmentLog) {
+            return segmentLog.read(entry.position);
+        }
+    }
+
+    /**
+     * Remove the given entry, and record it in the log if it was still pending
+     */
+    private boolean acknowledge(Entry entry) throws MailQueueException {
+        if (!entries.remove(entry.key, entry)) {
+            return false;
+        }
+        try {
+            synchronized (segmentLog) {
+                segmentLog.appendAck(entry.key);
+                segmentLog.release(entry.position);
+            }
+            compact();
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to remove mail " + entry.key, e);
+        }
+        return true;
+    }
+
+    /**
+     * Delete the oldest segments while they are mostly unused, copying the entries still stored in them to the end
+     * of the log
+     */
+    private void compact() throws IOException {
+        synchronized (segmentLog) {
+            long[] range;
+            while ((range = segmentLog.getCompactableRange()) != null) {
+                for (Entry entry : entries.values()) {
+                    if (entry.position >= range[0] && entry.position < range[1]) {
+                        entry.position = segmentLog.copy(entry.position);
+                    }
+                }
+                segmentLog.deleteHead();
+            }
+        }
+    }
+
+    @Override
+    public long getSize() throws MailQueueException {
+        return entries.size();
+    }
+
+    @Override
+    public long flush() throws MailQueueException {
+        long now = System.currentTimeMillis();
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.nextDelivery > now && delayIndex.remove(entry)) {
+                entry.nextDelivery = now;
+                delayIndex.put(entry);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long clear() throws MailQueueException {
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            if (acknowledge(entry)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long remove(Type type, String value) throws MailQueueException {
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            if (matches(readEnvelope(entry), type, value) && acknowledge(entry)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean matches(Mail mail, Type type, String value) {
+        switch (type) {
+            case Name:
+                return value.equals(mail.getName());
+            case Sender:
+                return mail.getSender() != null && value.equals(mail.getSender().toString());
+            case Recipient:
+                for (MailAddress recipient : mail.getRecipients()) {
+                    if (value.equals(recipient.toString())) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private Mail readEnvelope(Entry entry) throws MailQueueException {
+        try {
+            return MailEnvelopeCodec.decode(readRecord(entry).getEnvelope());
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to read mail " + entry.key, e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to read mail " + entry.key, e);
+        }
+    }
+
+    @Override
+    public MailQueueIterator browse() throws MailQueueException {
+        final Iterator<Entry> items = entries.values().iterator();
+        return new MailQueueIterator() {
+            private MailQueueItemView item = null;
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Read-only");
+            }
+
+            @Override
+            public MailQueueItemView next() {
+                if (hasNext()) {
+                    MailQueueItemView vitem = item;
+                    item = null;
+                    return vitem;
+                } else {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (item == null && items.hasNext()) {
+                    final Entry entry = items.next();
+                    try {
+                        final Mail mail = readMail(entry);
+                        item = new MailQueueItemView() {
+
+                            @Override
+                            public long getNextDelivery() {
+                                return entry.nextDelivery;
+                            }
+
+                            @Override
+                            public Mail getMail() {
+                                return mail;
+                            }
+                        };
+                    } catch (MailQueueException e) {
+                        log.info("Unable to load mail", e);
+                    }
+                }
+                return item != null;
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        };
+    }
+
+    /**
+     * Write the index, so the next startup does not need to read the whole log
+     */
+    @Override
+    public void dispose() {
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            log.error("Unable to write the index of queue " + queueDir, e);
+        }
+    }
+
+    /**
+     * Pending mail, ordered by next delivery time and then by enqueue order
+     */
+    private static final class Entry implements Delayed {
+
+        private final String key;
+        private volatile long position;
+        private volatile long nextDelivery;
+        private long sequence;
+
+        private Entry(String key, long position, long nextDelivery, long sequence) {
+            this.key = key;
+            this.position = position;
+            this.nextDelivery = nextDelivery;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextDelivery - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Entry other = (Entry) o;
+            if (nextDelivery != other.nextDelivery) {
+                return nextDelivery < other.nextDelivery ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static final class SegmentMimeMessageSource extends MimeMessageSource {
+
+        private final String sourceId;
+        private final ByteBuffer content;
+
+        public SegmentMimeMessageSource(String sourceId, ByteBuffer content) {
+            this.sourceId = sourceId;
+            this.content = content;
+        }
+
+        @Override
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteBufferInputStream(content.duplicate());
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return content.remaining();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.lifecycle.api.LogEnabled;
+import org.apache.james.queue.api.MailQueueItemDecoratorFactory;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.queue.api.MailQueueFactory;
+import org.slf4j.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link MailQueueFactory} implementation which returns {@link SegmentedMailQueue} instances
+ */
+public class SegmentedMailQueueFactory implements MailQueueFactory, LogEnabled {
+
+    private final Map<String, MailQueue> queues = new HashMap<String, MailQueue>();
+    private MailQueueItemDecoratorFactory mailQueueActionItemDecoratorFactory;
+    private FileSystem fs;
+    private Logger log;
+    private boolean sync = true;
+    private int segmentSize = 64 * 1024 * 1024;
+
+    @Inject
+    public SegmentedMailQueueFactory(FileSystem fs, MailQueueItemDecoratorFactory mailQueueItemDecoratorFactory) {
+        this.fs = fs;
+        this.mailQueueActionItemDecoratorFactory = mailQueueItemDecoratorFactory;
+    }
+
+    /**
+     * If <code>true</code> each {@link SegmentedMailQueue#enQueue(org.apache.mailet.Mail)} call returns once the
+     * mail was written to disk. Concurrent calls share the same <code>fsync</code>.
+     * <p/>
+     * The default is <code>true</code>
+     *
+     * @param sync
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Set the size in bytes of the segment files. Bigger mails get a segment of their own.
+     * <p/>
+     * The default is 64 MB
+     *
+     * @param segmentSize
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public MailQueue getQueue(String name) {
+        synchronized (queues) {
+            MailQueue queue = queues.get(name);
+            if (queue == null) {
+                try {
+                    queue = new SegmentedMailQueue(mailQueueActionItemDecoratorFactory, fs.getFile("file://var/store/segmentedqueue"), name, sync, segmentSize, log);
+                    queues.put(name, queue);
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to access queue " + name, e);
+                }
+            }
+            return queue;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        synchronized (queues) {
+            for (MailQueue queue : queues.values()) {
+                LifecycleUtil.dispose(queue);
+            }
+            queues.clear();
+        }
+    }
+
+    @Override
+    public void setLog(Logger log) {
+        this.log = log;
+    }
+
+}
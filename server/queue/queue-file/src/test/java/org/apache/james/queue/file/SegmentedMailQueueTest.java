@@ -0,0 +1,356 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.ManageableMailQueue.MailQueueIterator;
+import org.apache.james.queue.api.RawMailQueueItemDecoratorFactory;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SegmentedMailQueueTest {
+
+    private static final String QUEUE_NAME = "test";
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File parentDir;
+    private SegmentedMailQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        parentDir = folder.getRoot();
+        queue = createQueue();
+    }
+
+    private SegmentedMailQueue createQueue() throws IOException {
+        Logger log = LoggerFactory.getLogger(SegmentedMailQueueTest.class);
+        return new SegmentedMailQueue(new RawMailQueueItemDecoratorFactory(), parentDir, QUEUE_NAME, true, SEGMENT_SIZE, log);
+    }
+
+    @Test
+    public void testFIFO() throws Exception {
+        Mail mail = createMail("mail1");
+        Mail mail2 = createMail("mail2");
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        assertEquals(2, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(false);
+
+        // ok we should get the same email again
+        assertEquals(2, queue.getSize());
+        MailQueueItem item2 = queue.deQueue();
+        checkMail(mail, item2.getMail());
+        item2.done(true);
+
+        assertEquals(1, queue.getSize());
+        MailQueueItem item3 = queue.deQueue();
+        checkMail(mail2, item3.getMail());
+        item3.done(true);
+
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testDelayedMailIsDequeuedAfterImmediateOnes() throws Exception {
+        Mail delayed = createMail("delayed");
+        Mail mail = createMail("mail");
+        queue.enQueue(delayed, 1, TimeUnit.HOURS);
+        queue.enQueue(mail);
+        assertEquals(2, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(true);
+
+        assertEquals(1, queue.flush());
+        MailQueueItem item2 = queue.deQueue();
+        checkMail(delayed, item2.getMail());
+        item2.done(true);
+    }
+
+    @Test
+    public void testPendingMailsAreRecoveredFromTheIndex() throws Exception {
+        Mail mail = createMail("mail1");
+        Mail mail2 = createMail("mail2");
+        Mail mail3 = createMail("mail3");
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.enQueue(mail3);
+        queue.deQueue().done(true);
+        queue.dispose();
+        assertTrue(new File(new File(parentDir, QUEUE_NAME), "queue.index").exists());
+
+        queue = createQueue();
+        assertEquals(2, queue.getSize());
+        checkDequeue(mail2);
+        checkDequeue(mail3);
+    }
+
+    @Test
+    public void testPendingMailsAreRecoveredWithoutIndex() throws Exception {
+        Mail mail = createMail("mail1");
+        Mail mail2 = createMail("mail2");
+        Mail mail3 = createMail("mail3");
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.enQueue(mail3);
+        queue.deQueue().done(true);
+
+        queue = createQueue();
+        assertEquals(2, queue.getSize());
+        checkDequeue(mail2);
+        checkDequeue(mail3);
+    }
+
+    @Test
+    public void testRecordsAppendedAfterTheIndexAreRecovered() throws Exception {
+        Mail mail = createMail("mail1");
+        Mail mail2 = createMail("mail2");
+        Mail mail3 = createMail("mail3");
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.dispose();
+
+        queue = createQueue();
+        queue.deQueue().done(true);
+        queue.enQueue(mail3);
+
+        queue = createQueue();
+        assertEquals(2, queue.getSize());
+        checkDequeue(mail2);
+        checkDequeue(mail3);
+    }
+
+    @Test
+    public void testMailsWithTheSameNameAreKeptAcrossRestarts() throws Exception {
+        Mail mail = createMail("mail");
+        queue.enQueue(mail);
+        queue.dispose();
+
+        queue = createQueue();
+        Mail mail2 = createMail("mail");
+        mail2.setAttribute("attribute", "value of the second mail");
+        queue.enQueue(mail2);
+
+        queue = createQueue();
+        assertEquals(2, queue.getSize());
+        checkDequeue(mail);
+        checkDequeue(mail2);
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDropped() throws Exception {
+        Mail mail = createMail("mail1");
+        Mail mail2 = createMail("mail2");
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        corrupt("body of mail2");
+
+        queue = createQueue();
+        assertEquals(1, queue.getSize());
+        Mail mail3 = createMail("mail3");
+        queue.enQueue(mail3);
+
+        queue = createQueue();
+        assertEquals(2, queue.getSize());
+        checkDequeue(mail);
+        checkDequeue(mail3);
+    }
+
+    @Test
+    public void testDeliveredSegmentsAreDeleted() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            queue.enQueue(createMail("mail" + i));
+        }
+        assertTrue(segmentFiles().length > 5);
+        for (int i = 0; i < 50; i++) {
+            queue.deQueue().done(true);
+        }
+        assertTrue(segmentFiles().length <= 2);
+    }
+
+    @Test
+    public void testPendingMailsAreCopiedOutOfOldSegments() throws Exception {
+        Mail delayed = createMail("delayed");
+        queue.enQueue(delayed, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 50; i++) {
+            queue.enQueue(createMail("mail" + i));
+            queue.deQueue().done(true);
+        }
+        assertTrue(segmentFiles().length <= 2);
+        assertEquals(1, queue.getSize());
+        queue.dispose();
+
+        queue = createQueue();
+        assertEquals(1, queue.getSize());
+        assertEquals(1, queue.flush());
+        checkDequeue(delayed);
+    }
+
+    @Test
+    public void testConcurrentEnqueuesAreAllStored() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 4; i++) {
+            final int thread = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < 25; j++) {
+                        queue.enQueue(createMail("mail" + thread + "-" + j));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        queue = createQueue();
+        assertEquals(100, queue.getSize());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        Mail mail = createMail("mail1");
+        MailImpl mail2 = createMail("mail2");
+        mail2.setSender(new MailAddress("other@localhost"));
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+        queue.enQueue(createMail("mail3"));
+
+        assertEquals(1, queue.remove(ManageableMailQueue.Type.Name, "mail1"));
+        assertEquals(1, queue.remove(ManageableMailQueue.Type.Sender, "other@localhost"));
+        assertEquals(0, queue.remove(ManageableMailQueue.Type.Recipient, "unknown@localhost"));
+        assertEquals(1, queue.getSize());
+        assertEquals(1, queue.clear());
+        assertEquals(0, queue.getSize());
+
+        queue = createQueue();
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testBrowse() throws Exception {
+        Mail mail = createMail("mail1");
+        queue.enQueue(mail);
+
+        MailQueueIterator it = queue.browse();
+        assertTrue(it.hasNext());
+        checkMail(mail, it.next().getMail());
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    private void checkDequeue(Mail expected) throws Exception {
+        MailQueueItem item = queue.deQueue();
+        checkMail(expected, item.getMail());
+        item.done(true);
+    }
+
+    private MailImpl createMail(String name) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setSubject("subject of " + name);
+        message.setText("body of " + name);
+        message.saveChanges();
+        MailImpl mail = new MailImpl(name, new MailAddress("sender@localhost"), Arrays.asList(new MailAddress("rcpt1@localhost"), new MailAddress("rcpt2@localhost")), message);
+        mail.setErrorMessage("error");
+        mail.setRemoteHost("remote.localhost");
+        mail.setAttribute("attribute", "value of " + name);
+        return mail;
+    }
+
+    private void checkMail(Mail expected, Mail mail) throws Exception {
+        assertEquals(expected.getName(), mail.getName());
+        assertEquals(expected.getSender(), mail.getSender());
+        assertEquals(expected.getRecipients(), mail.getRecipients());
+        assertEquals(expected.getState(), mail.getState());
+        assertEquals(expected.getErrorMessage(), mail.getErrorMessage());
+        assertEquals(expected.getRemoteHost(), mail.getRemoteHost());
+        assertEquals(expected.getRemoteAddr(), mail.getRemoteAddr());
+        assertEquals(expected.getLastUpdated(), mail.getLastUpdated());
+        assertEquals(expected.getAttribute("attribute"), mail.getAttribute("attribute"));
+        assertEquals(expected.getMessage().getSubject(), mail.getMessage().getSubject());
+        assertEquals(expected.getMessage().getContent(), mail.getMessage().getContent());
+    }
+
+    private File[] segmentFiles() {
+        return new File(new File(parentDir, QUEUE_NAME), "segments").listFiles();
+    }
+
+    /**
+     * Flip a byte of the given content in the segment files, like a write interrupted by a crash would do
+     */
+    private void corrupt(String content) throws IOException {
+        for (File segment : segmentFiles()) {
+            String data = FileUtils.readFileToString(segment, "ISO-8859-1");
+            int index = data.indexOf(content);
+            if (index >= 0) {
+                RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+                try {
+                    raf.seek(index);
+                    raf.write('X');
+                } finally {
+                    raf.close();
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException(content + " not found");
+    }
+}